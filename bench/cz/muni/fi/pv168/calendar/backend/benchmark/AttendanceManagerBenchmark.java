@@ -0,0 +1,345 @@
+package cz.muni.fi.pv168.calendar.backend.benchmark;
+
+import cz.muni.fi.pv168.calendar.backend.Attendance;
+import cz.muni.fi.pv168.calendar.backend.AttendanceConflict;
+import cz.muni.fi.pv168.calendar.backend.Event;
+import cz.muni.fi.pv168.calendar.backend.ICalendarExporter;
+import cz.muni.fi.pv168.calendar.backend.ICalendarImporter;
+import cz.muni.fi.pv168.calendar.backend.Person;
+import cz.muni.fi.pv168.calendar.backend.ResultHandler;
+import cz.muni.fi.pv168.calendar.backend.Session;
+import cz.muni.fi.pv168.calendar.backend.SlotFinder;
+import cz.muni.fi.pv168.calendar.backend.TimeInterval;
+import cz.muni.fi.pv168.common.IntIntHashMap;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static cz.muni.fi.pv168.calendar.backend.benchmark.EventManagerBenchmark.random;
+
+/**
+ * Benchmarks of AttendanceManagerImpl operations. createAttendanceLoop and 
+ * createAttendances insert the same number of rows, per row and in batches. 
+ * The iCalendar export and import are measured here too.
+ *
+ * @author Jan Smerda, Jiri Stary
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AttendanceManagerBenchmark {
+
+    public static final int BATCH = 100;
+    public static final int PAGE_SIZE = 50;
+    public static final int TEAM_SIZE = 50;
+
+    /**
+     * Attendance created before each invocation of the delete benchmark.
+     */
+    @State(Scope.Thread)
+    public static class AttendanceToDelete {
+        Attendance attendance;
+
+        @Setup(Level.Invocation)
+        public void setUp(BenchmarkDatabase db) {
+            attendance = randomAttendance(db);
+            db.attendanceManager.createAttendance(attendance);
+        }
+    }
+
+    /**
+     * Calendar with the first BATCH hours of seeded events, exported once 
+     * and imported again by every invocation of the import benchmark.
+     */
+    @State(Scope.Thread)
+    public static class CalendarToImport {
+        String calendar;
+
+        @Setup(Level.Trial)
+        public void setUp(BenchmarkDatabase db) throws IOException {
+            StringWriter writer = new StringWriter();
+            new ICalendarExporter(db.eventManager, db.attendanceManager).exportEvents(
+                    new Date(0), new Date(BATCH * BenchmarkDatabase.HOUR), writer);
+            calendar = writer.toString();
+        }
+    }
+
+    @Benchmark
+    public Attendance createAttendance(BenchmarkDatabase db) {
+        Attendance attendance = randomAttendance(db);
+        db.attendanceManager.createAttendance(attendance);
+        return attendance;
+    }
+
+    @Benchmark
+    public List<Attendance> createAttendanceLoop(BenchmarkDatabase db) {
+        List<Attendance> attendances = randomAttendances(db, BATCH);
+        for (Attendance attendance : attendances) {
+            db.attendanceManager.createAttendance(attendance);
+        }
+        return attendances;
+    }
+
+    @Benchmark
+    public List<Attendance> createAttendances(BenchmarkDatabase db) {
+        List<Attendance> attendances = randomAttendances(db, BATCH);
+        db.attendanceManager.createAttendances(attendances);
+        return attendances;
+    }
+
+    @Benchmark
+    public Attendance updateAttendance(BenchmarkDatabase db) {
+        Attendance seeded = db.attendances.get(random(db.attendances.size()));
+        Attendance attendance = db.newAttendance(seeded.getEvent(), seeded.getPerson());
+        attendance.setId(seeded.getId());
+        attendance.setPlannedArrivalTime(new Date(System.currentTimeMillis()));
+        db.attendanceManager.updateAttendance(attendance);
+        return attendance;
+    }
+
+    @Benchmark
+    public void deleteAttendance(BenchmarkDatabase db, AttendanceToDelete toDelete) {
+        db.attendanceManager.deleteAttendance(toDelete.attendance);
+    }
+
+    @Benchmark
+    public Attendance getAttendanceById(BenchmarkDatabase db) {
+        return db.attendanceManager.getAttendanceById(db.attendances.get(random(db.attendances.size())).getId());
+    }
+
+    @Benchmark
+    public List<Attendance> findAllAttendances(BenchmarkDatabase db) {
+        return db.attendanceManager.findAllAttendances();
+    }
+
+    @Benchmark
+    public void findAllAttendancesStreaming(BenchmarkDatabase db, final Blackhole blackhole) {
+        db.attendanceManager.findAllAttendances(new ResultHandler<Attendance>() {
+            @Override
+            public boolean handle(Attendance attendance) {
+                blackhole.consume(attendance);
+                return true;
+            }
+        });
+    }
+
+    @Benchmark
+    public List<Attendance> findAttendancesForEvent(BenchmarkDatabase db) {
+        return db.attendanceManager.findAttendancesForEvent(db.events.get(random(db.volume)));
+    }
+
+    @Benchmark
+    public List<Attendance> findAttendancesForEventPage(BenchmarkDatabase db) {
+        return db.attendanceManager.findAttendancesForEventPage(db.events.get(random(db.volume)), null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<Attendance> findAttendancesForPerson(BenchmarkDatabase db) {
+        return db.attendanceManager.findAttendancesForPerson(db.persons.get(random(db.volume)));
+    }
+
+    /**
+     * Persons attending a page of events, read with their events and persons 
+     * joined.
+     */
+    @Benchmark
+    public int sumPersonIdsEager(BenchmarkDatabase db) {
+        return sumPersonIds(db.attendanceManager.findAttendancesForEvents(randomEventPage(db)));
+    }
+
+    /**
+     * Persons attending a page of events, read without joins in lazy mode.
+     */
+    @Benchmark
+    public int sumPersonIdsLazy(BenchmarkDatabase db) {
+        return sumPersonIds(db.lazyAttendanceManager.findAttendancesForEvents(randomEventPage(db)));
+    }
+
+    /**
+     * Names of persons attending a page of events, lazy references are 
+     * loaded by one batch.
+     */
+    @Benchmark
+    public void readPersonsLazy(BenchmarkDatabase db, Blackhole blackhole) {
+        for (Attendance attendance : db.lazyAttendanceManager.findAttendancesForEvents(randomEventPage(db))) {
+            blackhole.consume(attendance.getPerson().getName());
+        }
+    }
+
+    /**
+     * Names of persons attending a page of events, read event by event, the 
+     * baseline of readPersonsInSession.
+     */
+    @Benchmark
+    public void readPersonsByEvent(BenchmarkDatabase db, Blackhole blackhole) {
+        for (Event event : randomEventPage(db)) {
+            for (Attendance attendance : db.attendanceManager.findAttendancesForEvent(event)) {
+                blackhole.consume(attendance.getPerson().getName());
+            }
+        }
+    }
+
+    /**
+     * Names of persons attending a page of events, read event by event in 
+     * one session, so every person is loaded once.
+     */
+    @Benchmark
+    public void readPersonsInSession(BenchmarkDatabase db, Blackhole blackhole) {
+        Session session = new Session(db.dataSource);
+        try {
+            for (Event event : randomEventPage(db)) {
+                for (Attendance attendance : session.findAttendancesForEvent(event)) {
+                    blackhole.consume(attendance.getPerson().getName());
+                }
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Attendee counts of a page of events by loading attendances of every 
+     * event, the baseline of countAttendancesForEvents.
+     */
+    @Benchmark
+    public int[] countAttendancesByLoading(BenchmarkDatabase db) {
+        List<Event> page = randomEventPage(db);
+        int[] counts = new int[page.size()];
+        for (int i = 0; i < page.size(); i++) {
+            counts[i] = db.attendanceManager.findAttendancesForEvent(page.get(i)).size();
+        }
+        return counts;
+    }
+
+    @Benchmark
+    public IntIntHashMap countAttendancesForEvents(BenchmarkDatabase db) {
+        return db.attendanceManager.countAttendancesForEvents(randomEventPage(db));
+    }
+
+    @Benchmark
+    public IntIntHashMap countAttendancesForEventsByDate(BenchmarkDatabase db) {
+        long start = random(db.volume) * BenchmarkDatabase.HOUR;
+        return db.attendanceManager.countAttendancesForEvents(new Date(start), 
+                new Date(start + PAGE_SIZE * BenchmarkDatabase.HOUR));
+    }
+
+    @Benchmark
+    public List<TimeInterval> getFreeBusy(BenchmarkDatabase db) {
+        long start = random(db.volume) * BenchmarkDatabase.HOUR;
+        return db.attendanceManager.getFreeBusy(db.persons.get(random(db.volume)), 
+                new Date(start), new Date(start + 24 * BenchmarkDatabase.HOUR));
+    }
+
+    @Benchmark
+    public Map<Person, List<TimeInterval>> getFreeBusyForTeam(BenchmarkDatabase db) {
+        List<Person> team = randomTeam(db);
+        long start = random(db.volume) * BenchmarkDatabase.HOUR;
+        return db.attendanceManager.getFreeBusy(team, new Date(start), new Date(start + 24 * BenchmarkDatabase.HOUR));
+    }
+
+    @Benchmark
+    public List<AttendanceConflict> findConflicts(BenchmarkDatabase db) {
+        long start = random(db.volume) * BenchmarkDatabase.HOUR;
+        return db.attendanceManager.findConflicts(new Date(start), new Date(start + 7 * 24 * BenchmarkDatabase.HOUR));
+    }
+
+    @Benchmark
+    public TimeInterval findEarliestSlotForTeam(BenchmarkDatabase db) {
+        List<Person> team = randomTeam(db);
+        long start = random(db.volume) * BenchmarkDatabase.HOUR;
+        return new SlotFinder(db.attendanceManager).findEarliestSlot(team, 2 * BenchmarkDatabase.HOUR, 
+                new Date(start), new Date(start + 7 * 24 * BenchmarkDatabase.HOUR));
+    }
+
+    @Benchmark
+    public int exportEvents(BenchmarkDatabase db) throws IOException {
+        ICalendarExporter exporter = new ICalendarExporter(db.eventManager, db.attendanceManager);
+        return exporter.exportEvents(new Date(0), new Date(db.getEnd()), new DiscardingWriter());
+    }
+
+    @Benchmark
+    public int exportAttendances(BenchmarkDatabase db) throws IOException {
+        ICalendarExporter exporter = new ICalendarExporter(db.eventManager, db.attendanceManager);
+        return exporter.exportAttendances(db.persons.get(random(db.volume)), new DiscardingWriter());
+    }
+
+    @Benchmark
+    public ICalendarImporter.Result importCalendar(BenchmarkDatabase db, CalendarToImport toImport) 
+            throws IOException {
+        ICalendarImporter importer = new ICalendarImporter(db.personManager, db.eventManager, db.attendanceManager);
+        return importer.importCalendar(new StringReader(toImport.calendar));
+    }
+
+    static Attendance randomAttendance(BenchmarkDatabase db) {
+        return db.newAttendance(db.events.get(random(db.volume)), db.persons.get(random(db.volume)));
+    }
+
+    private static int sumPersonIds(List<Attendance> attendances) {
+        int sum = 0;
+        for (Attendance attendance : attendances) {
+            sum += attendance.getPersonId();
+        }
+        return sum;
+    }
+
+    /**
+     * @return PAGE_SIZE consecutive seeded events, as shown in one view
+     */
+    private static List<Event> randomEventPage(BenchmarkDatabase db) {
+        int start = random(db.volume - PAGE_SIZE);
+        return db.events.subList(start, start + PAGE_SIZE);
+    }
+
+    private static List<Person> randomTeam(BenchmarkDatabase db) {
+        List<Person> team = new ArrayList<Person>(TEAM_SIZE);
+        for (int i = 0; i < TEAM_SIZE; i++) {
+            team.add(db.persons.get(random(db.volume)));
+        }
+        return team;
+    }
+
+    private static List<Attendance> randomAttendances(BenchmarkDatabase db, int count) {
+        List<Attendance> result = new ArrayList<Attendance>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(randomAttendance(db));
+        }
+        return result;
+    }
+
+    /**
+     * Exported calendars are not kept, only the export itself is measured.
+     */
+    private static class DiscardingWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
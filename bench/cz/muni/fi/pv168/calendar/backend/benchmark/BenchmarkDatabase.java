@@ -0,0 +1,166 @@
+package cz.muni.fi.pv168.calendar.backend.benchmark;
+
+import cz.muni.fi.pv168.calendar.backend.Attendance;
+import cz.muni.fi.pv168.calendar.backend.AttendanceManagerImpl;
+import cz.muni.fi.pv168.calendar.backend.CalendarSchema;
+import cz.muni.fi.pv168.calendar.backend.Event;
+import cz.muni.fi.pv168.calendar.backend.EventColumnStore;
+import cz.muni.fi.pv168.calendar.backend.EventManagerImpl;
+import cz.muni.fi.pv168.calendar.backend.EventSearchManagerImpl;
+import cz.muni.fi.pv168.calendar.backend.Person;
+import cz.muni.fi.pv168.calendar.backend.PersonManagerImpl;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Embedded in-memory Derby database seeded with persons, events and 
+ * attendances, shared by all benchmark threads. The number of seeded rows is 
+ * given by the volume parameter: volume persons, volume events one hour 
+ * long each following the previous one, and ATTENDANCES_PER_EVENT 
+ * attendances of every event.
+ *
+ * @author Jan Smerda, Jiri Stary
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDatabase {
+
+    public static final int ATTENDANCES_PER_EVENT = 5;
+    public static final long HOUR = 3600000L;
+
+    private static final AtomicInteger databases = new AtomicInteger();
+
+    @Param({"1000", "10000"})
+    public int volume;
+
+    public BasicDataSource dataSource;
+    public EventManagerImpl eventManager;
+    public PersonManagerImpl personManager;
+    public AttendanceManagerImpl attendanceManager;
+    public AttendanceManagerImpl lazyAttendanceManager;
+    public EventSearchManagerImpl eventSearchManager;
+    // Seeded events, rows created by benchmarks are not in it
+    public EventColumnStore eventColumnStore;
+
+    public List<Event> events;
+    public List<Person> persons;
+    public List<Attendance> attendances;
+
+    private String url;
+
+    /**
+     * Number of persons created by benchmarks, their emails must differ from
+     * emails of seeded persons and of each other.
+     */
+    private final AtomicInteger createdPersons = new AtomicInteger();
+
+    @Setup
+    public void setUp() throws SQLException {
+        // Managers log every call, which would be measured too
+        java.util.logging.Logger.getLogger("").setLevel(Level.WARNING);
+
+        url = "jdbc:derby:memory:calendar-bench-" + databases.incrementAndGet();
+        dataSource = new BasicDataSource();
+        dataSource.setUrl(url + ";create=true");
+        dataSource.setMaxActive(64);
+        dataSource.setMaxIdle(64);
+        CalendarSchema.migrate(dataSource);
+
+        eventManager = new EventManagerImpl();
+        eventManager.setDataSource(dataSource);
+        personManager = new PersonManagerImpl();
+        personManager.setDataSource(dataSource);
+        attendanceManager = new AttendanceManagerImpl();
+        attendanceManager.setDataSource(dataSource);
+        lazyAttendanceManager = new AttendanceManagerImpl();
+        lazyAttendanceManager.setDataSource(dataSource);
+        lazyAttendanceManager.setLazyLoading(true);
+        eventSearchManager = new EventSearchManagerImpl();
+        eventSearchManager.setDataSource(dataSource);
+
+        persons = seedPersons();
+        events = new ArrayList<Event>(volume);
+        for (int i = 0; i < volume; i++) {
+            events.add(newEvent(i));
+        }
+        eventManager.createEvents(events);
+        attendances = new ArrayList<Attendance>(volume * ATTENDANCES_PER_EVENT);
+        for (int i = 0; i < volume; i++) {
+            for (int j = 0; j < ATTENDANCES_PER_EVENT; j++) {
+                attendances.add(newAttendance(events.get(i), persons.get((i + j * 31) % volume)));
+            }
+        }
+        attendanceManager.createAttendances(attendances);
+        eventColumnStore = EventColumnStore.load(dataSource);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        dataSource.close();
+        try {
+            java.sql.DriverManager.getConnection(url + ";drop=true");
+        } catch (SQLException ex) {
+            // Derby reports successful drop by exception 08006
+            if (!"08006".equals(ex.getSQLState())) {
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * @return end of the last seeded event
+     */
+    public long getEnd() {
+        return volume * HOUR;
+    }
+
+    public Event newEvent(int i) {
+        Event event = new Event();
+        event.setName("Event " + i);
+        event.setStartDate(new Date(i * HOUR));
+        event.setEndDate(new Date((i + 1) * HOUR));
+        event.setNote("Seeded event");
+        return event;
+    }
+
+    public Person newPerson(int i) {
+        Person person = new Person();
+        person.setName("Person " + i);
+        person.setEmail("person" + i + "@example.com");
+        person.setNote("Seeded person");
+        return person;
+    }
+
+    /**
+     * @return person with email not used by any seeded or created person
+     */
+    public Person newUniquePerson() {
+        return newPerson(volume + createdPersons.getAndIncrement());
+    }
+
+    public Attendance newAttendance(Event event, Person person) {
+        Attendance attendance = new Attendance();
+        attendance.setEvent(event);
+        attendance.setPerson(person);
+        attendance.setPlannedArrivalTime(event.getStartDate());
+        return attendance;
+    }
+
+    private List<Person> seedPersons() {
+        List<Person> result = new ArrayList<Person>(volume);
+        for (int i = 0; i < volume; i++) {
+            result.add(newPerson(i));
+        }
+        personManager.createPersons(result);
+        return result;
+    }
+}
@@ -0,0 +1,56 @@
+package cz.muni.fi.pv168.calendar.backend.benchmark;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for every requested number of threads and stores 
+ * results of each run as JSON named by the start time of the suite, so 
+ * results of different versions can be compared.
+ *
+ * System properties:
+ * <ul>
+ * <li>bench.threads - comma separated numbers of threads, default "1,4"</li>
+ * <li>bench.results.dir - directory for results, default "build/bench/results"</li>
+ * </ul>
+ * Arguments are passed to JMH, e.g. a regular expression selecting benchmarks 
+ * or -p volume=1000.
+ *
+ * @author Jiri Stary
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        String[] threads = System.getProperty("bench.threads", "1,4").split(",");
+        File resultsDir = new File(System.getProperty("bench.results.dir", "build/bench/results"));
+        if (!resultsDir.isDirectory() && !resultsDir.mkdirs()) {
+            throw new IllegalStateException("Cannot create directory " + resultsDir);
+        }
+        String started = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        for (String count : threads) {
+            int threadCount = Integer.parseInt(count.trim());
+            File result = new File(resultsDir, started + "-t" + threadCount + ".json");
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .threads(threadCount)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(result.getPath())
+                    .shouldFailOnError(true);
+            if (args.length == 0) {
+                options.include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark");
+            }
+            new Runner(options.build()).run();
+            System.out.println("Results of " + threadCount + " thread(s) stored in " + result);
+        }
+    }
+}
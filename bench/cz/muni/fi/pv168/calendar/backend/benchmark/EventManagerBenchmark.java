@@ -0,0 +1,182 @@
+package cz.muni.fi.pv168.calendar.backend.benchmark;
+
+import cz.muni.fi.pv168.calendar.backend.BatchInsertResult;
+import cz.muni.fi.pv168.calendar.backend.Event;
+import cz.muni.fi.pv168.calendar.backend.EventColumnStore;
+import cz.muni.fi.pv168.calendar.backend.ResultHandler;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of EventManagerImpl operations and of the search of events. 
+ * Every seeded event contains the word "event", the search by name of one 
+ * event intersects it with a word contained only once.
+ *
+ * @author Jiri Stary
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventManagerBenchmark {
+
+    public static final int BATCH = 100;
+    public static final int SEARCH_LIMIT = 20;
+
+    /**
+     * Event created before each invocation of the delete benchmark.
+     */
+    @State(Scope.Thread)
+    public static class EventToDelete {
+        Event event;
+
+        @Setup(Level.Invocation)
+        public void setUp(BenchmarkDatabase db) {
+            event = db.newEvent(0);
+            db.eventManager.createEvent(event);
+        }
+    }
+
+    /**
+     * Events created before each invocation of the bulk delete benchmark.
+     */
+    @State(Scope.Thread)
+    public static class EventsToDelete {
+        List<Event> events;
+
+        @Setup(Level.Invocation)
+        public void setUp(BenchmarkDatabase db) {
+            events = new ArrayList<Event>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                events.add(db.newEvent(0));
+            }
+            db.eventManager.createEvents(events);
+        }
+    }
+
+    @Benchmark
+    public Event createEvent(BenchmarkDatabase db) {
+        Event event = db.newEvent(random(db.volume));
+        db.eventManager.createEvent(event);
+        return event;
+    }
+
+    @Benchmark
+    public BatchInsertResult<Event> createEvents(BenchmarkDatabase db) {
+        List<Event> events = new ArrayList<Event>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            events.add(db.newEvent(random(db.volume)));
+        }
+        return db.eventManager.createEvents(events);
+    }
+
+    @Benchmark
+    public Event updateEvent(BenchmarkDatabase db) {
+        int i = random(db.volume);
+        Event event = db.newEvent(i);
+        event.setId(db.events.get(i).getId());
+        event.setNote("Updated " + System.nanoTime());
+        db.eventManager.updateEvent(event);
+        return event;
+    }
+
+    @Benchmark
+    public void deleteEvent(BenchmarkDatabase db, EventToDelete toDelete) {
+        db.eventManager.deleteEvent(toDelete.event);
+    }
+
+    @Benchmark
+    public void deleteEvents(BenchmarkDatabase db, EventsToDelete toDelete) {
+        db.eventManager.deleteEvents(toDelete.events);
+    }
+
+    @Benchmark
+    public Event getEventById(BenchmarkDatabase db) {
+        return db.eventManager.getEventById(db.events.get(random(db.volume)).getId());
+    }
+
+    @Benchmark
+    public List<Event> findAllEvents(BenchmarkDatabase db) {
+        return db.eventManager.findAllEvents();
+    }
+
+    @Benchmark
+    public List<Event> findEventsByDate(BenchmarkDatabase db) {
+        long start = ThreadLocalRandom.current().nextLong(db.getEnd());
+        return db.eventManager.findEventsByDate(new Date(start), new Date(start + 24 * BenchmarkDatabase.HOUR));
+    }
+
+    @Benchmark
+    public void findEventsByDateStreaming(BenchmarkDatabase db, final Blackhole blackhole) {
+        db.eventManager.findEventsByDate(new Date(0), new Date(db.getEnd()), new ResultHandler<Event>() {
+            @Override
+            public boolean handle(Event event) {
+                blackhole.consume(event);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Events of a day counted by loading them, the baseline of 
+     * countEventsInColumnStore.
+     */
+    @Benchmark
+    public int countEventsByDate(BenchmarkDatabase db) {
+        long start = ThreadLocalRandom.current().nextLong(db.getEnd());
+        return db.eventManager.findEventsByDate(new Date(start), new Date(start + 24 * BenchmarkDatabase.HOUR)).size();
+    }
+
+    @Benchmark
+    public int countEventsInColumnStore(BenchmarkDatabase db) {
+        long start = ThreadLocalRandom.current().nextLong(db.getEnd());
+        return db.eventColumnStore.count(start, start + 24 * BenchmarkDatabase.HOUR);
+    }
+
+    @Benchmark
+    public long totalDurationInColumnStore(BenchmarkDatabase db) {
+        return db.eventColumnStore.totalDuration(0, db.getEnd());
+    }
+
+    @Benchmark
+    public EventColumnStore loadEventColumnStore(BenchmarkDatabase db) {
+        return EventColumnStore.load(db.dataSource);
+    }
+
+    @Benchmark
+    public List<Event> searchEvents(BenchmarkDatabase db) {
+        return db.eventSearchManager.searchEvents("event " + random(db.volume), SEARCH_LIMIT);
+    }
+
+    @Benchmark
+    public List<Event> searchEventsByPrefix(BenchmarkDatabase db) {
+        return db.eventSearchManager.searchEvents("event " + random(db.volume / 10) + "*", SEARCH_LIMIT);
+    }
+
+    @Benchmark
+    public List<Event> searchEventsByDate(BenchmarkDatabase db) {
+        long start = ThreadLocalRandom.current().nextLong(db.getEnd());
+        return db.eventSearchManager.searchEvents("seeded event", new Date(start), 
+                new Date(start + 24 * BenchmarkDatabase.HOUR), SEARCH_LIMIT);
+    }
+
+    static int random(int bound) {
+        return ThreadLocalRandom.current().nextInt(bound);
+    }
+}
@@ -0,0 +1,131 @@
+package cz.muni.fi.pv168.calendar.backend.benchmark;
+
+import cz.muni.fi.pv168.calendar.backend.BulkLoader;
+import cz.muni.fi.pv168.calendar.backend.Person;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static cz.muni.fi.pv168.calendar.backend.benchmark.EventManagerBenchmark.random;
+
+/**
+ * Benchmarks of PersonManagerImpl operations. createPersons and loadPersons 
+ * insert the same number of rows, in batches and by the bulk loader.
+ *
+ * @author Jan Smerda
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersonManagerBenchmark {
+
+    public static final int BATCH = 100;
+    public static final int PAGE_SIZE = 50;
+    public static final int EMAILS = 100;
+
+    /**
+     * Person created before each invocation of the delete benchmark.
+     */
+    @State(Scope.Thread)
+    public static class PersonToDelete {
+        Person person;
+
+        @Setup(Level.Invocation)
+        public void setUp(BenchmarkDatabase db) {
+            person = db.newUniquePerson();
+            db.personManager.createPerson(person);
+        }
+    }
+
+    @Benchmark
+    public Person createPerson(BenchmarkDatabase db) {
+        Person person = db.newUniquePerson();
+        db.personManager.createPerson(person);
+        return person;
+    }
+
+    @Benchmark
+    public List<Person> createPersons(BenchmarkDatabase db) {
+        List<Person> persons = new ArrayList<Person>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            persons.add(db.newUniquePerson());
+        }
+        db.personManager.createPersons(persons);
+        return persons;
+    }
+
+    @Benchmark
+    public BulkLoader.Result loadPersons(BenchmarkDatabase db) throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < BATCH; i++) {
+            Person person = db.newUniquePerson();
+            csv.append(i).append(',').append(person.getName()).append(',')
+                    .append(person.getEmail()).append(',').append(person.getNote()).append('\n');
+        }
+        BulkLoader loader = new BulkLoader();
+        loader.setDataSource(db.dataSource);
+        // Rebuilding indexes after every few rows would dominate
+        loader.setRebuildIndexes(false);
+        return loader.load(new StringReader(csv.toString()), null, null);
+    }
+
+    @Benchmark
+    public Person updatePerson(BenchmarkDatabase db) {
+        int i = random(db.volume);
+        Person person = db.newPerson(i);
+        person.setId(db.persons.get(i).getId());
+        person.setNote("Updated " + System.nanoTime());
+        db.personManager.updatePerson(person);
+        return person;
+    }
+
+    @Benchmark
+    public void deletePerson(BenchmarkDatabase db, PersonToDelete toDelete) {
+        db.personManager.deletePerson(toDelete.person);
+    }
+
+    @Benchmark
+    public Person getPersonById(BenchmarkDatabase db) {
+        return db.personManager.getPersonById(db.persons.get(random(db.volume)).getId());
+    }
+
+    @Benchmark
+    public List<Person> findAllPersons(BenchmarkDatabase db) {
+        return db.personManager.findAllPersons();
+    }
+
+    @Benchmark
+    public List<Person> findPersonsPage(BenchmarkDatabase db) {
+        return db.personManager.findPersonsPage(db.persons.get(random(db.volume)).getId(), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Person findPersonByEmail(BenchmarkDatabase db) {
+        return db.personManager.findPersonByEmail(db.persons.get(random(db.volume)).getEmail());
+    }
+
+    @Benchmark
+    public Map<String, Person> findPersonsByEmails(BenchmarkDatabase db) {
+        List<String> emails = new ArrayList<String>(EMAILS);
+        for (int i = 0; i < EMAILS; i++) {
+            emails.add(db.persons.get(random(db.volume)).getEmail());
+        }
+        return db.personManager.findPersonsByEmails(emails);
+    }
+}
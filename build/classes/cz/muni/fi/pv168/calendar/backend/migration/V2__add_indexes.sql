@@ -0,0 +1,5 @@
+CREATE INDEX "EVENT_DATES_IDX" ON "EVENT" ("STARTDATE", "ENDDATE");
+
+CREATE INDEX "ATTENDANCE_EVENT_IDX" ON "ATTENDANCE" ("EVENTID", "PERSONID");
+
+CREATE INDEX "ATTENDANCE_PERSON_IDX" ON "ATTENDANCE" ("PERSONID", "EVENTID");
@@ -0,0 +1 @@
+CREATE INDEX "ATTENDANCE_EVENT_PAGE_IDX" ON "ATTENDANCE" ("EVENTID", "ID");
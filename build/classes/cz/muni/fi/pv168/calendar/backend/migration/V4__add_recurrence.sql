@@ -0,0 +1,17 @@
+ALTER TABLE "EVENT" ADD COLUMN "RECURRENCEFREQUENCY" VARCHAR(10);
+ALTER TABLE "EVENT" ADD COLUMN "RECURRENCEINTERVAL" INTEGER;
+ALTER TABLE "EVENT" ADD COLUMN "RECURRENCECOUNT" INTEGER;
+ALTER TABLE "EVENT" ADD COLUMN "RECURRENCEUNTIL" TIMESTAMP;
+ALTER TABLE "EVENT" ADD COLUMN "SERIESENDDATE" TIMESTAMP;
+
+UPDATE "EVENT" SET "SERIESENDDATE" = "ENDDATE";
+
+DROP INDEX "EVENT_DATES_IDX";
+
+CREATE INDEX "EVENT_DATES_IDX" ON "EVENT" ("STARTDATE", "SERIESENDDATE");
+
+CREATE TABLE "EVENT_EXCEPTION" (
+    "EVENTID" INTEGER NOT NULL REFERENCES EVENT (ID) ON DELETE CASCADE,
+    "OCCURRENCESTART" TIMESTAMP NOT NULL,
+    PRIMARY KEY ("EVENTID", "OCCURRENCESTART")
+);
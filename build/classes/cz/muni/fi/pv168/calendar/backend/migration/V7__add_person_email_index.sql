@@ -0,0 +1 @@
+CREATE UNIQUE INDEX "PERSON_EMAIL_IDX" ON "PERSON" ("EMAIL");
@@ -7,6 +7,9 @@ package cz.muni.fi.pv168.calendar.backend;
 import java.util.Date;
 
 /**
+ * Attendance of a person at an event. Attendances loaded in lazy mode of 
+ * {@link AttendanceManagerImpl} hold only ids of the event and the person, 
+ * the entities are loaded on first access of getEvent() or getPerson().
  *
  * @author Jan Smerda, Jiri Stary
  */
@@ -16,6 +19,10 @@ public class Attendance {
     private Event event;
     private Person person;
     private Date plannedArrivalTime;
+    // Ids of referenced entities which are not loaded yet
+    private Integer eventId;
+    private Integer personId;
+    private LazyReferenceLoader loader;
 
     public Integer getId() {
         return id;
@@ -26,19 +33,57 @@ public class Attendance {
     }
     
     public Event getEvent() {
+        if (event == null && eventId != null && loader != null) {
+            event = loader.getEvent(eventId);
+        }
         return event;
     }
 
     public void setEvent(Event event) {
         this.event = event;
+        this.eventId = null;
+    }
+
+    /**
+     * Returns id of the event without loading it.
+     * 
+     * @return id of the event or null when there is no event
+     */
+    public Integer getEventId() {
+        return event != null ? event.getId() : eventId;
     }
 
     public Person getPerson() {
+        if (person == null && personId != null && loader != null) {
+            person = loader.getPerson(personId);
+        }
         return person;
     }
 
     public void setPerson(Person person) {
         this.person = person;
+        this.personId = null;
+    }
+
+    /**
+     * Returns id of the person without loading it.
+     * 
+     * @return id of the person or null when there is no person
+     */
+    public Integer getPersonId() {
+        return person != null ? person.getId() : personId;
+    }
+
+    /**
+     * Replaces the event and the person by references which are resolved by 
+     * the loader on first access.
+     */
+    void setReferences(Integer eventId, Integer personId, LazyReferenceLoader loader) {
+        this.event = null;
+        this.person = null;
+        this.eventId = eventId;
+        this.personId = personId;
+        this.loader = loader;
     }
 
     public Date getPlannedArrivalTime() {
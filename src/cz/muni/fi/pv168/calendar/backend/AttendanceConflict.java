@@ -0,0 +1,40 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+/**
+ * Two attendances of the same person whose events overlap.
+ *
+ * @author Jan Smerda
+ */
+public class AttendanceConflict {
+
+    private final Attendance first;
+    private final Attendance second;
+
+    public AttendanceConflict(Attendance first, Attendance second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    /**
+     * @return attendance with lower id
+     */
+    public Attendance getFirst() {
+        return first;
+    }
+
+    /**
+     * @return attendance with higher id
+     */
+    public Attendance getSecond() {
+        return second;
+    }
+
+    public Person getPerson() {
+        return first.getPerson();
+    }
+
+    @Override
+    public String toString() {
+        return "AttendanceConflict{" + "first=" + first + ", second=" + second + '}';
+    }
+}
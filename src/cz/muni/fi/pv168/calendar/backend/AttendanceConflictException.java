@@ -0,0 +1,38 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown when an attendance would double-book its person, i.e. the person 
+ * already attends an event overlapping the attended event.
+ *
+ * @author Jan Smerda
+ */
+public class AttendanceConflictException extends IllegalEntityException {
+
+    private final Attendance attendance;
+    private final List<Attendance> conflicts;
+
+    public AttendanceConflictException(Attendance attendance, List<Attendance> conflicts) {
+        super("Attendance " + attendance + " conflicts with attendances " + conflicts);
+        this.attendance = attendance;
+        this.conflicts = Collections.unmodifiableList(conflicts);
+    }
+
+    /**
+     * @return attendance which was not stored
+     */
+    public Attendance getAttendance() {
+        return attendance;
+    }
+
+    /**
+     * @return stored attendances of the same person overlapping the 
+     * attendance
+     */
+    public List<Attendance> getConflicts() {
+        return conflicts;
+    }
+}
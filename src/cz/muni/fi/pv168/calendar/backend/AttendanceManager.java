@@ -4,9 +4,22 @@
  */
 package cz.muni.fi.pv168.calendar.backend;
 
+import cz.muni.fi.pv168.common.IntIntHashMap;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * Attendances conflict when their person attends events with overlapping 
+ * occurrences. Two recurring events which never end are compared over one 
+ * least common multiple of their periods after the later of their starts and 
+ * their exceptions, e.g. over 77 weeks for events repeating every 7 and 
+ * every 11 weeks. Monthly events starting after the 28th fall on shorter 
+ * month ends differently in leap years, they are compared over four years 
+ * times the multiple. This time is capped at 20 years, which is also used 
+ * for a monthly event compared with a daily or weekly one, so conflicts of 
+ * such events starting later are not found.
  *
  * @author Jan Smerda, Jiri Stary
  */
@@ -19,14 +32,34 @@ public interface AttendanceManager {
      * @param attendance The Attendance object being added to database.
      * @throws IllegalArgumentException when attendance or event is null, or attendance has already 
      * assigned id.
+     * @throws AttendanceConflictException when conflicts are checked and the 
+     * person already attends an overlapping event.
      */
     void createAttendance(Attendance attendance);
     
+    /**
+     * Creates Attendance entries in the database in one transaction. All 
+     * attendances are validated before anything is inserted. Ids for the 
+     * entries are automatically generated and stored into id attributes when 
+     * the transaction is committed.
+     * 
+     * @param attendances The Attendance objects being added to database.
+     * @throws IllegalArgumentException when attendances are null or some 
+     * attendance is not valid.
+     * @throws IllegalEntityException when some attendance has already assigned id.
+     * @throws AttendanceConflictException when conflicts are checked and some 
+     * attendance overlaps another attendance of its person, stored or created 
+     * together with it. Nothing is created then.
+     */
+    void createAttendances(Collection<Attendance> attendances);
+    
     /**
      * Updates the attendance with same ID.
      * 
      * @param attendance The Attendance object being updated in database.
      * @throws IllegalArgumentException when attendance is null.
+     * @throws AttendanceConflictException when conflicts are checked and the 
+     * person already attends an overlapping event.
      */
     void updateAttendance(Attendance attendance);
     
@@ -54,6 +87,15 @@ public interface AttendanceManager {
      */
     List<Attendance> findAllAttendances();
     
+    /**
+     * Retrieves all Attendance entries from database and passes them to 
+     * handler one by one while they are read. Suitable for very large tables.
+     * 
+     * @param handler handler receiving attendances
+     * @throws IllegalArgumentException when handler is null
+     */
+    void findAllAttendances(ResultHandler<Attendance> handler);
+    
     /**
      * Returns all Attendances relating to a specified event.
      * 
@@ -63,6 +105,61 @@ public interface AttendanceManager {
      */
     List<Attendance> findAttendancesForEvent(Event event);
     
+    /**
+     * Returns all Attendances relating to any of specified events, ordered by 
+     * event id and attendance id. Attendances of many events are loaded by a 
+     * few queries instead of one query per event.
+     * 
+     * @param events The Events needed to find
+     * @return List of all Attendances associated with the events
+     * @throws IllegalArgumentException when events or some of them is null
+     * @throws IllegalEntityException when id of some event is null
+     */
+    List<Attendance> findAttendancesForEvents(Collection<Event> events);
+    
+    /**
+     * Counts Attendances of specified events by one GROUP BY query per 
+     * a few hundred events, no attendance is loaded.
+     * 
+     * @param events The Events whose attendances are counted
+     * @return numbers of attendances by event id, events without attendances 
+     * are missing and get 0
+     * @throws IllegalArgumentException when events or some of them is null
+     * @throws IllegalEntityException when id of some event is null
+     */
+    IntIntHashMap countAttendancesForEvents(Collection<Event> events);
+    
+    /**
+     * Counts Attendances of events which take place in given range, 
+     * recurring events are counted when some of their occurrences does. 
+     * No attendance is loaded.
+     * 
+     * @param startDate start of the range
+     * @param endDate end of the range
+     * @return numbers of attendances by event id, events without attendances 
+     * are missing and get 0
+     * @throws IllegalArgumentException when startDate or endDate is null or 
+     * endDate is before startDate
+     */
+    IntIntHashMap countAttendancesForEvents(Date startDate, Date endDate);
+    
+    /**
+     * Returns one page of Attendances relating to a specified event ordered 
+     * by id. The next page starts after the last attendance of the previous 
+     * one, so the cost of a page does not depend on how many pages were read 
+     * before.
+     * 
+     * @param event The Event neeeded to find
+     * @param afterId id of the last attendance of the previous page, null for 
+     * the first page
+     * @param pageSize maximal number of attendances in the page
+     * @return Attendances associated with event with id greater than afterId, 
+     * ordered by id
+     * @throws IllegalArgumentException when event is null or pageSize is not 
+     * positive
+     */
+    List<Attendance> findAttendancesForEventPage(Event event, Integer afterId, int pageSize);
+    
     /**
      * Returns all Attendances relating to a specified person.
      * 
@@ -72,5 +169,72 @@ public interface AttendanceManager {
      */
     List<Attendance> findAttendancesForPerson(Person person);
     
+    /**
+     * Counts Attendances of specified persons by one GROUP BY query per 
+     * a few hundred persons, no attendance is loaded.
+     * 
+     * @param persons The Persons whose attendances are counted
+     * @return numbers of attendances by person id, persons without 
+     * attendances are missing and get 0
+     * @throws IllegalArgumentException when persons or some of them is null
+     * @throws IllegalEntityException when id of some person is null
+     */
+    IntIntHashMap countAttendancesForPersons(Collection<Person> persons);
+    
+    /**
+     * Retrieves all Attendances relating to a specified person ordered by 
+     * event id and passes them to handler one by one while they are read. 
+     * Events of the attendances are loaded with their recurrence.
+     * 
+     * @param person The Person needed to find
+     * @param handler handler receiving attendances
+     * @throws IllegalArgumentException when person or handler is null
+     */
+    void findAttendancesForPerson(Person person, ResultHandler<Attendance> handler);
+    
+    /**
+     * Returns times in which a person attends some event, restricted to given 
+     * range. Overlapping and touching attendances are merged into one busy 
+     * interval, occurrences of recurring events are included.
+     * 
+     * @param person The Person whose busy time is requested
+     * @param startDate start of the range
+     * @param endDate end of the range
+     * @return busy intervals ordered by start, clipped to the range
+     * @throws IllegalArgumentException when person, startDate or endDate is 
+     * null or endDate is before startDate
+     * @throws IllegalEntityException when person has no id
+     */
+    List<TimeInterval> getFreeBusy(Person person, Date startDate, Date endDate);
+    
+    /**
+     * Returns busy intervals of more persons at once, see 
+     * {@link #getFreeBusy(Person, Date, Date)}.
+     * 
+     * @param persons persons whose busy time is requested
+     * @param startDate start of the range
+     * @param endDate end of the range
+     * @return busy intervals of every given person, persons without any 
+     * attendance in the range have an empty list
+     * @throws IllegalArgumentException when persons, some person, startDate 
+     * or endDate is null or endDate is before startDate
+     * @throws IllegalEntityException when some person has no id
+     */
+    Map<Person, List<TimeInterval>> getFreeBusy(Collection<Person> persons, Date startDate, Date endDate);
+    
+    /**
+     * Finds all double-bookings in given range, i.e. pairs of attendances of 
+     * the same person whose events overlap in the range. Events which only 
+     * touch do not overlap. Every pair is reported once, even when more 
+     * occurrences of recurring events overlap.
+     * 
+     * @param startDate start of the range
+     * @param endDate end of the range
+     * @return conflicting pairs of attendances ordered by person
+     * @throws IllegalArgumentException when startDate or endDate is null or 
+     * endDate is before startDate
+     */
+    List<AttendanceConflict> findConflicts(Date startDate, Date endDate);
+    
 }
 
@@ -6,6 +6,7 @@ package cz.muni.fi.pv168.calendar.backend;
 
 import cz.muni.fi.pv168.common.DBUtils;
 import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.IntIntHashMap;
 import cz.muni.fi.pv168.common.ServiceFailureException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -13,7 +14,17 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.sql.DataSource;
 import java.sql.Timestamp;
 import java.util.Date;
@@ -27,18 +38,171 @@ import org.slf4j.Logger;
 public class AttendanceManagerImpl implements AttendanceManager {
 
     final static Logger logger = LoggerFactory.getLogger(AttendanceManagerImpl.class);
-    private static DataSource dataSource;
+    /**
+     * Attendance columns joined with columns of referenced event and person, 
+     * so the whole object graph can be built from a single query. Recurrence 
+     * of the event is not loaded, get it by EventManager when needed.
+     */
+    private static final String ATTENDANCE_COLUMNS =
+            "a.id, a.eventId, a.personId, a.plannedArrivalTime, "
+            + "e.name AS eventName, e.startDate AS eventStartDate, "
+            + "e.endDate AS eventEndDate, e.note AS eventNote, "
+            + "p.name AS personName, p.email AS personEmail, p.note AS personNote ";
+    private static final String ATTENDANCE_JOIN = "FROM attendance a "
+            + "LEFT JOIN event e ON a.eventId = e.id "
+            + "LEFT JOIN person p ON a.personId = p.id";
+    private static final String SELECT_ATTENDANCES = 
+            "SELECT " + ATTENDANCE_COLUMNS + ATTENDANCE_JOIN;
+    
+    /**
+     * Attendance columns only, referenced entities are loaded on demand in 
+     * lazy mode.
+     */
+    private static final String SELECT_ATTENDANCE_REFERENCES = 
+            "SELECT a.id, a.eventId, a.personId, a.plannedArrivalTime FROM attendance a";
+    
+    /**
+     * Attendances with recurrence of their events, used for finding 
+     * conflicts.
+     */
+    private static final String SELECT_ATTENDANCES_WITH_RECURRENCE = "SELECT " + ATTENDANCE_COLUMNS 
+            + ", e.recurrenceFrequency, e.recurrenceInterval, e.recurrenceCount, e.recurrenceUntil "
+            + ATTENDANCE_JOIN;
+    
+    /**
+     * Other attendances of a person whose events may overlap given time, 
+     * uses index on person. Condition on start of events is added when the 
+     * checked event has an end.
+     */
+    private static final String SELECT_CONFLICT_CANDIDATES = SELECT_ATTENDANCES_WITH_RECURRENCE 
+            + " WHERE a.personId = ? AND a.id <> ? AND (e.seriesEndDate > ? OR e.seriesEndDate IS NULL)";
+    
+    /**
+     * Events attended by persons in a time range, recurring events are 
+     * expanded afterwards. Persons are added as IN list.
+     */
+    private static final String SELECT_BUSY_EVENTS =
+            "SELECT a.personId, e.id, e.name, e.startDate, e.endDate, e.note, "
+            + "e.recurrenceFrequency, e.recurrenceInterval, e.recurrenceCount, e.recurrenceUntil "
+            + "FROM attendance a JOIN event e ON a.eventId = e.id "
+            + "WHERE e.startDate <= ? AND (e.seriesEndDate >= ? OR e.seriesEndDate IS NULL) "
+            + "AND a.personId IN ";
+    
+    /**
+     * Numbers of attendances of events which may take place in a time range, 
+     * recurring events are checked afterwards. Only the indexes on attendance 
+     * and event dates are read.
+     */
+    private static final String RECURRENCE_COLUMNS = "e.startDate, e.endDate, e.recurrenceFrequency, "
+            + "e.recurrenceInterval, e.recurrenceCount, e.recurrenceUntil";
+    
+    /**
+     * Series are counted with their recurrence, so that their occurrences in
+     * the range are checked without loading the events.
+     */
+    private static final String COUNT_ATTENDANCES_BY_DATE =
+            "SELECT a.eventId, COUNT(*) AS attendances, " + RECURRENCE_COLUMNS
+            + " FROM attendance a JOIN event e ON a.eventId = e.id "
+            + "WHERE e.startDate <= ? AND (e.seriesEndDate >= ? OR e.seriesEndDate IS NULL) "
+            + "GROUP BY a.eventId, " + RECURRENCE_COLUMNS;
+    
+    private static final String SELECT_EXCEPTIONS_OF_EVENTS = 
+            "SELECT eventId, occurrenceStart FROM event_exception WHERE eventId IN ";
+    
+    /**
+     * Default number of inserts sent to the database in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    
+    /**
+     * Default number of rows fetched from the database at once by streaming 
+     * queries.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 100;
+    
+    private DataSource dataSource;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private boolean conflictChecking;
+    private boolean lazyLoading;
 
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
     }
 
+    /**
+     * Sets number of inserts sent to the database in one batch by 
+     * {@link #createAttendances(Collection)}.
+     * 
+     * @param batchSize number of rows in one batch
+     * @throws IllegalArgumentException when batchSize is not positive
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize is not positive");
+        }
+        this.batchSize = batchSize;
+    }
+
     private void checkDataSource() {
         if (dataSource == null) {
             throw new IllegalStateException("DataSource is not set");
         }
     }
 
+    /**
+     * Sets number of rows fetched from the database at once by 
+     * {@link #findAllAttendances(ResultHandler)}.
+     * 
+     * @param fetchSize number of rows fetched at once
+     * @throws IllegalArgumentException when fetchSize is not positive
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize is not positive");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Turns checking of double-bookings on or off, it is off by default. 
+     * When it is on, created and updated attendances are checked in the same 
+     * transaction in which they are written and 
+     * {@link AttendanceConflictException} is thrown when the person already 
+     * attends an overlapping event.
+     * 
+     * @param conflictChecking true to check conflicts
+     */
+    public void setConflictChecking(boolean conflictChecking) {
+        this.conflictChecking = conflictChecking;
+    }
+
+    /**
+     * Turns lazy loading of referenced events and persons on or off, it is 
+     * off by default. In lazy mode attendances returned by getAttendanceById 
+     * and find methods which do not load recurrence are read without joins 
+     * and hold only ids of their event and person. The entities are loaded 
+     * on first access, together with all not yet loaded entities of the same 
+     * kind referenced by the same result.
+     * 
+     * @param lazyLoading true to load referenced entities lazily
+     */
+    public void setLazyLoading(boolean lazyLoading) {
+        this.lazyLoading = lazyLoading;
+    }
+
+    private String selectAttendances() {
+        return lazyLoading ? SELECT_ATTENDANCE_REFERENCES : SELECT_ATTENDANCES;
+    }
+
+    /**
+     * @return loader of references of one result in lazy mode, null in eager 
+     * mode
+     */
+    private LazyReferenceLoader newLoader() {
+        return lazyLoading ? new LazyReferenceLoader(dataSource) : null;
+    }
+
     @Override
     public void createAttendance(Attendance attendance) throws ServiceFailureException {
         logger.info("Creating new attendance {}", attendance);
@@ -60,14 +224,19 @@ public class AttendanceManagerImpl implements AttendanceManager {
             st = connection.prepareStatement(
                     "INSERT INTO ATTENDANCE (eventId,personId,plannedArrivalTime) VALUES (?,?,?)",
                     Statement.RETURN_GENERATED_KEYS);
-            st.setInt(1, attendance.getEvent().getId() );
-            st.setInt(2, attendance.getPerson().getId() );
+            st.setInt(1, attendance.getEventId() );
+            st.setInt(2, attendance.getPersonId() );
             st.setTimestamp(3, dateToTimestamp(attendance.getPlannedArrivalTime()) );
             
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, attendance, true);  
             
             Integer id = DBUtils.getId(st.getGeneratedKeys());
+            if (conflictChecking) {
+                checkConflicts(connection, attendance, id);
+            }
+            ChangeLogManagerImpl.recordChange(connection, Change.EntityType.ATTENDANCE, id, 
+                    Change.Operation.CREATE);
             attendance.setId(id);
             connection.commit(); 
             
@@ -81,6 +250,80 @@ public class AttendanceManagerImpl implements AttendanceManager {
         } 
     }
 
+    @Override
+    public void createAttendances(Collection<Attendance> attendances) throws ServiceFailureException {
+        checkDataSource();
+        if (attendances == null) {
+            throw new IllegalArgumentException("attendances is null");
+        }
+        logger.info("Creating {} new attendances", attendances.size());
+        for (Attendance attendance : attendances) {
+            validate(attendance);
+            if (attendance.getId() != null) {
+                throw new IllegalEntityException("attendance id is already set");
+            }
+        }
+        if (attendances.isEmpty()) {
+            return;
+        }
+        
+        List<Attendance> toInsert = new ArrayList<Attendance>(attendances);
+        int[] ids = new int[toInsert.size()];
+        Connection connection = null;
+        Statement lock = null;
+        PreparedStatement st = null;
+        try {
+            connection = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            connection.setAutoCommit(false);
+            // Nobody else may insert until commit, generated ids of each 
+            // batch are then consecutive (see DBUtils.getBatchIds(...))
+            lock = connection.createStatement();
+            lock.execute("LOCK TABLE ATTENDANCE IN EXCLUSIVE MODE");
+            st = connection.prepareStatement(
+                    "INSERT INTO ATTENDANCE (eventId,personId,plannedArrivalTime) VALUES (?,?,?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            
+            int batchStart = 0;
+            for (int i = 0; i < toInsert.size(); i++) {
+                Attendance attendance = toInsert.get(i);
+                st.setInt(1, attendance.getEventId() );
+                st.setInt(2, attendance.getPersonId() );
+                st.setTimestamp(3, dateToTimestamp(attendance.getPlannedArrivalTime()) );
+                st.addBatch();
+                
+                if (i - batchStart + 1 == batchSize || i == toInsert.size() - 1) {
+                    DBUtils.checkBatchUpdatesCounts(st.executeBatch());
+                    int[] batchIds = DBUtils.getBatchIds(st.getGeneratedKeys(), i - batchStart + 1);
+                    System.arraycopy(batchIds, 0, ids, batchStart, batchIds.length);
+                    batchStart = i + 1;
+                }
+            }
+            if (conflictChecking) {
+                // Attendances of this batch are already inserted, so they are 
+                // checked also against each other
+                for (int i = 0; i < toInsert.size(); i++) {
+                    checkConflicts(connection, toInsert.get(i), ids[i]);
+                }
+            }
+            ChangeLogManagerImpl.recordChanges(connection, Change.EntityType.ATTENDANCE, ids, 
+                    Change.Operation.CREATE);
+            connection.commit();
+            
+            for (int i = 0; i < toInsert.size(); i++) {
+                toInsert.get(i).setId(ids[i]);
+            }
+        } catch (SQLException ex) {
+            String msg = "Error when inserting attendances into db.";
+            logger.error(msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(connection);
+            DBUtils.closeQuietly(connection, lock, st);
+        } 
+    }
+
     @Override
     public void updateAttendance(Attendance attendance) {
         logger.info("Updating attendance {}", attendance);
@@ -99,13 +342,18 @@ public class AttendanceManagerImpl implements AttendanceManager {
             conn.setAutoCommit(false);
             st = conn.prepareStatement(
                     "UPDATE ATTENDANCE SET eventId = ?, personId = ?, plannedArrivalTime = ? WHERE id = ?");
-            st.setInt(1, attendance.getEvent().getId() );
-            st.setInt(2, attendance.getPerson().getId() );
+            st.setInt(1, attendance.getEventId() );
+            st.setInt(2, attendance.getPersonId() );
             st.setTimestamp(3, dateToTimestamp(attendance.getPlannedArrivalTime()) );
             st.setInt(4, attendance.getId());
 
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, attendance, false);
+            if (conflictChecking) {
+                checkConflicts(conn, attendance, attendance.getId());
+            }
+            ChangeLogManagerImpl.recordChange(conn, Change.EntityType.ATTENDANCE, attendance.getId(), 
+                    Change.Operation.UPDATE);
             conn.commit();
         } catch (SQLException ex) {
             String msg = "Error when updating attendance in the db";
@@ -141,6 +389,8 @@ public class AttendanceManagerImpl implements AttendanceManager {
 
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, attendance, false);
+            ChangeLogManagerImpl.recordChange(conn, Change.EntityType.ATTENDANCE, attendance.getId(), 
+                    Change.Operation.DELETE);
             conn.commit();
         } catch (SQLException ex) {
             String msg = "Error when deleting attendance from the db";
@@ -166,9 +416,9 @@ public class AttendanceManagerImpl implements AttendanceManager {
         try {
             connection = dataSource.getConnection();
             st = connection.prepareStatement(
-                    "SELECT id,eventId,personId,plannedArrivalTime FROM attendance WHERE id = ?");
+                    selectAttendances() + " WHERE a.id = ?");
             st.setInt(1, id);
-            return executeQueryForSingleAttendance(st);
+            return executeQueryForSingleAttendance(st, newLoader());
         } catch (SQLException ex) {
             String msg = "Error when getting attendance with id = " + id + " from DB";
             logger.error(msg, ex);
@@ -188,8 +438,8 @@ public class AttendanceManagerImpl implements AttendanceManager {
         try {
             conn = dataSource.getConnection();
             statement = conn.prepareStatement(
-                    "SELECT id,eventId,personId,plannedArrivalTime FROM attendance");
-            return executeQueryForMultipleAttendances(statement);
+                    selectAttendances());
+            return executeQueryForMultipleAttendances(statement, newLoader());
         } catch (SQLException ex) {
             String message = "Error when retrieving all Attendances";
             logger.error(message, ex);
@@ -199,6 +449,50 @@ public class AttendanceManagerImpl implements AttendanceManager {
         }
     }
 
+    @Override
+    public void findAllAttendances(ResultHandler<Attendance> handler) {
+        logger.info("Streaming all attendances");
+        
+        checkDataSource();
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        Connection conn = null;
+        PreparedStatement statement = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(selectAttendances());
+            statement.setFetchSize(fetchSize);
+            ResultSet rs = statement.executeQuery();
+            // Events and persons are not shared among rows, remembering 
+            // them would make memory grow with the result. Lazy references 
+            // are shared among rows of one fetched block only.
+            LazyReferenceLoader loader = null;
+            int rows = 0;
+            while (rs.next()) {
+                Attendance attendance;
+                if (lazyLoading) {
+                    if (rows++ % fetchSize == 0) {
+                        loader = newLoader();
+                    }
+                    attendance = resultToLazyAttendance(rs, loader);
+                } else {
+                    attendance = resultToAttendance(rs, null, null);
+                }
+                if (!handler.handle(attendance)) {
+                    break;
+                }
+            }
+            rs.close();
+        } catch (SQLException ex) {
+            String message = "Error when streaming all Attendances";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, statement);
+        }
+    }
+
     @Override
     public List<Attendance> findAttendancesForEvent(Event event) {
         logger.info("Finding all attendances for event {}", event);
@@ -209,9 +503,9 @@ public class AttendanceManagerImpl implements AttendanceManager {
         try {
             conn = dataSource.getConnection();
             statement = conn.prepareStatement(
-                    "SELECT id,eventId,personId,plannedArrivalTime FROM attendance WHERE eventId = ?");
+                    selectAttendances() + " WHERE a.eventId = ?");
             statement.setInt(1, event.getId());
-            return executeQueryForMultipleAttendances(statement);
+            return executeQueryForMultipleAttendances(statement, newLoader());
         } catch (SQLException ex) {
             String message = "Error when retrieving Attendances associated with event " + event;
             logger.error(message, ex);
@@ -221,6 +515,176 @@ public class AttendanceManagerImpl implements AttendanceManager {
         }
     }
 
+    @Override
+    public List<Attendance> findAttendancesForEvents(Collection<Event> events) {
+        checkDataSource();
+        if (events == null) {
+            throw new IllegalArgumentException("events is null");
+        }
+        logger.info("Finding all attendances for {} events", events.size());
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (Event event : events) {
+            if (event == null) {
+                throw new IllegalArgumentException("event is null");
+            }
+            if (event.getId() == null) {
+                throw new IllegalEntityException("event id is null");
+            }
+            ids.add(event.getId());
+        }
+        
+        List<Attendance> result = new ArrayList<Attendance>();
+        LazyReferenceLoader loader = newLoader();
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            for (List<Integer> chunk : DBUtils.splitForInList(ids)) {
+                PreparedStatement statement = DBUtils.prepareInStatement(conn, 
+                        selectAttendances() + " WHERE a.eventId IN ", chunk, " ORDER BY a.eventId, a.id");
+                try {
+                    result.addAll(executeQueryForMultipleAttendances(statement, loader));
+                } finally {
+                    statement.close();
+                }
+            }
+            return result;
+        } catch (SQLException ex) {
+            String message = "Error when retrieving Attendances associated with " + ids.size() + " events";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn);
+        }
+    }
+
+    @Override
+    public IntIntHashMap countAttendancesForEvents(Collection<Event> events) {
+        checkDataSource();
+        if (events == null) {
+            throw new IllegalArgumentException("events is null");
+        }
+        logger.info("Counting attendances for {} events", events.size());
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (Event event : events) {
+            if (event == null) {
+                throw new IllegalArgumentException("event is null");
+            }
+            if (event.getId() == null) {
+                throw new IllegalEntityException("event id is null");
+            }
+            ids.add(event.getId());
+        }
+        return countAttendancesBy("eventId", ids, "events");
+    }
+
+    @Override
+    public IntIntHashMap countAttendancesForEvents(Date startDate, Date endDate) {
+        logger.info("Counting attendances for events - Start date {}, End date {}", startDate, endDate);
+        
+        checkDataSource();
+        if (startDate == null) {
+            throw new IllegalArgumentException("startDate is null");
+        }
+        if (endDate == null) {
+            throw new IllegalArgumentException("endDate is null");
+        }
+        if (endDate.before(startDate)) {
+            throw new IllegalArgumentException("endDate is before startDate");
+        }
+        IntIntHashMap result = new IntIntHashMap();
+        Connection conn = null;
+        PreparedStatement statement = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(COUNT_ATTENDANCES_BY_DATE);
+            statement.setTimestamp(1, dateToTimestamp(endDate));
+            statement.setTimestamp(2, dateToTimestamp(startDate));
+            IntIntHashMap recurring = new IntIntHashMap();
+            Map<Integer, Event> series = new HashMap<Integer, Event>();
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                int eventId = rs.getInt("eventId");
+                RecurrenceRule rule = EventManagerImpl.rowToRecurrence(rs);
+                if (rule == null) {
+                    result.put(eventId, rs.getInt("attendances"));
+                } else {
+                    recurring.put(eventId, rs.getInt("attendances"));
+                    // Only the times and the rule are needed for expansion
+                    Event event = new Event();
+                    event.setId(eventId);
+                    event.setStartDate(timestampToDate(rs.getTimestamp("startDate")));
+                    event.setEndDate(timestampToDate(rs.getTimestamp("endDate")));
+                    event.setRecurrence(rule);
+                    series.put(eventId, event);
+                }
+            }
+            rs.close();
+            loadExceptions(conn, series);
+            // Series overlapping the range may have no occurrence in it
+            for (Event event : series.values()) {
+                if (Occurrences.occursIn(event, startDate.getTime(), endDate.getTime())) {
+                    result.put(event.getId(), recurring.get(event.getId()));
+                }
+            }
+            return result;
+        } catch (SQLException ex) {
+            String message = "Error when counting Attendances of events from " + startDate + " to " + endDate;
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, statement);
+        }
+    }
+
+    /**
+     * Loads exceptions of the recurring events by IN queries.
+     */
+    private static void loadExceptions(Connection conn, Map<Integer, Event> series) throws SQLException {
+        for (List<Integer> chunk : DBUtils.splitForInList(series.keySet())) {
+            PreparedStatement st = DBUtils.prepareInStatement(conn, SELECT_EXCEPTIONS_OF_EVENTS, chunk, "");
+            try {
+                ResultSet rs = st.executeQuery();
+                while (rs.next()) {
+                    series.get(rs.getInt(1)).getRecurrence().getExceptions().add(timestampToDate(rs.getTimestamp(2)));
+                }
+                rs.close();
+            } finally {
+                st.close();
+            }
+        }
+    }
+
+    @Override
+    public List<Attendance> findAttendancesForEventPage(Event event, Integer afterId, int pageSize) {
+        logger.info("Finding page of {} attendances for event {} after id {}", 
+                new Object[] {pageSize, event, afterId});
+        
+        checkDataSource();
+        if (event == null) {
+            throw new IllegalArgumentException("event is null");
+        }
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize is not positive");
+        }
+        Connection conn = null;
+        PreparedStatement statement = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(selectAttendances() 
+                    + " WHERE a.eventId = ? AND a.id > ? ORDER BY a.id FETCH FIRST ? ROWS ONLY");
+            statement.setInt(1, event.getId());
+            statement.setInt(2, afterId == null ? Integer.MIN_VALUE : afterId);
+            statement.setInt(3, pageSize);
+            return executeQueryForMultipleAttendances(statement, newLoader());
+        } catch (SQLException ex) {
+            String message = "Error when retrieving page of Attendances associated with event " + event;
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, statement);
+        }
+    }
+
     @Override
     public List<Attendance> findAttendancesForPerson(Person person) {
         logger.info("Finding all attendances for person {}", person);
@@ -231,9 +695,9 @@ public class AttendanceManagerImpl implements AttendanceManager {
         try {
             conn = dataSource.getConnection();
             statement = conn.prepareStatement(
-                    "SELECT id,eventId,personId,plannedArrivalTime FROM attendance WHERE personId = ?");
+                    selectAttendances() + " WHERE a.personId = ?");
             statement.setInt(1, person.getId());
-            return executeQueryForMultipleAttendances(statement);
+            return executeQueryForMultipleAttendances(statement, newLoader());
         } catch (SQLException ex) {
             String message = "Error when retrieving Attendances associated with person " + person;
             logger.error(message, ex);
@@ -243,10 +707,422 @@ public class AttendanceManagerImpl implements AttendanceManager {
         }
     }
     
-    private static Attendance executeQueryForSingleAttendance(PreparedStatement st) throws SQLException, ServiceFailureException {
+    @Override
+    public IntIntHashMap countAttendancesForPersons(Collection<Person> persons) {
+        checkDataSource();
+        if (persons == null) {
+            throw new IllegalArgumentException("persons is null");
+        }
+        logger.info("Counting attendances for {} persons", persons.size());
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (Person person : persons) {
+            if (person == null) {
+                throw new IllegalArgumentException("person is null");
+            }
+            if (person.getId() == null) {
+                throw new IllegalEntityException("person id is null");
+            }
+            ids.add(person.getId());
+        }
+        return countAttendancesBy("personId", ids, "persons");
+    }
+
+    /**
+     * Counts attendances grouped by given column for ids in IN lists, the 
+     * counts are read from the index on the column.
+     * 
+     * @param column eventId or personId
+     * @param ids ids of the referenced entities
+     * @param entities name of the entities for error messages
+     */
+    private IntIntHashMap countAttendancesBy(String column, Set<Integer> ids, String entities) {
+        IntIntHashMap result = new IntIntHashMap(ids.size());
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            for (List<Integer> chunk : DBUtils.splitForInList(ids)) {
+                PreparedStatement statement = DBUtils.prepareInStatement(conn, "SELECT " + column 
+                        + ", COUNT(*) AS attendances FROM attendance WHERE " + column + " IN ", 
+                        chunk, " GROUP BY " + column);
+                try {
+                    ResultSet rs = statement.executeQuery();
+                    while (rs.next()) {
+                        result.put(rs.getInt(1), rs.getInt(2));
+                    }
+                    rs.close();
+                } finally {
+                    statement.close();
+                }
+            }
+            return result;
+        } catch (SQLException ex) {
+            String message = "Error when counting Attendances of " + ids.size() + " " + entities;
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn);
+        }
+    }
+
+    @Override
+    public void findAttendancesForPerson(Person person, ResultHandler<Attendance> handler) {
+        logger.info("Streaming all attendances for person {}", person);
+        
+        checkDataSource();
+        if (person == null) {
+            throw new IllegalArgumentException("person is null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        Connection conn = null;
+        PreparedStatement statement = null;
+        PreparedStatement exceptionsSt = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(
+                    SELECT_ATTENDANCES_WITH_RECURRENCE + " WHERE a.personId = ? ORDER BY a.eventId");
+            statement.setFetchSize(fetchSize);
+            statement.setInt(1, person.getId());
+            exceptionsSt = conn.prepareStatement(EventManagerImpl.SELECT_EXCEPTIONS);
+            ResultSet rs = statement.executeQuery();
+            while (rs.next()) {
+                // Events are not shared among rows, see findAllAttendances
+                Attendance attendance = resultToAttendance(rs, null, null);
+                if (attendance.getEvent() != null) {
+                    attendance.getEvent().setRecurrence(EventManagerImpl.rowToRecurrence(rs));
+                    EventManagerImpl.loadExceptions(exceptionsSt, attendance.getEvent());
+                }
+                if (!handler.handle(attendance)) {
+                    break;
+                }
+            }
+            rs.close();
+        } catch (SQLException ex) {
+            String message = "Error when streaming Attendances associated with person " + person;
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, statement, exceptionsSt);
+        }
+    }
+    
+    @Override
+    public List<TimeInterval> getFreeBusy(Person person, Date startDate, Date endDate) {
+        if (person == null) {
+            throw new IllegalArgumentException("person is null");
+        }
+        return getFreeBusy(Collections.singletonList(person), startDate, endDate).get(person);
+    }
+
+    @Override
+    public Map<Person, List<TimeInterval>> getFreeBusy(Collection<Person> persons, Date startDate, Date endDate) {
+        checkDataSource();
+        if (persons == null) {
+            throw new IllegalArgumentException("persons is null");
+        }
+        if (startDate == null) {
+            throw new IllegalArgumentException("startDate is null");
+        }
+        if (endDate == null) {
+            throw new IllegalArgumentException("endDate is null");
+        }
+        if (endDate.before(startDate)) {
+            throw new IllegalArgumentException("endDate is before startDate");
+        }
+        logger.info("Computing free/busy of {} persons - Start date {}, End date {}", 
+                new Object[] {persons.size(), startDate, endDate});
+        // Attended times of every person as {start, end} pairs
+        Map<Integer, List<long[]>> busy = new LinkedHashMap<Integer, List<long[]>>();
+        for (Person person : persons) {
+            if (person == null) {
+                throw new IllegalArgumentException("person is null");
+            }
+            if (person.getId() == null) {
+                throw new IllegalEntityException("person id is null");
+            }
+            busy.put(person.getId(), new ArrayList<long[]>());
+        }
+        
+        Connection conn = null;
+        PreparedStatement exceptionsSt = null;
+        try {
+            conn = dataSource.getConnection();
+            exceptionsSt = conn.prepareStatement(EventManagerImpl.SELECT_EXCEPTIONS);
+            // Recurring events are shared by their attendees, their 
+            // exceptions are loaded once
+            Map<Integer, Event> recurring = new HashMap<Integer, Event>();
+            for (List<Integer> chunk : DBUtils.splitForInList(busy.keySet())) {
+                loadBusyTimes(conn, exceptionsSt, chunk, startDate, endDate, recurring, busy);
+            }
+        } catch (SQLException ex) {
+            String message = "Error when computing free/busy of persons " + persons;
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, exceptionsSt);
+        }
+        
+        Map<Person, List<TimeInterval>> result = new LinkedHashMap<Person, List<TimeInterval>>();
+        for (Person person : persons) {
+            result.put(person, merge(busy.get(person.getId()), startDate.getTime(), endDate.getTime()));
+        }
+        return result;
+    }
+    
+    private static void loadBusyTimes(Connection conn, PreparedStatement exceptionsSt, 
+            List<Integer> personIds, Date startDate, Date endDate, 
+            Map<Integer, Event> recurring, Map<Integer, List<long[]>> busy) throws SQLException {
+        PreparedStatement st = DBUtils.prepareInStatement(conn, SELECT_BUSY_EVENTS, personIds, "", 2);
+        try {
+            st.setTimestamp(1, dateToTimestamp(endDate));
+            st.setTimestamp(2, dateToTimestamp(startDate));
+            ResultSet rs = st.executeQuery();
+            while (rs.next()) {
+                List<long[]> times = busy.get(rs.getInt("personId"));
+                Event event = EventManagerImpl.rowToEvent(rs);
+                if (event.getRecurrence() == null) {
+                    times.add(new long[] {event.getStartDate().getTime(), event.getEndDate().getTime()});
+                    continue;
+                }
+                if (recurring.containsKey(event.getId())) {
+                    event = recurring.get(event.getId());
+                } else {
+                    EventManagerImpl.loadExceptions(exceptionsSt, event);
+                    recurring.put(event.getId(), event);
+                }
+                for (Event occurrence : Occurrences.expand(event, startDate.getTime(), endDate.getTime())) {
+                    times.add(new long[] {occurrence.getStartDate().getTime(), occurrence.getEndDate().getTime()});
+                }
+            }
+            rs.close();
+        } finally {
+            st.close();
+        }
+    }
+    
+    /**
+     * Sorts times by start and merges overlapping and touching ones in one 
+     * pass, merged intervals are clipped to the range.
+     */
+    private static List<TimeInterval> merge(List<long[]> times, long from, long to) {
+        Collections.sort(times, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] o1, long[] o2) {
+                return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
+            }
+        });
+        List<TimeInterval> result = new ArrayList<TimeInterval>();
+        long start = 0;
+        long end = Long.MIN_VALUE;
+        for (long[] time : times) {
+            if (time[0] > end) {
+                if (end != Long.MIN_VALUE) {
+                    result.add(clip(start, end, from, to));
+                }
+                start = time[0];
+                end = time[1];
+            } else if (time[1] > end) {
+                end = time[1];
+            }
+        }
+        if (end != Long.MIN_VALUE) {
+            result.add(clip(start, end, from, to));
+        }
+        return result;
+    }
+    
+    private static TimeInterval clip(long start, long end, long from, long to) {
+        return new TimeInterval(new Date(Math.max(start, from)), new Date(Math.min(end, to)));
+    }
+    
+    @Override
+    public List<AttendanceConflict> findConflicts(Date startDate, Date endDate) {
+        logger.info("Finding conflicting attendances - Start date {}, End date {}", startDate, endDate);
+        
+        checkDataSource();
+        if (startDate == null) {
+            throw new IllegalArgumentException("startDate is null");
+        }
+        if (endDate == null) {
+            throw new IllegalArgumentException("endDate is null");
+        }
+        if (endDate.before(startDate)) {
+            throw new IllegalArgumentException("endDate is before startDate");
+        }
+        Connection conn = null;
+        PreparedStatement statement = null;
+        List<Attendance> attendances;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(SELECT_ATTENDANCES_WITH_RECURRENCE 
+                    + " WHERE e.startDate <= ? AND (e.seriesEndDate >= ? OR e.seriesEndDate IS NULL)"
+                    + " AND a.personId IS NOT NULL ORDER BY a.personId");
+            statement.setTimestamp(1, dateToTimestamp(endDate));
+            statement.setTimestamp(2, dateToTimestamp(startDate));
+            attendances = executeQueryForAttendancesWithRecurrence(conn, statement);
+        } catch (SQLException ex) {
+            String message = "Error when finding conflicting Attendances";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, statement);
+        }
+        
+        List<AttendanceConflict> result = new ArrayList<AttendanceConflict>();
+        int personStart = 0;
+        for (int i = 1; i <= attendances.size(); i++) {
+            if (i == attendances.size() || !attendances.get(i).getPerson().equals(
+                    attendances.get(personStart).getPerson())) {
+                sweepConflicts(attendances.subList(personStart, i), 
+                        startDate.getTime(), endDate.getTime(), result);
+                personStart = i;
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Occurrence of an attended event.
+     */
+    private static class Booking {
+        final long start;
+        final long end;
+        final Attendance attendance;
+
+        Booking(long start, long end, Attendance attendance) {
+            this.start = start;
+            this.end = end;
+            this.attendance = attendance;
+        }
+    }
+    
+    /**
+     * Finds conflicts among attendances of one person. Occurrences are sorted 
+     * by start and swept while keeping occurrences which have not ended yet, 
+     * every new occurrence conflicts with all of them.
+     */
+    private static void sweepConflicts(List<Attendance> attendances, long from, long to, 
+            List<AttendanceConflict> result) {
+        if (attendances.size() < 2) {
+            return;
+        }
+        List<Booking> bookings = new ArrayList<Booking>();
+        for (Attendance attendance : attendances) {
+            for (Event occurrence : Occurrences.expand(attendance.getEvent(), from, to)) {
+                bookings.add(new Booking(occurrence.getStartDate().getTime(), 
+                        occurrence.getEndDate().getTime(), attendance));
+            }
+        }
+        Collections.sort(bookings, new Comparator<Booking>() {
+            @Override
+            public int compare(Booking o1, Booking o2) {
+                return o1.start < o2.start ? -1 : (o1.start == o2.start ? 0 : 1);
+            }
+        });
+        
+        List<Booking> active = new ArrayList<Booking>();
+        Set<Long> reported = new HashSet<Long>();
+        for (Booking booking : bookings) {
+            Iterator<Booking> iterator = active.iterator();
+            while (iterator.hasNext()) {
+                Booking other = iterator.next();
+                if (other.end <= booking.start) {
+                    iterator.remove();
+                } else if (other.attendance != booking.attendance) {
+                    Attendance first = other.attendance;
+                    Attendance second = booking.attendance;
+                    if (first.getId() > second.getId()) {
+                        first = booking.attendance;
+                        second = other.attendance;
+                    }
+                    if (reported.add(((long) first.getId() << 32) | (second.getId() & 0xFFFFFFFFL))) {
+                        result.add(new AttendanceConflict(first, second));
+                    }
+                }
+            }
+            active.add(booking);
+        }
+    }
+    
+    /**
+     * Throws AttendanceConflictException when the attendance with given id 
+     * overlaps other attendances of its person. It is called after the 
+     * attendance is written and before commit. A concurrent transaction 
+     * checking the same person waits for the lock of the written row, so two 
+     * conflicting attendances can not be committed both.
+     */
+    private static void checkConflicts(Connection conn, Attendance attendance, int id) throws SQLException {
+        Event event = EventManagerImpl.loadEvent(conn, attendance.getEventId());
+        if (event == null) {
+            return;
+        }
+        long seriesEnd = Occurrences.seriesEnd(event);
+        boolean bounded = seriesEnd != Occurrences.UNBOUNDED;
+        PreparedStatement st = conn.prepareStatement(SELECT_CONFLICT_CANDIDATES 
+                + (bounded ? " AND e.startDate < ?" : ""));
+        List<Attendance> conflicts = new ArrayList<Attendance>();
+        try {
+            st.setInt(1, attendance.getPersonId());
+            st.setInt(2, id);
+            st.setTimestamp(3, dateToTimestamp(event.getStartDate()));
+            if (bounded) {
+                st.setTimestamp(4, new Timestamp(seriesEnd));
+            }
+            for (Attendance candidate : executeQueryForAttendancesWithRecurrence(conn, st)) {
+                if (Occurrences.overlap(event, candidate.getEvent())) {
+                    conflicts.add(candidate);
+                }
+            }
+        } finally {
+            st.close();
+        }
+        if (!conflicts.isEmpty()) {
+            logger.warn("Attendance {} conflicts with attendances {}", attendance, conflicts);
+            throw new AttendanceConflictException(attendance, conflicts);
+        }
+    }
+    
+    private static List<Attendance> executeQueryForAttendancesWithRecurrence(Connection conn, 
+            PreparedStatement st) throws SQLException {
+        ResultSet rs = st.executeQuery();
+        List<Attendance> result = new ArrayList<Attendance>();
+        Map<Integer, Event> events = new HashMap<Integer, Event>();
+        Map<Integer, Person> persons = new HashMap<Integer, Person>();
+        List<Event> recurring = new ArrayList<Event>();
+        while (rs.next()) {
+            Attendance attendance = resultToAttendance(rs, events, persons);
+            if (attendance.getEvent() == null || attendance.getPerson() == null) {
+                continue;
+            }
+            // Events are shared, recurrence is read until it is found
+            if (attendance.getEvent().getRecurrence() == null) {
+                RecurrenceRule rule = EventManagerImpl.rowToRecurrence(rs);
+                if (rule != null) {
+                    attendance.getEvent().setRecurrence(rule);
+                    recurring.add(attendance.getEvent());
+                }
+            }
+            result.add(attendance);
+        }
+        rs.close();
+        PreparedStatement exceptionsSt = conn.prepareStatement(EventManagerImpl.SELECT_EXCEPTIONS);
+        try {
+            for (Event event : recurring) {
+                EventManagerImpl.loadExceptions(exceptionsSt, event);
+            }
+        } finally {
+            exceptionsSt.close();
+        }
+        return result;
+    }
+    
+    private static Attendance executeQueryForSingleAttendance(PreparedStatement st, 
+            LazyReferenceLoader loader) throws SQLException, ServiceFailureException {
         ResultSet rs = st.executeQuery();
         if (rs.next()) {
-            Attendance result = resultToAttendance(rs);                
+            Attendance result = loader != null ? resultToLazyAttendance(rs, loader) : resultToAttendance(rs, 
+                    new HashMap<Integer, Event>(), new HashMap<Integer, Person>());                
             if (rs.next()) {
                 throw new ServiceFailureException(
                         "Internal integrity error: more attendances with the same id found!");
@@ -259,31 +1135,102 @@ public class AttendanceManagerImpl implements AttendanceManager {
         }
     }
 
-    private static List<Attendance> executeQueryForMultipleAttendances(PreparedStatement statement) throws SQLException {
+    /**
+     * Maps all rows of the query, lazily when loader is given.
+     */
+    private static List<Attendance> executeQueryForMultipleAttendances(PreparedStatement statement, 
+            LazyReferenceLoader loader) throws SQLException {
         ResultSet rs = statement.executeQuery();
         List<Attendance> result = new ArrayList<Attendance>();
+        // Events and persons already mapped in this result, so the attendances 
+        // referencing the same entity share one instance
+        Map<Integer, Event> events = new HashMap<Integer, Event>();
+        Map<Integer, Person> persons = new HashMap<Integer, Person>();
         while (rs.next()) {
-            result.add(resultToAttendance(rs));
+            result.add(loader != null ? resultToLazyAttendance(rs, loader) : resultToAttendance(rs, events, persons));
         }
         rs.close();
         return result;
     }
 
-    private static Attendance resultToAttendance(ResultSet rs) throws SQLException {
+    /**
+     * Maps current row to attendance. Events and persons already mapped are 
+     * looked up in given maps and new ones are added there, null maps 
+     * disable sharing of the instances.
+     */
+    private static Attendance resultToAttendance(ResultSet rs, 
+            Map<Integer, Event> events, Map<Integer, Person> persons) throws SQLException {
+        Attendance att = new Attendance();
+        att.setId(rs.getInt("id"));
+        att.setEvent(resultToEvent(rs, events));
+        att.setPerson(resultToPerson(rs, persons));
+        att.setPlannedArrivalTime(timestampToDate(rs.getTimestamp("plannedArrivalTime")));
+        return att;
+    }
+    
+    /**
+     * Maps current row of attendance columns only, the references are 
+     * registered in the loader.
+     */
+    private static Attendance resultToLazyAttendance(ResultSet rs, LazyReferenceLoader loader) 
+            throws SQLException {
         Attendance att = new Attendance();
-        EventManagerImpl eventManager = new EventManagerImpl();
-        PersonManagerImpl personManager = new PersonManagerImpl();
-        
-        eventManager.setDataSource(dataSource);
-        personManager.setDataSource(dataSource);
-        
         att.setId(rs.getInt("id"));
-        att.setEvent(eventManager.getEventById(new Integer(rs.getInt("eventId"))));
-        att.setPerson(personManager.getPersonById(new Integer(rs.getInt("personId"))));
+        int eventId = rs.getInt("eventId");
+        Integer eventRef = rs.wasNull() ? null : eventId;
+        int personId = rs.getInt("personId");
+        Integer personRef = rs.wasNull() ? null : personId;
+        loader.add(att, eventRef, personRef);
         att.setPlannedArrivalTime(timestampToDate(rs.getTimestamp("plannedArrivalTime")));
-        //rs.close();
         return att;
     }
+    
+    private static Event resultToEvent(ResultSet rs, Map<Integer, Event> events) throws SQLException {
+        int eventId = rs.getInt("eventId");
+        if (rs.wasNull()) {
+            return null;
+        }
+        Event event = events == null ? null : events.get(eventId);
+        if (event == null) {
+            // Referenced row does not exist, outer join gives nulls only
+            if (rs.getTimestamp("eventStartDate") == null && rs.getString("eventName") == null) {
+                return null;
+            }
+            event = new Event();
+            event.setId(eventId);
+            event.setName(rs.getString("eventName"));
+            event.setStartDate(timestampToDate(rs.getTimestamp("eventStartDate")));
+            event.setEndDate(timestampToDate(rs.getTimestamp("eventEndDate")));
+            event.setNote(rs.getString("eventNote"));
+            if (events != null) {
+                events.put(eventId, event);
+            }
+        }
+        return event;
+    }
+    
+    private static Person resultToPerson(ResultSet rs, Map<Integer, Person> persons) throws SQLException {
+        int personId = rs.getInt("personId");
+        if (rs.wasNull()) {
+            return null;
+        }
+        Person person = persons == null ? null : persons.get(personId);
+        if (person == null) {
+            // Referenced row does not exist, outer join gives nulls only
+            if (rs.getString("personName") == null && rs.getString("personEmail") == null) {
+                return null;
+            }
+            person = new Person();
+            person.setId(personId);
+            person.setName(rs.getString("personName"));
+            person.setEmail(rs.getString("personEmail"));
+            person.setNote(rs.getString("personNote"));
+            if (persons != null) {
+                persons.put(personId, person);
+            }
+        }
+        return person;
+    }
 
     private static Timestamp dateToTimestamp(Date date) {
         if (date == null) {
@@ -301,14 +1248,15 @@ public class AttendanceManagerImpl implements AttendanceManager {
         return new Date(timestamp.getTime());
     }
     
-    private static void validate(Attendance attendance) {       
+    static void validate(Attendance attendance) {       
         if (attendance == null) {
             throw new IllegalArgumentException("attendance is null");            
         }
-        if (attendance.getEvent() == null) {
+        // Ids are checked first, so lazy references are not loaded
+        if (attendance.getEventId() == null && attendance.getEvent() == null) {
             throw new IllegalArgumentException("event is null");            
         }
-        if (attendance.getPerson() == null) {
+        if (attendance.getPersonId() == null && attendance.getPerson() == null) {
             throw new IllegalArgumentException("person is null");            
         }           
     }
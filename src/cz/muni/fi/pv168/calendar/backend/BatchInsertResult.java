@@ -0,0 +1,61 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a bulk insert which commits in several transactions. Entities
+ * of committed transactions are inserted and have their ids set, entities of
+ * transactions which failed are rolled back and reported as failed.
+ *
+ * @author Jiri Stary
+ */
+public class BatchInsertResult<T> {
+
+    private final List<T> inserted = new ArrayList<T>();
+    private final List<T> failed = new ArrayList<T>();
+    private final List<Exception> errors = new ArrayList<Exception>();
+
+    void addInserted(List<T> entities) {
+        inserted.addAll(entities);
+    }
+
+    void addFailed(List<T> entities, Exception cause) {
+        failed.addAll(entities);
+        errors.add(cause);
+    }
+
+    /**
+     * @return entities which were inserted and committed
+     */
+    public List<T> getInserted() {
+        return Collections.unmodifiableList(inserted);
+    }
+
+    /**
+     * @return entities which were not inserted because their transaction failed
+     */
+    public List<T> getFailed() {
+        return Collections.unmodifiableList(failed);
+    }
+
+    /**
+     * @return causes of failed transactions
+     */
+    public List<Exception> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /**
+     * @return true when all entities were inserted
+     */
+    public boolean isSuccessful() {
+        return failed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "BatchInsertResult{" + "inserted=" + inserted.size() + ", failed=" + failed.size() + '}';
+    }
+}
@@ -0,0 +1,629 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads large amounts of persons, events and attendances from CSV files by
+ * Derby import procedure SYSCS_UTIL.SYSCS_IMPORT_DATA, which inserts rows
+ * without round trips per row.
+ *
+ * Every file is read twice. The streaming pre-pass validates records the same
+ * way as the managers do and writes the valid ones to a staging file, which
+ * is then imported by the database. Invalid records are skipped and reported
+ * in the result. The import runs inside the database, so the staging files
+ * are created in the temporary directory of this JVM and the database must be
+ * embedded or share the file system.
+ *
+ * Records are identified by ids used in the files only, they are mapped to
+ * generated ids after the import. Columns of the files, without header:
+ * <ul>
+ * <li>persons: id, name, email, note</li>
+ * <li>events: id, name, startDate, endDate, note and optionally recurrence
+ * frequency, interval, count and until</li>
+ * <li>attendances: personId, eventId and optionally plannedArrivalTime</li>
+ * </ul>
+ * Times are written as {@value #DATE_PATTERN} in the default time zone, empty
+ * unquoted field is null.
+ *
+ * The import procedure commits every table separately, tables loaded before
+ * a failure stay loaded. The procedure also commits the imported rows before
+ * they are recorded to the change log and to the search index of events, so
+ * the import of a table is not atomic: other transactions may see its rows
+ * meanwhile, and when recording fails, the imported rows are deleted again.
+ * Persons with emails already stored fail the import of persons, duplicate
+ * emails within the file are rejected. Caches of managers are not updated,
+ * the change log and the search index of events are.
+ *
+ * @author Jiri Stary
+ */
+public class BulkLoader {
+
+    final static Logger logger = LoggerFactory.getLogger(BulkLoader.class);
+
+    /**
+     * Format of times in the loaded files.
+     */
+    public static final String DATE_PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    static final int MAX_TEXT_LENGTH = 255;
+    private static final int MAX_ERRORS = 100;
+
+    /**
+     * Numbers of loaded rows, messages of the first errors and speed of the
+     * load.
+     */
+    public static class Result {
+        private int personCount;
+        private int eventCount;
+        private int attendanceCount;
+        private int rejectedCount;
+        private long elapsedMillis;
+        private final List<String> errors = new ArrayList<String>();
+
+        /**
+         * @return number of loaded persons
+         */
+        public int getPersonCount() {
+            return personCount;
+        }
+
+        /**
+         * @return number of loaded events
+         */
+        public int getEventCount() {
+            return eventCount;
+        }
+
+        /**
+         * @return number of loaded attendances
+         */
+        public int getAttendanceCount() {
+            return attendanceCount;
+        }
+
+        /**
+         * @return number of invalid records which were skipped
+         */
+        public int getRejectedCount() {
+            return rejectedCount;
+        }
+
+        /**
+         * @return messages of at most 100 first errors
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        /**
+         * @return duration of the whole load including validation and index
+         * rebuild
+         */
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /**
+         * @return loaded rows of all tables per second
+         */
+        public double getRowsPerSecond() {
+            int rows = personCount + eventCount + attendanceCount;
+            return elapsedMillis == 0 ? rows * 1000.0 : rows * 1000.0 / elapsedMillis;
+        }
+
+        private void reject(String file, int lineNumber, String error) {
+            rejectedCount++;
+            String message = "Rejected " + file + " record at line " + lineNumber + ": " + error;
+            logger.warn(message);
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(message);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + "persons=" + personCount + ", events=" + eventCount
+                    + ", attendances=" + attendanceCount + ", rejected=" + rejectedCount
+                    + ", elapsedMillis=" + elapsedMillis + '}';
+        }
+    }
+
+    /**
+     * Temporary file with validated rows in the format read by the import
+     * procedure.
+     */
+    private static class StagingFile {
+        final File file;
+        final Writer writer;
+        int rows;
+
+        StagingFile(String table) throws IOException {
+            file = File.createTempFile("pv168-" + table.toLowerCase(), ".csv");
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        }
+
+        void writeRow(Object... values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                Object value = values[i];
+                if (value instanceof Date) {
+                    value = new Timestamp(((Date) value).getTime());
+                }
+                if (value instanceof String || value instanceof Timestamp) {
+                    writer.write('"');
+                    writer.write(value.toString().replace("\"", "\"\""));
+                    writer.write('"');
+                } else if (value != null) {
+                    writer.write(value.toString());
+                }
+            }
+            writer.write('\n');
+            rows++;
+        }
+
+        void close() throws IOException {
+            writer.close();
+        }
+
+        void delete() {
+            try {
+                writer.close();
+            } catch (IOException ex) {
+                logger.error("Error when closing staging file " + file, ex);
+            }
+            if (!file.delete()) {
+                logger.warn("Staging file {} was not deleted", file);
+            }
+        }
+    }
+
+    private DataSource dataSource;
+    private boolean rebuildIndexes = true;
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Sets whether indexes of the loaded tables are rebuilt after the load.
+     * Rebuilding compacts the tables and refreshes statistics used by the
+     * optimizer, it is on by default.
+     *
+     * @param rebuildIndexes true to rebuild indexes
+     */
+    public void setRebuildIndexes(boolean rebuildIndexes) {
+        this.rebuildIndexes = rebuildIndexes;
+    }
+
+    private void checkDataSource() {
+        if (dataSource == null) {
+            throw new IllegalStateException("DataSource is not set");
+        }
+    }
+
+    /**
+     * Loads persons, events and attendances. Attendances may refer only to
+     * persons and events loaded by the same call.
+     *
+     * @param persons CSV with persons or null
+     * @param events CSV with events or null
+     * @param attendances CSV with attendances or null
+     * @return numbers of loaded rows and speed of the load
+     * @throws IOException when reading or staging fails
+     * @throws ServiceFailureException when the import fails
+     */
+    public Result load(Reader persons, Reader events, Reader attendances) throws IOException {
+        checkDataSource();
+        logger.info("Bulk loading persons, events and attendances");
+        long start = System.currentTimeMillis();
+        Result result = new Result();
+        List<String> loadedTables = new ArrayList<String>();
+        Map<String, Integer> personIds = new HashMap<String, Integer>();
+        Map<String, Integer> eventIds = new HashMap<String, Integer>();
+
+        if (persons != null) {
+            StagingFile staging = new StagingFile("PERSON");
+            try {
+                stagePersons(new CsvReader(persons), staging, personIds, result);
+                mapIds(personIds, importStaged("PERSON", "NAME,EMAIL,NOTE", staging, Change.EntityType.PERSON));
+                result.personCount = staging.rows;
+                loadedTables.add("PERSON");
+            } finally {
+                staging.delete();
+            }
+        }
+        if (events != null) {
+            StagingFile staging = new StagingFile("EVENT");
+            try {
+                stageEvents(new CsvReader(events), staging, eventIds, result);
+                mapIds(eventIds, importStaged("EVENT", "NAME,STARTDATE,ENDDATE,NOTE,RECURRENCEFREQUENCY,"
+                        + "RECURRENCEINTERVAL,RECURRENCECOUNT,RECURRENCEUNTIL,SERIESENDDATE",
+                        staging, Change.EntityType.EVENT));
+                result.eventCount = staging.rows;
+                loadedTables.add("EVENT");
+            } finally {
+                staging.delete();
+            }
+        }
+        if (attendances != null) {
+            StagingFile staging = new StagingFile("ATTENDANCE");
+            try {
+                stageAttendances(new CsvReader(attendances), staging, personIds, eventIds, result);
+                importStaged("ATTENDANCE", "PERSONID,EVENTID,PLANNEDARRIVALTIME", staging,
+                        Change.EntityType.ATTENDANCE);
+                result.attendanceCount = staging.rows;
+                loadedTables.add("ATTENDANCE");
+            } finally {
+                staging.delete();
+            }
+        }
+        if (rebuildIndexes) {
+            rebuildIndexes(loadedTables);
+        }
+
+        result.elapsedMillis = System.currentTimeMillis() - start;
+        logger.info("Bulk load finished: {}, {} rows/s", result, Math.round(result.getRowsPerSecond()));
+        return result;
+    }
+
+    private static void stagePersons(CsvReader reader, StagingFile staging, Map<String, Integer> ids,
+            Result result) throws IOException {
+        // Duplicate email would make the database reject the whole import
+        Set<String> emails = new HashSet<String>();
+        List<String> record;
+        while ((record = reader.readRecord()) != null) {
+            String error = checkRecord(record, 4, 4, ids);
+            if (error == null && record.get(2) != null && emails.contains(record.get(2))) {
+                error = "email " + record.get(2) + " is duplicate";
+            }
+            if (error == null) {
+                Person person = new Person();
+                person.setName(record.get(1));
+                person.setEmail(record.get(2));
+                person.setNote(record.get(3));
+                try {
+                    PersonManagerImpl.validate(person);
+                    checkLength(person.getName(), person.getEmail(), person.getNote());
+                    ids.put(record.get(0), staging.rows);
+                    emails.add(person.getEmail());
+                    staging.writeRow(person.getName(), person.getEmail(), person.getNote());
+                } catch (IllegalArgumentException ex) {
+                    error = ex.getMessage();
+                }
+            }
+            if (error != null) {
+                result.reject("person", reader.getLineNumber(), error);
+            }
+        }
+        staging.close();
+    }
+
+    private static void stageEvents(CsvReader reader, StagingFile staging, Map<String, Integer> ids,
+            Result result) throws IOException {
+        SimpleDateFormat format = dateFormat();
+        List<String> record;
+        while ((record = reader.readRecord()) != null) {
+            String error = checkRecord(record, 5, 9, ids);
+            if (error == null) {
+                try {
+                    Event event = new Event();
+                    event.setName(record.get(1));
+                    event.setStartDate(parseDate(format, record.get(2)));
+                    event.setEndDate(parseDate(format, record.get(3)));
+                    event.setNote(record.get(4));
+                    if (record.size() > 5 && record.get(5) != null) {
+                        RecurrenceRule rule = new RecurrenceRule();
+                        rule.setFrequency(RecurrenceRule.Frequency.valueOf(record.get(5)));
+                        if (record.size() > 6 && record.get(6) != null) {
+                            rule.setInterval(Integer.parseInt(record.get(6)));
+                        }
+                        if (record.size() > 7 && record.get(7) != null) {
+                            rule.setCount(Integer.parseInt(record.get(7)));
+                        }
+                        if (record.size() > 8) {
+                            rule.setUntil(parseDate(format, record.get(8)));
+                        }
+                        event.setRecurrence(rule);
+                    }
+                    EventManagerImpl.validate(event);
+                    checkLength(event.getName(), event.getNote());
+                    RecurrenceRule rule = event.getRecurrence();
+                    long seriesEnd = Occurrences.seriesEnd(event);
+                    ids.put(record.get(0), staging.rows);
+                    staging.writeRow(event.getName(), event.getStartDate(), event.getEndDate(), event.getNote(),
+                            rule == null ? null : rule.getFrequency().name(),
+                            rule == null ? null : rule.getInterval(),
+                            rule == null ? null : rule.getCount(),
+                            rule == null ? null : rule.getUntil(),
+                            seriesEnd == Occurrences.UNBOUNDED ? null : new Date(seriesEnd));
+                } catch (IllegalArgumentException ex) {
+                    // Also NumberFormatException and unknown frequency
+                    error = ex.getMessage();
+                }
+            }
+            if (error != null) {
+                result.reject("event", reader.getLineNumber(), error);
+            }
+        }
+        staging.close();
+    }
+
+    private static void stageAttendances(CsvReader reader, StagingFile staging, Map<String, Integer> personIds,
+            Map<String, Integer> eventIds, Result result) throws IOException {
+        SimpleDateFormat format = dateFormat();
+        List<String> record;
+        while ((record = reader.readRecord()) != null) {
+            String error = null;
+            if (record.size() < 2 || record.size() > 3) {
+                error = "expected 2 to 3 fields, found " + record.size();
+            } else {
+                Attendance attendance = new Attendance();
+                Integer personId = record.get(0) == null ? null : personIds.get(record.get(0));
+                Integer eventId = record.get(1) == null ? null : eventIds.get(record.get(1));
+                if (personId != null) {
+                    attendance.setPerson(new Person());
+                    attendance.getPerson().setId(personId);
+                }
+                if (eventId != null) {
+                    attendance.setEvent(new Event());
+                    attendance.getEvent().setId(eventId);
+                }
+                try {
+                    if (personId == null) {
+                        throw new IllegalArgumentException("person " + record.get(0) + " is not loaded");
+                    }
+                    if (eventId == null) {
+                        throw new IllegalArgumentException("event " + record.get(1) + " is not loaded");
+                    }
+                    AttendanceManagerImpl.validate(attendance);
+                    if (record.size() > 2) {
+                        attendance.setPlannedArrivalTime(parseDate(format, record.get(2)));
+                    }
+                    staging.writeRow(personId, eventId, attendance.getPlannedArrivalTime());
+                } catch (IllegalArgumentException ex) {
+                    error = ex.getMessage();
+                }
+            }
+            if (error != null) {
+                result.reject("attendance", reader.getLineNumber(), error);
+            }
+        }
+        staging.close();
+    }
+
+    /**
+     * Checks number of fields and the id in the first one.
+     *
+     * @return error message or null when the record can be validated
+     */
+    private static String checkRecord(List<String> record, int minFields, int maxFields, Map<String, Integer> ids) {
+        if (record.size() < minFields || record.size() > maxFields) {
+            return "expected " + minFields + " to " + maxFields + " fields, found " + record.size();
+        }
+        if (record.get(0) == null) {
+            return "id is null";
+        }
+        if (ids.containsKey(record.get(0))) {
+            return "id " + record.get(0) + " is duplicate";
+        }
+        return null;
+    }
+
+    /**
+     * Longer texts would make the database reject the whole import.
+     */
+    private static void checkLength(String... texts) {
+        for (String text : texts) {
+            if (text != null && text.length() > MAX_TEXT_LENGTH) {
+                throw new IllegalArgumentException("text is longer than " + MAX_TEXT_LENGTH + " characters");
+            }
+        }
+    }
+
+    private static SimpleDateFormat dateFormat() {
+        SimpleDateFormat result = new SimpleDateFormat(DATE_PATTERN);
+        result.setLenient(false);
+        return result;
+    }
+
+    /**
+     * @return parsed time or null when value is null
+     * @throws IllegalArgumentException when value is not a time
+     */
+    private static Date parseDate(SimpleDateFormat format, String value) {
+        if (value == null) {
+            return null;
+        }
+        ParsePosition position = new ParsePosition(0);
+        Date result = format.parse(value, position);
+        if (result == null || position.getIndex() != value.length()) {
+            throw new IllegalArgumentException("unparseable time " + value);
+        }
+        return result;
+    }
+
+    /**
+     * Replaces row numbers in the staging file by ids generated for the rows.
+     */
+    private static void mapIds(Map<String, Integer> rows, int[] ids) {
+        for (Map.Entry<String, Integer> entry : rows.entrySet()) {
+            entry.setValue(ids[entry.getValue()]);
+        }
+    }
+
+    /**
+     * Imports staging file into the table and records the created rows to
+     * the change log. When recording fails, the rows committed by the import
+     * procedure are deleted.
+     *
+     * @return generated ids in the order of rows in the staging file
+     */
+    private int[] importStaged(String table, String columns, StagingFile staging, Change.EntityType entityType) {
+        int[] ids = new int[staging.rows];
+        if (staging.rows == 0) {
+            return ids;
+        }
+        long start = System.currentTimeMillis();
+        Connection conn = null;
+        Statement lock = null;
+        CallableStatement importSt = null;
+        PreparedStatement selectSt = null;
+        PreparedStatement recordSt = null;
+        int lastId = 0;
+        boolean imported = false;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in
+            // method DBUtils.closeQuietly(...)
+            conn.setAutoCommit(false);
+            // Nobody else may insert until the import commits, the imported
+            // rows get consecutive ids following the largest id read here
+            lock = conn.createStatement();
+            lock.execute("LOCK TABLE " + table + " IN EXCLUSIVE MODE");
+            ResultSet rs = lock.executeQuery("SELECT MAX(id) FROM " + table);
+            rs.next();
+            lastId = rs.getInt(1);
+            rs.close();
+
+            // The import procedure commits when it finishes
+            importSt = conn.prepareCall("CALL SYSCS_UTIL.SYSCS_IMPORT_DATA(NULL,?,?,NULL,?,NULL,NULL,'UTF-8',0)");
+            importSt.setString(1, table);
+            importSt.setString(2, columns);
+            importSt.setString(3, staging.file.getAbsolutePath());
+            importSt.execute();
+            imported = true;
+
+            selectSt = conn.prepareStatement("SELECT id FROM " + table + " WHERE id > ? ORDER BY id");
+            selectSt.setInt(1, lastId);
+            rs = selectSt.executeQuery();
+            for (int i = 0; i < ids.length; i++) {
+                if (!rs.next()) {
+                    throw new ServiceFailureException("Internal error: " + i + " rows of " + ids.length
+                            + " imported into " + table + " found");
+                }
+                ids[i] = rs.getInt(1);
+            }
+            rs.close();
+
+            recordSt = conn.prepareStatement(ChangeLogManagerImpl.insertChangesOf(entityType, Change.Operation.CREATE)
+                    + "FROM " + table + " WHERE id BETWEEN ? AND ?");
+            recordSt.setInt(1, ids[0]);
+            recordSt.setInt(2, ids[ids.length - 1]);
+            recordSt.executeUpdate();
+            if (entityType == Change.EntityType.EVENT) {
+                EventSearchManagerImpl.indexStoredEvents(conn, ids[0], ids[ids.length - 1]);
+            }
+            conn.commit();
+            long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+            logger.info("Imported {} rows into {} in {} ms ({} rows/s)",
+                    ids.length, table, elapsed, ids.length * 1000L / elapsed);
+            return ids;
+        } catch (SQLException | ServiceFailureException ex) {
+            String message = "Error when importing " + staging.rows + " rows into " + table;
+            logger.error(message, ex);
+            if (imported) {
+                DBUtils.doRollbackQuietly(conn);
+                deleteImported(conn, table, lastId, staging.rows);
+            }
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, lock, importSt, selectSt, recordSt);
+        }
+    }
+
+    /**
+     * Deletes rows committed by the import procedure whose recording failed.
+     * They are the first rows after the largest id before the import, rows
+     * inserted later by others get larger ids.
+     */
+    private static void deleteImported(Connection conn, String table, int lastId, int rows) {
+        PreparedStatement selectSt = null;
+        PreparedStatement deleteSt = null;
+        try {
+            selectSt = conn.prepareStatement("SELECT id FROM " + table + " WHERE id > ? ORDER BY id");
+            selectSt.setInt(1, lastId);
+            selectSt.setMaxRows(rows);
+            ResultSet rs = selectSt.executeQuery();
+            int lastImportedId = lastId;
+            while (rs.next()) {
+                lastImportedId = rs.getInt(1);
+            }
+            rs.close();
+            deleteSt = conn.prepareStatement("DELETE FROM " + table + " WHERE id > ? AND id <= ?");
+            deleteSt.setInt(1, lastId);
+            deleteSt.setInt(2, lastImportedId);
+            int count = deleteSt.executeUpdate();
+            conn.commit();
+            logger.warn("Deleted {} rows of failed import from {}", count, table);
+        } catch (SQLException ex) {
+            logger.error("Error when deleting rows of failed import from " + table 
+                    + ", rows with ids greater than " + lastId + " stay without change log records", ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(null, selectSt, deleteSt);
+        }
+    }
+
+    /**
+     * Rebuilds indexes of the tables and their statistics by compressing
+     * them.
+     */
+    private void rebuildIndexes(List<String> tables) {
+        Connection conn = null;
+        Statement schemaSt = null;
+        CallableStatement compressSt = null;
+        try {
+            conn = dataSource.getConnection();
+            schemaSt = conn.createStatement();
+            ResultSet rs = schemaSt.executeQuery("VALUES CURRENT SCHEMA");
+            rs.next();
+            String schema = rs.getString(1);
+            rs.close();
+            compressSt = conn.prepareCall("CALL SYSCS_UTIL.SYSCS_COMPRESS_TABLE(?,?,0)");
+            for (String table : tables) {
+                long start = System.currentTimeMillis();
+                compressSt.setString(1, schema);
+                compressSt.setString(2, table);
+                compressSt.execute();
+                logger.info("Rebuilt indexes of {} in {} ms", table, System.currentTimeMillis() - start);
+            }
+        } catch (SQLException ex) {
+            String message = "Error when rebuilding indexes of " + tables;
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, schemaSt, compressSt);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.LruCache;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * EventManager which caches events returned by {@link #getEventById(Integer)}
+ * in a bounded LRU cache. Updates and deletes done through this manager 
+ * invalidate cached events, changes done by other managers are seen when the 
+ * cached event expires. Events are copied when they enter or leave the cache.
+ *
+ * @author Jiri Stary
+ */
+public class CachingEventManager implements EventManager {
+
+    private final EventManager delegate;
+    private final LruCache<Integer, Event> cache;
+
+    /**
+     * @param delegate manager used for accessing the database
+     * @param maxSize maximal number of cached events
+     * @param expireAfterWriteMillis time after which a cached event expires, 
+     * 0 when events do not expire
+     */
+    public CachingEventManager(EventManager delegate, int maxSize, long expireAfterWriteMillis) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        this.delegate = delegate;
+        this.cache = new LruCache<Integer, Event>(maxSize, expireAfterWriteMillis);
+    }
+
+    /**
+     * @return cache of events, its counters show hits and misses
+     */
+    public LruCache<Integer, Event> getCache() {
+        return cache;
+    }
+
+    @Override
+    public void createEvent(Event event) {
+        delegate.createEvent(event);
+    }
+
+    @Override
+    public BatchInsertResult<Event> createEvents(Collection<Event> events) {
+        return delegate.createEvents(events);
+    }
+
+    @Override
+    public void updateEvent(Event event) {
+        try {
+            delegate.updateEvent(event);
+        } finally {
+            if (event != null) {
+                cache.invalidate(event.getId());
+            }
+        }
+    }
+
+    @Override
+    public void deleteEvent(Event event) {
+        try {
+            delegate.deleteEvent(event);
+        } finally {
+            if (event != null) {
+                cache.invalidate(event.getId());
+            }
+        }
+    }
+
+    @Override
+    public void deleteEvents(Collection<Event> events) {
+        try {
+            delegate.deleteEvents(events);
+        } finally {
+            if (events != null) {
+                for (Event event : events) {
+                    if (event != null) {
+                        cache.invalidate(event.getId());
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Event getEventById(Integer id) {
+        if (id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+        Event cached = cache.get(id);
+        if (cached != null) {
+            return EntityCopies.copy(cached);
+        }
+        long stamp = cache.getStamp();
+        Event event = delegate.getEventById(id);
+        if (event != null) {
+            cache.putIfNotInvalidated(id, EntityCopies.copy(event), stamp);
+        }
+        return event;
+    }
+
+    @Override
+    public List<Event> findAllEvents() {
+        return delegate.findAllEvents();
+    }
+
+    @Override
+    public List<Event> findEventsByDate(Date startDate, Date endDate) {
+        return delegate.findEventsByDate(startDate, endDate);
+    }
+
+    @Override
+    public void findEventsByDate(Date startDate, Date endDate, ResultHandler<Event> handler) {
+        delegate.findEventsByDate(startDate, endDate, handler);
+    }
+
+    @Override
+    public void findEventSeriesByDate(Date startDate, Date endDate, ResultHandler<Event> handler) {
+        delegate.findEventSeriesByDate(startDate, endDate, handler);
+    }
+}
@@ -0,0 +1,188 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.LruCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PersonManager which caches persons returned by 
+ * {@link #getPersonById(Integer)} in a bounded LRU cache. Updates and deletes 
+ * done through this manager invalidate cached persons, changes done by other 
+ * managers are seen when the cached person expires. Persons are copied when 
+ * they enter or leave the cache.
+ *
+ * Lookups by email are cached too, the email cache holds only ids of the 
+ * persons which are then read through the cache by id. A cached id whose 
+ * person was deleted or got another email is dropped and the person is 
+ * looked up again, so the email cache can not return a stale person even 
+ * after changes done by other managers.
+ *
+ * @author Jan Smerda
+ */
+public class CachingPersonManager implements PersonManager {
+
+    private final PersonManager delegate;
+    private final LruCache<Integer, Person> cache;
+    private final LruCache<String, Integer> emailCache;
+
+    /**
+     * @param delegate manager used for accessing the database
+     * @param maxSize maximal number of cached persons
+     * @param expireAfterWriteMillis time after which a cached person expires, 
+     * 0 when persons do not expire
+     */
+    public CachingPersonManager(PersonManager delegate, int maxSize, long expireAfterWriteMillis) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        this.delegate = delegate;
+        this.cache = new LruCache<Integer, Person>(maxSize, expireAfterWriteMillis);
+        this.emailCache = new LruCache<String, Integer>(maxSize, expireAfterWriteMillis);
+    }
+
+    /**
+     * @return cache of persons, its counters show hits and misses
+     */
+    public LruCache<Integer, Person> getCache() {
+        return cache;
+    }
+
+    /**
+     * @return cache of person ids by email, its counters show hits and misses
+     */
+    public LruCache<String, Integer> getEmailCache() {
+        return emailCache;
+    }
+
+    @Override
+    public void createPerson(Person person) {
+        delegate.createPerson(person);
+    }
+
+    @Override
+    public void createPersons(Collection<Person> persons) {
+        delegate.createPersons(persons);
+    }
+
+    @Override
+    public void updatePerson(Person person) {
+        try {
+            delegate.updatePerson(person);
+        } finally {
+            if (person != null) {
+                cache.invalidate(person.getId());
+                // The previous email is dropped when it is looked up again
+                if (person.getEmail() != null) {
+                    emailCache.invalidate(person.getEmail());
+                }
+            }
+        }
+    }
+
+    @Override
+    public void deletePerson(Person person) {
+        try {
+            delegate.deletePerson(person);
+        } finally {
+            if (person != null) {
+                cache.invalidate(person.getId());
+                if (person.getEmail() != null) {
+                    emailCache.invalidate(person.getEmail());
+                }
+            }
+        }
+    }
+
+    @Override
+    public Person getPersonById(Integer id) {
+        if (id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+        Person cached = cache.get(id);
+        if (cached != null) {
+            return EntityCopies.copy(cached);
+        }
+        long stamp = cache.getStamp();
+        Person person = delegate.getPersonById(id);
+        if (person != null) {
+            cache.putIfNotInvalidated(id, EntityCopies.copy(person), stamp);
+        }
+        return person;
+    }
+
+    @Override
+    public List<Person> findAllPersons() {
+        return delegate.findAllPersons();
+    }
+
+    @Override
+    public List<Person> findPersonsPage(Integer afterId, int pageSize) {
+        return delegate.findPersonsPage(afterId, pageSize);
+    }
+
+    @Override
+    public Person findPersonByEmail(String email) {
+        if (email == null) {
+            throw new IllegalArgumentException("email is null");
+        }
+        Person cached = getCachedByEmail(email);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = emailCache.getStamp();
+        Person person = delegate.findPersonByEmail(email);
+        if (person != null) {
+            emailCache.putIfNotInvalidated(email, person.getId(), stamp);
+        }
+        return person;
+    }
+
+    @Override
+    public Map<String, Person> findPersonsByEmails(Collection<String> emails) {
+        if (emails == null) {
+            throw new IllegalArgumentException("emails is null");
+        }
+        Map<String, Person> result = new HashMap<String, Person>();
+        List<String> missing = new ArrayList<String>();
+        for (String email : emails) {
+            if (email == null) {
+                throw new IllegalArgumentException("email is null");
+            }
+            Person cached = getCachedByEmail(email);
+            if (cached != null) {
+                result.put(email, cached);
+            } else {
+                missing.add(email);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long stamp = emailCache.getStamp();
+            Map<String, Person> found = delegate.findPersonsByEmails(missing);
+            for (Map.Entry<String, Person> entry : found.entrySet()) {
+                emailCache.putIfNotInvalidated(entry.getKey(), entry.getValue().getId(), stamp);
+            }
+            result.putAll(found);
+        }
+        return result;
+    }
+
+    /**
+     * @return copy of the person with cached id for the email or null when 
+     * the email is not cached or the cached id is stale
+     */
+    private Person getCachedByEmail(String email) {
+        Integer id = emailCache.get(email);
+        if (id == null) {
+            return null;
+        }
+        Person person = getPersonById(id);
+        if (person == null || !email.equals(person.getEmail())) {
+            emailCache.invalidate(email);
+            return null;
+        }
+        return person;
+    }
+}
@@ -0,0 +1,56 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.SchemaMigrator;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+
+/**
+ * Versioned schema of the calendar database. Scripts for every version are
+ * stored in the migration package, a new version must be added here and its
+ * changes also to createTables.sql and dropTables.sql. createTables.sql
+ * records the version it creates, so the database can be migrated later.
+ *
+ * Version 7 makes person emails unique. Databases with duplicate emails are
+ * left at version 6 with an error listing them until they are fixed.
+ *
+ * @author Jan Smerda, Jiri Stary
+ */
+public class CalendarSchema {
+
+    // Unique index in Derby allows a single null, so nulls are reported too
+    private static final String DUPLICATE_EMAILS =
+            "SELECT \"EMAIL\" FROM \"PERSON\" GROUP BY \"EMAIL\" HAVING COUNT(*) > 1 ORDER BY \"EMAIL\"";
+
+    private CalendarSchema() {
+    }
+
+    /**
+     * Creates migrator with all versions of the calendar schema.
+     *
+     * @param dataSource dataSource
+     * @return migrator for the calendar schema
+     */
+    public static SchemaMigrator newMigrator(DataSource dataSource) {
+        return new SchemaMigrator(dataSource, "EVENT")
+                .addScript(1, CalendarSchema.class.getResource("migration/V1__create_tables.sql"))
+                .addScript(2, CalendarSchema.class.getResource("migration/V2__add_indexes.sql"))
+                .addScript(3, CalendarSchema.class.getResource("migration/V3__add_attendance_page_index.sql"))
+                .addScript(4, CalendarSchema.class.getResource("migration/V4__add_recurrence.sql"))
+                .addScript(5, CalendarSchema.class.getResource("migration/V5__add_change_log.sql"))
+                .addScript(6, CalendarSchema.class.getResource("migration/V6__add_event_terms.sql"))
+                .addScript(7, CalendarSchema.class.getResource("migration/V7__add_person_email_index.sql"),
+                        DUPLICATE_EMAILS, "duplicate person emails");
+    }
+
+    /**
+     * Creates the calendar schema or brings the existing one to the latest
+     * version.
+     *
+     * @param dataSource dataSource
+     * @return version of the schema
+     * @throws SQLException when operation fails
+     */
+    public static int migrate(DataSource dataSource) throws SQLException {
+        return newMigrator(dataSource).migrate();
+    }
+}
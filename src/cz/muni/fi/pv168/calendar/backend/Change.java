@@ -0,0 +1,69 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.util.Date;
+
+/**
+ * One record of the change log, i.e. an entity created, updated or deleted 
+ * by one of the managers. Only the identity of the entity is recorded, 
+ * clients load its current state by the manager or drop it when it was 
+ * deleted.
+ *
+ * @author Jan Smerda
+ */
+public class Change {
+
+    public enum EntityType {
+        PERSON, EVENT, ATTENDANCE
+    }
+
+    public enum Operation {
+        CREATE, UPDATE, DELETE
+    }
+
+    private final long sequence;
+    private final EntityType entityType;
+    private final int entityId;
+    private final Operation operation;
+    private final Date time;
+
+    public Change(long sequence, EntityType entityType, int entityId, Operation operation, Date time) {
+        this.sequence = sequence;
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.operation = operation;
+        this.time = time;
+    }
+
+    /**
+     * @return sequence number of the change, later changes have greater 
+     * numbers
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public EntityType getEntityType() {
+        return entityType;
+    }
+
+    public int getEntityId() {
+        return entityId;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return time when the change was recorded by the database
+     */
+    public Date getTime() {
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return "Change{" + "sequence=" + sequence + ", entityType=" + entityType 
+                + ", entityId=" + entityId + ", operation=" + operation + '}';
+    }
+}
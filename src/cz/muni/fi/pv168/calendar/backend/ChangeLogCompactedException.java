@@ -0,0 +1,26 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+/**
+ * Thrown when changes requested by a client were already removed from the 
+ * change log by compaction. The client has to load all its data again and 
+ * continue from {@link ChangeLogManager#getLatestSequence()} taken before 
+ * the load.
+ *
+ * @author Jan Smerda
+ */
+public class ChangeLogCompactedException extends RuntimeException {
+
+    private final long watermark;
+
+    public ChangeLogCompactedException(long sequence, long watermark) {
+        super("Changes after " + sequence + " are compacted up to " + watermark);
+        this.watermark = watermark;
+    }
+
+    /**
+     * @return sequence number of the last removed change
+     */
+    public long getWatermark() {
+        return watermark;
+    }
+}
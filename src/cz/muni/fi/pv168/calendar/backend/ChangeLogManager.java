@@ -0,0 +1,62 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Append-only log of changes made by PersonManager, EventManager and 
+ * AttendanceManager. Every change is recorded in the transaction of the 
+ * write, so clients can pull changes since their last refresh instead of 
+ * loading all their data again.
+ *
+ * @author Jan Smerda
+ */
+public interface ChangeLogManager {
+
+    /**
+     * Retrieves changes recorded after given sequence number, ordered by 
+     * sequence number. A client starts with {@link #getLatestSequence()} 
+     * taken before it loads its data and continues with the sequence number 
+     * of the last change it received.
+     * 
+     * @param sequence sequence number of the last change known to the client
+     * @param limit maximal number of returned changes
+     * @return changes with sequence number greater than sequence
+     * @throws IllegalArgumentException when sequence is negative or limit is 
+     * not positive
+     * @throws ChangeLogCompactedException when some changes after sequence 
+     * were already removed by compaction
+     */
+    List<Change> getChangesSince(long sequence, int limit);
+
+    /**
+     * @return sequence number of the last recorded change, 0 when nothing 
+     * was recorded yet
+     */
+    long getLatestSequence();
+
+    /**
+     * @return sequence number of the last change removed by compaction, 0 
+     * when the log was not compacted yet
+     */
+    long getWatermark();
+
+    /**
+     * Removes changes with sequence number up to watermark. Clients which did 
+     * not get them yet will receive {@link ChangeLogCompactedException}.
+     * 
+     * @param watermark sequence number of the last removed change
+     * @return number of removed changes
+     * @throws IllegalArgumentException when watermark is negative
+     */
+    int compactChanges(long watermark);
+
+    /**
+     * Removes changes recorded before given time.
+     * 
+     * @param time retention limit
+     * @return number of removed changes
+     * @throws IllegalArgumentException when time is null
+     */
+    int compactChangesBefore(Date time);
+}
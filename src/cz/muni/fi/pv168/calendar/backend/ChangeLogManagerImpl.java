@@ -0,0 +1,313 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.calendar.backend.Change.EntityType;
+import cz.muni.fi.pv168.calendar.backend.Change.Operation;
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Change log stored in the CHANGE_LOG table. Sequence numbers are generated 
+ * by the identity column, changes are recorded by the managers through the 
+ * static methods of this class in their own transactions.
+ *
+ * A change with lower sequence number may be committed after a change with 
+ * higher one. Derby readers wait for uncommitted rows, so 
+ * {@link #getChangesSince(long, int)} never skips such change; sequence 
+ * numbers of rolled back changes are simply missing.
+ *
+ * @author Jan Smerda
+ */
+public class ChangeLogManagerImpl implements ChangeLogManager {
+
+    final static Logger logger = LoggerFactory.getLogger(ChangeLogManagerImpl.class);
+    
+    private static final String INSERT_CHANGE = 
+            "INSERT INTO CHANGE_LOG (entityType,entityId,operation,changed) "
+            + "VALUES (?,?,?,CURRENT_TIMESTAMP)";
+    
+    private DataSource dataSource;
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    private void checkDataSource() {
+        if (dataSource == null) {
+            throw new IllegalStateException("DataSource is not set");
+        }
+    }
+
+    @Override
+    public List<Change> getChangesSince(long sequence, int limit) {
+        logger.info("Finding {} changes after sequence {}", limit, sequence);
+        
+        checkDataSource();
+        if (sequence < 0) {
+            throw new IllegalArgumentException("sequence is negative");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit is not positive");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            st = conn.prepareStatement(
+                    "SELECT seq,entityType,entityId,operation,changed FROM change_log "
+                    + "WHERE seq > ? ORDER BY seq FETCH FIRST ? ROWS ONLY");
+            st.setLong(1, sequence);
+            st.setInt(2, limit);
+            List<Change> result = new ArrayList<Change>();
+            ResultSet rs = st.executeQuery();
+            while (rs.next()) {
+                result.add(new Change(rs.getLong("seq"), 
+                        EntityType.valueOf(rs.getString("entityType")), 
+                        rs.getInt("entityId"), 
+                        Operation.valueOf(rs.getString("operation")), 
+                        rs.getTimestamp("changed")));
+            }
+            rs.close();
+            // Watermark is read after the changes, compaction committed 
+            // before the changes were read is then always noticed
+            long watermark = readWatermark(conn);
+            if (sequence < watermark) {
+                throw new ChangeLogCompactedException(sequence, watermark);
+            }
+            return result;
+        } catch (SQLException ex) {
+            String msg = "Error when retrieving changes after sequence " + sequence;
+            logger.error(msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    @Override
+    public long getLatestSequence() {
+        logger.info("Finding latest change sequence");
+        
+        checkDataSource();
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            st = conn.prepareStatement("SELECT MAX(seq) FROM change_log");
+            ResultSet rs = st.executeQuery();
+            rs.next();
+            long latest = rs.getLong(1);
+            rs.close();
+            // All changes may be compacted
+            return Math.max(latest, readWatermark(conn));
+        } catch (SQLException ex) {
+            String msg = "Error when retrieving latest change sequence";
+            logger.error(msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    @Override
+    public long getWatermark() {
+        logger.info("Finding change log watermark");
+        
+        checkDataSource();
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            return readWatermark(conn);
+        } catch (SQLException ex) {
+            String msg = "Error when retrieving change log watermark";
+            logger.error(msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(conn);
+        }
+    }
+
+    @Override
+    public int compactChanges(long watermark) {
+        logger.info("Compacting changes up to sequence {}", watermark);
+        
+        checkDataSource();
+        if (watermark < 0) {
+            throw new IllegalArgumentException("watermark is negative");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            st = conn.prepareStatement("SELECT MAX(seq) FROM change_log WHERE seq <= ?");
+            st.setLong(1, watermark);
+            int count = compact(conn, st);
+            conn.commit();
+            return count;
+        } catch (SQLException ex) {
+            String msg = "Error when compacting changes up to sequence " + watermark;
+            logger.error(msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    @Override
+    public int compactChangesBefore(Date time) {
+        logger.info("Compacting changes recorded before {}", time);
+        
+        checkDataSource();
+        if (time == null) {
+            throw new IllegalArgumentException("time is null");
+        }
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            st = conn.prepareStatement("SELECT MAX(seq) FROM change_log WHERE changed < ?");
+            st.setTimestamp(1, new Timestamp(time.getTime()));
+            int count = compact(conn, st);
+            conn.commit();
+            return count;
+        } catch (SQLException ex) {
+            String msg = "Error when compacting changes recorded before " + time;
+            logger.error(msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+    
+    /**
+     * Removes changes up to the sequence selected by given statement and 
+     * raises the stored watermark to it. The watermark is always a sequence 
+     * of a recorded change, so changes recorded later are never below it.
+     */
+    private static int compact(Connection conn, PreparedStatement selectWatermark) throws SQLException {
+        ResultSet rs = selectWatermark.executeQuery();
+        rs.next();
+        long watermark = rs.getLong(1);
+        boolean empty = rs.wasNull();
+        rs.close();
+        if (empty) {
+            return 0;
+        }
+        PreparedStatement st = conn.prepareStatement(
+                "UPDATE change_log_watermark SET watermark = ? WHERE watermark < ?");
+        try {
+            st.setLong(1, watermark);
+            st.setLong(2, watermark);
+            st.executeUpdate();
+        } finally {
+            st.close();
+        }
+        st = conn.prepareStatement("DELETE FROM change_log WHERE seq <= ?");
+        try {
+            st.setLong(1, watermark);
+            int count = st.executeUpdate();
+            logger.info("Compacted {} changes up to sequence {}", count, watermark);
+            return count;
+        } finally {
+            st.close();
+        }
+    }
+
+    private static long readWatermark(Connection conn) throws SQLException {
+        PreparedStatement st = conn.prepareStatement("SELECT watermark FROM change_log_watermark");
+        try {
+            ResultSet rs = st.executeQuery();
+            if (!rs.next()) {
+                throw new ServiceFailureException("Internal integrity error: change log watermark is missing");
+            }
+            return rs.getLong(1);
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Records change of one entity using given connection, the change is 
+     * committed or rolled back together with the transaction of the 
+     * connection.
+     * 
+     * @param conn connection
+     * @param entityType type of changed entity
+     * @param entityId id of changed entity
+     * @param operation operation done with the entity
+     * @throws SQLException when operation fails
+     */
+    static void recordChange(Connection conn, EntityType entityType, int entityId, Operation operation) 
+            throws SQLException {
+        PreparedStatement st = conn.prepareStatement(INSERT_CHANGE);
+        try {
+            st.setString(1, entityType.name());
+            st.setInt(2, entityId);
+            st.setString(3, operation.name());
+            DBUtils.checkUpdatesCount(st.executeUpdate(), entityType + " " + entityId, true);
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Records changes of more entities of the same type in one batch, see 
+     * {@link #recordChange(Connection, EntityType, int, Operation)}.
+     * 
+     * @param conn connection
+     * @param entityType type of changed entities
+     * @param entityIds ids of changed entities
+     * @param operation operation done with the entities
+     * @throws SQLException when operation fails
+     */
+    static void recordChanges(Connection conn, EntityType entityType, int[] entityIds, 
+            Operation operation) throws SQLException {
+        if (entityIds.length == 0) {
+            return;
+        }
+        PreparedStatement st = conn.prepareStatement(INSERT_CHANGE);
+        try {
+            for (int entityId : entityIds) {
+                st.setString(1, entityType.name());
+                st.setInt(2, entityId);
+                st.setString(3, operation.name());
+                st.addBatch();
+            }
+            DBUtils.checkBatchUpdatesCounts(st.executeBatch());
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Returns beginning of a statement recording changes of entities selected 
+     * by the rest of the statement, which has to start with FROM clause of a 
+     * table with id column. Used to record changes done by set-based updates.
+     * 
+     * @param entityType type of changed entities
+     * @param operation operation done with the entities
+     * @return INSERT ... SELECT statement without FROM clause
+     */
+    static String insertChangesOf(EntityType entityType, Operation operation) {
+        return "INSERT INTO CHANGE_LOG (entityType,entityId,operation,changed) SELECT '" 
+                + entityType.name() + "', id, '" + operation.name() + "', CURRENT_TIMESTAMP ";
+    }
+}
@@ -0,0 +1,99 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads CSV (RFC 4180) records one by one. Fields are separated by commas,
+ * quoted fields may contain commas, line breaks and doubled quotes. Empty
+ * unquoted field is read as null, empty quoted field as empty string.
+ *
+ * @author Jiri Stary
+ */
+class CsvReader {
+
+    private final BufferedReader reader;
+    private int lineNumber;
+    private int recordLineNumber;
+
+    CsvReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+    }
+
+    /**
+     * Reads next record, empty lines are skipped.
+     *
+     * @return fields of the record or null at the end of the file
+     * @throws IOException when reading fails or the last quoted field is not
+     * closed
+     */
+    List<String> readRecord() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+        } while (line.isEmpty());
+        recordLineNumber = lineNumber;
+
+        List<String> result = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean wasQuoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                // Line break inside quoted field
+                line = reader.readLine();
+                if (line == null) {
+                    throw new IOException("Quoted field starting at line " + recordLineNumber + " is not closed");
+                }
+                lineNumber++;
+                field.append('\n');
+                i = 0;
+                continue;
+            }
+            char c = line.charAt(i++);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i < line.length() && line.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+                wasQuoted = true;
+            } else if (c == ',') {
+                result.add(toField(field, wasQuoted));
+                field.setLength(0);
+                wasQuoted = false;
+            } else {
+                field.append(c);
+            }
+        }
+        result.add(toField(field, wasQuoted));
+        return result;
+    }
+
+    /**
+     * @return number of the line where the last read record starts
+     */
+    int getLineNumber() {
+        return recordLineNumber;
+    }
+
+    private static String toField(StringBuilder field, boolean quoted) {
+        return field.length() == 0 && !quoted ? null : field.toString();
+    }
+}
@@ -0,0 +1,75 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Defensive copies of mutable entities, used by managers which keep entities 
+ * in memory.
+ *
+ * @author Jan Smerda, Jiri Stary
+ */
+final class EntityCopies {
+
+    private EntityCopies() {
+    }
+
+    static Event copy(Event event) {
+        if (event == null) {
+            return null;
+        }
+        Event result = new Event();
+        result.setId(event.getId());
+        result.setName(event.getName());
+        result.setStartDate(copy(event.getStartDate()));
+        result.setEndDate(copy(event.getEndDate()));
+        result.setNote(event.getNote());
+        result.setRecurrence(copy(event.getRecurrence()));
+        return result;
+    }
+
+    static RecurrenceRule copy(RecurrenceRule rule) {
+        if (rule == null) {
+            return null;
+        }
+        RecurrenceRule result = new RecurrenceRule();
+        result.setFrequency(rule.getFrequency());
+        result.setInterval(rule.getInterval());
+        result.setCount(rule.getCount());
+        result.setUntil(copy(rule.getUntil()));
+        Set<Date> exceptions = new TreeSet<Date>();
+        for (Date exception : rule.getExceptions()) {
+            exceptions.add(copy(exception));
+        }
+        result.setExceptions(exceptions);
+        return result;
+    }
+
+    static Person copy(Person person) {
+        if (person == null) {
+            return null;
+        }
+        Person result = new Person();
+        result.setId(person.getId());
+        result.setName(person.getName());
+        result.setEmail(person.getEmail());
+        result.setNote(person.getNote());
+        return result;
+    }
+
+    static List<Event> copyEvents(Collection<Event> events) {
+        List<Event> result = new ArrayList<Event>(events.size());
+        for (Event event : events) {
+            result.add(copy(event));
+        }
+        return result;
+    }
+
+    private static Date copy(Date date) {
+        return date == null ? null : new Date(date.getTime());
+    }
+}
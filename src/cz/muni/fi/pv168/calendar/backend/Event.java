@@ -17,6 +17,7 @@ public class Event {
     private Date startDate;
     private Date endDate;
     private String note;
+    private RecurrenceRule recurrence;
     
     public Integer getId() {
         return id;
@@ -57,6 +58,17 @@ public class Event {
     public void setNote(String note) {
         this.note = note;
     }
+
+    /**
+     * @return rule repeating the event or null when the event occurs once
+     */
+    public RecurrenceRule getRecurrence() {
+        return recurrence;
+    }
+
+    public void setRecurrence(RecurrenceRule recurrence) {
+        this.recurrence = recurrence;
+    }
     
     @Override
     public String toString() {
@@ -0,0 +1,387 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.IntIntHashMap;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read only copy of events in columns of primitive arrays for analytic
+ * queries. Ids, starts and ends in epoch millis are stored in int and long
+ * arrays, names are dictionary encoded, so the store keeps a few arrays
+ * instead of an Event, two Dates and an Integer per row, and range scans and
+ * aggregations do not allocate per row.
+ *
+ * Rows are ordered by start. Like in {@link EventManager#findEventsByDate},
+ * an event lies in a range when it starts before or at its end and ends after
+ * or at its start. Recurring events are stored by their first occurrence,
+ * notes and recurrence rules are not loaded.
+ *
+ * Instances are immutable and thread safe.
+ *
+ * @author Jiri Stary
+ */
+public final class EventColumnStore {
+
+    final static Logger logger = LoggerFactory.getLogger(EventColumnStore.class);
+
+    private static final String SELECT_EVENTS =
+            "SELECT id,name,startDate,endDate FROM event WHERE startDate IS NOT NULL";
+
+    private static final String ORDER_BY_START = " ORDER BY startDate, id";
+
+    private static final int FETCH_SIZE = 1000;
+
+    private final int size;
+    private final int[] ids;
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] nameCodes;
+    private final String[] names;
+    // Longest event, scans start this far before the range
+    private final long maxDuration;
+
+    private EventColumnStore(int size, int[] ids, long[] starts, long[] ends, int[] nameCodes, String[] names) {
+        this.size = size;
+        this.ids = ids;
+        this.starts = starts;
+        this.ends = ends;
+        this.nameCodes = nameCodes;
+        this.names = names;
+        long longest = 0;
+        for (int row = 0; row < size; row++) {
+            longest = Math.max(longest, ends[row] - starts[row]);
+        }
+        this.maxDuration = longest;
+    }
+
+    /**
+     * Loads all events.
+     *
+     * @param dataSource data source of the calendar database
+     * @return store of the events
+     * @throws IllegalArgumentException when dataSource is null
+     * @throws ServiceFailureException when db operation fails
+     */
+    public static EventColumnStore load(DataSource dataSource) {
+        logger.info("Loading all events to column store");
+
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        return load(dataSource, SELECT_EVENTS + ORDER_BY_START, null, null);
+    }
+
+    /**
+     * Loads events lying in the range.
+     *
+     * @param dataSource data source of the calendar database
+     * @param from start of the range in epoch millis
+     * @param to end of the range in epoch millis
+     * @return store of the events
+     * @throws IllegalArgumentException when dataSource is null or to is
+     * before from
+     * @throws ServiceFailureException when db operation fails
+     */
+    public static EventColumnStore load(DataSource dataSource, long from, long to) {
+        logger.info("Loading events from {} to {} to column store", from, to);
+
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        checkRange(from, to);
+        return load(dataSource, SELECT_EVENTS + " AND startDate <= ? AND endDate >= ?" + ORDER_BY_START,
+                new Timestamp(to), new Timestamp(from));
+    }
+
+    private static EventColumnStore load(DataSource dataSource, String sql, Timestamp to, Timestamp from) {
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            st = conn.prepareStatement(sql);
+            st.setFetchSize(FETCH_SIZE);
+            if (to != null) {
+                st.setTimestamp(1, to);
+                st.setTimestamp(2, from);
+            }
+            ResultSet rs = st.executeQuery();
+            int size = 0;
+            int[] ids = new int[FETCH_SIZE];
+            long[] starts = new long[FETCH_SIZE];
+            long[] ends = new long[FETCH_SIZE];
+            int[] nameCodes = new int[FETCH_SIZE];
+            Map<String, Integer> dictionary = new HashMap<String, Integer>();
+            while (rs.next()) {
+                if (size == ids.length) {
+                    ids = Arrays.copyOf(ids, 2 * size);
+                    starts = Arrays.copyOf(starts, 2 * size);
+                    ends = Arrays.copyOf(ends, 2 * size);
+                    nameCodes = Arrays.copyOf(nameCodes, 2 * size);
+                }
+                ids[size] = rs.getInt(1);
+                nameCodes[size] = encode(dictionary, rs.getString(2));
+                // Timestamps are needed by the driver, but do not outlive the row
+                Timestamp start = rs.getTimestamp(3);
+                Timestamp end = rs.getTimestamp(4);
+                starts[size] = start.getTime();
+                ends[size] = end == null ? starts[size] : end.getTime();
+                size++;
+            }
+            rs.close();
+            String[] names = new String[dictionary.size()];
+            for (Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+                names[entry.getValue()] = entry.getKey();
+            }
+            logger.debug("Loaded {} events with {} distinct names", size, names.length);
+            return new EventColumnStore(size, ids, starts, ends, nameCodes, names);
+        } catch (SQLException ex) {
+            String message = "Error when loading events to column store";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    private static int encode(Map<String, Integer> dictionary, String name) {
+        Integer code = dictionary.get(name);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.put(name, code);
+        }
+        return code;
+    }
+
+    private static void checkRange(long from, long to) {
+        if (to < from) {
+            throw new IllegalArgumentException("to is before from");
+        }
+    }
+
+    /**
+     * @return number of stored events
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return id of the event in the row
+     * @throws IndexOutOfBoundsException when the row does not exist
+     */
+    public int getId(int row) {
+        checkRow(row);
+        return ids[row];
+    }
+
+    /**
+     * @return start of the event in the row in epoch millis
+     * @throws IndexOutOfBoundsException when the row does not exist
+     */
+    public long getStart(int row) {
+        checkRow(row);
+        return starts[row];
+    }
+
+    /**
+     * @return end of the event in the row in epoch millis
+     * @throws IndexOutOfBoundsException when the row does not exist
+     */
+    public long getEnd(int row) {
+        checkRow(row);
+        return ends[row];
+    }
+
+    /**
+     * @return code of name of the event in the row, see {@link #getName(int)}
+     * @throws IndexOutOfBoundsException when the row does not exist
+     */
+    public int getNameCode(int row) {
+        checkRow(row);
+        return nameCodes[row];
+    }
+
+    /**
+     * @return name of the event in the row
+     * @throws IndexOutOfBoundsException when the row does not exist
+     */
+    public String getName(int row) {
+        checkRow(row);
+        return names[nameCodes[row]];
+    }
+
+    /**
+     * @return number of distinct names, codes of names are from 0 to this
+     * number exclusive
+     */
+    public int getNameCount() {
+        return names.length;
+    }
+
+    /**
+     * @return name with the code
+     * @throws IndexOutOfBoundsException when no name has the code
+     */
+    public String decodeName(int code) {
+        return names[code];
+    }
+
+    /**
+     * Creates event of the row for code which works with events. The event
+     * has no note and no recurrence.
+     *
+     * @return new event of the row
+     * @throws IndexOutOfBoundsException when the row does not exist
+     */
+    public Event toEvent(int row) {
+        checkRow(row);
+        Event event = new Event();
+        event.setId(ids[row]);
+        event.setName(names[nameCodes[row]]);
+        event.setStartDate(new Date(starts[row]));
+        event.setEndDate(new Date(ends[row]));
+        return event;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("row " + row + " of " + size);
+        }
+    }
+
+    /**
+     * @return rows of events lying in the range ordered by start
+     * @throws IllegalArgumentException when to is before from
+     */
+    public int[] findRows(long from, long to) {
+        checkRange(from, to);
+        int first = firstCandidate(from);
+        int last = lastStartingUntil(to);
+        int[] result = new int[Math.max(0, last - first)];
+        int count = 0;
+        for (int row = first; row < last; row++) {
+            if (ends[row] >= from) {
+                result[count++] = row;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return number of events lying in the range
+     * @throws IllegalArgumentException when to is before from
+     */
+    public int count(long from, long to) {
+        checkRange(from, to);
+        int count = 0;
+        for (int row = firstCandidate(from), last = lastStartingUntil(to); row < last; row++) {
+            if (ends[row] >= from) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sums time covered by the events within the range. Parts of events
+     * outside the range are not counted, overlapping events are counted
+     * each.
+     *
+     * @return total duration of the events in the range in millis
+     * @throws IllegalArgumentException when to is before from
+     */
+    public long totalDuration(long from, long to) {
+        checkRange(from, to);
+        long total = 0;
+        for (int row = firstCandidate(from), last = lastStartingUntil(to); row < last; row++) {
+            if (ends[row] >= from) {
+                total += Math.min(ends[row], to) - Math.max(starts[row], from);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return numbers of events lying in the range by codes of their names,
+     * see {@link #decodeName(int)}
+     * @throws IllegalArgumentException when to is before from
+     */
+    public IntIntHashMap countByName(long from, long to) {
+        checkRange(from, to);
+        IntIntHashMap counts = new IntIntHashMap();
+        for (int row = firstCandidate(from), last = lastStartingUntil(to); row < last; row++) {
+            if (ends[row] >= from) {
+                counts.add(nameCodes[row], 1);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Counts events starting in buckets of equal length, e.g. events per day.
+     * Bucket i starts at from + i * bucketLength, the last one may be shorter.
+     *
+     * @return numbers of events starting in the buckets
+     * @throws IllegalArgumentException when to is before from or
+     * bucketLength is not positive
+     */
+    public int[] countStartsByBucket(long from, long to, long bucketLength) {
+        checkRange(from, to);
+        if (bucketLength <= 0) {
+            throw new IllegalArgumentException("bucketLength is not positive");
+        }
+        long buckets = (to - from) / bucketLength + 1;
+        if (buckets > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many buckets");
+        }
+        int[] counts = new int[(int) buckets];
+        for (int row = firstStartingFrom(from), last = lastStartingUntil(to); row < last; row++) {
+            counts[(int) ((starts[row] - from) / bucketLength)]++;
+        }
+        return counts;
+    }
+
+    /**
+     * @return first row which may lie in range starting at from
+     */
+    private int firstCandidate(long from) {
+        // Overflow of from - maxDuration would skip all rows
+        return firstStartingFrom(from < Long.MIN_VALUE + maxDuration ? Long.MIN_VALUE : from - maxDuration);
+    }
+
+    /**
+     * @return first row starting at time or later
+     */
+    private int firstStartingFrom(long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return row after the last one starting at time or earlier
+     */
+    private int lastStartingUntil(long time) {
+        return time == Long.MAX_VALUE ? size : firstStartingFrom(time + 1);
+    }
+}
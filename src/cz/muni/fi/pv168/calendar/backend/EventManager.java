@@ -1,5 +1,6 @@
 package cz.muni.fi.pv168.calendar.backend;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -19,6 +20,21 @@ public interface EventManager {
      */
     void createEvent(Event event);
     
+    /**
+     * Stores new events into database using batched inserts. All events are 
+     * validated before anything is inserted. Events are inserted in chunks 
+     * which are committed periodically, so when a chunk fails, only events 
+     * not committed yet are rolled back and the rest of the events is still 
+     * inserted. Ids of committed events are stored into id attribute.
+     * 
+     * @param events to be created.
+     * @return inserted events and events which failed to insert
+     * @throws IllegalArgumentException when events are null or some event is 
+     * not valid.
+     * @throws IllegalEntityException when some event has already assigned id.
+     */
+    BatchInsertResult<Event> createEvents(Collection<Event> events);
+    
     /**
      * Updates the event with same ID.
      * 
@@ -35,6 +51,17 @@ public interface EventManager {
      */
     void deleteEvent(Event event);
     
+    /**
+     * Deletes events together with attendances referencing them in one 
+     * transaction. When some event does not exist, nothing is deleted.
+     * 
+     * @param events The Event objects being deleted from database.
+     * @throws IllegalArgumentException when events or some event is null.
+     * @throws IllegalEntityException when some event has no id or does not 
+     * exist.
+     */
+    void deleteEvents(Collection<Event> events);
+    
     /**
      * Returns event with given id.
      * 
@@ -44,13 +71,50 @@ public interface EventManager {
      */
     Event getEventById(Integer id);
     
+    /**
+     * Retrieves all Event entries from database.
+     * 
+     * @return List of all Events
+     */
+    List<Event> findAllEvents();
+    
     /**
      * Finds and returns all events occuring in specified timeframe, including 
-     * startDate and endDate
+     * startDate and endDate. Recurring events are returned once for every 
+     * occurrence in the timeframe, with start and end of the occurrence and 
+     * id of the whole series.
      * 
      * @param startDate The first day of the searched range
      * @param endDate The last day of the searched range
      * @return List of all events occuring in specified timeframe
      */
     List<Event> findEventsByDate(Date startDate, Date endDate);
+    
+    /**
+     * Finds all events occuring in specified timeframe, including startDate 
+     * and endDate, and passes them to handler one by one while they are read 
+     * from database. Suitable for very large ranges. Recurring events are 
+     * passed once for every occurrence like in 
+     * {@link #findEventsByDate(Date, Date)}.
+     * 
+     * @param startDate The first day of the searched range
+     * @param endDate The last day of the searched range
+     * @param handler handler receiving found events
+     * @throws IllegalArgumentException when handler is null
+     */
+    void findEventsByDate(Date startDate, Date endDate, ResultHandler<Event> handler);
+    
+    /**
+     * Finds all events occuring in specified timeframe and passes them to 
+     * handler one by one while they are read from database. Recurring events 
+     * are not expanded, every series with an occurrence in the timeframe is 
+     * passed once with its recurrence rule. Used for exports which keep the 
+     * rule instead of single occurrences.
+     * 
+     * @param startDate The first day of the searched range
+     * @param endDate The last day of the searched range
+     * @param handler handler receiving found events
+     * @throws IllegalArgumentException when handler is null
+     */
+    void findEventSeriesByDate(Date startDate, Date endDate, ResultHandler<Event> handler);
 }
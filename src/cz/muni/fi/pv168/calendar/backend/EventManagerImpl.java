@@ -13,9 +13,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import javax.sql.DataSource;
 
 /**
@@ -25,13 +30,94 @@ import javax.sql.DataSource;
 public class EventManagerImpl implements EventManager {
     
     final static Logger logger = LoggerFactory.getLogger(EventManagerImpl.class);
-
+    
+    static final String EVENT_COLUMNS = "id,name,startDate,endDate,note,"
+            + "recurrenceFrequency,recurrenceInterval,recurrenceCount,recurrenceUntil";
+    
+    private static final String INSERT_EVENT = "INSERT INTO EVENT (name,startDate,endDate,note,"
+            + "recurrenceFrequency,recurrenceInterval,recurrenceCount,recurrenceUntil,seriesEndDate) "
+            + "VALUES (?,?,?,?,?,?,?,?,?)";
+    
+    /**
+     * Recurring events are selected by end of their last occurrence and 
+     * expanded afterwards, null end means the series never ends.
+     */
+    private static final String SELECT_EVENTS_BY_DATE = "SELECT " + EVENT_COLUMNS 
+            + " FROM event WHERE startDate <= ? AND (seriesEndDate >= ? OR seriesEndDate IS NULL)";
+    
+    static final String SELECT_EXCEPTIONS = 
+            "SELECT occurrenceStart FROM event_exception WHERE eventId = ?";
+    
+    /**
+     * Default number of inserts sent to the database in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    
+    /**
+     * Default number of rows fetched from the database at once by streaming 
+     * queries.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 100;
+    
+    /**
+     * Records deletes of attendances and events before they are deleted by 
+     * set-based statements, ids of events are added as IN list.
+     */
+    private static final String RECORD_ATTENDANCE_DELETES = ChangeLogManagerImpl.insertChangesOf(
+            Change.EntityType.ATTENDANCE, Change.Operation.DELETE) + "FROM ATTENDANCE WHERE eventId IN ";
+    private static final String RECORD_EVENT_DELETES = ChangeLogManagerImpl.insertChangesOf(
+            Change.EntityType.EVENT, Change.Operation.DELETE) + "FROM EVENT WHERE id IN ";
     
     private DataSource dataSource;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int commitInterval = 1;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private boolean cascadeDelete;
 
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
     }
+
+    /**
+     * Sets number of inserts sent to the database in one batch (chunk) by 
+     * {@link #createEvents(Collection)}.
+     * 
+     * @param batchSize number of rows in one chunk
+     * @throws IllegalArgumentException when batchSize is not positive
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize is not positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets number of chunks inserted in one transaction by 
+     * {@link #createEvents(Collection)}. When a chunk fails, all chunks of 
+     * its transaction are rolled back.
+     * 
+     * @param commitInterval number of chunks committed together
+     * @throws IllegalArgumentException when commitInterval is not positive
+     */
+    public void setCommitInterval(int commitInterval) {
+        if (commitInterval <= 0) {
+            throw new IllegalArgumentException("commitInterval is not positive");
+        }
+        this.commitInterval = commitInterval;
+    }
+    
+    /**
+     * Turns cascading delete on or off, it is off by default. When it is on, 
+     * {@link #deleteEvent(Event)} also deletes attendances referencing the 
+     * event in the same transaction, otherwise deleting an attended event 
+     * fails.
+     * 
+     * @param cascadeDelete true to delete attendances with their event
+     */
+    public void setCascadeDelete(boolean cascadeDelete) {
+        this.cascadeDelete = cascadeDelete;
+    }
     
     private void checkDataSource() {
         if (dataSource == null) {
@@ -39,6 +125,20 @@ public class EventManagerImpl implements EventManager {
         }
     }
 
+    /**
+     * Sets number of rows fetched from the database at once by 
+     * {@link #findEventsByDate(Date, Date, ResultHandler)}.
+     * 
+     * @param fetchSize number of rows fetched at once
+     * @throws IllegalArgumentException when fetchSize is not positive
+     */
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("fetchSize is not positive");
+        }
+        this.fetchSize = fetchSize;
+    }
+
     @Override
     public void createEvent(Event event) throws ServiceFailureException{
         logger.info("Creating new event {}", event);
@@ -57,20 +157,18 @@ public class EventManagerImpl implements EventManager {
             // Temporary turn autocommit mode off. It is turned back on in 
             // method DBUtils.closeQuietly(...) 
             connection.setAutoCommit(false);
-            st = connection.prepareStatement(
-                    "INSERT INTO EVENT (name,startDate,endDate,note) VALUES (?,?,?,?)",
-                    Statement.RETURN_GENERATED_KEYS);
-            st.setString(1, event.getName());
-            st.setTimestamp(2, dateToTimestamp(event.getStartDate()) );
-            st.setTimestamp(3, dateToTimestamp(event.getEndDate()));
-            st.setString(4, event.getNote());
+            st = connection.prepareStatement(INSERT_EVENT, Statement.RETURN_GENERATED_KEYS);
+            setEventParameters(st, event);
             
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, event, true);  
             
             Integer id = DBUtils.getId(st.getGeneratedKeys());
-            event.setId(id);
+            insertExceptions(connection, id, event);
+            EventSearchManagerImpl.indexEvent(connection, id, event);
+            ChangeLogManagerImpl.recordChange(connection, Change.EntityType.EVENT, id, Change.Operation.CREATE);
             connection.commit(); 
+            event.setId(id);
             
         } catch (SQLException ex) {
             String msg = "Error when inserting event into db.";
@@ -82,6 +180,117 @@ public class EventManagerImpl implements EventManager {
         } 
     }
 
+    @Override
+    public BatchInsertResult<Event> createEvents(Collection<Event> events) throws ServiceFailureException {
+        checkDataSource();
+        if (events == null) {
+            throw new IllegalArgumentException("events is null");
+        }
+        logger.info("Creating {} new events", events.size());
+        for (Event event : events) {
+            validate(event);
+            if (event.getId() != null) {
+                throw new IllegalEntityException("event id is already set");
+            }
+        }
+        
+        BatchInsertResult<Event> result = new BatchInsertResult<Event>();
+        List<Event> toInsert = new ArrayList<Event>(events);
+        // Events inserted in current transaction and their ids
+        List<Event> uncommitted = new ArrayList<Event>();
+        List<Integer> uncommittedIds = new ArrayList<Integer>();
+        int uncommittedChunks = 0;
+        
+        Connection connection = null;
+        Statement lock = null;
+        PreparedStatement st = null;
+        try {
+            connection = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            connection.setAutoCommit(false);
+            lock = connection.createStatement();
+            
+            for (int start = 0; start < toInsert.size(); start += batchSize) {
+                List<Event> chunk = toInsert.subList(start, Math.min(start + batchSize, toInsert.size()));
+                boolean lastChunk = start + chunk.size() == toInsert.size();
+                uncommitted.addAll(chunk);
+                try {
+                    if (st == null) {
+                        st = connection.prepareStatement(INSERT_EVENT, Statement.RETURN_GENERATED_KEYS);
+                    }
+                    if (uncommittedChunks == 0) {
+                        // Nobody else may insert until commit, generated ids 
+                        // of each chunk are then consecutive
+                        lock.execute("LOCK TABLE EVENT IN EXCLUSIVE MODE");
+                    }
+                    for (Event event : chunk) {
+                        setEventParameters(st, event);
+                        st.addBatch();
+                    }
+                    DBUtils.checkBatchUpdatesCounts(st.executeBatch());
+                    int[] ids = DBUtils.getBatchIds(st.getGeneratedKeys(), chunk.size());
+                    for (int i = 0; i < ids.length; i++) {
+                        insertExceptions(connection, ids[i], chunk.get(i));
+                        uncommittedIds.add(ids[i]);
+                    }
+                    EventSearchManagerImpl.indexEvents(connection, ids, chunk);
+                    ChangeLogManagerImpl.recordChanges(connection, Change.EntityType.EVENT, ids, 
+                            Change.Operation.CREATE);
+                    uncommittedChunks++;
+                    
+                    if (uncommittedChunks == commitInterval || lastChunk) {
+                        connection.commit();
+                        for (int i = 0; i < uncommitted.size(); i++) {
+                            uncommitted.get(i).setId(uncommittedIds.get(i));
+                        }
+                        result.addInserted(uncommitted);
+                        uncommitted.clear();
+                        uncommittedIds.clear();
+                        uncommittedChunks = 0;
+                    }
+                } catch (SQLException | ServiceFailureException ex) {
+                    logger.error("Error when inserting chunk of " + uncommitted.size() 
+                            + " events into db, rolling back", ex);
+                    result.addFailed(uncommitted, ex);
+                    uncommitted.clear();
+                    uncommittedIds.clear();
+                    uncommittedChunks = 0;
+                    // Cleanup must not lose the result of chunks committed before
+                    st = clearBatchQuietly(st);
+                    DBUtils.doRollbackQuietly(connection);
+                }
+            }
+        } catch (SQLException ex) {
+            String msg = "Error when inserting events into db.";
+            logger.error(msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(connection);
+            DBUtils.closeQuietly(connection, lock, st);
+        }
+        return result;
+    }
+
+    /**
+     * Drops rows of failed batch from the statement. When it fails, the 
+     * statement may still hold them, so it is closed and null is returned to 
+     * prepare a new one.
+     */
+    private static PreparedStatement clearBatchQuietly(PreparedStatement st) {
+        if (st == null) {
+            return null;
+        }
+        try {
+            st.clearBatch();
+            return st;
+        } catch (SQLException ex) {
+            logger.error("Error when clearing batch, the statement is replaced", ex);
+            DBUtils.closeQuietly(null, st);
+            return null;
+        }
+    }
+
     @Override
     public void updateEvent(Event event) {
         logger.info("Updating event {}", event);
@@ -102,15 +311,19 @@ public class EventManagerImpl implements EventManager {
             // method DBUtils.closeQuietly(...) 
             connection.setAutoCommit(false);
             st = connection.prepareStatement(
-                    "UPDATE EVENT SET name=?, startDate=?, endDate=?, note=? WHERE ID=?");
-            st.setString(1, event.getName());
-            st.setTimestamp(2, dateToTimestamp(event.getStartDate()) );
-            st.setTimestamp(3, dateToTimestamp(event.getEndDate()));
-            st.setString(4, event.getNote());
-            st.setInt(5, event.getId());
+                    "UPDATE EVENT SET name=?, startDate=?, endDate=?, note=?, "
+                    + "recurrenceFrequency=?, recurrenceInterval=?, recurrenceCount=?, "
+                    + "recurrenceUntil=?, seriesEndDate=? WHERE ID=?");
+            setEventParameters(st, event);
+            st.setInt(10, event.getId());
             
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, event, false);
+            deleteExceptions(connection, event.getId());
+            insertExceptions(connection, event.getId(), event);
+            EventSearchManagerImpl.reindexEvent(connection, event);
+            ChangeLogManagerImpl.recordChange(connection, Change.EntityType.EVENT, event.getId(), 
+                    Change.Operation.UPDATE);
             connection.commit();
         } catch (SQLException ex) {
             String msg = "Error when updating event in the db";
@@ -141,12 +354,19 @@ public class EventManagerImpl implements EventManager {
             // Temporary turn autocommit mode off. It is turned back on in 
             // method DBUtils.closeQuietly(...) 
             connection.setAutoCommit(false);
+            if (cascadeDelete) {
+                List<Integer> ids = Collections.singletonList(event.getId());
+                updateByEventIds(connection, RECORD_ATTENDANCE_DELETES, ids);
+                updateByEventIds(connection, "DELETE FROM ATTENDANCE WHERE eventId IN ", ids);
+            }
             st = connection.prepareStatement(
                     "DELETE FROM EVENT WHERE id=?");
             st.setInt(1, event.getId());
             
             int count = st.executeUpdate();
             DBUtils.checkUpdatesCount(count, event, false);
+            ChangeLogManagerImpl.recordChange(connection, Change.EntityType.EVENT, event.getId(), 
+                    Change.Operation.DELETE);
             connection.commit();
         } catch (SQLException ex) {
             String msg = "Error when deleting event from the db";
@@ -158,6 +378,73 @@ public class EventManagerImpl implements EventManager {
         } 
     }
 
+    @Override
+    public void deleteEvents(Collection<Event> events) {
+        checkDataSource();
+        if (events == null) {
+            throw new IllegalArgumentException("events is null");
+        }
+        logger.info("Removing {} events", events.size());
+        Set<Integer> ids = new LinkedHashSet<Integer>();
+        for (Event event : events) {
+            if (event == null) {
+                throw new IllegalArgumentException("event is null");
+            }
+            if (event.getId() == null) {
+                throw new IllegalEntityException("event id is null.");
+            }
+            ids.add(event.getId());
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            connection.setAutoCommit(false);
+            List<Integer> idList = new ArrayList<Integer>(ids);
+            updateByEventIds(connection, RECORD_ATTENDANCE_DELETES, idList);
+            updateByEventIds(connection, "DELETE FROM ATTENDANCE WHERE eventId IN ", idList);
+            updateByEventIds(connection, RECORD_EVENT_DELETES, idList);
+            int count = updateByEventIds(connection, "DELETE FROM EVENT WHERE id IN ", idList);
+            if (count != ids.size()) {
+                throw new IllegalEntityException((ids.size() - count) + " of " + ids.size() 
+                        + " deleted events do not exist in the database");
+            }
+            connection.commit();
+        } catch (SQLException ex) {
+            String msg = "Error when deleting events from the db";
+            logger.error(msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(connection);
+            DBUtils.closeQuietly(connection);
+        } 
+    }
+    
+    /**
+     * Executes update statement with IN list of event ids, long lists are 
+     * split into more statements.
+     * 
+     * @return number of affected rows
+     */
+    private static int updateByEventIds(Connection connection, String update, List<Integer> ids) 
+            throws SQLException {
+        int count = 0;
+        for (List<Integer> chunk : DBUtils.splitForInList(ids)) {
+            PreparedStatement st = DBUtils.prepareInStatement(connection, update, chunk, "");
+            try {
+                count += st.executeUpdate();
+            } finally {
+                st.close();
+            }
+        }
+        return count;
+    }
+
     @Override
     public Event getEventById(Integer id) throws ServiceFailureException {
         logger.info("Finding event with id {}", id);
@@ -168,21 +455,38 @@ public class EventManagerImpl implements EventManager {
             throw new IllegalArgumentException("id is null");
         }
         
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            return loadEvent(connection, id);
+        } catch (SQLException ex) {
+            String msg = "Error when getting event with id = " + id + " from DB";
+            logger.error(msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(connection);
+        } 
+    }
+
+    @Override
+    public List<Event> findAllEvents() {
+        logger.info("Finding all events");
+        
+        checkDataSource();
         Connection connection = null;
         PreparedStatement st = null;
         try {
             connection = dataSource.getConnection();
             st = connection.prepareStatement(
-                    "SELECT id,name,startDate,endDate,note FROM event WHERE id = ?");
-            st.setInt(1, id);
-            return executeQueryForSingleEvent(st);
+                    "SELECT " + EVENT_COLUMNS + " FROM event");
+            return executeQueryForMultipleEvents(connection, st);
         } catch (SQLException ex) {
-            String msg = "Error when getting event with id = " + id + " from DB";
+            String msg = "Error when getting all events from DB";
             logger.error(msg, ex);
             throw new ServiceFailureException(msg, ex);
         } finally {
             DBUtils.closeQuietly(connection, st);
-        } 
+        }
     }
 
     @Override
@@ -194,11 +498,18 @@ public class EventManagerImpl implements EventManager {
         PreparedStatement st = null;
         try {
             connection = dataSource.getConnection();
-            st = connection.prepareStatement(
-                    "SELECT id,name,startDate,endDate,note FROM event WHERE startDate <= ? AND endDate >= ?");
+            st = connection.prepareStatement(SELECT_EVENTS_BY_DATE);
             st.setTimestamp(1, dateToTimestamp(endDate) );
             st.setTimestamp(2, dateToTimestamp(startDate) );
-            return executeQueryForMultipleEvents(st);
+            List<Event> result = new ArrayList<Event>();
+            for (Event event : executeQueryForMultipleEvents(connection, st)) {
+                if (event.getRecurrence() == null) {
+                    result.add(event);
+                } else {
+                    result.addAll(Occurrences.expand(event, startDate.getTime(), endDate.getTime()));
+                }
+            }
+            return result;
         } catch (SQLException ex) {
             String msg = "Error when getting all events from DB";
             logger.error(msg, ex);
@@ -208,16 +519,183 @@ public class EventManagerImpl implements EventManager {
         }
     }
     
-    private static Event rowToEvent(ResultSet rs) throws SQLException {
+    @Override
+    public void findEventsByDate(Date startDate, Date endDate, ResultHandler<Event> handler) {
+        logger.info("Streaming events by date - Start date {}, End date {}", startDate, endDate);
+        
+        checkDataSource();
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        streamEventsByDate(startDate, endDate, handler, true);
+    }
+    
+    @Override
+    public void findEventSeriesByDate(Date startDate, Date endDate, ResultHandler<Event> handler) {
+        logger.info("Streaming event series by date - Start date {}, End date {}", startDate, endDate);
+        
+        checkDataSource();
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        streamEventsByDate(startDate, endDate, handler, false);
+    }
+    
+    /**
+     * Streams events of the timeframe, recurring events are expanded into 
+     * occurrences when expand is true.
+     */
+    private void streamEventsByDate(Date startDate, Date endDate, ResultHandler<Event> handler, 
+            boolean expand) {
+        Connection connection = null;
+        PreparedStatement st = null;
+        PreparedStatement exceptionsSt = null;
+        try {
+            connection = dataSource.getConnection();
+            st = connection.prepareStatement(SELECT_EVENTS_BY_DATE);
+            st.setFetchSize(fetchSize);
+            st.setTimestamp(1, dateToTimestamp(endDate) );
+            st.setTimestamp(2, dateToTimestamp(startDate) );
+            exceptionsSt = connection.prepareStatement(SELECT_EXCEPTIONS);
+            ResultSet rs = st.executeQuery();
+            while (rs.next()) {
+                Event event = rowToEvent(rs);
+                loadExceptions(exceptionsSt, event);
+                boolean next;
+                if (expand) {
+                    next = Occurrences.expand(event, startDate.getTime(), endDate.getTime(), handler);
+                } else {
+                    // Series overlapping the timeframe may have no occurrence in it
+                    next = !Occurrences.occursIn(event, startDate.getTime(), endDate.getTime()) 
+                            || handler.handle(event);
+                }
+                if (!next) {
+                    break;
+                }
+            }
+            rs.close();
+        } catch (SQLException ex) {
+            String msg = "Error when streaming events from DB";
+            logger.error(msg, ex);
+            throw new ServiceFailureException(msg, ex);
+        } finally {
+            DBUtils.closeQuietly(connection, st, exceptionsSt);
+        }
+    }
+    
+    static Event rowToEvent(ResultSet rs) throws SQLException {
         Event event = new Event();
         event.setId(rs.getInt("id"));
         event.setName(rs.getString("name"));
         event.setStartDate( timestampToDate(rs.getTimestamp("startDate")) );
         event.setEndDate( timestampToDate(rs.getTimestamp("endDate")) );
         event.setNote(rs.getString("note"));
+        event.setRecurrence(rowToRecurrence(rs));
         return event;
     }
     
+    /**
+     * Reads recurrence columns of current row, exceptions are not loaded.
+     * 
+     * @return recurrence rule or null when the event does not recur
+     */
+    static RecurrenceRule rowToRecurrence(ResultSet rs) throws SQLException {
+        String frequency = rs.getString("recurrenceFrequency");
+        if (frequency == null) {
+            return null;
+        }
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(RecurrenceRule.Frequency.valueOf(frequency));
+        rule.setInterval(rs.getInt("recurrenceInterval"));
+        int count = rs.getInt("recurrenceCount");
+        rule.setCount(rs.wasNull() ? null : count);
+        Timestamp until = rs.getTimestamp("recurrenceUntil");
+        rule.setUntil(until == null ? null : timestampToDate(until));
+        return rule;
+    }
+    
+    /**
+     * Loads event with its recurrence using given connection.
+     * 
+     * @return event or null when it does not exist
+     */
+    static Event loadEvent(Connection connection, int id) throws SQLException {
+        PreparedStatement st = connection.prepareStatement(
+                "SELECT " + EVENT_COLUMNS + " FROM event WHERE id = ?");
+        try {
+            st.setInt(1, id);
+            return executeQueryForSingleEvent(connection, st);
+        } finally {
+            st.close();
+        }
+    }
+    
+    private static void setEventParameters(PreparedStatement st, Event event) throws SQLException {
+        st.setString(1, event.getName());
+        st.setTimestamp(2, dateToTimestamp(event.getStartDate()) );
+        st.setTimestamp(3, dateToTimestamp(event.getEndDate()));
+        st.setString(4, event.getNote());
+        RecurrenceRule rule = event.getRecurrence();
+        if (rule == null) {
+            st.setNull(5, Types.VARCHAR);
+            st.setNull(6, Types.INTEGER);
+            st.setNull(7, Types.INTEGER);
+            st.setNull(8, Types.TIMESTAMP);
+        } else {
+            st.setString(5, rule.getFrequency().name());
+            st.setInt(6, rule.getInterval());
+            if (rule.getCount() == null) {
+                st.setNull(7, Types.INTEGER);
+            } else {
+                st.setInt(7, rule.getCount());
+            }
+            st.setTimestamp(8, rule.getUntil() == null ? null : dateToTimestamp(rule.getUntil()));
+        }
+        long seriesEnd = Occurrences.seriesEnd(event);
+        st.setTimestamp(9, seriesEnd == Occurrences.UNBOUNDED ? null : new Timestamp(seriesEnd));
+    }
+    
+    static void loadExceptions(PreparedStatement st, Event event) throws SQLException {
+        if (event.getRecurrence() == null) {
+            return;
+        }
+        st.setInt(1, event.getId());
+        ResultSet rs = st.executeQuery();
+        while (rs.next()) {
+            event.getRecurrence().getExceptions().add(timestampToDate(rs.getTimestamp(1)));
+        }
+        rs.close();
+    }
+    
+    private static void insertExceptions(Connection connection, int eventId, Event event) throws SQLException {
+        if (event.getRecurrence() == null || event.getRecurrence().getExceptions().isEmpty()) {
+            return;
+        }
+        PreparedStatement st = connection.prepareStatement(
+                "INSERT INTO EVENT_EXCEPTION (eventId, occurrenceStart) VALUES (?,?)");
+        try {
+            for (Date exception : event.getRecurrence().getExceptions()) {
+                st.setInt(1, eventId);
+                st.setTimestamp(2, dateToTimestamp(exception));
+                st.addBatch();
+            }
+            DBUtils.checkBatchUpdatesCounts(st.executeBatch());
+        } finally {
+            st.close();
+        }
+    }
+    
+    private static void deleteExceptions(Connection connection, int eventId) throws SQLException {
+        PreparedStatement st = connection.prepareStatement(
+                "DELETE FROM EVENT_EXCEPTION WHERE eventId = ?");
+        try {
+            st.setInt(1, eventId);
+            st.executeUpdate();
+        } finally {
+            st.close();
+        }
+    }
+    
     private static Timestamp dateToTimestamp(Date date) {
         return new Timestamp(date.getTime());
     }
@@ -226,30 +704,34 @@ public class EventManagerImpl implements EventManager {
         return new Date(timestamp.getTime());
     }
     
-    private static Event executeQueryForSingleEvent(PreparedStatement st) throws SQLException, ServiceFailureException {
-        ResultSet rs = st.executeQuery();
-        if (rs.next()) {
-            Event result = rowToEvent(rs);                
-            if (rs.next()) {
-                throw new ServiceFailureException(
-                        "Internal integrity error: more events with the same id found!");
-            }
-            return result;
-        } else {
-            return null;
+    private static Event executeQueryForSingleEvent(Connection connection, PreparedStatement st) throws SQLException, ServiceFailureException {
+        List<Event> result = executeQueryForMultipleEvents(connection, st);
+        if (result.size() > 1) {
+            throw new ServiceFailureException(
+                    "Internal integrity error: more events with the same id found!");
         }
+        return result.isEmpty() ? null : result.get(0);
     }
     
-    private static List<Event> executeQueryForMultipleEvents(PreparedStatement st) throws SQLException {
+    private static List<Event> executeQueryForMultipleEvents(Connection connection, PreparedStatement st) throws SQLException {
         ResultSet rs = st.executeQuery();
         List<Event> result = new ArrayList<Event>();
         while (rs.next()) {
             result.add(rowToEvent(rs));
         }
+        rs.close();
+        PreparedStatement exceptionsSt = connection.prepareStatement(SELECT_EXCEPTIONS);
+        try {
+            for (Event event : result) {
+                loadExceptions(exceptionsSt, event);
+            }
+        } finally {
+            exceptionsSt.close();
+        }
         return result;
     }
 
-    private static void validate(Event event) {       
+    static void validate(Event event) {       
         if (event == null) {
             throw new IllegalArgumentException("event is null");            
         }
@@ -268,5 +750,26 @@ public class EventManagerImpl implements EventManager {
         if (event.getStartDate().getTime() > event.getEndDate().getTime()) {
             throw new IllegalArgumentException("startDate is greater than endDate");            
         }
+        RecurrenceRule rule = event.getRecurrence();
+        if (rule != null) {
+            if (rule.getFrequency() == null) {
+                throw new IllegalArgumentException("recurrence frequency is null");
+            }
+            if (rule.getInterval() <= 0) {
+                throw new IllegalArgumentException("recurrence interval is not positive");
+            }
+            if (rule.getCount() != null && rule.getCount() <= 0) {
+                throw new IllegalArgumentException("recurrence count is not positive");
+            }
+            if (rule.getCount() != null && rule.getUntil() != null) {
+                throw new IllegalArgumentException("recurrence has both count and until");
+            }
+            if (rule.getUntil() != null && rule.getUntil().before(event.getStartDate())) {
+                throw new IllegalArgumentException("recurrence until is before startDate");
+            }
+            if (rule.getExceptions() == null) {
+                throw new IllegalArgumentException("recurrence exceptions are null");
+            }
+        }
     }
 }
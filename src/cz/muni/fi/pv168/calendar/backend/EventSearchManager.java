@@ -0,0 +1,54 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Full-text search of events by words of their name and note. The inverted 
+ * index of words is maintained by EventManager in the transactions of its 
+ * writes.
+ *
+ * Query consists of words separated by spaces, punctuation and letter case 
+ * are ignored as well as accents. Found events contain all words of the 
+ * query, a word ending with * matches all words starting with it. Events are 
+ * ranked by occurrences of the words, occurrences in the name count more.
+ *
+ * @author Jiri Stary
+ */
+public interface EventSearchManager {
+
+    /**
+     * Finds events containing all words of the query, best ranked first. 
+     * Recurring events are returned once, not expanded.
+     * 
+     * @param query searched words
+     * @param limit maximal number of returned events
+     * @return found events, empty when the query contains no word
+     * @throws IllegalArgumentException when query is null or limit is not 
+     * positive
+     */
+    List<Event> searchEvents(String query, int limit);
+
+    /**
+     * Finds events containing all words of the query and occurring in 
+     * specified timeframe, best ranked first. Recurring events are returned 
+     * once, not expanded.
+     * 
+     * @param query searched words
+     * @param startDate start of the timeframe
+     * @param endDate end of the timeframe
+     * @param limit maximal number of returned events
+     * @return found events, empty when the query contains no word
+     * @throws IllegalArgumentException when some argument is null or limit is 
+     * not positive
+     */
+    List<Event> searchEvents(String query, Date startDate, Date endDate, int limit);
+
+    /**
+     * Builds the index again from all stored events. Needed after the index 
+     * was added to an existing database.
+     * 
+     * @return number of indexed events
+     */
+    int rebuildIndex();
+}
@@ -0,0 +1,357 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Full-text search backed by the EVENT_TERM table, which holds one row for
+ * every word of an event with its weight in the event. Prefix queries are
+ * answered by range scans of the primary key (term, eventId). The index is
+ * maintained by EventManagerImpl through the static methods of this class,
+ * rows of deleted events are removed by the foreign key.
+ *
+ * @author Jiri Stary
+ */
+public class EventSearchManagerImpl implements EventSearchManager {
+
+    final static Logger logger = LoggerFactory.getLogger(EventSearchManagerImpl.class);
+
+    /**
+     * Longer words are indexed and searched by their beginning.
+     */
+    static final int MAX_TERM_LENGTH = 50;
+
+    static final int NAME_WEIGHT = 3;
+    static final int NOTE_WEIGHT = 1;
+
+    private static final int REBUILD_BATCH_SIZE = 500;
+
+    private static final String INSERT_TERM = "INSERT INTO EVENT_TERM (term,eventId,weight) VALUES (?,?,?)";
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private DataSource dataSource;
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    private void checkDataSource() {
+        if (dataSource == null) {
+            throw new IllegalStateException("DataSource is not set");
+        }
+    }
+
+    @Override
+    public List<Event> searchEvents(String query, int limit) {
+        logger.info("Searching {} events by query {}", limit, query);
+
+        checkDataSource();
+        if (query == null) {
+            throw new IllegalArgumentException("query is null");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit is not positive");
+        }
+        return search(query, null, null, limit);
+    }
+
+    @Override
+    public List<Event> searchEvents(String query, Date startDate, Date endDate, int limit) {
+        logger.info("Searching {} events by query {} - Start date {}, End date {}",
+                new Object[] {limit, query, startDate, endDate});
+
+        checkDataSource();
+        if (query == null) {
+            throw new IllegalArgumentException("query is null");
+        }
+        if (startDate == null) {
+            throw new IllegalArgumentException("startDate is null");
+        }
+        if (endDate == null) {
+            throw new IllegalArgumentException("endDate is null");
+        }
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit is not positive");
+        }
+        return search(query, startDate, endDate, limit);
+    }
+
+    /**
+     * Events containing all terms are ranked by sum of weights of all their
+     * matching terms. Series which overlap the timeframe but have no
+     * occurrence in it are filtered out after the query, so the limit is
+     * applied while reading the result.
+     */
+    private List<Event> search(String query, Date startDate, Date endDate, int limit) {
+        Map<String, Boolean> terms = parseQuery(query);
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        StringBuilder sql = new StringBuilder("SELECT ").append(EventManagerImpl.EVENT_COLUMNS)
+                .append(", s.score FROM event JOIN (SELECT eventId, SUM(weight) AS score FROM (");
+        int part = 0;
+        for (boolean prefix : terms.values()) {
+            sql.append(part == 0 ? "" : " UNION ALL ")
+                    .append("SELECT eventId, weight, ").append(part++)
+                    .append(" AS part FROM event_term WHERE term ").append(prefix ? "LIKE ?" : "= ?");
+        }
+        sql.append(") t GROUP BY eventId HAVING COUNT(DISTINCT part) = ").append(terms.size())
+                .append(") s ON id = s.eventId");
+        if (startDate != null) {
+            sql.append(" WHERE startDate <= ? AND (seriesEndDate >= ? OR seriesEndDate IS NULL)");
+        }
+        sql.append(" ORDER BY s.score DESC, startDate, id");
+
+        Connection conn = null;
+        PreparedStatement st = null;
+        PreparedStatement exceptionsSt = null;
+        try {
+            conn = dataSource.getConnection();
+            st = conn.prepareStatement(sql.toString());
+            int index = 1;
+            for (Map.Entry<String, Boolean> term : terms.entrySet()) {
+                st.setString(index++, term.getValue() ? term.getKey() + "%" : term.getKey());
+            }
+            if (startDate != null) {
+                st.setTimestamp(index++, new Timestamp(endDate.getTime()));
+                st.setTimestamp(index++, new Timestamp(startDate.getTime()));
+            }
+            exceptionsSt = conn.prepareStatement(EventManagerImpl.SELECT_EXCEPTIONS);
+            List<Event> result = new ArrayList<Event>();
+            ResultSet rs = st.executeQuery();
+            while (result.size() < limit && rs.next()) {
+                Event event = EventManagerImpl.rowToEvent(rs);
+                EventManagerImpl.loadExceptions(exceptionsSt, event);
+                if (startDate == null || event.getRecurrence() == null
+                        || Occurrences.occursIn(event, startDate.getTime(), endDate.getTime())) {
+                    result.add(event);
+                }
+            }
+            rs.close();
+            return result;
+        } catch (SQLException ex) {
+            String message = "Error when searching events by query " + query;
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st, exceptionsSt);
+        }
+    }
+
+    @Override
+    public int rebuildIndex() {
+        logger.info("Rebuilding search index of events");
+
+        checkDataSource();
+        Connection conn = null;
+        Statement st = null;
+        PreparedStatement selectSt = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in
+            // method DBUtils.closeQuietly(...)
+            conn.setAutoCommit(false);
+            st = conn.createStatement();
+            // Events may not change until the new index is committed
+            st.execute("LOCK TABLE EVENT IN SHARE MODE");
+            st.executeUpdate("DELETE FROM EVENT_TERM");
+            selectSt = conn.prepareStatement("SELECT id,name,note FROM event");
+            int count = indexSelected(conn, selectSt);
+            conn.commit();
+            logger.info("Search index rebuilt for {} events", count);
+            return count;
+        } catch (SQLException ex) {
+            String message = "Error when rebuilding search index of events";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, st, selectSt);
+        }
+    }
+
+    /**
+     * Adds terms of new event to the index.
+     *
+     * @param conn connection with the transaction of the insert
+     * @param eventId id of the event
+     * @param event inserted event
+     */
+    static void indexEvent(Connection conn, int eventId, Event event) throws SQLException {
+        indexEvents(conn, new int[] {eventId}, Collections.singletonList(event));
+    }
+
+    /**
+     * Adds terms of new events to the index in one batch.
+     *
+     * @param conn connection with the transaction of the inserts
+     * @param eventIds ids of the events
+     * @param events inserted events in the order of ids
+     */
+    static void indexEvents(Connection conn, int[] eventIds, List<Event> events) throws SQLException {
+        PreparedStatement st = conn.prepareStatement(INSERT_TERM);
+        try {
+            int terms = 0;
+            for (int i = 0; i < eventIds.length; i++) {
+                terms += addTerms(st, eventIds[i], events.get(i).getName(), events.get(i).getNote());
+            }
+            if (terms > 0) {
+                DBUtils.checkBatchUpdatesCounts(st.executeBatch());
+            }
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Replaces terms of updated event in the index.
+     *
+     * @param conn connection with the transaction of the update
+     * @param event updated event with id
+     */
+    static void reindexEvent(Connection conn, Event event) throws SQLException {
+        PreparedStatement st = conn.prepareStatement("DELETE FROM EVENT_TERM WHERE eventId = ?");
+        try {
+            st.setInt(1, event.getId());
+            st.executeUpdate();
+        } finally {
+            st.close();
+        }
+        indexEvent(conn, event.getId(), event);
+    }
+
+    /**
+     * Adds terms of stored events with ids in given range to the index. Used
+     * for events inserted without EventManager.
+     *
+     * @param conn connection with the transaction of the inserts
+     * @param fromId first id of the range
+     * @param toId last id of the range
+     * @return number of indexed events
+     */
+    static int indexStoredEvents(Connection conn, int fromId, int toId) throws SQLException {
+        PreparedStatement st = conn.prepareStatement("SELECT id,name,note FROM event WHERE id BETWEEN ? AND ?");
+        try {
+            st.setInt(1, fromId);
+            st.setInt(2, toId);
+            return indexSelected(conn, st);
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Streams id, name and note of events selected by the statement and
+     * inserts their terms in batches.
+     */
+    private static int indexSelected(Connection conn, PreparedStatement select) throws SQLException {
+        PreparedStatement st = conn.prepareStatement(INSERT_TERM);
+        try {
+            int count = 0;
+            int batched = 0;
+            ResultSet rs = select.executeQuery();
+            while (rs.next()) {
+                batched += addTerms(st, rs.getInt("id"), rs.getString("name"), rs.getString("note"));
+                count++;
+                if (batched >= REBUILD_BATCH_SIZE) {
+                    DBUtils.checkBatchUpdatesCounts(st.executeBatch());
+                    batched = 0;
+                }
+            }
+            rs.close();
+            if (batched > 0) {
+                DBUtils.checkBatchUpdatesCounts(st.executeBatch());
+            }
+            return count;
+        } finally {
+            st.close();
+        }
+    }
+
+    /**
+     * Adds insert of every term of the texts to the batch.
+     *
+     * @return number of added terms
+     */
+    private static int addTerms(PreparedStatement st, int eventId, String name, String note)
+            throws SQLException {
+        Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+        addWeights(weights, name, NAME_WEIGHT);
+        addWeights(weights, note, NOTE_WEIGHT);
+        for (Map.Entry<String, Integer> term : weights.entrySet()) {
+            st.setString(1, term.getKey());
+            st.setInt(2, eventId);
+            st.setInt(3, term.getValue());
+            st.addBatch();
+        }
+        return weights.size();
+    }
+
+    private static void addWeights(Map<String, Integer> weights, String text, int weight) {
+        for (String term : tokenize(text)) {
+            Integer current = weights.get(term);
+            weights.put(term, current == null ? weight : current + weight);
+        }
+    }
+
+    /**
+     * Splits text to lower case words without accents.
+     *
+     * @param text text or null
+     * @return words of the text in their order, repeated words included
+     */
+    static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<String>();
+        if (text == null) {
+            return result;
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        for (String term : SEPARATORS.split(normalized)) {
+            if (!term.isEmpty()) {
+                result.add(term.length() > MAX_TERM_LENGTH ? term.substring(0, MAX_TERM_LENGTH) : term);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splits query to terms. A term is a prefix when its word ends with *,
+     * only the last term of a word split by punctuation is a prefix.
+     *
+     * @return terms and whether they are prefixes, in the order of the query
+     */
+    static Map<String, Boolean> parseQuery(String query) {
+        Map<String, Boolean> result = new LinkedHashMap<String, Boolean>();
+        for (String word : query.trim().split("\\s+")) {
+            List<String> terms = tokenize(word);
+            for (int i = 0; i < terms.size(); i++) {
+                boolean prefix = word.endsWith("*") && i == terms.size() - 1;
+                Boolean current = result.get(terms.get(i));
+                // The same word searched exactly and as prefix must match exactly
+                result.put(terms.get(i), current == null ? prefix : current && prefix);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,239 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports events with their attendees to iCalendar (RFC 5545). Events are
+ * streamed from the database cursor and written in chunks, attendees of a
+ * whole chunk are loaded by
+ * {@link AttendanceManager#findAttendancesForEvents(java.util.Collection)},
+ * so memory used by the export does not grow with the number of events.
+ * Recurring events are written once with RRULE and EXDATE properties, in
+ * the default time zone used for their expansion, see {@link ICalendarWriter}.
+ *
+ * Attendees of a chunk are loaded while the event cursor is open, so the
+ * managers need a data source providing at least two connections.
+ *
+ * @author Jiri Stary
+ */
+public class ICalendarExporter {
+
+    final static Logger logger = LoggerFactory.getLogger(ICalendarExporter.class);
+
+    /**
+     * Default number of events whose attendees are loaded at once.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 100;
+
+    /**
+     * Collects events of one chunk and writes them when the chunk is full.
+     * IOException can not pass through ResultHandler, it stops the query and
+     * is rethrown afterwards.
+     */
+    private class ChunkWriter {
+        final ICalendarWriter writer;
+        final Date stamp = new Date();
+        final Map<Integer, Event> events = new LinkedHashMap<Integer, Event>();
+        Integer lastId;
+        int count;
+        IOException failure;
+
+        ChunkWriter(Writer writer) {
+            this.writer = new ICalendarWriter(writer);
+        }
+
+        ResultHandler<Event> eventHandler() {
+            return new ResultHandler<Event>() {
+                @Override
+                public boolean handle(Event event) {
+                    return add(event);
+                }
+            };
+        }
+
+        boolean add(Event event) {
+            // Attendances of a person are ordered by event, the same event
+            // attended more times is written once
+            if (event.getId().equals(lastId)) {
+                return true;
+            }
+            lastId = event.getId();
+            events.put(event.getId(), event);
+            return events.size() < chunkSize || flush();
+        }
+
+        boolean flush() {
+            if (events.isEmpty()) {
+                return true;
+            }
+            Map<Integer, List<Attendance>> attendees = new HashMap<Integer, List<Attendance>>();
+            for (Attendance attendance : attendanceManager.findAttendancesForEvents(events.values())) {
+                List<Attendance> list = attendees.get(attendance.getEventId());
+                if (list == null) {
+                    list = new ArrayList<Attendance>();
+                    attendees.put(attendance.getEventId(), list);
+                }
+                list.add(attendance);
+            }
+            try {
+                for (Event event : events.values()) {
+                    List<Attendance> list = attendees.get(event.getId());
+                    writer.writeEvent(event, list == null ? new ArrayList<Attendance>() : list, stamp);
+                }
+            } catch (IOException ex) {
+                failure = ex;
+                return false;
+            }
+            count += events.size();
+            events.clear();
+            return true;
+        }
+
+        int finish() throws IOException {
+            if (failure == null) {
+                flush();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            writer.endCalendar();
+            return count;
+        }
+    }
+
+    private final EventManager eventManager;
+    private final AttendanceManager attendanceManager;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * @param eventManager manager used for streaming events
+     * @param attendanceManager manager used for loading attendees
+     */
+    public ICalendarExporter(EventManager eventManager, AttendanceManager attendanceManager) {
+        if (eventManager == null) {
+            throw new IllegalArgumentException("eventManager is null");
+        }
+        if (attendanceManager == null) {
+            throw new IllegalArgumentException("attendanceManager is null");
+        }
+        this.eventManager = eventManager;
+        this.attendanceManager = attendanceManager;
+    }
+
+    /**
+     * Sets number of events whose attendees are loaded by one query.
+     *
+     * @param chunkSize number of events in one chunk
+     * @throws IllegalArgumentException when chunkSize is not positive
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize is not positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Exports events occuring in specified timeframe as UTF-8 iCalendar. The
+     * stream is flushed but not closed.
+     *
+     * @param startDate start of the timeframe
+     * @param endDate end of the timeframe
+     * @param out stream receiving the calendar
+     * @return number of exported events
+     * @throws IOException when writing fails
+     * @throws IllegalArgumentException when some argument is null
+     */
+    public int exportEvents(Date startDate, Date endDate, OutputStream out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("out is null");
+        }
+        return exportEvents(startDate, endDate, new OutputStreamWriter(out, "UTF-8"));
+    }
+
+    /**
+     * Exports events occuring in specified timeframe as iCalendar. The
+     * writer is flushed but not closed.
+     *
+     * @param startDate start of the timeframe
+     * @param endDate end of the timeframe
+     * @param writer writer receiving the calendar
+     * @return number of exported events
+     * @throws IOException when writing fails
+     * @throws IllegalArgumentException when some argument is null
+     */
+    public int exportEvents(Date startDate, Date endDate, Writer writer) throws IOException {
+        if (startDate == null) {
+            throw new IllegalArgumentException("startDate is null");
+        }
+        if (endDate == null) {
+            throw new IllegalArgumentException("endDate is null");
+        }
+        if (writer == null) {
+            throw new IllegalArgumentException("writer is null");
+        }
+        logger.info("Exporting events - Start date {}, End date {}", startDate, endDate);
+        ChunkWriter chunks = new ChunkWriter(new BufferedWriter(writer));
+        chunks.writer.beginCalendar();
+        eventManager.findEventSeriesByDate(startDate, endDate, chunks.eventHandler());
+        return chunks.finish();
+    }
+
+    /**
+     * Exports events attended by a person as UTF-8 iCalendar. The stream is
+     * flushed but not closed.
+     *
+     * @param person attending person
+     * @param out stream receiving the calendar
+     * @return number of exported events
+     * @throws IOException when writing fails
+     * @throws IllegalArgumentException when some argument is null
+     */
+    public int exportAttendances(Person person, OutputStream out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("out is null");
+        }
+        return exportAttendances(person, new OutputStreamWriter(out, "UTF-8"));
+    }
+
+    /**
+     * Exports events attended by a person as iCalendar, every event with all
+     * its attendees. The writer is flushed but not closed.
+     *
+     * @param person attending person
+     * @param writer writer receiving the calendar
+     * @return number of exported events
+     * @throws IOException when writing fails
+     * @throws IllegalArgumentException when some argument is null
+     */
+    public int exportAttendances(Person person, Writer writer) throws IOException {
+        if (person == null) {
+            throw new IllegalArgumentException("person is null");
+        }
+        if (writer == null) {
+            throw new IllegalArgumentException("writer is null");
+        }
+        logger.info("Exporting attendances of person {}", person);
+        final ChunkWriter chunks = new ChunkWriter(new BufferedWriter(writer));
+        chunks.writer.beginCalendar();
+        attendanceManager.findAttendancesForPerson(person, new ResultHandler<Attendance>() {
+            @Override
+            public boolean handle(Attendance attendance) {
+                return attendance.getEvent() == null || chunks.add(attendance.getEvent());
+            }
+        });
+        return chunks.finish();
+    }
+}
@@ -0,0 +1,494 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Imports events with their attendees from iCalendar (RFC 5545). The
+ * calendar is parsed incrementally and VEVENTs are persisted in chunks by
+ * batched inserts, every chunk is committed before the next one is read,
+ * so memory used by the import does not grow with the size of the file.
+ *
+ * Attendees are mapped to persons by email (case insensitive). Existing
+ * persons are loaded once into an in-memory lookup, persons missing in the
+ * database are created with the chunk which references them.
+ *
+ * Events which can not be stored, e.g. without start or with recurrence
+ * not supported by {@link RecurrenceRule}, are skipped and reported in the
+ * result. When the database fails, the import stops and chunks imported
+ * before stay committed.
+ *
+ * @author Jiri Stary
+ */
+public class ICalendarImporter {
+
+    final static Logger logger = LoggerFactory.getLogger(ICalendarImporter.class);
+
+    /**
+     * Default number of events persisted in one chunk.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    /**
+     * Maximal length of stored texts, longer texts are truncated.
+     */
+    static final int MAX_TEXT_LENGTH = 255;
+
+    private static final int MAX_ERRORS = 100;
+    private static final int PERSONS_PAGE_SIZE = 1000;
+    private static final long DAY = 24 * 3600000L;
+
+    /**
+     * Numbers of imported entities and messages of the first errors.
+     */
+    public static class Result {
+        private int eventCount;
+        private int personCount;
+        private int attendanceCount;
+        private int failedCount;
+        private final List<String> errors = new ArrayList<String>();
+
+        /**
+         * @return number of created events
+         */
+        public int getEventCount() {
+            return eventCount;
+        }
+
+        /**
+         * @return number of created persons, attendees found in the database
+         * are not counted
+         */
+        public int getPersonCount() {
+            return personCount;
+        }
+
+        /**
+         * @return number of created attendances
+         */
+        public int getAttendanceCount() {
+            return attendanceCount;
+        }
+
+        /**
+         * @return number of skipped events
+         */
+        public int getFailedCount() {
+            return failedCount;
+        }
+
+        /**
+         * @return messages of at most 100 first errors
+         */
+        public List<String> getErrors() {
+            return Collections.unmodifiableList(errors);
+        }
+
+        private void addError(String error) {
+            logger.warn(error);
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(error);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + "events=" + eventCount + ", persons=" + personCount
+                    + ", attendances=" + attendanceCount + ", failed=" + failedCount + '}';
+        }
+    }
+
+    /**
+     * ATTENDEE of parsed event.
+     */
+    private static class Attendee {
+        final String email;
+        final String name;
+        final Date plannedArrivalTime;
+
+        Attendee(String email, String name, Date plannedArrivalTime) {
+            this.email = email;
+            this.name = name;
+            this.plannedArrivalTime = plannedArrivalTime;
+        }
+    }
+
+    private final PersonManager personManager;
+    private final EventManager eventManager;
+    private final AttendanceManager attendanceManager;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    /**
+     * @param personManager manager used for looking up and creating persons
+     * @param eventManager manager used for creating events
+     * @param attendanceManager manager used for creating attendances
+     */
+    public ICalendarImporter(PersonManager personManager, EventManager eventManager,
+            AttendanceManager attendanceManager) {
+        if (personManager == null) {
+            throw new IllegalArgumentException("personManager is null");
+        }
+        if (eventManager == null) {
+            throw new IllegalArgumentException("eventManager is null");
+        }
+        if (attendanceManager == null) {
+            throw new IllegalArgumentException("attendanceManager is null");
+        }
+        this.personManager = personManager;
+        this.eventManager = eventManager;
+        this.attendanceManager = attendanceManager;
+    }
+
+    /**
+     * Sets number of events persisted and committed together.
+     *
+     * @param chunkSize number of events in one chunk
+     * @throws IllegalArgumentException when chunkSize is not positive
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize is not positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Imports UTF-8 iCalendar. The stream is not closed.
+     *
+     * @param in stream with the calendar
+     * @return numbers of imported entities
+     * @throws IOException when reading fails
+     * @throws IllegalArgumentException when in is null
+     */
+    public Result importCalendar(InputStream in) throws IOException {
+        if (in == null) {
+            throw new IllegalArgumentException("in is null");
+        }
+        return importCalendar(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /**
+     * Imports iCalendar. The reader is not closed.
+     *
+     * @param reader reader of the calendar
+     * @return numbers of imported entities
+     * @throws IOException when reading fails
+     * @throws IllegalArgumentException when reader is null
+     */
+    public Result importCalendar(Reader reader) throws IOException {
+        if (reader == null) {
+            throw new IllegalArgumentException("reader is null");
+        }
+        logger.info("Importing calendar");
+        Result result = new Result();
+        Map<String, Person> persons = loadPersons();
+        ICalendarReader calendar = new ICalendarReader(reader);
+        List<Event> events = new ArrayList<Event>(chunkSize);
+        List<List<Attendee>> attendees = new ArrayList<List<Attendee>>(chunkSize);
+
+        ICalendarReader.ContentLine line;
+        while ((line = calendar.readLine()) != null) {
+            if (!"BEGIN".equals(line.name) || !"VEVENT".equalsIgnoreCase(line.value)) {
+                continue;
+            }
+            Event event = new Event();
+            List<Attendee> eventAttendees = new ArrayList<Attendee>();
+            String error = readEvent(calendar, line.lineNumber, event, eventAttendees);
+            if (error != null) {
+                result.failedCount++;
+                result.addError(error);
+                continue;
+            }
+            events.add(event);
+            attendees.add(eventAttendees);
+            if (events.size() == chunkSize) {
+                persistChunk(events, attendees, persons, result);
+                events.clear();
+                attendees.clear();
+            }
+        }
+        persistChunk(events, attendees, persons, result);
+        logger.info("Calendar imported: {}", result);
+        return result;
+    }
+
+    /**
+     * Loads all persons into lookup by email, page by page.
+     */
+    private Map<String, Person> loadPersons() {
+        Map<String, Person> result = new HashMap<String, Person>();
+        Integer afterId = null;
+        while (true) {
+            List<Person> page = personManager.findPersonsPage(afterId, PERSONS_PAGE_SIZE);
+            for (Person person : page) {
+                if (person.getEmail() != null && !result.containsKey(emailKey(person.getEmail()))) {
+                    result.put(emailKey(person.getEmail()), person);
+                }
+            }
+            if (page.size() < PERSONS_PAGE_SIZE) {
+                return result;
+            }
+            afterId = page.get(page.size() - 1).getId();
+        }
+    }
+
+    /**
+     * Reads properties of VEVENT up to its END line into event and
+     * attendees. Nested components, e.g. VALARM, are skipped.
+     *
+     * @return error message or null when the event can be stored
+     */
+    private String readEvent(ICalendarReader calendar, int lineNumber, Event event,
+            List<Attendee> attendees) throws IOException {
+        String error = null;
+        String uid = null;
+        Long duration = null;
+        boolean allDay = false;
+        RecurrenceRule rule = null;
+        StringBuilder monthDays = new StringBuilder();
+        List<Date> exceptions = new ArrayList<Date>();
+        int nested = 0;
+
+        ICalendarReader.ContentLine line;
+        while ((line = calendar.readLine()) != null) {
+            if ("BEGIN".equals(line.name)) {
+                nested++;
+                continue;
+            }
+            if ("END".equals(line.name)) {
+                if (nested == 0) {
+                    break;
+                }
+                nested--;
+                continue;
+            }
+            if (nested > 0 || error != null) {
+                continue;
+            }
+            try {
+                if ("UID".equals(line.name)) {
+                    uid = line.value;
+                } else if ("SUMMARY".equals(line.name)) {
+                    event.setName(truncate(ICalendarReader.unescapeText(line.value)));
+                } else if ("DESCRIPTION".equals(line.name)) {
+                    event.setNote(truncate(ICalendarReader.unescapeText(line.value)));
+                } else if ("DTSTART".equals(line.name)) {
+                    event.setStartDate(calendar.parseDate(line.value, line));
+                    allDay = line.value.length() == 8;
+                } else if ("DTEND".equals(line.name)) {
+                    event.setEndDate(calendar.parseDate(line.value, line));
+                } else if ("DURATION".equals(line.name)) {
+                    duration = ICalendarReader.parseDuration(line.value);
+                } else if ("RRULE".equals(line.name)) {
+                    rule = new RecurrenceRule();
+                    error = readRecurrence(calendar, line, rule, monthDays);
+                } else if ("EXDATE".equals(line.name)) {
+                    for (String value : line.value.split(",")) {
+                        exceptions.add(calendar.parseDate(value, line));
+                    }
+                } else if ("ATTENDEE".equals(line.name)) {
+                    Attendee attendee = readAttendee(calendar, line);
+                    if (attendee != null) {
+                        attendees.add(attendee);
+                    }
+                }
+            } catch (ParseException ex) {
+                error = ex.getMessage();
+            }
+        }
+
+        String description = "VEVENT at line " + lineNumber + (uid == null ? "" : " (" + uid + ")");
+        if (error != null) {
+            return description + ": " + error;
+        }
+        if (event.getStartDate() == null) {
+            return description + ": DTSTART is missing";
+        }
+        if (event.getEndDate() == null) {
+            if (duration != null) {
+                event.setEndDate(new Date(event.getStartDate().getTime() + duration));
+            } else if (allDay) {
+                event.setEndDate(new Date(event.getStartDate().getTime() + DAY));
+            } else {
+                return description + ": DTEND and DURATION are missing";
+            }
+        }
+        if (!event.getEndDate().after(event.getStartDate())) {
+            return description + ": DTEND is not after DTSTART";
+        }
+        if (event.getName() == null) {
+            event.setName("");
+        }
+        if (rule != null) {
+            if (rule.getUntil() != null && rule.getUntil().before(event.getStartDate())) {
+                return description + ": UNTIL of RRULE is before DTSTART";
+            }
+            if (monthDays.length() > 0 && !isMonthEnd(rule, event.getStartDate(), monthDays.toString())) {
+                return description + ": RRULE part BYMONTHDAY is not supported";
+            }
+            rule.getExceptions().addAll(exceptions);
+            event.setRecurrence(rule);
+        }
+        return null;
+    }
+
+    /**
+     * Reads RRULE into rule. Only FREQ, INTERVAL, COUNT and UNTIL are
+     * supported, other parts would change the occurrences. BYMONTHDAY and
+     * BYSETPOS are collected into monthDays, they are supported only in the
+     * form written by {@link ICalendarWriter#monthEndParts(int)}.
+     *
+     * @return error message or null when the rule is supported
+     */
+    private static String readRecurrence(ICalendarReader calendar, ICalendarReader.ContentLine line,
+            RecurrenceRule rule, StringBuilder monthDays) throws ParseException {
+        for (String part : line.value.split(";")) {
+            int equals = part.indexOf('=');
+            if (equals < 0) {
+                return "RRULE " + line.value + " is malformed";
+            }
+            String name = part.substring(0, equals).toUpperCase();
+            String value = part.substring(equals + 1);
+            try {
+                if ("FREQ".equals(name)) {
+                    rule.setFrequency(RecurrenceRule.Frequency.valueOf(value.toUpperCase()));
+                } else if ("INTERVAL".equals(name)) {
+                    rule.setInterval(Integer.parseInt(value));
+                } else if ("COUNT".equals(name)) {
+                    rule.setCount(Integer.parseInt(value));
+                } else if ("UNTIL".equals(name)) {
+                    rule.setUntil(calendar.parseDate(value, line));
+                } else if ("BYMONTHDAY".equals(name) || "BYSETPOS".equals(name)) {
+                    monthDays.append(';').append(name).append('=').append(value);
+                } else if (!"WKST".equals(name)) {
+                    return "RRULE part " + name + " is not supported";
+                }
+            } catch (IllegalArgumentException ex) {
+                // Also NumberFormatException
+                return "RRULE part " + part + " is not supported";
+            }
+        }
+        if (rule.getFrequency() == null) {
+            return "RRULE " + line.value + " has no FREQ";
+        }
+        if (rule.getInterval() <= 0 || (rule.getCount() != null && rule.getCount() <= 0)) {
+            return "RRULE " + line.value + " is not positive";
+        }
+        if (rule.getCount() != null && rule.getUntil() != null) {
+            return "RRULE " + line.value + " has both COUNT and UNTIL";
+        }
+        return null;
+    }
+
+    /**
+     * @return true when monthDays select the start day or the last day of
+     * shorter months, which is how monthly occurrences are expanded
+     */
+    private static boolean isMonthEnd(RecurrenceRule rule, Date start, String monthDays) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(start);
+        return rule.getFrequency() == RecurrenceRule.Frequency.MONTHLY
+                && monthDays.equals(ICalendarWriter.monthEndParts(cal.get(Calendar.DAY_OF_MONTH)));
+    }
+
+    /**
+     * @return attendee or null when ATTENDEE has no address
+     */
+    private static Attendee readAttendee(ICalendarReader calendar, ICalendarReader.ContentLine line)
+            throws ParseException {
+        String email = line.value.trim();
+        if (email.regionMatches(true, 0, "mailto:", 0, 7)) {
+            email = email.substring(7);
+        }
+        if (email.isEmpty()) {
+            return null;
+        }
+        String name = line.getParameter("CN");
+        String arrival = line.getParameter(ICalendarWriter.PLANNED_ARRIVAL_PARAMETER);
+        return new Attendee(truncate(email), name == null || name.isEmpty() ? truncate(email) : truncate(name),
+                arrival == null ? null : calendar.parseDate(arrival, line));
+    }
+
+    /**
+     * Creates persons missing in the lookup, events of the chunk and their
+     * attendances.
+     */
+    private void persistChunk(List<Event> events, List<List<Attendee>> attendees,
+            Map<String, Person> persons, Result result) {
+        if (events.isEmpty()) {
+            return;
+        }
+        Map<String, Person> newPersons = new LinkedHashMap<String, Person>();
+        for (List<Attendee> eventAttendees : attendees) {
+            for (Attendee attendee : eventAttendees) {
+                String key = emailKey(attendee.email);
+                if (!persons.containsKey(key) && !newPersons.containsKey(key)) {
+                    Person person = new Person();
+                    person.setName(attendee.name);
+                    person.setEmail(attendee.email);
+                    newPersons.put(key, person);
+                }
+            }
+        }
+        personManager.createPersons(newPersons.values());
+        persons.putAll(newPersons);
+        result.personCount += newPersons.size();
+
+        BatchInsertResult<Event> inserted = eventManager.createEvents(events);
+        result.eventCount += inserted.getInserted().size();
+        result.failedCount += inserted.getFailed().size();
+        for (Exception error : inserted.getErrors()) {
+            result.addError("Events were not stored: " + error.getMessage());
+        }
+
+        List<Attendance> attendances = new ArrayList<Attendance>();
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            if (event.getId() == null) {
+                continue;
+            }
+            // The same person listed more times attends once
+            Map<String, Attendance> eventAttendances = new LinkedHashMap<String, Attendance>();
+            for (Attendee attendee : attendees.get(i)) {
+                String key = emailKey(attendee.email);
+                if (!eventAttendances.containsKey(key)) {
+                    Attendance attendance = new Attendance();
+                    attendance.setEvent(event);
+                    attendance.setPerson(persons.get(key));
+                    attendance.setPlannedArrivalTime(attendee.plannedArrivalTime);
+                    eventAttendances.put(key, attendance);
+                }
+            }
+            attendances.addAll(eventAttendances.values());
+        }
+        try {
+            attendanceManager.createAttendances(attendances);
+            result.attendanceCount += attendances.size();
+        } catch (ServiceFailureException | IllegalEntityException ex) {
+            result.addError(attendances.size() + " attendances were not stored: " + ex.getMessage());
+        }
+    }
+
+    private static String emailKey(String email) {
+        return email.toLowerCase();
+    }
+
+    private static String truncate(String text) {
+        return text.length() <= MAX_TEXT_LENGTH ? text : text.substring(0, MAX_TEXT_LENGTH);
+    }
+}
@@ -0,0 +1,250 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads iCalendar (RFC 5545) content lines one by one, so the whole calendar
+ * is never held in memory. Folded lines are unfolded, names of properties
+ * and parameters are returned in upper case. Malformed lines are skipped.
+ *
+ * @author Jiri Stary
+ */
+class ICalendarReader {
+
+    final static Logger logger = LoggerFactory.getLogger(ICalendarReader.class);
+
+    /**
+     * One unfolded content line.
+     */
+    static class ContentLine {
+        final String name;
+        final Map<String, String> parameters;
+        final String value;
+        final int lineNumber;
+
+        ContentLine(String name, Map<String, String> parameters, String value, int lineNumber) {
+            this.name = name;
+            this.parameters = parameters;
+            this.value = value;
+            this.lineNumber = lineNumber;
+        }
+
+        String getParameter(String parameter) {
+            return parameters.get(parameter);
+        }
+    }
+
+    private final BufferedReader reader;
+    private final SimpleDateFormat utcFormat;
+    private final SimpleDateFormat localFormat;
+    private final SimpleDateFormat dateFormat;
+    private String next;
+    private int lineNumber;
+    private boolean started;
+
+    ICalendarReader(Reader reader) {
+        this.reader = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        this.utcFormat = new SimpleDateFormat(ICalendarWriter.DATE_TIME_PATTERN);
+        this.utcFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        this.utcFormat.setLenient(false);
+        this.localFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+        this.localFormat.setLenient(false);
+        this.dateFormat = new SimpleDateFormat("yyyyMMdd");
+        this.dateFormat.setLenient(false);
+    }
+
+    /**
+     * Reads next content line.
+     *
+     * @return content line or null at the end of the calendar
+     * @throws IOException when reading fails
+     */
+    ContentLine readLine() throws IOException {
+        while (true) {
+            if (!started) {
+                started = true;
+                next = readPhysicalLine();
+                // Byte order mark written by some tools
+                if (next != null && next.startsWith("\uFEFF")) {
+                    next = next.substring(1);
+                }
+            }
+            if (next == null) {
+                return null;
+            }
+            int number = lineNumber;
+            StringBuilder line = new StringBuilder(next);
+            next = readPhysicalLine();
+            while (next != null && (next.startsWith(" ") || next.startsWith("\t"))) {
+                line.append(next, 1, next.length());
+                next = readPhysicalLine();
+            }
+            if (line.length() == 0) {
+                continue;
+            }
+            ContentLine result = parse(line.toString(), number);
+            if (result != null) {
+                return result;
+            }
+            logger.warn("Skipping malformed line {}", number);
+        }
+    }
+
+    private String readPhysicalLine() throws IOException {
+        String line = reader.readLine();
+        if (line != null) {
+            lineNumber++;
+        }
+        return line;
+    }
+
+    /**
+     * Parses name, parameters and value of unfolded line.
+     *
+     * @return content line or null when the line is malformed
+     */
+    private static ContentLine parse(String line, int lineNumber) {
+        int i = 0;
+        while (i < line.length() && line.charAt(i) != ';' && line.charAt(i) != ':') {
+            i++;
+        }
+        if (i == 0 || i == line.length()) {
+            return null;
+        }
+        String name = line.substring(0, i).toUpperCase();
+        Map<String, String> parameters = new HashMap<String, String>();
+        while (line.charAt(i) == ';') {
+            int equals = line.indexOf('=', i + 1);
+            if (equals < 0) {
+                return null;
+            }
+            String parameter = line.substring(i + 1, equals).toUpperCase();
+            StringBuilder value = new StringBuilder();
+            i = equals + 1;
+            boolean quoted = false;
+            while (i < line.length()) {
+                char c = line.charAt(i);
+                if (c == '"') {
+                    quoted = !quoted;
+                } else if (!quoted && (c == ';' || c == ':')) {
+                    break;
+                } else {
+                    value.append(c);
+                }
+                i++;
+            }
+            if (i == line.length()) {
+                return null;
+            }
+            parameters.put(parameter, value.toString());
+        }
+        return new ContentLine(name, parameters, line.substring(i + 1), lineNumber);
+    }
+
+    /**
+     * Parses value of DATE or DATE-TIME property. UTC times end with Z,
+     * other times are in zone given by TZID parameter or local. Dates are
+     * returned as local midnight.
+     *
+     * @param value value of the property or one of its values
+     * @param line line with parameters of the property
+     * @return parsed time
+     * @throws ParseException when the value is not a date or time
+     */
+    Date parseDate(String value, ContentLine line) throws ParseException {
+        if (value.length() == 8 || "DATE".equalsIgnoreCase(line.getParameter("VALUE"))) {
+            return parse(dateFormat, value);
+        }
+        if (value.endsWith("Z")) {
+            return parse(utcFormat, value);
+        }
+        String zone = line.getParameter("TZID");
+        localFormat.setTimeZone(zone == null ? TimeZone.getDefault() : TimeZone.getTimeZone(zone));
+        return parse(localFormat, value);
+    }
+
+    private static Date parse(SimpleDateFormat format, String value) throws ParseException {
+        ParsePosition position = new ParsePosition(0);
+        Date result = format.parse(value, position);
+        if (result == null || position.getIndex() != value.length()) {
+            throw new ParseException("Unparseable date: " + value, position.getErrorIndex());
+        }
+        return result;
+    }
+
+    /**
+     * Parses DURATION value like P1DT2H or -PT15M.
+     *
+     * @return duration in milliseconds
+     * @throws ParseException when the value is not a duration
+     */
+    static long parseDuration(String value) throws ParseException {
+        int i = 0;
+        long sign = 1;
+        if (i < value.length() && (value.charAt(i) == '+' || value.charAt(i) == '-')) {
+            sign = value.charAt(i) == '-' ? -1 : 1;
+            i++;
+        }
+        if (i == value.length() || value.charAt(i) != 'P') {
+            throw new ParseException("Unparseable duration: " + value, i);
+        }
+        i++;
+        long result = 0;
+        long number = -1;
+        for (; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                number = (number < 0 ? 0 : number * 10) + (c - '0');
+                continue;
+            }
+            if (c == 'T') {
+                continue;
+            }
+            if (number < 0) {
+                throw new ParseException("Unparseable duration: " + value, i);
+            }
+            switch (c) {
+                case 'W': result += number * 7 * 24 * 3600000L; break;
+                case 'D': result += number * 24 * 3600000L; break;
+                case 'H': result += number * 3600000L; break;
+                case 'M': result += number * 60000L; break;
+                case 'S': result += number * 1000L; break;
+                default: throw new ParseException("Unparseable duration: " + value, i);
+            }
+            number = -1;
+        }
+        if (number >= 0) {
+            throw new ParseException("Unparseable duration: " + value, value.length());
+        }
+        return sign * result;
+    }
+
+    /**
+     * Reverts escaping of TEXT value done by
+     * {@link ICalendarWriter#escapeText(String)}.
+     */
+    static String unescapeText(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char escaped = text.charAt(++i);
+                result.append(escaped == 'n' || escaped == 'N' ? '\n' : escaped);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
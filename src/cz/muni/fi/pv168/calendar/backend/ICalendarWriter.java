@@ -0,0 +1,320 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Writes iCalendar (RFC 5545) content line by line. Times are written in UTC,
+ * lines longer than 75 octets are folded and text values are escaped.
+ *
+ * Recurring events are expanded by {@link Occurrences} in the default time
+ * zone, so their DTSTART, DTEND and EXDATE are written in that zone with
+ * TZID and the zone is described by VTIMEZONE before the first of them.
+ * Clients then keep occurrences at the same local time across daylight
+ * saving changes. The VTIMEZONE has the daylight saving rules of the year of
+ * the export only.
+ *
+ * Monthly occurrences are moved to the last day of shorter months, RFC 5545
+ * skips such months instead. Monthly series starting after the 28th are
+ * therefore written with BYMONTHDAY and BYSETPOS selecting the day or the
+ * last day of the month, see {@link #monthEndParts(int)}.
+ *
+ * @author Jiri Stary
+ */
+class ICalendarWriter {
+
+    static final String LINE_END = "\r\n";
+    static final String PRODUCT_ID = "-//PV168//Calendar//EN";
+    static final String UID_DOMAIN = "pv168.calendar";
+    static final String DATE_TIME_PATTERN = "yyyyMMdd'T'HHmmss'Z'";
+    static final String LOCAL_DATE_TIME_PATTERN = "yyyyMMdd'T'HHmmss";
+    /**
+     * Non-standard parameter of ATTENDEE carrying planned arrival time.
+     */
+    static final String PLANNED_ARRIVAL_PARAMETER = "X-PLANNED-ARRIVAL";
+
+    private static final int MAX_LINE_OCTETS = 75;
+
+    private static final long DAY = 24 * 3600000L;
+    private static final String[] DAYS_OF_WEEK = {"SU", "MO", "TU", "WE", "TH", "FR", "SA"};
+
+    private final Writer writer;
+    private final SimpleDateFormat dateFormat;
+    private final TimeZone zone;
+    private final SimpleDateFormat localFormat;
+    private boolean zoneWritten;
+
+    ICalendarWriter(Writer writer) {
+        this.writer = writer;
+        this.dateFormat = new SimpleDateFormat(DATE_TIME_PATTERN);
+        this.dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // Zone of expansion of recurring events
+        this.zone = TimeZone.getDefault();
+        this.localFormat = new SimpleDateFormat(LOCAL_DATE_TIME_PATTERN);
+        this.localFormat.setTimeZone(zone);
+    }
+
+    void beginCalendar() throws IOException {
+        writeLine("BEGIN:VCALENDAR");
+        writeLine("VERSION:2.0");
+        writeLine("PRODID:" + PRODUCT_ID);
+        writeLine("CALSCALE:GREGORIAN");
+    }
+
+    void endCalendar() throws IOException {
+        writeLine("END:VCALENDAR");
+        writer.flush();
+    }
+
+    /**
+     * Writes event as VEVENT with its recurrence rule and one ATTENDEE line
+     * for every attendance.
+     *
+     * @param event event with id
+     * @param attendances attendances of the event
+     * @param stamp time of the export
+     */
+    void writeEvent(Event event, List<Attendance> attendances, Date stamp) throws IOException {
+        RecurrenceRule rule = event.getRecurrence();
+        if (rule != null && !zoneWritten) {
+            writeTimeZone(stamp);
+            zoneWritten = true;
+        }
+        writeLine("BEGIN:VEVENT");
+        writeLine("UID:" + uid(event.getId()));
+        writeLine("DTSTAMP:" + formatDate(stamp));
+        if (rule == null) {
+            writeLine("DTSTART:" + formatDate(event.getStartDate()));
+            writeLine("DTEND:" + formatDate(event.getEndDate()));
+        } else {
+            writeLine("DTSTART" + formatLocalDate(event.getStartDate()));
+            writeLine("DTEND" + formatLocalDate(event.getEndDate()));
+        }
+        writeLine("SUMMARY:" + escapeText(event.getName()));
+        if (event.getNote() != null) {
+            writeLine("DESCRIPTION:" + escapeText(event.getNote()));
+        }
+        if (rule != null) {
+            StringBuilder line = new StringBuilder("RRULE:FREQ=").append(rule.getFrequency().name());
+            if (rule.getInterval() != 1) {
+                line.append(";INTERVAL=").append(rule.getInterval());
+            }
+            if (rule.getFrequency() == RecurrenceRule.Frequency.MONTHLY) {
+                Calendar cal = Calendar.getInstance(zone);
+                cal.setTime(event.getStartDate());
+                line.append(monthEndParts(cal.get(Calendar.DAY_OF_MONTH)));
+            }
+            if (rule.getCount() != null) {
+                line.append(";COUNT=").append(rule.getCount());
+            }
+            if (rule.getUntil() != null) {
+                line.append(";UNTIL=").append(formatDate(rule.getUntil()));
+            }
+            writeLine(line.toString());
+            for (Date exception : rule.getExceptions()) {
+                writeLine("EXDATE" + formatLocalDate(exception));
+            }
+        }
+        for (Attendance attendance : attendances) {
+            Person person = attendance.getPerson();
+            if (person == null) {
+                continue;
+            }
+            StringBuilder line = new StringBuilder("ATTENDEE");
+            if (person.getName() != null) {
+                line.append(";CN=").append(quoteParameter(person.getName()));
+            }
+            if (attendance.getPlannedArrivalTime() != null) {
+                line.append(';').append(PLANNED_ARRIVAL_PARAMETER).append('=')
+                        .append(formatDate(attendance.getPlannedArrivalTime()));
+            }
+            line.append(":mailto:").append(person.getEmail());
+            writeLine(line.toString());
+        }
+        writeLine("END:VEVENT");
+    }
+
+    String formatDate(Date date) {
+        return dateFormat.format(date);
+    }
+
+    /**
+     * @return TZID parameter and value of the time in the zone of expansion
+     */
+    private String formatLocalDate(Date date) {
+        return ";TZID=" + zone.getID() + ":" + localFormat.format(date);
+    }
+
+    /**
+     * Returns RRULE parts of monthly series starting on given day of month,
+     * which select the day or the last day of shorter months like
+     * {@link Occurrences} does.
+     *
+     * @param day day of month of the series start
+     * @return parts starting with semicolon, empty when every month has the day
+     */
+    static String monthEndParts(int day) {
+        if (day <= 28) {
+            return "";
+        }
+        return day == 31 ? ";BYMONTHDAY=-1" : ";BYMONTHDAY=" + day + ",-1;BYSETPOS=1";
+    }
+
+    /**
+     * Writes VTIMEZONE of the zone of expansion. Daylight saving changes of
+     * the year of stamp are written as yearly rules on the n-th or the last
+     * weekday of their month.
+     */
+    private void writeTimeZone(Date stamp) throws IOException {
+        writeLine("BEGIN:VTIMEZONE");
+        writeLine("TZID:" + zone.getID());
+        Calendar cal = Calendar.getInstance(zone);
+        cal.setTime(stamp);
+        cal.set(cal.get(Calendar.YEAR), Calendar.JANUARY, 1, 0, 0, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        long time = cal.getTimeInMillis();
+        long yearEnd = time + 366 * DAY;
+        boolean changes = false;
+        for (; time < yearEnd; time += DAY) {
+            if (zone.getOffset(time) != zone.getOffset(time + DAY)) {
+                writeObservance(findChange(time, time + DAY));
+                changes = true;
+            }
+        }
+        if (!changes) {
+            int offset = zone.getOffset(stamp.getTime());
+            writeLine("BEGIN:STANDARD");
+            writeLine("DTSTART:19700101T000000");
+            writeLine("TZOFFSETFROM:" + formatOffset(offset));
+            writeLine("TZOFFSETTO:" + formatOffset(offset));
+            writeLine("END:STANDARD");
+        }
+        writeLine("END:VTIMEZONE");
+    }
+
+    /**
+     * @return first millisecond after from with the offset of to
+     */
+    private long findChange(long from, long to) {
+        int offset = zone.getOffset(to);
+        while (to - from > 1) {
+            long middle = from + (to - from) / 2;
+            if (zone.getOffset(middle) == offset) {
+                to = middle;
+            } else {
+                from = middle;
+            }
+        }
+        return to;
+    }
+
+    private void writeObservance(long change) throws IOException {
+        int offsetFrom = zone.getOffset(change - 1);
+        int offsetTo = zone.getOffset(change);
+        // Local time of the change before it happens, rule is computed in UTC
+        // fields to avoid another zone
+        Calendar local = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        local.setTimeInMillis(change + offsetFrom);
+        int month = local.get(Calendar.MONTH);
+        int day = local.get(Calendar.DAY_OF_MONTH);
+        int dayOfWeek = local.get(Calendar.DAY_OF_WEEK);
+        int week = day + 7 > local.getActualMaximum(Calendar.DAY_OF_MONTH) ? -1 : (day - 1) / 7 + 1;
+        // Onset of the rule in 1970 precedes all exported events
+        local.set(Calendar.YEAR, 1970);
+        local.set(Calendar.MONTH, month);
+        local.set(Calendar.DAY_OF_WEEK, dayOfWeek);
+        local.set(Calendar.DAY_OF_WEEK_IN_MONTH, week);
+        SimpleDateFormat format = new SimpleDateFormat(LOCAL_DATE_TIME_PATTERN);
+        format.setTimeZone(local.getTimeZone());
+
+        String component = zone.inDaylightTime(new Date(change)) ? "DAYLIGHT" : "STANDARD";
+        writeLine("BEGIN:" + component);
+        writeLine("DTSTART:" + format.format(local.getTime()));
+        writeLine("TZOFFSETFROM:" + formatOffset(offsetFrom));
+        writeLine("TZOFFSETTO:" + formatOffset(offsetTo));
+        writeLine("RRULE:FREQ=YEARLY;BYMONTH=" + (month + 1) + ";BYDAY=" + week
+                + DAYS_OF_WEEK[dayOfWeek - Calendar.SUNDAY]);
+        writeLine("END:" + component);
+    }
+
+    private static String formatOffset(int offset) {
+        int minutes = Math.abs(offset) / 60000;
+        return String.format("%s%02d%02d", offset < 0 ? "-" : "+", minutes / 60, minutes % 60);
+    }
+
+    static String uid(int eventId) {
+        return "event-" + eventId + "@" + UID_DOMAIN;
+    }
+
+    /**
+     * Escapes value of TEXT property, line breaks are written as \n and
+     * other control characters are dropped.
+     */
+    static String escapeText(String text) {
+        StringBuilder result = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                case ';':
+                case ',':
+                    result.append('\\').append(c);
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                default:
+                    if (c >= 0x20 || c == '\t') {
+                        result.append(c);
+                    }
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Quotes parameter value. Quoted values may not contain double quotes,
+     * they are replaced by single ones.
+     */
+    static String quoteParameter(String value) {
+        StringBuilder result = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                result.append('\'');
+            } else if (c >= 0x20 || c == '\t') {
+                result.append(c);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /**
+     * Writes content line folded to lines of at most 75 octets of UTF-8,
+     * characters are never split.
+     */
+    private void writeLine(String line) throws IOException {
+        int octets = 0;
+        int i = 0;
+        while (i < line.length()) {
+            int codePoint = line.codePointAt(i);
+            int chars = Character.charCount(codePoint);
+            int length = codePoint < 0x80 ? 1 : (codePoint < 0x800 ? 2 : (codePoint < 0x10000 ? 3 : 4));
+            if (octets + length > MAX_LINE_OCTETS) {
+                // Continuation line starts with a space
+                writer.write(LINE_END);
+                writer.write(' ');
+                octets = 1;
+            }
+            writer.write(line, i, chars);
+            octets += length;
+            i += chars;
+        }
+        writer.write(LINE_END);
+    }
+}
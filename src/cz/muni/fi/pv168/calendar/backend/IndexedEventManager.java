@@ -0,0 +1,278 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.IntervalTree;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * EventManager which answers {@link #findEventsByDate(Date, Date)} from an
+ * in-memory interval tree instead of scanning the EVENT table. The tree is
+ * warmed up from the database on first query (or by {@link #warmUp()}) and
+ * kept up to date by writes done through this manager. Writes done by other
+ * managers are not seen until next {@link #warmUp()}.
+ *
+ * Events are copied when they enter or leave the index, so changing returned
+ * events does not affect the index.
+ *
+ * Warm-up reads the database without holding the lock. Writes done through
+ * this manager meanwhile are recorded and replayed over the loaded events,
+ * so the index misses none of them whether or not the snapshot saw them.
+ *
+ * @author Jiri Stary
+ */
+public class IndexedEventManager implements EventManager {
+
+    final static Logger logger = LoggerFactory.getLogger(IndexedEventManager.class);
+
+    private final EventManager delegate;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IntervalTree<Event> tree = new IntervalTree<Event>();
+    private final Map<Integer, Event> events = new HashMap<Integer, Event>();
+    // Latest state of events written during warm-ups, null for deleted ones
+    private final Map<Integer, Event> writesDuringWarmUp = new LinkedHashMap<Integer, Event>();
+    private int warmUpsInProgress;
+    private volatile boolean warmedUp;
+
+    /**
+     * @param delegate manager used for accessing the database
+     */
+    public IndexedEventManager(EventManager delegate) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate is null");
+        }
+        this.delegate = delegate;
+    }
+
+    /**
+     * Loads all events from the database and rebuilds the index.
+     */
+    public void warmUp() {
+        lock.writeLock().lock();
+        try {
+            // Writes are recorded from now on, before the snapshot is read
+            warmUpsInProgress++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        List<Event> all = null;
+        try {
+            all = delegate.findAllEvents();
+        } finally {
+            lock.writeLock().lock();
+            try {
+                if (all != null) {
+                    tree.clear();
+                    events.clear();
+                    for (Event event : all) {
+                        index(event);
+                    }
+                    for (Map.Entry<Integer, Event> write : writesDuringWarmUp.entrySet()) {
+                        apply(write.getKey(), write.getValue());
+                    }
+                    warmedUp = true;
+                    logger.info("Event index warmed up with {} events and {} concurrent writes", 
+                            all.size(), writesDuringWarmUp.size());
+                }
+                if (--warmUpsInProgress == 0) {
+                    writesDuringWarmUp.clear();
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    @Override
+    public void createEvent(Event event) {
+        delegate.createEvent(event);
+        lock.writeLock().lock();
+        try {
+            write(event.getId(), EntityCopies.copy(event));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public BatchInsertResult<Event> createEvents(Collection<Event> events) {
+        BatchInsertResult<Event> result = delegate.createEvents(events);
+        lock.writeLock().lock();
+        try {
+            for (Event event : result.getInserted()) {
+                write(event.getId(), EntityCopies.copy(event));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return result;
+    }
+
+    @Override
+    public void updateEvent(Event event) {
+        delegate.updateEvent(event);
+        lock.writeLock().lock();
+        try {
+            write(event.getId(), EntityCopies.copy(event));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteEvent(Event event) {
+        delegate.deleteEvent(event);
+        lock.writeLock().lock();
+        try {
+            write(event.getId(), null);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void deleteEvents(Collection<Event> events) {
+        delegate.deleteEvents(events);
+        lock.writeLock().lock();
+        try {
+            for (Event event : events) {
+                write(event.getId(), null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Event getEventById(Integer id) {
+        return delegate.getEventById(id);
+    }
+
+    @Override
+    public List<Event> findAllEvents() {
+        ensureWarmedUp();
+        lock.readLock().lock();
+        try {
+            return EntityCopies.copyEvents(events.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Event> findEventsByDate(Date startDate, Date endDate) {
+        if (startDate == null) {
+            throw new IllegalArgumentException("startDate is null");
+        }
+        if (endDate == null) {
+            throw new IllegalArgumentException("endDate is null");
+        }
+        ensureWarmedUp();
+        lock.readLock().lock();
+        try {
+            List<Event> result = new ArrayList<Event>();
+            for (Event event : tree.findOverlapping(startDate.getTime(), endDate.getTime())) {
+                if (event.getRecurrence() == null) {
+                    result.add(EntityCopies.copy(event));
+                } else {
+                    result.addAll(Occurrences.expand(event, startDate.getTime(), endDate.getTime()));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void findEventsByDate(Date startDate, Date endDate, ResultHandler<Event> handler) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        for (Event event : findEventsByDate(startDate, endDate)) {
+            if (!handler.handle(event)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void findEventSeriesByDate(Date startDate, Date endDate, ResultHandler<Event> handler) {
+        if (startDate == null) {
+            throw new IllegalArgumentException("startDate is null");
+        }
+        if (endDate == null) {
+            throw new IllegalArgumentException("endDate is null");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null");
+        }
+        ensureWarmedUp();
+        List<Event> result = new ArrayList<Event>();
+        lock.readLock().lock();
+        try {
+            for (Event event : tree.findOverlapping(startDate.getTime(), endDate.getTime())) {
+                if (Occurrences.occursIn(event, startDate.getTime(), endDate.getTime())) {
+                    result.add(EntityCopies.copy(event));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Event event : result) {
+            if (!handler.handle(event)) {
+                return;
+            }
+        }
+    }
+
+    private void ensureWarmedUp() {
+        if (!warmedUp) {
+            warmUp();
+        }
+    }
+
+    /**
+     * Applies write done through this manager, event is null when deleted.
+     * Must be called with the write lock held.
+     */
+    private void write(Integer id, Event event) {
+        if (warmUpsInProgress > 0) {
+            writesDuringWarmUp.put(id, event);
+        }
+        if (warmedUp) {
+            apply(id, event);
+        }
+    }
+
+    private void apply(Integer id, Event event) {
+        if (event == null) {
+            unindex(id);
+        } else {
+            index(event);
+        }
+    }
+
+    private void index(Event event) {
+        // Event may be indexed already when a write and a warm-up both saw it
+        unindex(event.getId());
+        // Recurring events are indexed by the whole series and expanded by queries
+        tree.insert(event.getStartDate().getTime(), Occurrences.seriesEnd(event), event.getId(), event);
+        events.put(event.getId(), event);
+    }
+
+    private void unindex(Integer id) {
+        Event old = events.remove(id);
+        if (old != null) {
+            tree.remove(old.getStartDate().getTime(), old.getId());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads events and persons referenced by lazily loaded attendances of one
+ * result. References are registered while the result is read and the first
+ * access of any of them loads all pending references of the same kind by a
+ * few IN queries, so reading events of n attendances takes n / 500 queries
+ * instead of n. Loaded entities are shared by all attendances of the result,
+ * like in eager mode, and their recurrence is not loaded either.
+ *
+ * @author Jiri Stary
+ */
+final class LazyReferenceLoader {
+
+    final static Logger logger = LoggerFactory.getLogger(LazyReferenceLoader.class);
+
+    private final DataSource dataSource;
+    private final Set<Integer> pendingEvents = new LinkedHashSet<Integer>();
+    private final Set<Integer> pendingPersons = new LinkedHashSet<Integer>();
+    // Loaded entities, null for deleted ones
+    private final Map<Integer, Event> events = new HashMap<Integer, Event>();
+    private final Map<Integer, Person> persons = new HashMap<Integer, Person>();
+
+    LazyReferenceLoader(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Registers attendance whose references are resolved by this loader.
+     */
+    synchronized void add(Attendance attendance, Integer eventId, Integer personId) {
+        if (eventId != null && !events.containsKey(eventId)) {
+            pendingEvents.add(eventId);
+        }
+        if (personId != null && !persons.containsKey(personId)) {
+            pendingPersons.add(personId);
+        }
+        attendance.setReferences(eventId, personId, this);
+    }
+
+    /**
+     * @return event with given id, loaded together with other pending events,
+     * or null when it was deleted
+     */
+    synchronized Event getEvent(int id) {
+        if (!events.containsKey(id)) {
+            pendingEvents.add(id);
+            List<Integer> ids = new ArrayList<Integer>(pendingEvents);
+            pendingEvents.clear();
+            logger.debug("Loading {} referenced events", ids.size());
+            for (Integer eventId : ids) {
+                events.put(eventId, null);
+            }
+            load("SELECT id,name,startDate,endDate,note FROM event WHERE id IN ", ids, true);
+        }
+        return events.get(id);
+    }
+
+    /**
+     * @return person with given id, loaded together with other pending
+     * persons, or null when it was deleted
+     */
+    synchronized Person getPerson(int id) {
+        if (!persons.containsKey(id)) {
+            pendingPersons.add(id);
+            List<Integer> ids = new ArrayList<Integer>(pendingPersons);
+            pendingPersons.clear();
+            logger.debug("Loading {} referenced persons", ids.size());
+            for (Integer personId : ids) {
+                persons.put(personId, null);
+            }
+            load("SELECT id,name,email,note FROM person WHERE id IN ", ids, false);
+        }
+        return persons.get(id);
+    }
+
+    private void load(String select, List<Integer> ids, boolean loadEvents) {
+        Connection conn = null;
+        PreparedStatement st = null;
+        try {
+            conn = dataSource.getConnection();
+            for (List<Integer> chunk : DBUtils.splitForInList(ids)) {
+                st = DBUtils.prepareInStatement(conn, select, chunk, "");
+                ResultSet rs = st.executeQuery();
+                while (rs.next()) {
+                    if (loadEvents) {
+                        Event event = rowToEvent(rs);
+                        events.put(event.getId(), event);
+                    } else {
+                        Person person = rowToPerson(rs);
+                        persons.put(person.getId(), person);
+                    }
+                }
+                rs.close();
+                st.close();
+                st = null;
+            }
+        } catch (SQLException ex) {
+            // Failed references stay pending and are loaded on next access
+            if (loadEvents) {
+                events.keySet().removeAll(ids);
+                pendingEvents.addAll(ids);
+            } else {
+                persons.keySet().removeAll(ids);
+                pendingPersons.addAll(ids);
+            }
+            String message = "Error when loading " + ids.size() + " referenced " + (loadEvents ? "events" : "persons");
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    private static Event rowToEvent(ResultSet rs) throws SQLException {
+        Event event = new Event();
+        event.setId(rs.getInt("id"));
+        event.setName(rs.getString("name"));
+        event.setStartDate(timestampToDate(rs.getTimestamp("startDate")));
+        event.setEndDate(timestampToDate(rs.getTimestamp("endDate")));
+        event.setNote(rs.getString("note"));
+        return event;
+    }
+
+    private static Person rowToPerson(ResultSet rs) throws SQLException {
+        Person person = new Person();
+        person.setId(rs.getInt("id"));
+        person.setName(rs.getString("name"));
+        person.setEmail(rs.getString("email"));
+        person.setNote(rs.getString("note"));
+        return person;
+    }
+
+    private static Date timestampToDate(Timestamp timestamp) {
+        return timestamp == null ? null : new Date(timestamp.getTime());
+    }
+}
@@ -0,0 +1,291 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Expands recurring events into occurrences. Expansion jumps directly to the 
+ * first occurrence in the requested range, so its cost depends on the number 
+ * of occurrences in the range and not on the length of the series.
+ *
+ * @author Jiri Stary
+ */
+final class Occurrences {
+
+    /**
+     * End of a series which never ends.
+     */
+    static final long UNBOUNDED = Long.MAX_VALUE;
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    /**
+     * Two series which never end repeat their relative positions after the 
+     * least common multiple of their periods, they are compared over at most 
+     * this time.
+     */
+    static final long MAX_OVERLAP_PERIOD = 20 * 366 * DAY;
+
+    private Occurrences() {
+    }
+
+    /**
+     * Returns end of the last occurrence of event.
+     *
+     * @param event event, recurring or not
+     * @return end of the last occurrence in milliseconds, {@link #UNBOUNDED} 
+     * when the series never ends
+     */
+    static long seriesEnd(Event event) {
+        RecurrenceRule rule = event.getRecurrence();
+        long duration = event.getEndDate().getTime() - event.getStartDate().getTime();
+        if (rule == null) {
+            return event.getEndDate().getTime();
+        }
+        Calendar cal = Calendar.getInstance();
+        long seriesStart = event.getStartDate().getTime();
+        if (rule.getCount() != null) {
+            return start(cal, rule, seriesStart, rule.getCount() - 1) + duration;
+        }
+        if (rule.getUntil() != null) {
+            long until = rule.getUntil().getTime();
+            int index = estimateIndex(cal, rule, seriesStart, until) + 1;
+            while (index > 0 && start(cal, rule, seriesStart, index) > until) {
+                index--;
+            }
+            while (start(cal, rule, seriesStart, index + 1) <= until) {
+                index++;
+            }
+            return start(cal, rule, seriesStart, index) + duration;
+        }
+        return UNBOUNDED;
+    }
+
+    /**
+     * Passes occurrences of event overlapping closed range to handler, 
+     * ordered by their start. Not recurring event is passed itself, 
+     * occurrences of recurring event are copies of the event with start and 
+     * end of the occurrence.
+     *
+     * @param event event, recurring or not
+     * @param from start of the range in milliseconds
+     * @param to end of the range in milliseconds
+     * @param handler handler receiving occurrences
+     * @return false when handler stopped the expansion
+     */
+    static boolean expand(Event event, long from, long to, ResultHandler<Event> handler) {
+        RecurrenceRule rule = event.getRecurrence();
+        long seriesStart = event.getStartDate().getTime();
+        long duration = event.getEndDate().getTime() - seriesStart;
+        if (rule == null) {
+            if (seriesStart <= to && event.getEndDate().getTime() >= from) {
+                return handler.handle(event);
+            }
+            return true;
+        }
+        Set<Long> exceptions = new HashSet<Long>();
+        for (Date exception : rule.getExceptions()) {
+            exceptions.add(exception.getTime());
+        }
+        Calendar cal = Calendar.getInstance();
+        // Estimate is at most one occurrence off, step back to the first 
+        // occurrence ending in the range
+        int index = Math.max(0, estimateIndex(cal, rule, seriesStart, from - duration) - 1);
+        while (index > 0 && start(cal, rule, seriesStart, index - 1) + duration >= from) {
+            index--;
+        }
+        for (;; index++) {
+            if (rule.getCount() != null && index >= rule.getCount()) {
+                break;
+            }
+            long start = start(cal, rule, seriesStart, index);
+            if (start > to || (rule.getUntil() != null && start > rule.getUntil().getTime())) {
+                break;
+            }
+            if (start + duration < from || exceptions.contains(start)) {
+                continue;
+            }
+            if (!handler.handle(occurrence(event, start, duration))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns all occurrences of event overlapping closed range.
+     *
+     * @see #expand(Event, long, long, ResultHandler)
+     */
+    static List<Event> expand(Event event, long from, long to) {
+        final List<Event> result = new ArrayList<Event>();
+        expand(event, from, to, new ResultHandler<Event>() {
+            @Override
+            public boolean handle(Event occurrence) {
+                return result.add(occurrence);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Finds out whether event has an occurrence overlapping closed range.
+     *
+     * @see #expand(Event, long, long, ResultHandler)
+     */
+    static boolean occursIn(Event event, long from, long to) {
+        // Handler stops the expansion at the first occurrence
+        return !expand(event, from, to, new ResultHandler<Event>() {
+            @Override
+            public boolean handle(Event occurrence) {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Finds out whether some occurrences of two events overlap. Occurrences 
+     * which only touch, i.e. one ends when the other starts, do not overlap.
+     *
+     * @param first event, recurring or not
+     * @param second event, recurring or not
+     * @return true when the events overlap
+     */
+    static boolean overlap(Event first, Event second) {
+        long from = Math.max(first.getStartDate().getTime(), second.getStartDate().getTime());
+        long to = Math.min(seriesEnd(first), seriesEnd(second));
+        if (to == UNBOUNDED) {
+            // After the last exception both series repeat, one common period 
+            // with the longer occurrence and a daylight saving hour covers 
+            // all their positions
+            long start = Math.max(from, Math.max(lastException(first), lastException(second)));
+            long duration = Math.max(first.getEndDate().getTime() - first.getStartDate().getTime(),
+                    second.getEndDate().getTime() - second.getStartDate().getTime());
+            to = start + commonPeriod(first, second) + duration + DAY / 24;
+        }
+        if (from >= to) {
+            return false;
+        }
+        for (Event occurrence : expand(first, from, to)) {
+            long start = occurrence.getStartDate().getTime();
+            long end = occurrence.getEndDate().getTime();
+            for (Event other : expand(second, start, end)) {
+                if (other.getStartDate().getTime() < end && other.getEndDate().getTime() > start) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns least common multiple of periods of two recurring events, at 
+     * most {@link #MAX_OVERLAP_PERIOD}. Series repeating by months and by days 
+     * do not have a common period of constant length, they get the maximum. 
+     * Monthly series starting after the 28th are moved to shorter month ends 
+     * differently in leap years, their common period spans four years.
+     */
+    static long commonPeriod(Event first, Event second) {
+        RecurrenceRule firstRule = first.getRecurrence();
+        RecurrenceRule secondRule = second.getRecurrence();
+        boolean firstMonthly = firstRule.getFrequency() == RecurrenceRule.Frequency.MONTHLY;
+        if (firstMonthly != (secondRule.getFrequency() == RecurrenceRule.Frequency.MONTHLY)) {
+            return MAX_OVERLAP_PERIOD;
+        }
+        long a = periodInUnits(firstRule);
+        long b = periodInUnits(secondRule);
+        if (firstMonthly && (isClipped(first) || isClipped(second))) {
+            a *= 48;
+        }
+        long gcd = a;
+        for (long rest = b; rest != 0; ) {
+            long next = gcd % rest;
+            gcd = rest;
+            rest = next;
+        }
+        // Longest month is used as a unit of monthly series
+        long unit = firstMonthly ? 31 * DAY : DAY;
+        long lcm = a / gcd * b;
+        return lcm > MAX_OVERLAP_PERIOD / unit ? MAX_OVERLAP_PERIOD : lcm * unit;
+    }
+
+    /**
+     * @return period of the rule in days, or in months for monthly rules
+     */
+    private static long periodInUnits(RecurrenceRule rule) {
+        return rule.getFrequency() == RecurrenceRule.Frequency.WEEKLY ? 7L * rule.getInterval() : rule.getInterval();
+    }
+
+    /**
+     * @return true when some monthly occurrences of event are moved to the 
+     * last day of a shorter month
+     */
+    private static boolean isClipped(Event event) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(event.getStartDate());
+        return cal.get(Calendar.DAY_OF_MONTH) > 28;
+    }
+
+    private static long lastException(Event event) {
+        long last = Long.MIN_VALUE;
+        for (Date exception : event.getRecurrence().getExceptions()) {
+            last = Math.max(last, exception.getTime());
+        }
+        return last;
+    }
+
+    private static Event occurrence(Event event, long start, long duration) {
+        Event occurrence = EntityCopies.copy(event);
+        occurrence.setStartDate(new Date(start));
+        occurrence.setEndDate(new Date(start + duration));
+        return occurrence;
+    }
+
+    private static long start(Calendar cal, RecurrenceRule rule, long seriesStart, int index) {
+        cal.setTimeInMillis(seriesStart);
+        switch (rule.getFrequency()) {
+            case DAILY:
+                cal.add(Calendar.DAY_OF_MONTH, index * rule.getInterval());
+                break;
+            case WEEKLY:
+                cal.add(Calendar.WEEK_OF_YEAR, index * rule.getInterval());
+                break;
+            default:
+                cal.add(Calendar.MONTH, index * rule.getInterval());
+        }
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * Returns index of an occurrence starting around given time. Daylight 
+     * saving time and lengths of months may move it by one occurrence.
+     */
+    private static int estimateIndex(Calendar cal, RecurrenceRule rule, long seriesStart, long time) {
+        if (time <= seriesStart) {
+            return 0;
+        }
+        long periods;
+        switch (rule.getFrequency()) {
+            case DAILY:
+                periods = (time - seriesStart) / DAY;
+                break;
+            case WEEKLY:
+                periods = (time - seriesStart) / (7 * DAY);
+                break;
+            default:
+                cal.setTimeInMillis(seriesStart);
+                int startMonths = cal.get(Calendar.YEAR) * 12 + cal.get(Calendar.MONTH);
+                cal.setTimeInMillis(time);
+                periods = cal.get(Calendar.YEAR) * 12 + cal.get(Calendar.MONTH) - startMonths;
+        }
+        long index = periods / rule.getInterval();
+        if (rule.getCount() != null) {
+            index = Math.min(index, rule.getCount());
+        }
+        return (int) Math.min(index, Integer.MAX_VALUE / rule.getInterval() - 1);
+    }
+}
@@ -4,7 +4,10 @@
  */
 package cz.muni.fi.pv168.calendar.backend;
 
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  *
@@ -19,14 +22,29 @@ public interface PersonManager {
      * @param person The Person object being added to database.
      * @throws IllegalArgumentException when person is null, or person has already 
      * assigned id.
+     * @throws IllegalEntityException when another person has the same email.
      */
     void createPerson(Person person);
     
+    /**
+     * Creates Person entries in the database in one transaction. All persons 
+     * are validated before anything is inserted. Ids for the entries are 
+     * automatically generated and stored into id attributes when the 
+     * transaction is committed.
+     * 
+     * @param persons The Person objects being added to database.
+     * @throws IllegalArgumentException when persons are null, some person is 
+     * not valid or has already assigned id.
+     * @throws IllegalEntityException when two persons have the same email.
+     */
+    void createPersons(Collection<Person> persons);
+    
     /**
      * Updates the person with same ID.
      * 
      * @param person The Person object being updated in database.
      * @throws IllegalArgumentException when person is null.
+     * @throws IllegalEntityException when another person has the same email.
      */
     void updatePerson(Person person);
      
@@ -53,4 +71,37 @@ public interface PersonManager {
      * @return List of all Persons
      */
     List<Person> findAllPersons();
+    
+    /**
+     * Retrieves one page of Person entries ordered by id. The next page starts 
+     * after the last person of the previous one, so the cost of a page does 
+     * not depend on how many pages were read before.
+     * 
+     * @param afterId id of the last person of the previous page, null for the 
+     * first page
+     * @param pageSize maximal number of persons in the page
+     * @return persons with id greater than afterId, ordered by id
+     * @throws IllegalArgumentException when pageSize is not positive
+     */
+    List<Person> findPersonsPage(Integer afterId, int pageSize);
+    
+    /**
+     * Retrieves the person with given email. Emails are unique and compared 
+     * exactly, including letter case.
+     * 
+     * @param email email of the person
+     * @return person with the email or null when there is no such person
+     * @throws IllegalArgumentException when email is null
+     */
+    Person findPersonByEmail(String email);
+    
+    /**
+     * Retrieves persons with given emails by as few queries as possible.
+     * 
+     * @param emails emails of the persons
+     * @return found persons by their emails, emails without person are 
+     * missing
+     * @throws IllegalArgumentException when emails or some email is null
+     */
+    Map<String, Person> findPersonsByEmails(Collection<String> emails);
 }
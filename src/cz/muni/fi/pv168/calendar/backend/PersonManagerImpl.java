@@ -10,8 +10,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.IllegalEntityException;
 import cz.muni.fi.pv168.common.ServiceFailureException;
 import javax.sql.DataSource;
 import org.slf4j.LoggerFactory;
@@ -24,12 +30,38 @@ import org.slf4j.Logger;
 public class PersonManagerImpl implements PersonManager {
 
     final static Logger logger = LoggerFactory.getLogger(EventManagerImpl.class);
+    
+    /**
+     * Default number of inserts sent to the database in one batch.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+    
+    /**
+     * SQL state of a violation of the unique index on email.
+     */
+    private static final String DUPLICATE_KEY_STATE = "23505";
+    
     private DataSource dataSource;
+    private int batchSize = DEFAULT_BATCH_SIZE;
 
     public void setDataSource(DataSource dataSource) {
         this.dataSource = dataSource;
     }
 
+    /**
+     * Sets number of inserts sent to the database in one batch by 
+     * {@link #createPersons(Collection)}.
+     * 
+     * @param batchSize number of rows in one batch
+     * @throws IllegalArgumentException when batchSize is not positive
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize is not positive");
+        }
+        this.batchSize = batchSize;
+    }
+
     private void checkDataSource() {
         if (dataSource == null) {
             throw new IllegalStateException("DataSource is not set");
@@ -63,9 +95,14 @@ public class PersonManagerImpl implements PersonManager {
             int newRows = statement.executeUpdate();
             DBUtils.checkUpdatesCount(newRows, person, true);
             Integer id = DBUtils.getId(statement.getGeneratedKeys());
+            ChangeLogManagerImpl.recordChange(conn, Change.EntityType.PERSON, id, Change.Operation.CREATE);
             person.setId(id);
             conn.commit();
         } catch (SQLException ex) {
+            if (DUPLICATE_KEY_STATE.equals(ex.getSQLState())) {
+                throw new IllegalEntityException("Email of person " + person 
+                        + " is used by another person", ex);
+            }
             String message = "Error when inserting person " + person;
             logger.error(message, ex);
             throw new ServiceFailureException(message, ex);
@@ -77,6 +114,76 @@ public class PersonManagerImpl implements PersonManager {
 
     }
 
+    @Override
+    public void createPersons(Collection<Person> persons) {
+        checkDataSource();
+        if (persons == null) {
+            throw new IllegalArgumentException("persons is null");
+        }
+        logger.info("Creating {} new persons", persons.size());
+        for (Person person : persons) {
+            validate(person);
+            if (person.getId() != null) {
+                throw new IllegalArgumentException("Person's id is already set.");
+            }
+        }
+        if (persons.isEmpty()) {
+            return;
+        }
+        
+        List<Person> toInsert = new ArrayList<Person>(persons);
+        int[] ids = new int[toInsert.size()];
+        Connection conn = null;
+        Statement lock = null;
+        PreparedStatement statement = null;
+        try {
+            conn = dataSource.getConnection();
+            // Temporary turn autocommit mode off. It is turned back on in 
+            // method DBUtils.closeQuietly(...) 
+            conn.setAutoCommit(false);
+            // Nobody else may insert until commit, generated ids of each 
+            // batch are then consecutive (see DBUtils.getBatchIds(...))
+            lock = conn.createStatement();
+            lock.execute("LOCK TABLE PERSON IN EXCLUSIVE MODE");
+            statement = conn.prepareStatement(
+                    "INSERT INTO PERSON (name,email,note) VALUES (?,?,?)",
+                    Statement.RETURN_GENERATED_KEYS);
+            
+            int batchStart = 0;
+            for (int i = 0; i < toInsert.size(); i++) {
+                Person person = toInsert.get(i);
+                statement.setString(1, person.getName());
+                statement.setString(2, person.getEmail());
+                statement.setString(3, person.getNote());
+                statement.addBatch();
+                
+                if (i - batchStart + 1 == batchSize || i == toInsert.size() - 1) {
+                    DBUtils.checkBatchUpdatesCounts(statement.executeBatch());
+                    int[] batchIds = DBUtils.getBatchIds(statement.getGeneratedKeys(), i - batchStart + 1);
+                    System.arraycopy(batchIds, 0, ids, batchStart, batchIds.length);
+                    batchStart = i + 1;
+                }
+            }
+            ChangeLogManagerImpl.recordChanges(conn, Change.EntityType.PERSON, ids, Change.Operation.CREATE);
+            conn.commit();
+            
+            for (int i = 0; i < toInsert.size(); i++) {
+                toInsert.get(i).setId(ids[i]);
+            }
+        } catch (SQLException ex) {
+            if (DUPLICATE_KEY_STATE.equals(ex.getSQLState())) {
+                throw new IllegalEntityException("Some of " + toInsert.size() 
+                        + " persons has the same email as another person", ex);
+            }
+            String message = "Error when inserting " + toInsert.size() + " persons";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, lock, statement);
+        }
+    }
+
     @Override
     public void updatePerson(Person person) {
         logger.info("Updating person {}", person);
@@ -107,8 +214,14 @@ public class PersonManagerImpl implements PersonManager {
             statement.setInt(4, person.getId());
             int modifiedRows = statement.executeUpdate();
             DBUtils.checkUpdatesCount(modifiedRows, person, false);
+            ChangeLogManagerImpl.recordChange(conn, Change.EntityType.PERSON, person.getId(), 
+                    Change.Operation.UPDATE);
             conn.commit();
         } catch (SQLException ex) {
+            if (DUPLICATE_KEY_STATE.equals(ex.getSQLState())) {
+                throw new IllegalEntityException("Email of person " + person 
+                        + " is used by another person", ex);
+            }
             String message = "Error when updating person " + person;
             logger.error(message, ex);
             throw new ServiceFailureException(message, ex);
@@ -147,6 +260,8 @@ public class PersonManagerImpl implements PersonManager {
             statement.setInt(1, person.getId());
             int deletedRows = statement.executeUpdate();
             DBUtils.checkUpdatesCount(deletedRows, person, false);
+            ChangeLogManagerImpl.recordChange(conn, Change.EntityType.PERSON, person.getId(), 
+                    Change.Operation.DELETE);
             conn.commit();
         } catch (SQLException ex) {
             String message = "Error when deleting person " + person;
@@ -206,7 +321,98 @@ public class PersonManagerImpl implements PersonManager {
         }
     }
 
-    private void validate(Person person) {
+    @Override
+    public List<Person> findPersonsPage(Integer afterId, int pageSize) {
+        logger.info("Finding page of {} persons after id {}", pageSize, afterId);
+        
+        checkDataSource();
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize is not positive");
+        }
+        Connection conn = null;
+        PreparedStatement statement = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(
+                    "SELECT id,name,email,note FROM person WHERE id > ? ORDER BY id FETCH FIRST ? ROWS ONLY");
+            statement.setInt(1, afterId == null ? Integer.MIN_VALUE : afterId);
+            statement.setInt(2, pageSize);
+            return executeQueryForMultiplePersons(statement);
+        } catch (SQLException ex) {
+            String message = "Error when retrieving page of persons after id " + afterId;
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, statement);
+        }
+    }
+
+    @Override
+    public Person findPersonByEmail(String email) {
+        logger.info("Finding person with email {}", email);
+        
+        checkDataSource();
+        if (email == null) {
+            throw new IllegalArgumentException("email is null");
+        }
+        Connection conn = null;
+        PreparedStatement statement = null;
+        try {
+            conn = dataSource.getConnection();
+            statement = conn.prepareStatement(
+                    "SELECT id,name,email,note FROM person WHERE email = ?");
+            statement.setString(1, email);
+            return executeQueryForSinglePerson(statement);
+        } catch (SQLException ex) {
+            String message = "Error when retrieving person with email " + email;
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn, statement);
+        }
+    }
+
+    @Override
+    public Map<String, Person> findPersonsByEmails(Collection<String> emails) {
+        checkDataSource();
+        if (emails == null) {
+            throw new IllegalArgumentException("emails is null");
+        }
+        logger.info("Finding persons with {} emails", emails.size());
+        Set<String> distinct = new LinkedHashSet<String>();
+        for (String email : emails) {
+            if (email == null) {
+                throw new IllegalArgumentException("email is null");
+            }
+            distinct.add(email);
+        }
+        
+        Map<String, Person> result = new HashMap<String, Person>();
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            for (List<String> chunk : DBUtils.splitForInList(distinct)) {
+                PreparedStatement statement = DBUtils.prepareInStatement(conn, 
+                        "SELECT id,name,email,note FROM person WHERE email IN ", chunk, "");
+                try {
+                    for (Person person : executeQueryForMultiplePersons(statement)) {
+                        result.put(person.getEmail(), person);
+                    }
+                } finally {
+                    statement.close();
+                }
+            }
+            return result;
+        } catch (SQLException ex) {
+            String message = "Error when retrieving persons with " + distinct.size() + " emails";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            DBUtils.closeQuietly(conn);
+        }
+    }
+
+    static void validate(Person person) {
         if (person == null) {
             throw new IllegalArgumentException("Person is null.");
         }
@@ -0,0 +1,112 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.util.Date;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Rule repeating an event, similar to RRULE of iCalendar. The n-th occurrence 
+ * starts n * interval days, weeks or months after the start of the event and 
+ * lasts as long as the event. Monthly occurrences falling on a day missing in 
+ * the month are moved to the last day of the month.
+ *
+ * The series ends after count occurrences or with the last occurrence 
+ * starting before until, when neither is set, it never ends. Occurrences 
+ * whose start is in exceptions are skipped.
+ *
+ * @author Jiri Stary
+ */
+public class RecurrenceRule {
+
+    public enum Frequency {
+        DAILY, WEEKLY, MONTHLY
+    }
+
+    private Frequency frequency;
+    private int interval = 1;
+    private Integer count;
+    private Date until;
+    private Set<Date> exceptions = new TreeSet<Date>();
+
+    public Frequency getFrequency() {
+        return frequency;
+    }
+
+    public void setFrequency(Frequency frequency) {
+        this.frequency = frequency;
+    }
+
+    public int getInterval() {
+        return interval;
+    }
+
+    public void setInterval(int interval) {
+        this.interval = interval;
+    }
+
+    public Integer getCount() {
+        return count;
+    }
+
+    public void setCount(Integer count) {
+        this.count = count;
+    }
+
+    public Date getUntil() {
+        return until;
+    }
+
+    public void setUntil(Date until) {
+        this.until = until;
+    }
+
+    /**
+     * @return starts of skipped occurrences
+     */
+    public Set<Date> getExceptions() {
+        return exceptions;
+    }
+
+    public void setExceptions(Set<Date> exceptions) {
+        this.exceptions = exceptions;
+    }
+
+    @Override
+    public String toString() {
+        return "RecurrenceRule{" + "frequency=" + frequency + ", interval=" + interval 
+                + ", count=" + count + ", until=" + until + '}';
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final RecurrenceRule other = (RecurrenceRule) obj;
+        if (this.frequency != other.frequency || this.interval != other.interval) {
+            return false;
+        }
+        if (this.count == null ? other.count != null : !this.count.equals(other.count)) {
+            return false;
+        }
+        if (this.until == null ? other.until != null : !this.until.equals(other.until)) {
+            return false;
+        }
+        if (this.exceptions == null ? other.exceptions != null : !this.exceptions.equals(other.exceptions)) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 59 * hash + (this.frequency != null ? this.frequency.hashCode() : 0);
+        hash = 59 * hash + this.interval;
+        hash = 59 * hash + (this.count != null ? this.count.hashCode() : 0);
+        return hash;
+    }
+}
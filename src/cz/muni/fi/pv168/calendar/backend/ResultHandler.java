@@ -0,0 +1,20 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+/**
+ * Receives entities of a query one by one while the result is read from the
+ * database, so the whole result is never held in memory. The handler is
+ * called while the database connection is open, it should not block for a
+ * long time.
+ *
+ * @author Jiri Stary
+ */
+public interface ResultHandler<T> {
+
+    /**
+     * Handles one entity of the result.
+     *
+     * @param entity entity read from the database
+     * @return true to continue with the next entity, false to stop reading
+     */
+    boolean handle(T entity);
+}
@@ -0,0 +1,804 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Unit of work over one connection. Entities read by the session are kept in
+ * an identity map, so every event, person and attendance is loaded once and
+ * represented by one instance however many times it is read or referenced.
+ * Creates, updates and deletes are collected and written by {@link #flush()}
+ * or {@link #commit()} in dependency order: inserts of persons, events and
+ * attendances, then updates, then deletes of attendances, events and persons.
+ * Inserts are written in batches and deleted events by IN lists. The managers
+ * have no bulk updates and no bulk deletes of attendances and persons, so
+ * these are written one statement per entity and a flush of many of them
+ * costs as many round trips.
+ *
+ * Managers can run inside the session through {@link #getDataSource()}, their
+ * writes are then part of the session transaction. Queries read the database,
+ * pending writes are visible to them after flush. Caching managers outside
+ * the session are not notified about its writes.
+ *
+ * <pre>
+ * Session session = new Session(dataSource);
+ * try {
+ *     Event event = session.getEvent(id);
+ *     event.setName("Renamed");
+ *     session.updateEvent(event);
+ *     session.createAttendance(attendance);
+ *     session.commit();
+ * } finally {
+ *     session.close();
+ * }
+ * </pre>
+ *
+ * This class is not thread safe.
+ *
+ * @author Jiri Stary
+ */
+public class Session implements AutoCloseable {
+
+    final static Logger logger = LoggerFactory.getLogger(Session.class);
+
+    /**
+     * Pending writes of one entity type in order of registration.
+     */
+    private static class Work<T> {
+        final List<T> created = new ArrayList<T>();
+        final Map<Integer, T> updated = new LinkedHashMap<Integer, T>();
+        final Map<Integer, T> deleted = new LinkedHashMap<Integer, T>();
+
+        void clear() {
+            created.clear();
+            updated.clear();
+            deleted.clear();
+        }
+    }
+
+    private final Connection connection;
+    private final SessionDataSource sessionDataSource;
+    private final PersonManagerImpl personManager = new PersonManagerImpl();
+    private final EventManagerImpl eventManager = new EventManagerImpl();
+    private final AttendanceManagerImpl attendanceManager = new AttendanceManagerImpl();
+
+    // One instance for every entity type and id
+    private final Map<Class<?>, Map<Integer, Object>> identityMap = new HashMap<Class<?>, Map<Integer, Object>>();
+    // New entities have no id until flush, so they are told apart by identity
+    private final Set<Object> created = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    // Entities inserted since the last commit, their ids are reset on rollback
+    private final List<Object> inserted = new ArrayList<Object>();
+    private final Work<Person> personWork = new Work<Person>();
+    private final Work<Event> eventWork = new Work<Event>();
+    private final Work<Attendance> attendanceWork = new Work<Attendance>();
+    private boolean closed;
+
+    /**
+     * Opens session with a new connection of the data source.
+     *
+     * @param dataSource data source of the calendar database
+     * @throws IllegalArgumentException when dataSource is null
+     * @throws ServiceFailureException when the connection can not be opened
+     */
+    public Session(DataSource dataSource) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        logger.info("Opening session");
+        connection = openConnection(dataSource);
+        sessionDataSource = new SessionDataSource(dataSource, connection);
+        personManager.setDataSource(sessionDataSource);
+        eventManager.setDataSource(sessionDataSource);
+        attendanceManager.setDataSource(sessionDataSource);
+        // References of attendances are resolved through the identity map
+        attendanceManager.setLazyLoading(true);
+    }
+
+    private static Connection openConnection(DataSource dataSource) {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            conn.setAutoCommit(false);
+            return conn;
+        } catch (SQLException ex) {
+            DBUtils.closeQuietly(conn);
+            String message = "Error when opening session";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        }
+    }
+
+    /**
+     * Returns data source for managers which should run inside this session.
+     * Writes of the managers become part of the session transaction and a
+     * failed write undoes only its own changes, but the managers bypass the
+     * identity map and the pending writes of the session.
+     *
+     * @return data source whose connections all belong to this session
+     */
+    public DataSource getDataSource() {
+        checkOpen();
+        return sessionDataSource;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Session is closed");
+        }
+    }
+
+    /**
+     * Returns person with given id, it is loaded only when the session does
+     * not know it yet.
+     *
+     * @param id id of the person
+     * @return person or null when it does not exist or is deleted in the session
+     * @throws IllegalArgumentException when id is null
+     */
+    public Person getPerson(Integer id) {
+        logger.info("Getting person with id {} in session", id);
+
+        checkOpen();
+        if (id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+        Person person = lookup(Person.class, id);
+        if (person == null && !personWork.deleted.containsKey(id)) {
+            person = register(Person.class, id, personManager.getPersonById(id));
+        }
+        return person;
+    }
+
+    /**
+     * Returns event with given id with its recurrence, it is loaded only when
+     * the session does not know it yet.
+     *
+     * @param id id of the event
+     * @return event or null when it does not exist or is deleted in the session
+     * @throws IllegalArgumentException when id is null
+     */
+    public Event getEvent(Integer id) {
+        logger.info("Getting event with id {} in session", id);
+
+        checkOpen();
+        if (id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+        Event event = lookup(Event.class, id);
+        if (event == null && !eventWork.deleted.containsKey(id)) {
+            event = register(Event.class, id, eventManager.getEventById(id));
+        }
+        return event;
+    }
+
+    /**
+     * Returns attendance with given id, it is loaded only when the session
+     * does not know it yet. Its event and person are the instances of the
+     * session.
+     *
+     * @param id id of the attendance
+     * @return attendance or null when it does not exist or is deleted in the
+     * session
+     * @throws IllegalArgumentException when id is null
+     */
+    public Attendance getAttendance(Integer id) {
+        logger.info("Getting attendance with id {} in session", id);
+
+        checkOpen();
+        if (id == null) {
+            throw new IllegalArgumentException("id is null");
+        }
+        Attendance attendance = lookup(Attendance.class, id);
+        if (attendance == null && !attendanceWork.deleted.containsKey(id)) {
+            Attendance loaded = attendanceManager.getAttendanceById(id);
+            if (loaded != null) {
+                attendance = resolve(Collections.singletonList(loaded)).get(0);
+            }
+        }
+        return attendance;
+    }
+
+    /**
+     * Returns attendances of the event. Events and persons they reference are
+     * loaded by one query per kind, only when the session does not know them.
+     *
+     * @param event the event
+     * @return attendances of the event, without those deleted in the session
+     * @throws IllegalArgumentException when event is null
+     * @throws IllegalEntityException when event has no id
+     */
+    public List<Attendance> findAttendancesForEvent(Event event) {
+        checkOpen();
+        if (event == null) {
+            throw new IllegalArgumentException("event is null");
+        }
+        if (event.getId() == null) {
+            throw new IllegalEntityException("event id is null");
+        }
+        return resolve(attendanceManager.findAttendancesForEvent(event));
+    }
+
+    /**
+     * Returns attendances of the events, see
+     * {@link #findAttendancesForEvent(Event)}.
+     *
+     * @param events the events
+     * @return attendances of the events ordered by event id and attendance id
+     * @throws IllegalArgumentException when events or some of them is null
+     * @throws IllegalEntityException when id of some event is null
+     */
+    public List<Attendance> findAttendancesForEvents(Collection<Event> events) {
+        checkOpen();
+        return resolve(attendanceManager.findAttendancesForEvents(events));
+    }
+
+    /**
+     * Returns attendances of the person, see
+     * {@link #findAttendancesForEvent(Event)}.
+     *
+     * @param person the person
+     * @return attendances of the person, without those deleted in the session
+     * @throws IllegalArgumentException when person is null
+     * @throws IllegalEntityException when person has no id
+     */
+    public List<Attendance> findAttendancesForPerson(Person person) {
+        checkOpen();
+        if (person == null) {
+            throw new IllegalArgumentException("person is null");
+        }
+        if (person.getId() == null) {
+            throw new IllegalEntityException("person id is null");
+        }
+        return resolve(attendanceManager.findAttendancesForPerson(person));
+    }
+
+    /**
+     * Registers new person, it is inserted by the next flush.
+     *
+     * @param person new person
+     * @throws IllegalArgumentException when person is not valid
+     * @throws IllegalEntityException when person already has id
+     */
+    public void createPerson(Person person) {
+        logger.info("Registering new person {} in session", person);
+
+        checkOpen();
+        PersonManagerImpl.validate(person);
+        if (person.getId() != null) {
+            throw new IllegalEntityException("person id is already set");
+        }
+        if (created.add(person)) {
+            personWork.created.add(person);
+        }
+    }
+
+    /**
+     * Registers new event, it is inserted by the next flush.
+     *
+     * @param event new event
+     * @throws IllegalArgumentException when event is not valid
+     * @throws IllegalEntityException when event already has id
+     */
+    public void createEvent(Event event) {
+        logger.info("Registering new event {} in session", event);
+
+        checkOpen();
+        EventManagerImpl.validate(event);
+        if (event.getId() != null) {
+            throw new IllegalEntityException("event id is already set");
+        }
+        if (created.add(event)) {
+            eventWork.created.add(event);
+        }
+    }
+
+    /**
+     * Registers new attendance, it is inserted by the next flush after its
+     * event and person, which may be new too.
+     *
+     * @param attendance new attendance
+     * @throws IllegalArgumentException when attendance is not valid
+     * @throws IllegalEntityException when attendance already has id
+     */
+    public void createAttendance(Attendance attendance) {
+        logger.info("Registering new attendance {} in session", attendance);
+
+        checkOpen();
+        AttendanceManagerImpl.validate(attendance);
+        if (attendance.getId() != null) {
+            throw new IllegalEntityException("attendance id is already set");
+        }
+        if (created.add(attendance)) {
+            attendanceWork.created.add(attendance);
+        }
+    }
+
+    /**
+     * Registers changed person, it is updated by the next flush. The person
+     * becomes the instance of its id in the session.
+     *
+     * @param person changed person
+     * @throws IllegalArgumentException when person is not valid
+     * @throws IllegalEntityException when person has no id or is deleted in
+     * the session
+     */
+    public void updatePerson(Person person) {
+        logger.info("Registering update of person {} in session", person);
+
+        checkOpen();
+        PersonManagerImpl.validate(person);
+        if (created.contains(person)) {
+            // Inserted with its current state
+            return;
+        }
+        Integer id = checkUpdated(person.getId(), personWork, "person");
+        personWork.updated.put(id, person);
+        replace(Person.class, id, person);
+    }
+
+    /**
+     * Registers changed event, see {@link #updatePerson(Person)}.
+     *
+     * @param event changed event
+     * @throws IllegalArgumentException when event is not valid
+     * @throws IllegalEntityException when event has no id or is deleted in
+     * the session
+     */
+    public void updateEvent(Event event) {
+        logger.info("Registering update of event {} in session", event);
+
+        checkOpen();
+        EventManagerImpl.validate(event);
+        if (created.contains(event)) {
+            return;
+        }
+        Integer id = checkUpdated(event.getId(), eventWork, "event");
+        eventWork.updated.put(id, event);
+        replace(Event.class, id, event);
+    }
+
+    /**
+     * Registers changed attendance, see {@link #updatePerson(Person)}.
+     *
+     * @param attendance changed attendance
+     * @throws IllegalArgumentException when attendance is not valid
+     * @throws IllegalEntityException when attendance has no id or is deleted
+     * in the session
+     */
+    public void updateAttendance(Attendance attendance) {
+        logger.info("Registering update of attendance {} in session", attendance);
+
+        checkOpen();
+        AttendanceManagerImpl.validate(attendance);
+        if (created.contains(attendance)) {
+            return;
+        }
+        Integer id = checkUpdated(attendance.getId(), attendanceWork, "attendance");
+        attendanceWork.updated.put(id, attendance);
+        replace(Attendance.class, id, attendance);
+    }
+
+    private static Integer checkUpdated(Integer id, Work<?> work, String entity) {
+        if (id == null) {
+            throw new IllegalEntityException(entity + " id is null");
+        }
+        if (work.deleted.containsKey(id)) {
+            throw new IllegalEntityException(entity + " " + id + " is deleted in the session");
+        }
+        return id;
+    }
+
+    /**
+     * Registers deleted person, it is deleted by the next flush after
+     * attendances. New person is just forgotten.
+     *
+     * @param person deleted person
+     * @throws IllegalArgumentException when person is null
+     * @throws IllegalEntityException when person has no id
+     */
+    public void deletePerson(Person person) {
+        logger.info("Registering delete of person {} in session", person);
+
+        checkOpen();
+        if (person == null) {
+            throw new IllegalArgumentException("person is null");
+        }
+        if (forgetCreated(person, personWork)) {
+            return;
+        }
+        Integer id = checkDeleted(person.getId(), personWork, "person");
+        personWork.deleted.put(id, person);
+        forget(Person.class, id);
+    }
+
+    /**
+     * Registers deleted event, it is deleted by the next flush together with
+     * its attendances. New event is just forgotten.
+     *
+     * @param event deleted event
+     * @throws IllegalArgumentException when event is null
+     * @throws IllegalEntityException when event has no id
+     */
+    public void deleteEvent(Event event) {
+        logger.info("Registering delete of event {} in session", event);
+
+        checkOpen();
+        if (event == null) {
+            throw new IllegalArgumentException("event is null");
+        }
+        if (forgetCreated(event, eventWork)) {
+            return;
+        }
+        Integer id = checkDeleted(event.getId(), eventWork, "event");
+        eventWork.deleted.put(id, event);
+        forget(Event.class, id);
+    }
+
+    /**
+     * Registers deleted attendance, it is deleted by the next flush. New
+     * attendance is just forgotten.
+     *
+     * @param attendance deleted attendance
+     * @throws IllegalArgumentException when attendance is null
+     * @throws IllegalEntityException when attendance has no id
+     */
+    public void deleteAttendance(Attendance attendance) {
+        logger.info("Registering delete of attendance {} in session", attendance);
+
+        checkOpen();
+        if (attendance == null) {
+            throw new IllegalArgumentException("attendance is null");
+        }
+        if (forgetCreated(attendance, attendanceWork)) {
+            return;
+        }
+        Integer id = checkDeleted(attendance.getId(), attendanceWork, "attendance");
+        attendanceWork.deleted.put(id, attendance);
+        forget(Attendance.class, id);
+    }
+
+    private static Integer checkDeleted(Integer id, Work<?> work, String entity) {
+        if (id == null) {
+            throw new IllegalEntityException(entity + " id is null");
+        }
+        work.updated.remove(id);
+        return id;
+    }
+
+    /**
+     * @return true when the entity was new and is not going to be inserted
+     */
+    private <T> boolean forgetCreated(T entity, Work<T> work) {
+        if (!created.remove(entity)) {
+            return false;
+        }
+        // New entities may be equal by their null ids
+        for (Iterator<T> it = work.created.iterator(); it.hasNext();) {
+            if (it.next() == entity) {
+                it.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes pending creates, updates and deletes in the session transaction.
+     * Inserts come first, parents before children, so new attendances may
+     * reference new events and persons. When a write fails, the whole
+     * session is rolled back.
+     *
+     * @throws ServiceFailureException when a write fails
+     */
+    public void flush() {
+        logger.info("Flushing session: {} persons, {} events, {} attendances created", new Object[] {
+                personWork.created.size(), eventWork.created.size(), attendanceWork.created.size()});
+
+        checkOpen();
+        try {
+            if (!personWork.created.isEmpty()) {
+                inserted.addAll(personWork.created);
+                personManager.createPersons(personWork.created);
+                for (Person person : personWork.created) {
+                    register(Person.class, person.getId(), person);
+                }
+            }
+            if (!eventWork.created.isEmpty()) {
+                inserted.addAll(eventWork.created);
+                BatchInsertResult<Event> result = eventManager.createEvents(eventWork.created);
+                if (!result.isSuccessful()) {
+                    throw new ServiceFailureException("Error when inserting " + result.getFailed().size()
+                            + " events of session", result.getErrors().get(0));
+                }
+                for (Event event : eventWork.created) {
+                    register(Event.class, event.getId(), event);
+                }
+            }
+            if (!attendanceWork.created.isEmpty()) {
+                inserted.addAll(attendanceWork.created);
+                attendanceManager.createAttendances(attendanceWork.created);
+                for (Attendance attendance : attendanceWork.created) {
+                    register(Attendance.class, attendance.getId(), attendance);
+                }
+            }
+
+            for (Person person : personWork.updated.values()) {
+                personManager.updatePerson(person);
+            }
+            for (Event event : eventWork.updated.values()) {
+                eventManager.updateEvent(event);
+            }
+            for (Attendance attendance : attendanceWork.updated.values()) {
+                attendanceManager.updateAttendance(attendance);
+            }
+
+            // Children are deleted before their parents
+            for (Attendance attendance : attendanceWork.deleted.values()) {
+                attendanceManager.deleteAttendance(attendance);
+            }
+            if (!eventWork.deleted.isEmpty()) {
+                eventManager.deleteEvents(eventWork.deleted.values());
+                forgetAttendancesOf(eventWork.deleted.keySet());
+            }
+            for (Person person : personWork.deleted.values()) {
+                personManager.deletePerson(person);
+            }
+        } catch (RuntimeException ex) {
+            logger.error("Error when flushing session, rolling back", ex);
+            rollbackQuietly();
+            throw ex;
+        }
+        created.clear();
+        personWork.clear();
+        eventWork.clear();
+        attendanceWork.clear();
+    }
+
+    /**
+     * Flushes pending writes and commits the session transaction. The
+     * identity map is kept, the session may be used further.
+     *
+     * @throws ServiceFailureException when a write or the commit fails, the
+     * session is rolled back then
+     */
+    public void commit() {
+        logger.info("Committing session");
+
+        checkOpen();
+        flush();
+        try {
+            connection.commit();
+            sessionDataSource.transactionEnded();
+            inserted.clear();
+        } catch (SQLException ex) {
+            rollbackQuietly();
+            String message = "Error when committing session";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        }
+    }
+
+    /**
+     * Rolls back the session transaction. Pending writes are dropped, the
+     * identity map is cleared and entities inserted since the last commit get
+     * null ids again.
+     *
+     * @throws ServiceFailureException when the rollback fails
+     */
+    public void rollback() {
+        logger.info("Rolling back session");
+
+        checkOpen();
+        try {
+            connection.rollback();
+        } catch (SQLException ex) {
+            String message = "Error when rolling back session";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        } finally {
+            reset();
+        }
+    }
+
+    /**
+     * Rolls back uncommitted work and closes the connection. Closing closed
+     * session does nothing.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        logger.info("Closing session");
+        rollbackQuietly();
+        closed = true;
+        DBUtils.closeQuietly(connection);
+    }
+
+    private void rollbackQuietly() {
+        try {
+            connection.rollback();
+        } catch (SQLException ex) {
+            logger.error("Error when rolling back session", ex);
+        } finally {
+            reset();
+        }
+    }
+
+    private void reset() {
+        sessionDataSource.transactionEnded();
+        for (Object entity : inserted) {
+            if (entity instanceof Person) {
+                ((Person) entity).setId(null);
+            } else if (entity instanceof Event) {
+                ((Event) entity).setId(null);
+            } else {
+                ((Attendance) entity).setId(null);
+            }
+        }
+        inserted.clear();
+        identityMap.clear();
+        created.clear();
+        personWork.clear();
+        eventWork.clear();
+        attendanceWork.clear();
+    }
+
+    private <T> T lookup(Class<T> type, Integer id) {
+        Map<Integer, Object> entities = identityMap.get(type);
+        return entities == null ? null : type.cast(entities.get(id));
+    }
+
+    /**
+     * @return instance of the id already in the session, otherwise the given
+     * one which is added to the session
+     */
+    private <T> T register(Class<T> type, Integer id, T entity) {
+        if (entity == null) {
+            return null;
+        }
+        T known = lookup(type, id);
+        if (known != null) {
+            return known;
+        }
+        replace(type, id, entity);
+        return entity;
+    }
+
+    private <T> void replace(Class<T> type, Integer id, T entity) {
+        Map<Integer, Object> entities = identityMap.get(type);
+        if (entities == null) {
+            entities = new HashMap<Integer, Object>();
+            identityMap.put(type, entities);
+        }
+        entities.put(id, entity);
+    }
+
+    private void forget(Class<?> type, Integer id) {
+        Map<Integer, Object> entities = identityMap.get(type);
+        if (entities != null) {
+            entities.remove(id);
+        }
+    }
+
+    /**
+     * Removes attendances deleted by the database together with their events.
+     */
+    private void forgetAttendancesOf(Set<Integer> eventIds) {
+        Map<Integer, Object> attendances = identityMap.get(Attendance.class);
+        if (attendances == null) {
+            return;
+        }
+        for (Iterator<Object> it = attendances.values().iterator(); it.hasNext();) {
+            if (eventIds.contains(((Attendance) it.next()).getEventId())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Replaces lazily loaded attendances by their instances in the session
+     * and sets events and persons of the session as their references. Events
+     * and persons not known yet are loaded by IN queries.
+     */
+    private List<Attendance> resolve(List<Attendance> attendances) {
+        Set<Integer> eventIds = new LinkedHashSet<Integer>();
+        Set<Integer> personIds = new LinkedHashSet<Integer>();
+        for (Attendance attendance : attendances) {
+            Integer eventId = attendance.getEventId();
+            if (eventId != null && lookup(Event.class, eventId) == null) {
+                eventIds.add(eventId);
+            }
+            Integer personId = attendance.getPersonId();
+            if (personId != null && lookup(Person.class, personId) == null) {
+                personIds.add(personId);
+            }
+        }
+        try {
+            loadEvents(new ArrayList<Integer>(eventIds));
+            loadPersons(new ArrayList<Integer>(personIds));
+        } catch (SQLException ex) {
+            String message = "Error when loading references of " + attendances.size() + " attendances";
+            logger.error(message, ex);
+            throw new ServiceFailureException(message, ex);
+        }
+
+        List<Attendance> result = new ArrayList<Attendance>(attendances.size());
+        for (Attendance attendance : attendances) {
+            if (attendanceWork.deleted.containsKey(attendance.getId())) {
+                continue;
+            }
+            Attendance known = lookup(Attendance.class, attendance.getId());
+            if (known == null) {
+                Integer eventId = attendance.getEventId();
+                Integer personId = attendance.getPersonId();
+                attendance.setEvent(eventId == null ? null : lookup(Event.class, eventId));
+                attendance.setPerson(personId == null ? null : lookup(Person.class, personId));
+                known = register(Attendance.class, attendance.getId(), attendance);
+            }
+            result.add(known);
+        }
+        return result;
+    }
+
+    private void loadEvents(List<Integer> ids) throws SQLException {
+        List<Event> events = new ArrayList<Event>();
+        for (List<Integer> chunk : DBUtils.splitForInList(ids)) {
+            PreparedStatement st = DBUtils.prepareInStatement(connection,
+                    "SELECT " + EventManagerImpl.EVENT_COLUMNS + " FROM event WHERE id IN ", chunk, "");
+            try {
+                ResultSet rs = st.executeQuery();
+                while (rs.next()) {
+                    events.add(EventManagerImpl.rowToEvent(rs));
+                }
+                rs.close();
+            } finally {
+                st.close();
+            }
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        PreparedStatement exceptionsSt = connection.prepareStatement(EventManagerImpl.SELECT_EXCEPTIONS);
+        try {
+            for (Event event : events) {
+                EventManagerImpl.loadExceptions(exceptionsSt, event);
+                register(Event.class, event.getId(), event);
+            }
+        } finally {
+            exceptionsSt.close();
+        }
+    }
+
+    private void loadPersons(List<Integer> ids) throws SQLException {
+        for (List<Integer> chunk : DBUtils.splitForInList(ids)) {
+            PreparedStatement st = DBUtils.prepareInStatement(connection,
+                    "SELECT id,name,email,note FROM person WHERE id IN ", chunk, "");
+            try {
+                for (Person person : PersonManagerImpl.executeQueryForMultiplePersons(st)) {
+                    register(Person.class, person.getId(), person);
+                }
+            } finally {
+                st.close();
+            }
+        }
+    }
+}
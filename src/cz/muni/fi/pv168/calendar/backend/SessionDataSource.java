@@ -0,0 +1,137 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Data source of one {@link Session}. Every connection it returns is the
+ * connection of the session, wrapped so that managers run inside the session
+ * transaction. A transaction of a manager becomes a savepoint: its commit
+ * releases the savepoint and its rollback returns to it, so a failed call
+ * undoes only its own changes. Closing the connection and switching
+ * autocommit mode do not reach the session connection.
+ *
+ * @author Jiri Stary
+ */
+final class SessionDataSource implements DataSource {
+
+    private final DataSource dataSource;
+    private final Connection connection;
+    private final Connection wrapper;
+    // Start of the current transaction of a manager
+    private Savepoint savepoint;
+
+    SessionDataSource(DataSource dataSource, Connection connection) {
+        this.dataSource = dataSource;
+        this.connection = connection;
+        this.wrapper = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return invokeOnSession(method, args);
+                    }
+                });
+    }
+
+    /**
+     * Forgets the savepoint when the session transaction ends, its commit or
+     * rollback releases all savepoints.
+     */
+    void transactionEnded() {
+        savepoint = null;
+    }
+
+    private Object invokeOnSession(Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("close")) {
+            return null;
+        }
+        if (name.equals("setAutoCommit")) {
+            if ((Boolean) args[0]) {
+                if (savepoint != null) {
+                    connection.releaseSavepoint(savepoint);
+                    savepoint = null;
+                }
+            } else if (savepoint == null) {
+                savepoint = connection.setSavepoint();
+            }
+            return null;
+        }
+        if (name.equals("commit")) {
+            // The transaction of the manager goes on
+            if (savepoint != null) {
+                connection.releaseSavepoint(savepoint);
+                savepoint = connection.setSavepoint();
+            }
+            return null;
+        }
+        if (name.equals("rollback") && args == null) {
+            if (savepoint != null) {
+                connection.rollback(savepoint);
+                savepoint = connection.setSavepoint();
+            }
+            return null;
+        }
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return wrapper;
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Session has its own connection");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+}
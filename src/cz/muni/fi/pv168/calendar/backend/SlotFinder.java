@@ -0,0 +1,232 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Finds slots in which all given persons are free. Busy intervals of all 
+ * persons are loaded at once by 
+ * {@link AttendanceManager#getFreeBusy(Collection, Date, Date)} and then swept 
+ * in order of their start by merging the sorted intervals of every person, 
+ * so the sweep stops as soon as enough slots are found.
+ *
+ * A slot may start exactly when a busy interval ends and end exactly when 
+ * the next one starts.
+ *
+ * @author Jan Smerda
+ */
+public class SlotFinder {
+
+    final static Logger logger = LoggerFactory.getLogger(SlotFinder.class);
+
+    /**
+     * Default maximal number of returned slots.
+     */
+    public static final int DEFAULT_LIMIT = 10;
+
+    private static final int MINUTES_PER_DAY = 24 * 60;
+
+    /**
+     * Position in busy intervals of one person.
+     */
+    private static class Cursor implements Comparable<Cursor> {
+        final List<TimeInterval> intervals;
+        int index;
+        long start;
+        long end;
+
+        Cursor(List<TimeInterval> intervals) {
+            this.intervals = intervals;
+            load();
+        }
+
+        boolean advance() {
+            index++;
+            if (index == intervals.size()) {
+                return false;
+            }
+            load();
+            return true;
+        }
+
+        private void load() {
+            start = intervals.get(index).getStart().getTime();
+            end = intervals.get(index).getEnd().getTime();
+        }
+
+        @Override
+        public int compareTo(Cursor o) {
+            return start < o.start ? -1 : (start == o.start ? 0 : 1);
+        }
+    }
+
+    private final AttendanceManager attendanceManager;
+    private Integer workingStartMinute;
+    private Integer workingEndMinute;
+    private int limit = DEFAULT_LIMIT;
+
+    /**
+     * @param attendanceManager manager used for loading busy intervals
+     */
+    public SlotFinder(AttendanceManager attendanceManager) {
+        if (attendanceManager == null) {
+            throw new IllegalArgumentException("attendanceManager is null");
+        }
+        this.attendanceManager = attendanceManager;
+    }
+
+    /**
+     * Restricts slots to working hours of every day. Without working hours 
+     * slots can be at any time.
+     *
+     * @param startMinute start of working hours in minutes after midnight
+     * @param endMinute end of working hours in minutes after midnight
+     * @throws IllegalArgumentException when working hours are not within 
+     * a day or end is not after start
+     */
+    public void setWorkingHours(int startMinute, int endMinute) {
+        if (startMinute < 0 || endMinute > MINUTES_PER_DAY) {
+            throw new IllegalArgumentException("working hours are not within a day");
+        }
+        if (endMinute <= startMinute) {
+            throw new IllegalArgumentException("end of working hours is not after start");
+        }
+        this.workingStartMinute = startMinute;
+        this.workingEndMinute = endMinute;
+    }
+
+    /**
+     * Removes restriction of slots to working hours.
+     */
+    public void clearWorkingHours() {
+        this.workingStartMinute = null;
+        this.workingEndMinute = null;
+    }
+
+    /**
+     * Sets maximal number of slots returned by 
+     * {@link #findFreeSlots(Collection, long, Date, Date)}.
+     *
+     * @param limit maximal number of slots
+     * @throws IllegalArgumentException when limit is not positive
+     */
+    public void setLimit(int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit is not positive");
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * Finds the earliest slots in which all persons are free. Every free 
+     * period (within one working day when working hours are set) gives at 
+     * most one slot starting at its beginning.
+     *
+     * @param persons persons who must be free
+     * @param durationMillis duration of the slot in milliseconds
+     * @param startDate start of the searched range
+     * @param endDate end of the searched range
+     * @return slots ordered by start, at most limit slots
+     * @throws IllegalArgumentException when persons, startDate or endDate is 
+     * null, endDate is before startDate or durationMillis is not positive
+     */
+    public List<TimeInterval> findFreeSlots(Collection<Person> persons, long durationMillis, 
+            Date startDate, Date endDate) {
+        return findFreeSlots(persons, durationMillis, startDate, endDate, limit);
+    }
+
+    /**
+     * Finds the earliest slot in which all persons are free.
+     *
+     * @see #findFreeSlots(Collection, long, Date, Date)
+     * @return the earliest slot or null when there is no free slot in the range
+     */
+    public TimeInterval findEarliestSlot(Collection<Person> persons, long durationMillis, 
+            Date startDate, Date endDate) {
+        List<TimeInterval> slots = findFreeSlots(persons, durationMillis, startDate, endDate, 1);
+        return slots.isEmpty() ? null : slots.get(0);
+    }
+
+    private List<TimeInterval> findFreeSlots(Collection<Person> persons, long durationMillis, 
+            Date startDate, Date endDate, int limit) {
+        logger.info("Finding free slots of {} ms for {} persons - Start date {}, End date {}", 
+                new Object[] {durationMillis, persons == null ? null : persons.size(), startDate, endDate});
+        if (durationMillis <= 0) {
+            throw new IllegalArgumentException("durationMillis is not positive");
+        }
+        if (persons == null) {
+            throw new IllegalArgumentException("persons is null");
+        }
+        // Also validates range and persons
+        Collection<List<TimeInterval>> busy = 
+                attendanceManager.getFreeBusy(persons, startDate, endDate).values();
+        
+        PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Math.max(1, busy.size()));
+        for (List<TimeInterval> intervals : busy) {
+            if (!intervals.isEmpty()) {
+                queue.add(new Cursor(intervals));
+            }
+        }
+        List<TimeInterval> result = new ArrayList<TimeInterval>();
+        Calendar cal = Calendar.getInstance();
+        long freeFrom = startDate.getTime();
+        while (!queue.isEmpty() && result.size() < limit) {
+            Cursor cursor = queue.poll();
+            if (cursor.start > freeFrom) {
+                addSlots(cal, freeFrom, cursor.start, durationMillis, limit, result);
+            }
+            freeFrom = Math.max(freeFrom, cursor.end);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        addSlots(cal, freeFrom, endDate.getTime(), durationMillis, limit, result);
+        return result;
+    }
+
+    /**
+     * Adds slots fitting into free period, at most one for every working day.
+     */
+    private void addSlots(Calendar cal, long freeFrom, long freeTo, long duration, 
+            int limit, List<TimeInterval> result) {
+        long time = freeFrom;
+        while (time + duration <= freeTo && result.size() < limit) {
+            long windowStart = freeFrom;
+            long windowEnd = freeTo;
+            if (workingStartMinute != null) {
+                windowStart = atMinuteOfDay(cal, time, workingStartMinute);
+                windowEnd = atMinuteOfDay(cal, time, workingEndMinute);
+                if (time >= windowEnd) {
+                    cal.setTimeInMillis(time);
+                    cal.add(Calendar.DAY_OF_MONTH, 1);
+                    windowStart = atMinuteOfDay(cal, cal.getTimeInMillis(), workingStartMinute);
+                    windowEnd = atMinuteOfDay(cal, cal.getTimeInMillis(), workingEndMinute);
+                }
+            }
+            long slotStart = Math.max(time, windowStart);
+            if (slotStart + duration <= Math.min(windowEnd, freeTo)) {
+                result.add(new TimeInterval(new Date(slotStart), new Date(slotStart + duration)));
+            }
+            if (windowEnd >= freeTo) {
+                break;
+            }
+            time = windowEnd;
+        }
+    }
+
+    private static long atMinuteOfDay(Calendar cal, long time, int minute) {
+        cal.setTimeInMillis(time);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.add(Calendar.MINUTE, minute);
+        return cal.getTimeInMillis();
+    }
+}
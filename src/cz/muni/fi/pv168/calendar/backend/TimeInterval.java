@@ -0,0 +1,67 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.util.Date;
+
+/**
+ * Closed interval of time, including both its start and end.
+ *
+ * @author Jan Smerda
+ */
+public class TimeInterval {
+
+    private final Date start;
+    private final Date end;
+
+    /**
+     * @param start start of the interval
+     * @param end end of the interval
+     * @throws IllegalArgumentException when start or end is null or end is 
+     * before start
+     */
+    public TimeInterval(Date start, Date end) {
+        if (start == null) {
+            throw new IllegalArgumentException("start is null");
+        }
+        if (end == null) {
+            throw new IllegalArgumentException("end is null");
+        }
+        if (end.before(start)) {
+            throw new IllegalArgumentException("end is before start");
+        }
+        this.start = new Date(start.getTime());
+        this.end = new Date(end.getTime());
+    }
+
+    public Date getStart() {
+        return new Date(start.getTime());
+    }
+
+    public Date getEnd() {
+        return new Date(end.getTime());
+    }
+
+    @Override
+    public String toString() {
+        return "TimeInterval{" + "start=" + start + ", end=" + end + '}';
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final TimeInterval other = (TimeInterval) obj;
+        return this.start.equals(other.start) && this.end.equals(other.end);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 3;
+        hash = 41 * hash + this.start.hashCode();
+        hash = 41 * hash + this.end.hashCode();
+        return hash;
+    }
+}
@@ -10,7 +10,25 @@ CREATE TABLE "EVENT" (
     "NAME" VARCHAR(255),
     "STARTDATE" TIMESTAMP,
     "ENDDATE" TIMESTAMP,
-    "NOTE" VARCHAR(255)
+    "NOTE" VARCHAR(255),
+    "RECURRENCEFREQUENCY" VARCHAR(10),
+    "RECURRENCEINTERVAL" INTEGER,
+    "RECURRENCECOUNT" INTEGER,
+    "RECURRENCEUNTIL" TIMESTAMP,
+    "SERIESENDDATE" TIMESTAMP
+);
+
+CREATE TABLE "EVENT_EXCEPTION" (
+    "EVENTID" INTEGER NOT NULL REFERENCES EVENT (ID) ON DELETE CASCADE,
+    "OCCURRENCESTART" TIMESTAMP NOT NULL,
+    PRIMARY KEY ("EVENTID", "OCCURRENCESTART")
+);
+
+CREATE TABLE "EVENT_TERM" (
+    "TERM" VARCHAR(50) NOT NULL,
+    "EVENTID" INTEGER NOT NULL REFERENCES EVENT (ID) ON DELETE CASCADE,
+    "WEIGHT" INTEGER NOT NULL,
+    PRIMARY KEY ("TERM", "EVENTID")
 );
 
 CREATE TABLE "ATTENDANCE" (
@@ -18,4 +36,35 @@ CREATE TABLE "ATTENDANCE" (
     "EVENTID" INTEGER REFERENCES EVENT (ID),
     "PERSONID" INTEGER REFERENCES PERSON (ID),
     "PLANNEDARRIVALTIME" TIMESTAMP
-);
\ No newline at end of file
+);
+
+CREATE TABLE "CHANGE_LOG" (
+    "SEQ" BIGINT NOT NULL PRIMARY KEY GENERATED ALWAYS AS IDENTITY,
+    "ENTITYTYPE" VARCHAR(20) NOT NULL,
+    "ENTITYID" INTEGER NOT NULL,
+    "OPERATION" VARCHAR(10) NOT NULL,
+    "CHANGED" TIMESTAMP NOT NULL
+);
+
+CREATE TABLE "CHANGE_LOG_WATERMARK" (
+    "WATERMARK" BIGINT NOT NULL
+);
+
+INSERT INTO "CHANGE_LOG_WATERMARK" ("WATERMARK") VALUES (0);
+
+CREATE UNIQUE INDEX "PERSON_EMAIL_IDX" ON "PERSON" ("EMAIL");
+
+CREATE INDEX "EVENT_DATES_IDX" ON "EVENT" ("STARTDATE", "SERIESENDDATE");
+
+CREATE INDEX "ATTENDANCE_EVENT_IDX" ON "ATTENDANCE" ("EVENTID", "PERSONID");
+
+CREATE INDEX "ATTENDANCE_PERSON_IDX" ON "ATTENDANCE" ("PERSONID", "EVENTID");
+
+CREATE INDEX "ATTENDANCE_EVENT_PAGE_IDX" ON "ATTENDANCE" ("EVENTID", "ID");
+
+CREATE TABLE "SCHEMA_VERSION" (
+    "VERSION" INTEGER NOT NULL PRIMARY KEY,
+    "APPLIED" TIMESTAMP NOT NULL
+);
+
+INSERT INTO "SCHEMA_VERSION" ("VERSION", "APPLIED") VALUES (7, CURRENT_TIMESTAMP);
@@ -1,4 +1,9 @@
+DROP TABLE "SCHEMA_VERSION";
+DROP TABLE "CHANGE_LOG_WATERMARK";
+DROP TABLE "CHANGE_LOG";
 DROP TABLE "ATTENDANCE";
 DROP TABLE "PERSON";
+DROP TABLE "EVENT_EXCEPTION";
+DROP TABLE "EVENT_TERM";
 DROP TABLE "EVENT";
 
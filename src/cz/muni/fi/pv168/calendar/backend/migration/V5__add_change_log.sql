@@ -0,0 +1,13 @@
+CREATE TABLE "CHANGE_LOG" (
+    "SEQ" BIGINT NOT NULL PRIMARY KEY GENERATED ALWAYS AS IDENTITY,
+    "ENTITYTYPE" VARCHAR(20) NOT NULL,
+    "ENTITYID" INTEGER NOT NULL,
+    "OPERATION" VARCHAR(10) NOT NULL,
+    "CHANGED" TIMESTAMP NOT NULL
+);
+
+CREATE TABLE "CHANGE_LOG_WATERMARK" (
+    "WATERMARK" BIGINT NOT NULL
+);
+
+INSERT INTO "CHANGE_LOG_WATERMARK" ("WATERMARK") VALUES (0);
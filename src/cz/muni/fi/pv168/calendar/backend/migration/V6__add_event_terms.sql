@@ -0,0 +1,6 @@
+CREATE TABLE "EVENT_TERM" (
+    "TERM" VARCHAR(50) NOT NULL,
+    "EVENTID" INTEGER NOT NULL REFERENCES EVENT (ID) ON DELETE CASCADE,
+    "WEIGHT" INTEGER NOT NULL,
+    PRIMARY KEY ("TERM", "EVENTID")
+);
@@ -8,9 +8,13 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import javax.sql.DataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +27,11 @@ public class DBUtils {
     
     final static Logger logger = LoggerFactory.getLogger(DBUtils.class);
 
+    /**
+     * Maximal number of values in the IN list of one statement.
+     */
+    public static final int MAX_IN_LIST_SIZE = 500;
+
     /**
      * Closes connection and logs possible error.
      * 
@@ -93,6 +102,88 @@ public class DBUtils {
         }
     }
 
+    /**
+     * Extract keys of rows inserted by one batch. Derby returns only the key 
+     * of the last inserted row, so keys of the other rows are derived from it. 
+     * This is correct only when no one else inserts into the same table while 
+     * the batch is running, so the table has to be locked by the caller.
+     * 
+     * @param key resultSet with key of the last inserted row
+     * @param count number of rows inserted by the batch
+     * @return keys of all inserted rows in the order of insertion
+     * @throws SQLException when operation fails
+     */
+    public static int[] getBatchIds(ResultSet key, int count) throws SQLException {
+        int lastId = getId(key);
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = lastId - count + 1 + i;
+        }
+        return result;
+    }
+
+    /**
+     * Splits values into chunks for IN lists of at most 
+     * {@link #MAX_IN_LIST_SIZE} values.
+     * 
+     * @param values values in iteration order
+     * @return chunks of the values, no chunk when there are no values
+     */
+    public static <T> List<List<T>> splitForInList(Collection<T> values) {
+        List<T> list = new ArrayList<T>(values);
+        List<List<T>> chunks = new ArrayList<List<T>>();
+        for (int start = 0; start < list.size(); start += MAX_IN_LIST_SIZE) {
+            chunks.add(list.subList(start, Math.min(start + MAX_IN_LIST_SIZE, list.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * Prepares statement with IN list of values and binds them.
+     * 
+     * @see #prepareInStatement(Connection, String, List, String, int)
+     */
+    public static PreparedStatement prepareInStatement(Connection conn, String before, 
+            List<?> values, String after) throws SQLException {
+        return prepareInStatement(conn, before, values, after, 0);
+    }
+
+    /**
+     * Prepares statement with IN list of values and binds them. Parameters 
+     * before the list are left to the caller.
+     * 
+     * @param conn connection
+     * @param before SQL before the list, e.g. "SELECT ... WHERE id IN "
+     * @param values values of the list, see {@link #splitForInList(Collection)}
+     * @param after SQL after the list, may be empty
+     * @param parametersBefore number of parameters in SQL before the list
+     * @return prepared statement, closed by the caller
+     * @throws IllegalArgumentException when values are empty or longer than 
+     * {@link #MAX_IN_LIST_SIZE}
+     * @throws SQLException when operation fails
+     */
+    public static PreparedStatement prepareInStatement(Connection conn, String before, 
+            List<?> values, String after, int parametersBefore) throws SQLException {
+        if (values.isEmpty() || values.size() > MAX_IN_LIST_SIZE) {
+            throw new IllegalArgumentException("IN list of " + values.size() + " values");
+        }
+        StringBuilder sql = new StringBuilder(before).append('(');
+        for (int i = 0; i < values.size(); i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        sql.append(')').append(after);
+        PreparedStatement st = conn.prepareStatement(sql.toString());
+        try {
+            for (int i = 0; i < values.size(); i++) {
+                st.setObject(parametersBefore + i + 1, values.get(i));
+            }
+            return st;
+        } catch (SQLException ex) {
+            closeQuietly(null, st);
+            throw ex;
+        }
+    }
+
     /**
      * Reads SQL statements from file. SQL commands in file must be separated by 
      * a semicolon.
@@ -122,6 +213,10 @@ public class DBUtils {
      * Try to execute script for creating tables. If tables already exist, 
      * appropriate exception is catched and ignored.
      * 
+     * Script creating a versioned schema must record its version in the 
+     * SCHEMA_VERSION table, otherwise {@link SchemaMigrator} considers the 
+     * database to be at the first version and applies the later scripts again.
+     * 
      * @param ds dataSource 
      * @param scriptUrl url of script for creating tables
      * @throws SQLException when operation fails
@@ -152,16 +247,33 @@ public class DBUtils {
         Connection conn = null;
         try {
             conn = ds.getConnection();
-            for (String sqlStatement : readSqlStatements(scriptUrl)) {
-                if (!sqlStatement.trim().isEmpty()) {
-                    conn.prepareStatement(sqlStatement).executeUpdate();
-                }
-            }
+            executeSqlScript(conn, scriptUrl);
         } finally {
             closeQuietly(conn);
         }
     }
 
+    /**
+     * Executes SQL script using given connection. Transaction is neither 
+     * started nor committed, so the script can be part of a larger transaction.
+     * 
+     * @param conn connection
+     * @param scriptUrl url of sql script to be executed
+     * @throws SQLException when operation fails
+     */
+    public static void executeSqlScript(Connection conn, URL scriptUrl) throws SQLException {
+        for (String sqlStatement : readSqlStatements(scriptUrl)) {
+            if (!sqlStatement.trim().isEmpty()) {
+                PreparedStatement st = conn.prepareStatement(sqlStatement);
+                try {
+                    st.executeUpdate();
+                } finally {
+                    st.close();
+                }
+            }
+        }
+    }
+
     /**
      * Check if updates count is one. Otherwise appropriate exception is thrown.
      * 
@@ -181,4 +293,19 @@ public class DBUtils {
             throw new ServiceFailureException("Internal integrity error: Unexpected rows count in database affected: " + count);
         }
     }
+
+    /**
+     * Check if every statement of batch insert affected exactly one row. 
+     * Otherwise appropriate exception is thrown.
+     * 
+     * @param counts updates counts returned by executeBatch
+     * @throws ServiceFailureException when some updates count is unexpected number
+     */
+    public static void checkBatchUpdatesCounts(int[] counts) throws ServiceFailureException {
+        for (int count : counts) {
+            if (count != 1 && count != Statement.SUCCESS_NO_INFO) {
+                throw new ServiceFailureException("Internal integrity error: Unexpected rows count in database affected: " + count);
+            }
+        }
+    }
 }
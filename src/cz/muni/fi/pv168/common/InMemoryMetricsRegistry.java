@@ -0,0 +1,125 @@
+package cz.muni.fi.pv168.common;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry keeping call counts, error counts and latency histograms of every 
+ * operation in memory.
+ *
+ * @author Jan Smerda
+ */
+public class InMemoryMetricsRegistry implements MetricsRegistry {
+
+    /**
+     * Metrics of one operation.
+     */
+    public static class OperationMetrics {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram connectionAcquire = new LatencyHistogram();
+        private final LatencyHistogram execution = new LatencyHistogram();
+
+        public long getCalls() {
+            return calls.get();
+        }
+
+        public long getErrors() {
+            return errors.get();
+        }
+
+        /**
+         * @return durations of whole calls
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return time spent by waiting for database connections during calls
+         */
+        public LatencyHistogram getConnectionAcquire() {
+            return connectionAcquire;
+        }
+
+        /**
+         * @return durations of calls without connection acquiring
+         */
+        public LatencyHistogram getExecution() {
+            return execution;
+        }
+
+        @Override
+        public String toString() {
+            return "calls=" + getCalls() + ", errors=" + getErrors()
+                    + ", latency[" + latency + "], connectionAcquire[" + connectionAcquire
+                    + "], execution[" + execution + "]";
+        }
+    }
+
+    private final ConcurrentMap<String, OperationMetrics> operations =
+            new ConcurrentHashMap<String, OperationMetrics>();
+
+    @Override
+    public void recordCall(String operation, long totalNanos, long connectionAcquireNanos, boolean failed) {
+        OperationMetrics metrics = getOperation(operation);
+        metrics.calls.incrementAndGet();
+        if (failed) {
+            metrics.errors.incrementAndGet();
+        }
+        metrics.latency.record(totalNanos);
+        metrics.connectionAcquire.record(connectionAcquireNanos);
+        metrics.execution.record(totalNanos - connectionAcquireNanos);
+    }
+
+    /**
+     * Returns metrics of given operation.
+     *
+     * @param operation name of the operation
+     * @return metrics of the operation, empty when it was not called yet
+     */
+    public OperationMetrics getOperation(String operation) {
+        if (operation == null) {
+            throw new IllegalArgumentException("operation is null");
+        }
+        OperationMetrics metrics = operations.get(operation);
+        if (metrics == null) {
+            OperationMetrics newMetrics = new OperationMetrics();
+            metrics = operations.putIfAbsent(operation, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return metrics of all called operations sorted by operation name
+     */
+    public Map<String, OperationMetrics> getOperations() {
+        return new TreeMap<String, OperationMetrics>(operations);
+    }
+
+    /**
+     * Forgets all recorded metrics.
+     */
+    public void clear() {
+        operations.clear();
+    }
+
+    /**
+     * @return metrics of all operations, one operation per line
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, OperationMetrics> entry : getOperations().entrySet()) {
+            report.append(entry.getKey()).append(": ").append(entry.getValue())
+                    .append(System.getProperty("line.separator"));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,231 @@
+package cz.muni.fi.pv168.common;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from int keys to int values without boxing. Keys and values are
+ * stored in parallel arrays with open addressing and linear probing, so no
+ * entry or Integer objects are allocated. Removing is not supported, maps are
+ * filled once and then read, e.g. as results of aggregate queries.
+ *
+ * This class is not thread safe.
+ *
+ * @author Jiri Stary
+ */
+public class IntIntHashMap {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+
+    public IntIntHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param expectedSize number of entries which fit without resizing
+     * @throws IllegalArgumentException when expectedSize is negative
+     */
+    public IntIntHashMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize is negative");
+        }
+        int capacity = MIN_CAPACITY;
+        // Load factor is at most 1/2
+        while (capacity < 2 * expectedSize) {
+            capacity *= 2;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return number of keys in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(int key) {
+        return used[slot(key)];
+    }
+
+    /**
+     * @return value of the key or 0 when the key is not in the map
+     */
+    public int get(int key) {
+        return get(key, 0);
+    }
+
+    /**
+     * @return value of the key or defaultValue when the key is not in the map
+     */
+    public int get(int key, int defaultValue) {
+        int slot = slot(key);
+        return used[slot] ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Associates value with the key.
+     *
+     * @return previous value of the key or 0 when the key was not in the map
+     */
+    public int put(int key, int value) {
+        int slot = slot(key);
+        if (used[slot]) {
+            int previous = values[slot];
+            values[slot] = value;
+            return previous;
+        }
+        insert(slot, key, value);
+        return 0;
+    }
+
+    /**
+     * Adds delta to value of the key, missing key has value 0.
+     *
+     * @return new value of the key
+     */
+    public int add(int key, int delta) {
+        int slot = slot(key);
+        if (used[slot]) {
+            values[slot] += delta;
+            return values[slot];
+        }
+        insert(slot, key, delta);
+        return delta;
+    }
+
+    /**
+     * @return keys of the map in no particular order
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int i = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                result[i++] = keys[slot];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return sum of all values
+     */
+    public long sum() {
+        long result = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                result += values[slot];
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof IntIntHashMap)) {
+            return false;
+        }
+        IntIntHashMap other = (IntIntHashMap) obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                int otherSlot = other.slot(keys[slot]);
+                if (!other.used[otherSlot] || other.values[otherSlot] != values[slot]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                result += keys[slot] ^ values[slot];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return entries ordered by key, e.g. {1=3, 5=2}
+     */
+    @Override
+    public String toString() {
+        int[] sorted = keys();
+        Arrays.sort(sorted);
+        StringBuilder result = new StringBuilder("{");
+        for (int i = 0; i < sorted.length; i++) {
+            result.append(i == 0 ? "" : ", ").append(sorted[i]).append('=').append(get(sorted[i]));
+        }
+        return result.append('}').toString();
+    }
+
+    /**
+     * @return slot of the key or the free slot where it would be inserted
+     */
+    private int slot(int key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void insert(int slot, int key, int value) {
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        size++;
+        if (2 * size > keys.length) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldUsed[slot]) {
+                int newSlot = slot(oldKeys[slot]);
+                keys[newSlot] = oldKeys[slot];
+                values[newSlot] = oldValues[slot];
+                used[newSlot] = true;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+    }
+
+    /**
+     * Sequential ids would fill neighbouring slots and make long probe
+     * sequences, so the bits are mixed first.
+     */
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,227 @@
+package cz.muni.fi.pv168.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Balanced (AVL) search tree of closed intervals. Every node remembers the
+ * maximal end of intervals in its subtree, so subtrees which can not contain
+ * an overlapping interval are skipped and overlap query takes O(log n + k)
+ * for k found intervals. Intervals are ordered by start and then by key,
+ * the key identifies the interval when it is removed.
+ *
+ * This class is not thread safe.
+ *
+ * @author Jiri Stary
+ */
+public class IntervalTree<T> {
+
+    private static class Node<T> {
+        final long start;
+        final long end;
+        final int key;
+        final T value;
+        long maxEnd;
+        int height = 1;
+        Node<T> left;
+        Node<T> right;
+
+        Node(long start, long end, int key, T value) {
+            this.start = start;
+            this.end = end;
+            this.key = key;
+            this.value = value;
+            this.maxEnd = end;
+        }
+    }
+
+    private Node<T> root;
+    private int size;
+
+    /**
+     * @return number of intervals in the tree
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all intervals from the tree.
+     */
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    /**
+     * Adds interval into the tree.
+     *
+     * @param start start of the interval
+     * @param end end of the interval
+     * @param key key identifying interval among intervals with the same start
+     * @param value value associated with interval
+     * @throws IllegalArgumentException when end is less than start or
+     * interval with the same start and key is already in the tree
+     */
+    public void insert(long start, long end, int key, T value) {
+        if (end < start) {
+            throw new IllegalArgumentException("end is less than start");
+        }
+        root = insert(root, new Node<T>(start, end, key, value));
+        size++;
+    }
+
+    /**
+     * Removes interval from the tree.
+     *
+     * @param start start of the interval
+     * @param key key of the interval
+     * @return true when the interval was found and removed
+     */
+    public boolean remove(long start, int key) {
+        int oldSize = size;
+        root = remove(root, start, key);
+        return size != oldSize;
+    }
+
+    /**
+     * Finds values of all intervals overlapping given closed range, i.e.
+     * intervals with start &lt;= to and end &gt;= from. Values are returned
+     * ordered by start of their interval.
+     *
+     * @param from start of the range
+     * @param to end of the range
+     * @return values of overlapping intervals
+     */
+    public List<T> findOverlapping(long from, long to) {
+        List<T> result = new ArrayList<T>();
+        findOverlapping(root, from, to, result);
+        return result;
+    }
+
+    private void findOverlapping(Node<T> node, long from, long to, List<T> result) {
+        // No interval in this subtree ends after the range starts
+        if (node == null || node.maxEnd < from) {
+            return;
+        }
+        findOverlapping(node.left, from, to, result);
+        // Nodes to the right start even later
+        if (node.start > to) {
+            return;
+        }
+        if (node.end >= from) {
+            result.add(node.value);
+        }
+        findOverlapping(node.right, from, to, result);
+    }
+
+    private static int compare(long start, int key, Node<?> node) {
+        if (start != node.start) {
+            return start < node.start ? -1 : 1;
+        }
+        return key < node.key ? -1 : (key == node.key ? 0 : 1);
+    }
+
+    private Node<T> insert(Node<T> node, Node<T> newNode) {
+        if (node == null) {
+            return newNode;
+        }
+        int cmp = compare(newNode.start, newNode.key, node);
+        if (cmp < 0) {
+            node.left = insert(node.left, newNode);
+        } else if (cmp > 0) {
+            node.right = insert(node.right, newNode);
+        } else {
+            throw new IllegalArgumentException("Interval with start " + newNode.start
+                    + " and key " + newNode.key + " is already in the tree");
+        }
+        return balance(node);
+    }
+
+    private Node<T> remove(Node<T> node, long start, int key) {
+        if (node == null) {
+            return null;
+        }
+        int cmp = compare(start, key, node);
+        if (cmp < 0) {
+            node.left = remove(node.left, start, key);
+        } else if (cmp > 0) {
+            node.right = remove(node.right, start, key);
+        } else {
+            size--;
+            if (node.left == null) {
+                return node.right;
+            }
+            if (node.right == null) {
+                return node.left;
+            }
+            Node<T> successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            successor.right = removeMin(node.right);
+            successor.left = node.left;
+            return balance(successor);
+        }
+        return balance(node);
+    }
+
+    private Node<T> removeMin(Node<T> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        node.left = removeMin(node.left);
+        return balance(node);
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static void update(Node<?> node) {
+        node.height = 1 + Math.max(height(node.left), height(node.right));
+        node.maxEnd = node.end;
+        if (node.left != null && node.left.maxEnd > node.maxEnd) {
+            node.maxEnd = node.left.maxEnd;
+        }
+        if (node.right != null && node.right.maxEnd > node.maxEnd) {
+            node.maxEnd = node.right.maxEnd;
+        }
+    }
+
+    private Node<T> balance(Node<T> node) {
+        update(node);
+        int balance = height(node.left) - height(node.right);
+        if (balance > 1) {
+            if (height(node.left.left) < height(node.left.right)) {
+                node.left = rotateLeft(node.left);
+            }
+            return rotateRight(node);
+        }
+        if (balance < -1) {
+            if (height(node.right.right) < height(node.right.left)) {
+                node.right = rotateRight(node.right);
+            }
+            return rotateLeft(node);
+        }
+        return node;
+    }
+
+    private Node<T> rotateRight(Node<T> node) {
+        Node<T> left = node.left;
+        node.left = left.right;
+        left.right = node;
+        update(node);
+        update(left);
+        return left;
+    }
+
+    private Node<T> rotateLeft(Node<T> node) {
+        Node<T> right = node.right;
+        node.right = right.left;
+        right.left = node;
+        update(node);
+        update(right);
+        return right;
+    }
+}
@@ -0,0 +1,190 @@
+package cz.muni.fi.pv168.common;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe cache with limited size. When the cache is full, the least
+ * recently used entry is evicted. Entries can also expire after a fixed time
+ * since they were put into the cache.
+ *
+ * Values loaded from the database should be put by
+ * {@link #putIfNotInvalidated(Object, Object, long)} with stamp taken before
+ * loading, so a value loaded before a concurrent update is not cached after
+ * the update invalidated it.
+ *
+ * @author Jan Smerda
+ */
+public class LruCache<K, V> {
+
+    private static class CacheEntry<V> {
+        final V value;
+        final long expiresAt;
+
+        CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxSize;
+    private final long expireAfterWriteNanos;
+    private final LinkedHashMap<K, CacheEntry<V>> entries;
+    private long invalidations;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxSize maximal number of entries
+     * @param expireAfterWriteMillis time after which an entry expires, 0 when
+     * entries do not expire
+     * @throws IllegalArgumentException when maxSize is not positive or
+     * expireAfterWriteMillis is negative
+     */
+    public LruCache(int maxSize, long expireAfterWriteMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize is not positive");
+        }
+        if (expireAfterWriteMillis < 0) {
+            throw new IllegalArgumentException("expireAfterWriteMillis is negative");
+        }
+        this.maxSize = maxSize;
+        this.expireAfterWriteNanos = TimeUnit.MILLISECONDS.toNanos(expireAfterWriteMillis);
+        // Access order makes the first entry the least recently used one
+        this.entries = new LinkedHashMap<K, CacheEntry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+                if (size() > LruCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns cached value.
+     *
+     * @param key key
+     * @return cached value or null when there is no valid entry for the key
+     */
+    public synchronized V get(K key) {
+        CacheEntry<V> entry = entries.get(key);
+        if (entry != null && isExpired(entry)) {
+            entries.remove(key);
+            evictions.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Puts value into the cache.
+     *
+     * @param key key
+     * @param value value
+     */
+    public synchronized void put(K key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value is null");
+        }
+        long expiresAt = expireAfterWriteNanos == 0 ? 0 : System.nanoTime() + expireAfterWriteNanos;
+        entries.put(key, new CacheEntry<V>(value, expiresAt));
+    }
+
+    /**
+     * Returns stamp which changes with every invalidation. Take it before
+     * loading a value and pass it to
+     * {@link #putIfNotInvalidated(Object, Object, long)}.
+     *
+     * @return current stamp
+     */
+    public synchronized long getStamp() {
+        return invalidations;
+    }
+
+    /**
+     * Puts value into the cache when there was no invalidation since the
+     * stamp was taken.
+     *
+     * @param key key
+     * @param value value
+     * @param stamp stamp taken before the value was loaded
+     * @return true when the value was put into the cache
+     */
+    public synchronized boolean putIfNotInvalidated(K key, V value, long stamp) {
+        if (stamp != invalidations) {
+            return false;
+        }
+        put(key, value);
+        return true;
+    }
+
+    /**
+     * Removes entry for given key.
+     *
+     * @param key key
+     */
+    public synchronized void invalidate(K key) {
+        invalidations++;
+        entries.remove(key);
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void invalidateAll() {
+        invalidations++;
+        entries.clear();
+    }
+
+    /**
+     * Removes expired entries.
+     */
+    public synchronized void cleanUp() {
+        Iterator<CacheEntry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (isExpired(iterator.next())) {
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    private boolean isExpired(CacheEntry<V> entry) {
+        return entry.expiresAt != 0 && System.nanoTime() - entry.expiresAt >= 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "LruCache{" + "size=" + entries.size() + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + '}';
+    }
+}
@@ -0,0 +1,156 @@
+package cz.muni.fi.pv168.common;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import javax.sql.DataSource;
+
+/**
+ * Adds metrics to managers. Every method of the manager interface is 
+ * measured as one operation named by the interface and the method, e.g.
+ * "EventManager.createEvent". Overloaded methods have parameter types in the 
+ * name.
+ *
+ * Time spent by waiting for database connections is measured only when 
+ * the manager gets connections from a data source wrapped by 
+ * {@link #dataSource(DataSource)}:
+ * <pre>
+ * MetricsRegistry registry = new InMemoryMetricsRegistry();
+ * EventManagerImpl impl = new EventManagerImpl();
+ * impl.setDataSource(Metered.dataSource(dataSource));
+ * EventManager manager = Metered.manager(EventManager.class, impl, registry);
+ * </pre>
+ *
+ * @author Jan Smerda
+ */
+public final class Metered {
+
+    /**
+     * Call being measured in the current thread.
+     */
+    static class Call {
+        final String operation;
+        final Call outer;
+        long connectionAcquireNanos;
+
+        Call(String operation, Call outer) {
+            this.operation = operation;
+            this.outer = outer;
+        }
+    }
+
+    private static final ThreadLocal<Call> currentCall = new ThreadLocal<Call>();
+
+    private Metered() {
+    }
+
+    /**
+     * Wraps manager so all calls of methods of given interface are recorded 
+     * in the registry.
+     *
+     * @param iface manager interface
+     * @param manager manager implementing the interface
+     * @param registry registry receiving the measurements
+     * @return wrapped manager
+     */
+    public static <T> T manager(Class<T> iface, final T manager, final MetricsRegistry registry) {
+        if (iface == null || !iface.isInterface()) {
+            throw new IllegalArgumentException("iface is not an interface");
+        }
+        if (manager == null) {
+            throw new IllegalArgumentException("manager is null");
+        }
+        if (registry == null) {
+            throw new IllegalArgumentException("registry is null");
+        }
+        final Map<Method, String> operations = operationNames(iface);
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String operation = operations.get(method);
+                if (operation == null) {
+                    // Methods of Object are not measured
+                    return invokeManager(manager, method, args);
+                }
+                Call call = new Call(operation, currentCall.get());
+                currentCall.set(call);
+                boolean failed = true;
+                long start = System.nanoTime();
+                try {
+                    Object result = invokeManager(manager, method, args);
+                    failed = false;
+                    return result;
+                } finally {
+                    long duration = System.nanoTime() - start;
+                    restore(call.outer);
+                    registry.recordCall(operation, duration, call.connectionAcquireNanos, failed);
+                }
+            }
+        };
+        return iface.cast(Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] {iface}, handler));
+    }
+
+    /**
+     * Wraps data source so time spent by getting connections is recorded as 
+     * connection acquire time of the measured operation.
+     *
+     * @param dataSource data source
+     * @return wrapped data source
+     */
+    public static DataSource dataSource(DataSource dataSource) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        return new MeteredDataSource(dataSource);
+    }
+
+    /**
+     * Adds connection acquire time to all calls measured in the current thread.
+     */
+    static void recordConnectionAcquire(long nanos) {
+        for (Call call = currentCall.get(); call != null; call = call.outer) {
+            call.connectionAcquireNanos += nanos;
+        }
+    }
+
+    private static void restore(Call call) {
+        if (call == null) {
+            currentCall.remove();
+        } else {
+            currentCall.set(call);
+        }
+    }
+
+    private static Object invokeManager(Object manager, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(manager, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    private static Map<Method, String> operationNames(Class<?> iface) {
+        Map<String, Integer> overloads = new HashMap<String, Integer>();
+        for (Method method : iface.getMethods()) {
+            Integer count = overloads.get(method.getName());
+            overloads.put(method.getName(), count == null ? 1 : count + 1);
+        }
+        Map<Method, String> names = new HashMap<Method, String>();
+        for (Method method : iface.getMethods()) {
+            StringBuilder name = new StringBuilder(iface.getSimpleName()).append('.').append(method.getName());
+            if (overloads.get(method.getName()) > 1) {
+                name.append('(');
+                Class<?>[] types = method.getParameterTypes();
+                for (int i = 0; i < types.length; i++) {
+                    name.append(i == 0 ? "" : ",").append(types[i].getSimpleName());
+                }
+                name.append(')');
+            }
+            names.put(method, name.toString());
+        }
+        return names;
+    }
+}
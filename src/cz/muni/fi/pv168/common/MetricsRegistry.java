@@ -0,0 +1,22 @@
+package cz.muni.fi.pv168.common;
+
+/**
+ * Receives measurements of calls of manager operations. Implementations 
+ * must be thread safe, they are called by all threads using the managers.
+ * 
+ * @see Metered
+ * @author Jan Smerda
+ */
+public interface MetricsRegistry {
+
+    /**
+     * Records one finished call of an operation.
+     *
+     * @param operation name of the operation, e.g. "EventManager.createEvent"
+     * @param totalNanos duration of the whole call
+     * @param connectionAcquireNanos part of the duration spent by waiting for 
+     * database connections
+     * @param failed true when the call threw an exception
+     */
+    void recordCall(String operation, long totalNanos, long connectionAcquireNanos, boolean failed);
+}
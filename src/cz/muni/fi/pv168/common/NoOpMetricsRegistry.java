@@ -0,0 +1,18 @@
+package cz.muni.fi.pv168.common;
+
+/**
+ * Registry ignoring all measurements, used when metrics are turned off.
+ *
+ * @author Jan Smerda
+ */
+public final class NoOpMetricsRegistry implements MetricsRegistry {
+
+    public static final NoOpMetricsRegistry INSTANCE = new NoOpMetricsRegistry();
+
+    private NoOpMetricsRegistry() {
+    }
+
+    @Override
+    public void recordCall(String operation, long totalNanos, long connectionAcquireNanos, boolean failed) {
+    }
+}
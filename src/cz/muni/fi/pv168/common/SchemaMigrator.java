@@ -0,0 +1,281 @@
+package cz.muni.fi.pv168.common;
+
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Brings database schema to the latest version by applying versioned SQL
+ * scripts. Applied versions are recorded in the SCHEMA_VERSION table, every
+ * script is applied in its own transaction together with its record.
+ *
+ * Databases created before versioning was introduced (by
+ * {@link DBUtils#tryCreateTables(DataSource, URL)} with a script which does
+ * not record its version) have no SCHEMA_VERSION table. When the baseline table exists in such database, it is considered
+ * to be at the first version and only the later scripts are applied.
+ *
+ * A script which would fail on some data (e.g. a unique index on a column
+ * with duplicate values) can be registered with a check query selecting such
+ * data. The migration then stops at the previous version with a message
+ * listing the values, instead of failing in the middle of the script.
+ *
+ * @author Jan Smerda
+ */
+public class SchemaMigrator {
+
+    final static Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    private final DataSource dataSource;
+    private final String baselineTable;
+    private final Map<Integer, URL> scripts = new TreeMap<Integer, URL>();
+    private final Map<Integer, String[]> checks = new HashMap<Integer, String[]>();
+
+    /**
+     * @param dataSource dataSource
+     * @param baselineTable table created by the first script, used to
+     * recognize databases created before versioning was introduced
+     */
+    public SchemaMigrator(DataSource dataSource, String baselineTable) {
+        if (dataSource == null) {
+            throw new IllegalArgumentException("dataSource is null");
+        }
+        if (baselineTable == null) {
+            throw new IllegalArgumentException("baselineTable is null");
+        }
+        this.dataSource = dataSource;
+        this.baselineTable = baselineTable;
+    }
+
+    /**
+     * Registers script bringing schema to given version.
+     *
+     * @param version version of schema after the script is applied, the first
+     * version is 1
+     * @param scriptUrl url of the script
+     * @return this migrator
+     * @throws IllegalArgumentException when version is not positive, script
+     * is null or there already is a script for the version
+     */
+    public SchemaMigrator addScript(int version, URL scriptUrl) {
+        if (version <= 0) {
+            throw new IllegalArgumentException("version is not positive");
+        }
+        if (scriptUrl == null) {
+            throw new IllegalArgumentException("script for version " + version + " is null");
+        }
+        if (scripts.containsKey(version)) {
+            throw new IllegalArgumentException("script for version " + version + " is already registered");
+        }
+        scripts.put(version, scriptUrl);
+        return this;
+    }
+
+    /**
+     * Registers script bringing schema to given version, which may be applied
+     * only when the check query returns no rows.
+     *
+     * @param version version of schema after the script is applied, the first
+     * version is 1
+     * @param scriptUrl url of the script
+     * @param checkQuery query selecting values which prevent the script from
+     * being applied, they are reported from the first column
+     * @param problem description of the values for the error message
+     * @return this migrator
+     * @throws IllegalArgumentException when version is not positive, script,
+     * query or problem is null or there already is a script for the version
+     */
+    public SchemaMigrator addScript(int version, URL scriptUrl, String checkQuery, String problem) {
+        if (checkQuery == null) {
+            throw new IllegalArgumentException("check query for version " + version + " is null");
+        }
+        if (problem == null) {
+            throw new IllegalArgumentException("problem for version " + version + " is null");
+        }
+        addScript(version, scriptUrl);
+        checks.put(version, new String[] {checkQuery, problem});
+        return this;
+    }
+
+    /**
+     * @return version the migrator brings the schema to
+     */
+    public int getLatestVersion() {
+        int latest = 0;
+        for (int version : scripts.keySet()) {
+            latest = version;
+        }
+        return latest;
+    }
+
+    /**
+     * Returns current version of the schema.
+     *
+     * @return current version, 0 for an empty database
+     * @throws SQLException when operation fails
+     */
+    public int getCurrentVersion() throws SQLException {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            if (tableExists(conn, "SCHEMA_VERSION")) {
+                return readVersion(conn);
+            }
+            return tableExists(conn, baselineTable) ? 1 : 0;
+        } finally {
+            DBUtils.closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Applies all scripts with version greater than current version.
+     *
+     * @return version of the schema after migration
+     * @throws IllegalStateException when check query of a script returns
+     * some rows, the schema is left at the version before the script
+     * @throws SQLException when operation fails
+     */
+    public int migrate() throws SQLException {
+        Connection conn = null;
+        Statement st = null;
+        try {
+            conn = dataSource.getConnection();
+            createVersionTable(conn);
+            // Temporary turn autocommit mode off. It is turned back on in
+            // method DBUtils.closeQuietly(...)
+            conn.setAutoCommit(false);
+            st = conn.createStatement();
+
+            int current = readVersion(conn);
+            for (Map.Entry<Integer, URL> script : scripts.entrySet()) {
+                int version = script.getKey();
+                if (version <= current) {
+                    continue;
+                }
+                // Other instances of the application wait until the script
+                // is applied and then see the new version
+                st.execute("LOCK TABLE SCHEMA_VERSION IN EXCLUSIVE MODE");
+                current = readVersion(conn);
+                if (version <= current) {
+                    conn.commit();
+                    continue;
+                }
+                checkData(conn, version);
+                logger.warn("Migrating schema from version {} to version {}", current, version);
+                DBUtils.executeSqlScript(conn, script.getValue());
+                recordVersion(conn, version);
+                conn.commit();
+                current = version;
+            }
+            return current;
+        } finally {
+            DBUtils.doRollbackQuietly(conn);
+            DBUtils.closeQuietly(conn, st);
+        }
+    }
+
+    /**
+     * Creates SCHEMA_VERSION table when it does not exist. When it is created
+     * for a database created before versioning was introduced, the database
+     * is recorded to be at the first version.
+     */
+    private void createVersionTable(Connection conn) throws SQLException {
+        if (tableExists(conn, "SCHEMA_VERSION")) {
+            return;
+        }
+        boolean legacy = tableExists(conn, baselineTable);
+        conn.setAutoCommit(false);
+        Statement st = conn.createStatement();
+        try {
+            st.executeUpdate("CREATE TABLE SCHEMA_VERSION ("
+                    + "VERSION INTEGER NOT NULL PRIMARY KEY, "
+                    + "APPLIED TIMESTAMP NOT NULL)");
+            if (legacy) {
+                logger.warn("Table {} exists, recording schema version 1", baselineTable);
+                recordVersion(conn, 1);
+            }
+            conn.commit();
+        } catch (SQLException ex) {
+            conn.rollback();
+            if (!"X0Y32".equals(ex.getSQLState())) {
+                throw ex;
+            }
+            // This code represents "Table/View/... already exists",
+            // the table was created concurrently. This code is Derby specific!
+        } finally {
+            st.close();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Runs check query of the script for given version, if there is any.
+     */
+    private void checkData(Connection conn, int version) throws SQLException {
+        String[] check = checks.get(version);
+        if (check == null) {
+            return;
+        }
+        List<String> values = new ArrayList<String>();
+        PreparedStatement st = conn.prepareStatement(check[0]);
+        try {
+            ResultSet rs = st.executeQuery();
+            while (rs.next()) {
+                values.add(rs.getString(1));
+            }
+        } finally {
+            st.close();
+        }
+        if (!values.isEmpty()) {
+            logger.error("Can not migrate schema to version {}, {}: {}", version, check[1], values);
+            throw new IllegalStateException("Can not migrate schema to version "
+                    + version + " because of " + check[1] + " " + values
+                    + ", fix them and start the application again");
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        ResultSet rs = metaData.getTables(null, null, table, new String[] {"TABLE"});
+        try {
+            return rs.next();
+        } finally {
+            rs.close();
+        }
+    }
+
+    private static int readVersion(Connection conn) throws SQLException {
+        PreparedStatement st = conn.prepareStatement("SELECT MAX(VERSION) FROM SCHEMA_VERSION");
+        try {
+            ResultSet rs = st.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            st.close();
+        }
+    }
+
+    private static void recordVersion(Connection conn, int version) throws SQLException {
+        PreparedStatement st = conn.prepareStatement(
+                "INSERT INTO SCHEMA_VERSION (VERSION, APPLIED) VALUES (?, ?)");
+        try {
+            st.setInt(1, version);
+            st.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            DBUtils.checkUpdatesCount(st.executeUpdate(), "version " + version, true);
+        } finally {
+            st.close();
+        }
+    }
+}
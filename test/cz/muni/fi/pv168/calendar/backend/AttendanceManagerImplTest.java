@@ -5,10 +5,12 @@
 package cz.muni.fi.pv168.calendar.backend;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import javax.sql.DataSource;
 import org.apache.commons.dbcp.BasicDataSource;
 import org.junit.After;
@@ -22,6 +24,7 @@ import static cz.muni.fi.pv168.calendar.backend.PersonManagerImplTest.newPerson;
 import static cz.muni.fi.pv168.calendar.backend.PersonManagerImplTest.assertPersonDeepEquals;
 import static cz.muni.fi.pv168.calendar.backend.PersonManagerImplTest.assertPersonCollectionDeepEquals;
 import cz.muni.fi.pv168.common.IllegalEntityException;
+import cz.muni.fi.pv168.common.IntIntHashMap;
 
 /**
  *
@@ -129,6 +132,43 @@ public class AttendanceManagerImplTest {
         attendanceManager.createAttendance(attendance);
     }
     
+    /**
+     * Test of createAttendances method, of class AttendanceManagerImpl.
+     */
+    @Test
+    public void testCreateAttendances() {
+        attendanceManager.setBatchSize(2);
+        List<Attendance> attendances = Arrays.asList(
+                newAttendance(event1, person1, new Date(100L)),
+                newAttendance(event1, person2, new Date(105L)),
+                newAttendance(event2, person1, new Date(130L)),
+                newAttendance(event2, person2, null),
+                newAttendance(event1, person1, new Date(110L)));
+        attendanceManager.createAttendances(attendances);
+
+        for (Attendance attendance : attendances) {
+            assertNotNull(attendance.getId());
+            assertAttendanceDeepEquals(attendance, 
+                    attendanceManager.getAttendanceById(attendance.getId()));
+        }
+        assertEquals(5, attendanceManager.findAllAttendances().size());
+    }
+    
+    @Test
+    public void testCreateAttendancesWithWrongAttributes() {
+        Attendance valid = newAttendance(event1, person1, new Date(100L));
+        Attendance invalid = newAttendance(event2, null, new Date(130L));
+        try {
+            attendanceManager.createAttendances(Arrays.asList(valid, invalid));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        // Nothing is inserted when any of the attendances is not valid
+        assertNull(valid.getId());
+        assertTrue(attendanceManager.findAllAttendances().isEmpty());
+    }
+    
     /**
      * Test of getAttendanceById method of class AttendanceManagerImpl.
      */
@@ -285,6 +325,29 @@ public class AttendanceManagerImplTest {
         assertAttendanceCollectionDeepEquals(expected, actual);
     }
     
+    @Test
+    public void findAllAttendancesWithHandler() {
+        attendanceManager.setFetchSize(1);
+        Attendance attendance1 = newAttendance(event1, person1, new Date(100L));
+        Attendance attendance2 = newAttendance(event2, person2, new Date(130L));
+        Attendance attendance3 = newAttendance(event2, person1, new Date(135L));
+        attendanceManager.createAttendances(Arrays.asList(attendance1, attendance2, attendance3));
+        
+        final List<Attendance> actual = new ArrayList<Attendance>();
+        attendanceManager.findAllAttendances(new ResultHandler<Attendance>() {
+            @Override
+            public boolean handle(Attendance attendance) {
+                actual.add(attendance);
+                return true;
+            }
+        });
+        List<Attendance> expected = Arrays.asList(attendance1, attendance2, attendance3);
+        Collections.sort(actual,idComparator);
+        
+        assertEquals(expected, actual);
+        assertAttendanceCollectionDeepEquals(expected, actual);
+    }
+    
     @Test
     public void findAttendancesForEvent() {
         Attendance attendance1 = newAttendance(event1, person1, new Date(100L));
@@ -305,6 +368,256 @@ public class AttendanceManagerImplTest {
         assertAttendanceCollectionDeepEquals(expected, actual);
     }
     
+    @Test
+    public void findAttendancesForEvents() {
+        Attendance attendance1 = newAttendance(event2, person1, new Date(130L));
+        Attendance attendance2 = newAttendance(event1, person2, new Date(100L));
+        Attendance attendance3 = newAttendance(event2, person2, new Date(135L));
+        attendanceManager.createAttendances(Arrays.asList(attendance1, attendance2, attendance3));
+        
+        // Ordered by event and then by id
+        List<Attendance> actual = attendanceManager.findAttendancesForEvents(Arrays.asList(event2, event1));
+        assertEquals(Arrays.asList(attendance2, attendance1, attendance3), actual);
+        assertAttendanceCollectionDeepEquals(Arrays.asList(attendance2, attendance1, attendance3), actual);
+        
+        assertEquals(Arrays.asList(attendance1, attendance3), 
+                attendanceManager.findAttendancesForEvents(Arrays.asList(event2, eventNotInDB)));
+        assertTrue(attendanceManager.findAttendancesForEvents(new ArrayList<Event>()).isEmpty());
+        try {
+            attendanceManager.findAttendancesForEvents(Arrays.asList(event1, eventWithNullId));
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+    }
+    
+    @Test
+    public void countAttendances() {
+        Event daily = newEvent("Daily", new Date(1000L), new Date(1100L), null);
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(RecurrenceRule.Frequency.DAILY);
+        long day = 24 * 60 * 60 * 1000L;
+        rule.getExceptions().add(new Date(1000L + day));
+        daily.setRecurrence(rule);
+        eventManager.createEvent(daily);
+        attendanceManager.createAttendances(Arrays.asList(
+                newAttendance(event1, person1, null),
+                newAttendance(event2, person1, null),
+                newAttendance(event2, person2, null),
+                newAttendance(daily, person2, null)));
+        
+        IntIntHashMap counts = attendanceManager.countAttendancesForEvents(
+                Arrays.asList(event1, event2, daily, eventNotInDB, event2));
+        assertEquals(3, counts.size());
+        assertEquals(1, counts.get(event1.getId()));
+        assertEquals(2, counts.get(event2.getId()));
+        assertEquals(1, counts.get(daily.getId()));
+        assertFalse(counts.containsKey(eventNotInDB.getId()));
+        assertTrue(attendanceManager.countAttendancesForEvents(new ArrayList<Event>()).isEmpty());
+        
+        counts = attendanceManager.countAttendancesForPersons(Arrays.asList(person1, person2, personNotInDB));
+        assertEquals(2, counts.size());
+        assertEquals(2, counts.get(person1.getId()));
+        assertEquals(2, counts.get(person2.getId()));
+        
+        // Touching events take place in the range
+        counts = attendanceManager.countAttendancesForEvents(new Date(125L), new Date(1000L));
+        assertEquals(3, counts.size());
+        counts = attendanceManager.countAttendancesForEvents(new Date(130L), new Date(140L));
+        assertEquals(1, counts.size());
+        assertEquals(2, counts.get(event2.getId()));
+        // The occurrence on the second day is an exception
+        assertTrue(attendanceManager.countAttendancesForEvents(
+                new Date(day + 500L), new Date(day + 1500L)).isEmpty());
+        counts = attendanceManager.countAttendancesForEvents(new Date(2 * day), new Date(3 * day));
+        assertEquals(1, counts.size());
+        assertEquals(1, counts.get(daily.getId()));
+    }
+    
+    @Test
+    public void countAttendancesOfSeriesByDate() {
+        long day = 24 * 60 * 60 * 1000L;
+        List<Attendance> attendances = new ArrayList<Attendance>();
+        List<Event> series = new ArrayList<Event>();
+        for (int i = 0; i < 3; i++) {
+            Event event = newEvent("Series " + i, new Date(1000L), new Date(1100L), null);
+            RecurrenceRule rule = new RecurrenceRule();
+            rule.setFrequency(RecurrenceRule.Frequency.DAILY);
+            // Each series skips a different day
+            rule.getExceptions().add(new Date(1000L + (i + 1) * day));
+            event.setRecurrence(rule);
+            eventManager.createEvent(event);
+            series.add(event);
+            for (int j = 0; j <= i; j++) {
+                attendances.add(newAttendance(event, j % 2 == 0 ? person1 : person2, null));
+            }
+        }
+        attendanceManager.createAttendances(attendances);
+        
+        for (int i = 0; i < 3; i++) {
+            IntIntHashMap counts = attendanceManager.countAttendancesForEvents(
+                    new Date((i + 1) * day), new Date((i + 2) * day - 1));
+            assertEquals(2, counts.size());
+            assertFalse(counts.containsKey(series.get(i).getId()));
+            for (int j = 0; j < 3; j++) {
+                if (j != i) {
+                    assertEquals(j + 1, counts.get(series.get(j).getId()));
+                }
+            }
+        }
+    }
+    
+    @Test
+    public void countAttendancesWithWrongAttributes() {
+        try {
+            attendanceManager.countAttendancesForEvents(Arrays.asList(event1, eventWithNullId));
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+        try {
+            attendanceManager.countAttendancesForPersons(Arrays.asList(person1, null));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            attendanceManager.countAttendancesForEvents(new Date(1L), new Date(0L));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+    }
+    
+    @Test
+    public void findAttendancesForPersonWithHandler() {
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(RecurrenceRule.Frequency.DAILY);
+        rule.setCount(3);
+        rule.getExceptions().add(new Date(125L + 24 * 3600000L));
+        event2.setRecurrence(rule);
+        eventManager.updateEvent(event2);
+        Attendance attendance1 = newAttendance(event2, person1, new Date(130L));
+        Attendance attendance2 = newAttendance(event1, person1, new Date(100L));
+        Attendance attendance3 = newAttendance(event2, person2, new Date(135L));
+        attendanceManager.createAttendances(Arrays.asList(attendance1, attendance2, attendance3));
+        
+        final List<Attendance> actual = new ArrayList<Attendance>();
+        attendanceManager.findAttendancesForPerson(person1, new ResultHandler<Attendance>() {
+            @Override
+            public boolean handle(Attendance attendance) {
+                return actual.add(attendance);
+            }
+        });
+        // Ordered by event, events are loaded with their recurrence
+        assertEquals(Arrays.asList(attendance2, attendance1), actual);
+        EventManagerImplTest.assertEventDeepEquals(event1, actual.get(0).getEvent());
+        EventManagerImplTest.assertEventDeepEquals(event2, actual.get(1).getEvent());
+    }
+    
+    @Test
+    public void findAttendancesForEventPage() {
+        Attendance attendance1 = newAttendance(event2, person1, new Date(130L));
+        Attendance attendance2 = newAttendance(event1, person2, new Date(100L));
+        Attendance attendance3 = newAttendance(event2, person2, new Date(135L));
+        Attendance attendance4 = newAttendance(event2, person1, null);
+        attendanceManager.createAttendances(
+                Arrays.asList(attendance1, attendance2, attendance3, attendance4));
+        
+        List<Attendance> page = attendanceManager.findAttendancesForEventPage(event2, null, 2);
+        assertEquals(Arrays.asList(attendance1, attendance3), page);
+        assertAttendanceCollectionDeepEquals(Arrays.asList(attendance1, attendance3), page);
+        
+        page = attendanceManager.findAttendancesForEventPage(event2, attendance3.getId(), 2);
+        assertEquals(Arrays.asList(attendance4), page);
+        
+        assertTrue(attendanceManager.findAttendancesForEventPage(event2, attendance4.getId(), 2).isEmpty());
+    }
+    
+    @Test
+    public void findAttendancesSharesReferencedEntities() {
+        Attendance attendance1 = newAttendance(event2, person1, new Date(130L));
+        Attendance attendance2 = newAttendance(event2, person2, new Date(135L));
+        Attendance attendance3 = newAttendance(event1, person1, new Date(100L));
+
+        attendanceManager.createAttendance(attendance1);
+        attendanceManager.createAttendance(attendance2);
+        attendanceManager.createAttendance(attendance3);
+
+        List<Attendance> actual = attendanceManager.findAttendancesForEvent(event2);
+        assertEquals(2, actual.size());
+        assertSame(actual.get(0).getEvent(), actual.get(1).getEvent());
+        EventManagerImplTest.assertEventDeepEquals(event2, actual.get(0).getEvent());
+
+        actual = attendanceManager.findAllAttendances();
+        Collections.sort(actual,idComparator);
+        assertSame(actual.get(0).getPerson(), actual.get(2).getPerson());
+        assertPersonDeepEquals(person1, actual.get(2).getPerson());
+    }
+    
+    @Test
+    public void lazyLoading() {
+        Attendance attendance1 = newAttendance(event1, person1, new Date(100L));
+        Attendance attendance2 = newAttendance(event2, person1, new Date(130L));
+        Attendance attendance3 = newAttendance(event2, person2, new Date(135L));
+        attendanceManager.createAttendances(Arrays.asList(attendance1, attendance2, attendance3));
+        attendanceManager.setLazyLoading(true);
+        
+        List<Attendance> actual = attendanceManager.findAttendancesForEvents(Arrays.asList(event1, event2));
+        assertEquals(Arrays.asList(attendance1, attendance2, attendance3), actual);
+        assertEquals(event1.getId(), actual.get(0).getEventId());
+        assertEquals(person2.getId(), actual.get(2).getPersonId());
+        assertEquals(new Date(130L), actual.get(1).getPlannedArrivalTime());
+        
+        // Events are loaded on first access, all of them at once
+        event1.setName("Changed First Event");
+        eventManager.updateEvent(event1);
+        assertEquals("Changed First Event", actual.get(0).getEvent().getName());
+        event2.setName("Changed Second Event");
+        eventManager.updateEvent(event2);
+        assertEquals("Second Event", actual.get(1).getEvent().getName());
+        assertSame(actual.get(1).getEvent(), actual.get(2).getEvent());
+        
+        assertSame(actual.get(0).getPerson(), actual.get(1).getPerson());
+        assertPersonDeepEquals(person1, actual.get(0).getPerson());
+        assertPersonDeepEquals(person2, attendanceManager.getAttendanceById(attendance3.getId()).getPerson());
+        
+        // Lazy attendance is updated without loading its references
+        Attendance lazy = attendanceManager.findAttendancesForPerson(person2).get(0);
+        lazy.setPlannedArrivalTime(new Date(140L));
+        attendanceManager.updateAttendance(lazy);
+        Attendance updated = attendanceManager.getAttendanceById(attendance3.getId());
+        assertEquals(new Date(140L), updated.getPlannedArrivalTime());
+        assertEquals(event2.getId(), updated.getEvent().getId());
+        
+        attendanceManager.setLazyLoading(false);
+        assertEquals("Changed Second Event", 
+                attendanceManager.getAttendanceById(attendance2.getId()).getEvent().getName());
+    }
+    
+    @Test
+    public void lazyLoadingWithHandler() {
+        attendanceManager.createAttendances(Arrays.asList(
+                newAttendance(event1, person1, null),
+                newAttendance(event2, person1, null),
+                newAttendance(event2, person2, null)));
+        attendanceManager.setLazyLoading(true);
+        attendanceManager.setFetchSize(2);
+        
+        final List<Attendance> actual = new ArrayList<Attendance>();
+        attendanceManager.findAllAttendances(new ResultHandler<Attendance>() {
+            @Override
+            public boolean handle(Attendance attendance) {
+                return actual.add(attendance);
+            }
+        });
+        assertEquals(3, actual.size());
+        Collections.sort(actual, idComparator);
+        EventManagerImplTest.assertEventDeepEquals(event1, actual.get(0).getEvent());
+        EventManagerImplTest.assertEventDeepEquals(event2, actual.get(2).getEvent());
+        assertPersonDeepEquals(person2, actual.get(2).getPerson());
+    }
+    
     public void findAttendancesForPerson() {
         Attendance attendance1 = newAttendance(event1, person1, new Date(100L));
         Attendance attendance2 = newAttendance(event2, person2, new Date(130L));
@@ -324,6 +637,182 @@ public class AttendanceManagerImplTest {
         assertAttendanceCollectionDeepEquals(expected, actual);
     }
 
+    @Test
+    public void getFreeBusy() {
+        Event event3 = newEvent("Third Event", new Date(140L), new Date(160L), null);
+        Event event4 = newEvent("Fourth Event", new Date(300L), new Date(400L), null);
+        Event daily = newEvent("Daily", new Date(1000L), new Date(1100L), null);
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(RecurrenceRule.Frequency.DAILY);
+        rule.getExceptions().add(new Date(1000L + 24 * 60 * 60 * 1000L));
+        daily.setRecurrence(rule);
+        eventManager.createEvents(Arrays.asList(event3, event4, daily));
+        Person person3 = newPerson("Third Name", "third email", null);
+        personManager.createPerson(person3);
+        
+        attendanceManager.createAttendances(Arrays.asList(
+                newAttendance(event1, person1, null),
+                newAttendance(event2, person1, null),
+                newAttendance(event3, person1, null),
+                newAttendance(event4, person1, null),
+                newAttendance(event2, person2, null),
+                newAttendance(daily, person1, null),
+                newAttendance(daily, person2, null)));
+        
+        // Touching and overlapping events are merged, results are clipped
+        assertEquals(Arrays.asList(new TimeInterval(new Date(110L), new Date(160L)), 
+                new TimeInterval(new Date(300L), new Date(350L))),
+                attendanceManager.getFreeBusy(person1, new Date(110L), new Date(350L)));
+        assertTrue(attendanceManager.getFreeBusy(person1, new Date(170L), new Date(290L)).isEmpty());
+        
+        long day = 24 * 60 * 60 * 1000L;
+        Map<Person, List<TimeInterval>> busy = attendanceManager.getFreeBusy(
+                Arrays.asList(person1, person2, person3), new Date(0L), new Date(3 * day));
+        assertEquals(3, busy.size());
+        assertEquals(Arrays.asList(new TimeInterval(new Date(100L), new Date(160L)),
+                new TimeInterval(new Date(300L), new Date(400L)),
+                new TimeInterval(new Date(1000L), new Date(1100L)),
+                new TimeInterval(new Date(2 * day + 1000L), new Date(2 * day + 1100L))), busy.get(person1));
+        assertEquals(Arrays.asList(new TimeInterval(new Date(125L), new Date(150L)),
+                new TimeInterval(new Date(1000L), new Date(1100L)),
+                new TimeInterval(new Date(2 * day + 1000L), new Date(2 * day + 1100L))), busy.get(person2));
+        assertTrue(busy.get(person3).isEmpty());
+    }
+    
+    @Test
+    public void getFreeBusyWithWrongAttributes() {
+        try {
+            attendanceManager.getFreeBusy((Person) null, new Date(0L), new Date(1L));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            attendanceManager.getFreeBusy(person1, new Date(1L), new Date(0L));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            attendanceManager.getFreeBusy(Arrays.asList(person1, personWithNullId), new Date(0L), new Date(1L));
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+    }
+
+    @Test
+    public void conflictChecking() {
+        attendanceManager.setConflictChecking(true);
+        Event event3 = newEvent("Third Event", new Date(110L), new Date(130L), null);
+        eventManager.createEvent(event3);
+        
+        // Events which only touch do not conflict
+        Attendance attendance1 = newAttendance(event1, person1, null);
+        Attendance attendance2 = newAttendance(event2, person1, null);
+        attendanceManager.createAttendance(attendance1);
+        attendanceManager.createAttendance(attendance2);
+        
+        Attendance attendance3 = newAttendance(event3, person1, null);
+        try {
+            attendanceManager.createAttendance(attendance3);
+            fail();
+        } catch (AttendanceConflictException ex) {
+            assertSame(attendance3, ex.getAttendance());
+            List<Attendance> conflicts = new ArrayList<Attendance>(ex.getConflicts());
+            Collections.sort(conflicts, idComparator);
+            assertEquals(Arrays.asList(attendance1, attendance2), conflicts);
+        }
+        assertNull(attendance3.getId());
+        assertEquals(2, attendanceManager.findAttendancesForPerson(person1).size());
+        attendanceManager.createAttendance(newAttendance(event3, person2, null));
+        
+        // Attendance does not conflict with itself
+        attendanceManager.updateAttendance(attendance2);
+        attendance2.setEvent(event3);
+        try {
+            attendanceManager.updateAttendance(attendance2);
+            fail();
+        } catch (AttendanceConflictException ex) {
+            assertEquals(Arrays.asList(attendance1), ex.getConflicts());
+        }
+        assertEquals(event2, attendanceManager.getAttendanceById(attendance2.getId()).getEvent());
+        
+        // Attendances created together are checked against each other
+        Attendance attendance4 = newAttendance(event1, person2, null);
+        Attendance attendance5 = newAttendance(event3, person1, null);
+        try {
+            attendanceManager.createAttendances(Arrays.asList(attendance4, attendance5));
+            fail();
+        } catch (AttendanceConflictException ex) {
+            //OK
+        }
+        assertNull(attendance4.getId());
+        assertEquals(3, attendanceManager.findAllAttendances().size());
+        
+        attendanceManager.setConflictChecking(false);
+        attendanceManager.createAttendance(newAttendance(event3, person1, null));
+    }
+    
+    @Test
+    public void conflictCheckingWithRecurringEvents() {
+        attendanceManager.setConflictChecking(true);
+        long day = 24 * 60 * 60 * 1000L;
+        Event daily = newEvent("Daily", new Date(1000L), new Date(2000L), null);
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(RecurrenceRule.Frequency.DAILY);
+        rule.getExceptions().add(new Date(3 * day + 1000L));
+        daily.setRecurrence(rule);
+        Event skipped = newEvent("Skipped", new Date(3 * day + 1500L), new Date(3 * day + 2500L), null);
+        Event between = newEvent("Between", new Date(4 * day + 2000L), new Date(5 * day + 1000L), null);
+        Event overlapping = newEvent("Overlapping", new Date(10 * day + 1500L), new Date(10 * day + 2500L), null);
+        eventManager.createEvents(Arrays.asList(daily, skipped, between, overlapping));
+        
+        Attendance recurring = newAttendance(daily, person1, null);
+        attendanceManager.createAttendance(recurring);
+        attendanceManager.createAttendance(newAttendance(skipped, person1, null));
+        attendanceManager.createAttendance(newAttendance(between, person1, null));
+        try {
+            attendanceManager.createAttendance(newAttendance(overlapping, person1, null));
+            fail();
+        } catch (AttendanceConflictException ex) {
+            assertEquals(Arrays.asList(recurring), ex.getConflicts());
+        }
+    }
+    
+    @Test
+    public void findConflicts() {
+        Event event3 = newEvent("Third Event", new Date(110L), new Date(130L), null);
+        Event event4 = newEvent("Fourth Event", new Date(100L), new Date(200L), null);
+        eventManager.createEvents(Arrays.asList(event3, event4));
+        Attendance attendance1 = newAttendance(event1, person1, null);
+        Attendance attendance2 = newAttendance(event2, person1, null);
+        Attendance attendance3 = newAttendance(event3, person1, null);
+        Attendance attendance4 = newAttendance(event4, person2, null);
+        Attendance attendance5 = newAttendance(event1, person2, null);
+        attendanceManager.createAttendances(Arrays.asList(
+                attendance1, attendance2, attendance3, attendance4, attendance5));
+        
+        List<AttendanceConflict> conflicts = attendanceManager.findConflicts(new Date(0L), new Date(1000L));
+        assertEquals(3, conflicts.size());
+        List<List<Attendance>> pairs = new ArrayList<List<Attendance>>();
+        for (AttendanceConflict conflict : conflicts) {
+            assertEquals(conflict.getFirst().getPerson(), conflict.getSecond().getPerson());
+            assertTrue(conflict.getFirst().getId() < conflict.getSecond().getId());
+            pairs.add(Arrays.asList(conflict.getFirst(), conflict.getSecond()));
+        }
+        assertTrue(pairs.contains(Arrays.asList(attendance1, attendance3)));
+        assertTrue(pairs.contains(Arrays.asList(attendance2, attendance3)));
+        assertTrue(pairs.contains(Arrays.asList(attendance4, attendance5)));
+        
+        // Only overlaps in the range are reported
+        conflicts = attendanceManager.findConflicts(new Date(128L), new Date(1000L));
+        assertEquals(1, conflicts.size());
+        assertEquals(attendance2, conflicts.get(0).getFirst());
+        assertEquals(attendance3, conflicts.get(0).getSecond());
+        assertTrue(attendanceManager.findConflicts(new Date(160L), new Date(1000L)).isEmpty());
+    }
+    
     public Event newEvent(String name, Date startDate, Date endDate, String note) {
         Event event = new Event();
         event.setName(name);
@@ -333,7 +822,7 @@ public class AttendanceManagerImplTest {
         return event;
     }
 
-    public Attendance newAttendance(Event event, Person person, Date plannedArrivalTime) {
+    public static Attendance newAttendance(Event event, Person person, Date plannedArrivalTime) {
         Attendance attendance = new Attendance();
         attendance.setEvent(event);
         attendance.setPerson(person);
@@ -361,4 +850,4 @@ public class AttendanceManagerImplTest {
             return Long.valueOf(o1.getId()).compareTo(Long.valueOf(o2.getId()));
         }
     };
-}
\ No newline at end of file
+}
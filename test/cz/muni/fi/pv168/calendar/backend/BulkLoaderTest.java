@@ -0,0 +1,242 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.ServiceFailureException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static cz.muni.fi.pv168.calendar.backend.PersonManagerImplTest.newPerson;
+import static cz.muni.fi.pv168.calendar.backend.EventManagerImplTest.newEvent;
+
+/**
+ *
+ * @author Jiri Stary
+ */
+public class BulkLoaderTest {
+
+    private BulkLoader loader;
+    private PersonManagerImpl personManager;
+    private EventManagerImpl eventManager;
+    private AttendanceManagerImpl attendanceManager;
+    private ChangeLogManagerImpl changeLogManager;
+    private DataSource ds;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:gravemgr-test;create=true");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("createTables.sql"));
+        loader = new BulkLoader();
+        loader.setDataSource(ds);
+        personManager = new PersonManagerImpl();
+        personManager.setDataSource(ds);
+        eventManager = new EventManagerImpl();
+        eventManager.setDataSource(ds);
+        attendanceManager = new AttendanceManagerImpl();
+        attendanceManager.setDataSource(ds);
+        changeLogManager = new ChangeLogManagerImpl();
+        changeLogManager.setDataSource(ds);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("dropTables.sql"));
+    }
+
+    @Test
+    public void load() throws IOException, ParseException {
+        // Generated ids do not start at 1
+        Person existing = newPerson("Existing", "existing@example.com", null);
+        personManager.createPerson(existing);
+
+        String persons = "p1,Jan Novak,novak@example.com,\n"
+                + "p2,\"Svoboda, \"\"Petr\"\"\",svoboda@example.com,\"Line\nbreak\"\n"
+                + "\n"
+                + "p3,,noname@example.com,\n";
+        String events = "e1,Lunch,2015-01-01 12:00:00,2015-01-01 13:00:00,\"\"\n"
+                + "e2,Standup,2015-01-05 09:00:00,2015-01-05 09:15:00,Daily,DAILY,2,10,\n"
+                + "e3,Wrong,2015-01-05 09:00:00,2015-01-05 08:00:00,\n";
+        String attendances = "p1,e1,2015-01-01 11:55:00\n"
+                + "p2,e1\n"
+                + "p2,e2,\n"
+                + "p3,e2\n";
+        BulkLoader.Result result = loader.load(new StringReader(persons), new StringReader(events),
+                new StringReader(attendances));
+
+        assertEquals(2, result.getPersonCount());
+        assertEquals(2, result.getEventCount());
+        assertEquals(3, result.getAttendanceCount());
+        assertEquals(3, result.getRejectedCount());
+        assertEquals(3, result.getErrors().size());
+        assertTrue(result.getErrors().get(0), result.getErrors().get(0).contains("person record at line 5"));
+        assertTrue(result.getRowsPerSecond() > 0);
+
+        List<Person> loadedPersons = personManager.findAllPersons();
+        assertEquals(3, loadedPersons.size());
+        Person svoboda = findPerson(loadedPersons, "svoboda@example.com");
+        assertEquals("Svoboda, \"Petr\"", svoboda.getName());
+        assertEquals("Line\nbreak", svoboda.getNote());
+        assertNull(findPerson(loadedPersons, "novak@example.com").getNote());
+
+        SimpleDateFormat format = new SimpleDateFormat(BulkLoader.DATE_PATTERN);
+        List<Event> loadedEvents = eventManager.findAllEvents();
+        assertEquals(2, loadedEvents.size());
+        Event lunch = findEvent(loadedEvents, "Lunch");
+        assertEquals(format.parse("2015-01-01 12:00:00"), lunch.getStartDate());
+        assertEquals("", lunch.getNote());
+        assertNull(lunch.getRecurrence());
+        Event standup = findEvent(loadedEvents, "Standup");
+        assertEquals(RecurrenceRule.Frequency.DAILY, standup.getRecurrence().getFrequency());
+        assertEquals(2, standup.getRecurrence().getInterval());
+        assertEquals(Integer.valueOf(10), standup.getRecurrence().getCount());
+        // Series end is stored for queries by date
+        assertEquals(1, eventManager.findEventsByDate(format.parse("2015-01-23 00:00:00"),
+                format.parse("2015-01-24 00:00:00")).size());
+
+        List<Attendance> lunchAttendances = attendanceManager.findAttendancesForEvent(lunch);
+        assertEquals(2, lunchAttendances.size());
+        for (Attendance attendance : lunchAttendances) {
+            Date expected = attendance.getPerson().getEmail().equals("novak@example.com")
+                    ? format.parse("2015-01-01 11:55:00") : null;
+            assertEquals(expected, attendance.getPlannedArrivalTime());
+        }
+        List<Attendance> standupAttendances = attendanceManager.findAttendancesForEvent(standup);
+        assertEquals(1, standupAttendances.size());
+        assertEquals(svoboda, standupAttendances.get(0).getPerson());
+
+        // Existing person and 7 loaded rows
+        assertEquals(8, changeLogManager.getChangesSince(0, 100).size());
+    }
+
+    @Test
+    public void loadWithoutIndexRebuild() throws IOException {
+        loader.setRebuildIndexes(false);
+        BulkLoader.Result result = loader.load(new StringReader("1,Jan Novak,novak@example.com,\n"),
+                null, new StringReader(""));
+        assertEquals(1, result.getPersonCount());
+        assertEquals(0, result.getEventCount());
+        assertEquals(0, result.getAttendanceCount());
+        assertEquals(0, result.getRejectedCount());
+        assertEquals(1, personManager.findAllPersons().size());
+    }
+
+    @Test
+    public void loadInvalidRecords() throws IOException {
+        String persons = "1,Jan Novak,novak@example.com\n"
+                + "2,Jan Novak,,\n"
+                + ",Jan Novak,novak@example.com,\n"
+                + "3,Jan Novak,novak@example.com,\n"
+                + "3,Jan Novak,novak@example.com,\n"
+                + "4," + repeat('x', BulkLoader.MAX_TEXT_LENGTH + 1) + ",novak@example.com,\n"
+                + "5,Petr Novak,novak@example.com,\n";
+        String events = "1,Event,2015-01-01,2015-01-01 13:00:00,\n"
+                + "2,Event,2015-01-01 12:00:00,2015-01-01 13:00:00,,YEARLY\n"
+                + "3,Event,2015-01-01 12:00:00,2015-01-01 13:00:00,,DAILY,x\n"
+                + "4,Event,2015-01-01 12:00:00,2015-01-01 13:00:00,,DAILY,1,2,2015-01-10 00:00:00\n"
+                + "5,Event,2015-01-01 12:00:00,2015-01-01 13:00:00,\n";
+        String attendances = "3,5,tomorrow\n"
+                + "1,5\n"
+                + "3,1\n"
+                + "3\n";
+        BulkLoader.Result result = loader.load(new StringReader(persons), new StringReader(events),
+                new StringReader(attendances));
+        assertEquals(1, result.getPersonCount());
+        assertEquals(1, result.getEventCount());
+        assertEquals(0, result.getAttendanceCount());
+        assertEquals(6 + 4 + 4, result.getRejectedCount());
+        assertTrue(attendanceManager.findAllAttendances().isEmpty());
+    }
+
+    @Test
+    public void failedRecordingDeletesImportedRows() throws IOException, SQLException {
+        Event existing = newEvent("Existing", 100, 200);
+        eventManager.createEvent(existing);
+        // Change log rejects new events, so they are imported and then fail
+        Connection conn = ds.getConnection();
+        try {
+            conn.createStatement().executeUpdate("ALTER TABLE CHANGE_LOG "
+                    + "ADD CONSTRAINT NO_NEW_EVENTS CHECK (entityType <> 'EVENT' OR entityId <= " + existing.getId() + ")");
+        } finally {
+            conn.close();
+        }
+
+        try {
+            loader.load(new StringReader("p1,Jan Novak,novak@example.com,\n"),
+                    new StringReader("e1,Lunch,2015-01-01 12:00:00,2015-01-01 13:00:00,\n"), null);
+            fail();
+        } catch (ServiceFailureException ex) {
+            //OK
+        }
+        // Persons were imported and recorded before
+        assertEquals(1, personManager.findAllPersons().size());
+        assertEquals(2, changeLogManager.getChangesSince(0, 100).size());
+        assertEquals(Arrays.asList(existing), eventManager.findAllEvents());
+    }
+
+    @Test
+    public void loadWithoutDataSource() throws IOException {
+        try {
+            new BulkLoader().load(null, null, null);
+            fail();
+        } catch (IllegalStateException ex) {
+            //OK
+        }
+    }
+
+    @Test
+    public void loadUnclosedQuote() {
+        try {
+            loader.load(new StringReader("1,\"Jan Novak,novak@example.com,\n"), null, null);
+            fail();
+        } catch (IOException ex) {
+            //OK
+        }
+        assertTrue(personManager.findAllPersons().isEmpty());
+    }
+
+    private static Person findPerson(List<Person> persons, String email) {
+        for (Person person : persons) {
+            if (email.equals(person.getEmail())) {
+                return person;
+            }
+        }
+        fail("Person " + email + " not found");
+        return null;
+    }
+
+    private static Event findEvent(List<Event> events, String name) {
+        for (Event event : events) {
+            if (name.equals(event.getName())) {
+                return event;
+            }
+        }
+        fail("Event " + name + " not found");
+        return null;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder result = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            result.append(c);
+        }
+        return result.toString();
+    }
+}
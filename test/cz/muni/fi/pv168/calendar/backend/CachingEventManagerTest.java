@@ -0,0 +1,147 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static cz.muni.fi.pv168.calendar.backend.EventManagerImplTest.assertEventDeepEquals;
+import static cz.muni.fi.pv168.calendar.backend.EventManagerImplTest.newEvent;
+
+/**
+ * Test class of CachingEventManager and CachingPersonManager.
+ *
+ * @author Jiri Stary
+ */
+public class CachingEventManagerTest {
+    
+    private EventManagerImpl eventManager;
+    private CachingEventManager manager;
+    private CachingPersonManager personManager;
+    private DataSource ds;
+    
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:cachingmgr-test;create=true");
+        return ds;
+    }
+    
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds,EventManager.class.getResource("createTables.sql"));
+        eventManager = new EventManagerImpl();
+        eventManager.setDataSource(ds);
+        manager = new CachingEventManager(eventManager, 10, 0);
+        PersonManagerImpl personManagerImpl = new PersonManagerImpl();
+        personManagerImpl.setDataSource(ds);
+        personManager = new CachingPersonManager(personManagerImpl, 10, 0);
+    }
+    
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds,EventManager.class.getResource("dropTables.sql"));
+    }
+    
+    @Test
+    public void getEventByIdIsCached() {
+        Event event = newEvent("My event", 10L, 12L);
+        manager.createEvent(event);
+        
+        assertEventDeepEquals(event, manager.getEventById(event.getId()));
+        assertEquals(1, manager.getCache().getMissCount());
+        
+        // Cache returns copies, so changing them does not change the cache
+        Event result = manager.getEventById(event.getId());
+        result.setName("Changed");
+        assertEventDeepEquals(event, manager.getEventById(event.getId()));
+        assertEquals(2, manager.getCache().getHitCount());
+        
+        assertNull(manager.getEventById(event.getId() + 1));
+    }
+    
+    @Test
+    public void updateAndDeleteInvalidateCache() {
+        Event event = newEvent("My event", 10L, 12L);
+        manager.createEvent(event);
+        manager.getEventById(event.getId());
+        
+        event.setName("Updated");
+        manager.updateEvent(event);
+        assertEventDeepEquals(event, manager.getEventById(event.getId()));
+        
+        manager.deleteEvent(event);
+        assertNull(manager.getEventById(event.getId()));
+        
+        Event other = newEvent("Other event", 10L, 12L);
+        manager.createEvent(other);
+        manager.getEventById(other.getId());
+        manager.deleteEvents(Arrays.asList(other));
+        assertNull(manager.getEventById(other.getId()));
+    }
+    
+    @Test
+    public void personsAreCached() {
+        Person person = PersonManagerImplTest.newPerson("Name", "email", "note");
+        personManager.createPerson(person);
+        PersonManagerImplTest.assertPersonDeepEquals(person, personManager.getPersonById(person.getId()));
+        PersonManagerImplTest.assertPersonDeepEquals(person, personManager.getPersonById(person.getId()));
+        assertEquals(1, personManager.getCache().getHitCount());
+        
+        person.setEmail("new email");
+        personManager.updatePerson(person);
+        PersonManagerImplTest.assertPersonDeepEquals(person, personManager.getPersonById(person.getId()));
+        
+        personManager.deletePerson(person);
+        assertNull(personManager.getPersonById(person.getId()));
+    }
+    
+    @Test
+    public void personsAreCachedByEmail() {
+        Person person = PersonManagerImplTest.newPerson("Name", "name@example.com", "note");
+        Person other = PersonManagerImplTest.newPerson("Other", "other@example.com", null);
+        personManager.createPersons(Arrays.asList(person, other));
+        PersonManagerImplTest.assertPersonDeepEquals(person, personManager.findPersonByEmail("name@example.com"));
+        PersonManagerImplTest.assertPersonDeepEquals(person, personManager.findPersonByEmail("name@example.com"));
+        assertEquals(1, personManager.getEmailCache().getHitCount());
+        
+        Map<String, Person> found = personManager.findPersonsByEmails(
+                Arrays.asList("name@example.com", "other@example.com", "missing@example.com"));
+        assertEquals(2, found.size());
+        PersonManagerImplTest.assertPersonDeepEquals(other, found.get("other@example.com"));
+        assertEquals(2, personManager.getEmailCache().getHitCount());
+        PersonManagerImplTest.assertPersonDeepEquals(other, personManager.findPersonByEmail("other@example.com"));
+        assertEquals(3, personManager.getEmailCache().getHitCount());
+        
+        person.setEmail("new@example.com");
+        personManager.updatePerson(person);
+        assertNull(personManager.findPersonByEmail("name@example.com"));
+        PersonManagerImplTest.assertPersonDeepEquals(person, personManager.findPersonByEmail("new@example.com"));
+        
+        personManager.deletePerson(person);
+        assertNull(personManager.findPersonByEmail("new@example.com"));
+    }
+    
+    @Test
+    public void staleEmailIsNotReturned() throws SQLException {
+        Person person = PersonManagerImplTest.newPerson("Name", "name@example.com", "note");
+        personManager.createPerson(person);
+        personManager.findPersonByEmail("name@example.com");
+        
+        // Changed by another manager, the cache is not notified
+        PersonManagerImpl other = new PersonManagerImpl();
+        other.setDataSource(ds);
+        person.setEmail("new@example.com");
+        other.updatePerson(person);
+        personManager.getCache().invalidate(person.getId());
+        
+        assertNull(personManager.findPersonByEmail("name@example.com"));
+    }
+}
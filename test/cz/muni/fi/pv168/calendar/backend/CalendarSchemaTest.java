@@ -0,0 +1,171 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.SchemaMigrator;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class of CalendarSchema.
+ *
+ * @author Jan Smerda
+ */
+public class CalendarSchemaTest {
+    
+    private DataSource ds;
+    
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:schema-test;create=true");
+        return ds;
+    }
+    
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+    }
+    
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds,CalendarSchema.class.getResource("dropTables.sql"));
+    }
+    
+    @Test
+    public void migrateEmptyDatabase() throws SQLException {
+        SchemaMigrator migrator = CalendarSchema.newMigrator(ds);
+        assertEquals(0, migrator.getCurrentVersion());
+        
+        assertEquals(migrator.getLatestVersion(), migrator.migrate());
+        assertEquals(migrator.getLatestVersion(), migrator.getCurrentVersion());
+        assertTrue(indexes("EVENT").contains("EVENT_DATES_IDX"));
+        
+        // Nothing to do for migrated database
+        assertEquals(migrator.getLatestVersion(), migrator.migrate());
+    }
+    
+    @Test
+    public void migrateDatabaseWithoutVersion() throws SQLException {
+        // Database created by DBUtils.tryCreateTables before versioning
+        DBUtils.tryCreateTables(ds, CalendarSchema.class.getResource("migration/V1__create_tables.sql"));
+        SchemaMigrator migrator = CalendarSchema.newMigrator(ds);
+        assertEquals(1, migrator.getCurrentVersion());
+        assertFalse(indexes("ATTENDANCE").contains("ATTENDANCE_PERSON_IDX"));
+        
+        assertEquals(migrator.getLatestVersion(), CalendarSchema.migrate(ds));
+        assertTrue(indexes("ATTENDANCE").contains("ATTENDANCE_EVENT_IDX"));
+        assertTrue(indexes("ATTENDANCE").contains("ATTENDANCE_PERSON_IDX"));
+    }
+    
+    @Test
+    public void migrateDatabaseWithDuplicateEmails() throws SQLException {
+        DBUtils.tryCreateTables(ds, CalendarSchema.class.getResource("migration/V1__create_tables.sql"));
+        insertPerson("Jan Novak", "jan@novak.cz");
+        insertPerson("Jan Novak", "jan@novak.cz");
+        insertPerson("Petr Novak", "petr@novak.cz");
+        insertPerson("Eva Novakova", null);
+        insertPerson("Jana Novakova", null);
+        SchemaMigrator migrator = CalendarSchema.newMigrator(ds);
+        
+        try {
+            migrator.migrate();
+            fail();
+        } catch (IllegalStateException ex) {
+            //OK
+            assertTrue(ex.getMessage().contains("[jan@novak.cz, null]"));
+        }
+        assertEquals(6, migrator.getCurrentVersion());
+        assertFalse(indexes("PERSON").contains("PERSON_EMAIL_IDX"));
+        
+        execute("DELETE FROM PERSON WHERE ID IN (1, 4)");
+        assertEquals(migrator.getLatestVersion(), migrator.migrate());
+        assertTrue(indexes("PERSON").contains("PERSON_EMAIL_IDX"));
+    }
+    
+    @Test
+    public void createTablesRecordsLatestVersion() throws SQLException {
+        DBUtils.tryCreateTables(ds, CalendarSchema.class.getResource("createTables.sql"));
+        SchemaMigrator migrator = CalendarSchema.newMigrator(ds);
+        assertEquals(migrator.getLatestVersion(), migrator.getCurrentVersion());
+        
+        // Nothing is applied again
+        assertEquals(migrator.getLatestVersion(), CalendarSchema.migrate(ds));
+        DBUtils.tryCreateTables(ds, CalendarSchema.class.getResource("createTables.sql"));
+        assertEquals(migrator.getLatestVersion(), migrator.getCurrentVersion());
+    }
+    
+    @Test
+    public void migrateEmptyDatabaseMatchesCreateTables() throws SQLException {
+        CalendarSchema.migrate(ds);
+        Set<String> migrated = new HashSet<String>();
+        for (String table : new String[] {"PERSON", "EVENT", "EVENT_EXCEPTION", "EVENT_TERM", "ATTENDANCE", "CHANGE_LOG"}) {
+            migrated.addAll(indexes(table));
+        }
+        DBUtils.executeSqlScript(ds,CalendarSchema.class.getResource("dropTables.sql"));
+        
+        DBUtils.executeSqlScript(ds,CalendarSchema.class.getResource("createTables.sql"));
+        Set<String> created = new HashSet<String>();
+        for (String table : new String[] {"PERSON", "EVENT", "EVENT_EXCEPTION", "EVENT_TERM", "ATTENDANCE", "CHANGE_LOG"}) {
+            created.addAll(indexes(table));
+        }
+        assertEquals(filterNamed(created), filterNamed(migrated));
+    }
+    
+    private void insertPerson(String name, String email) throws SQLException {
+        Connection conn = ds.getConnection();
+        try {
+            PreparedStatement st = conn.prepareStatement("INSERT INTO PERSON (NAME, EMAIL) VALUES (?, ?)");
+            st.setString(1, name);
+            st.setString(2, email);
+            st.executeUpdate();
+            st.close();
+        } finally {
+            conn.close();
+        }
+    }
+    
+    private void execute(String sql) throws SQLException {
+        Connection conn = ds.getConnection();
+        try {
+            conn.createStatement().executeUpdate(sql);
+        } finally {
+            conn.close();
+        }
+    }
+    
+    private Set<String> indexes(String table) throws SQLException {
+        Set<String> result = new HashSet<String>();
+        Connection conn = ds.getConnection();
+        try {
+            ResultSet rs = conn.getMetaData().getIndexInfo(null, null, table, false, false);
+            while (rs.next()) {
+                result.add(rs.getString("INDEX_NAME"));
+            }
+            rs.close();
+        } finally {
+            conn.close();
+        }
+        return result;
+    }
+    
+    // Derby generates names of indexes backing constraints
+    private static Set<String> filterNamed(Set<String> indexes) {
+        Set<String> result = new HashSet<String>();
+        for (String index : indexes) {
+            if (!index.startsWith("SQL")) {
+                result.add(index);
+            }
+        }
+        return result;
+    }
+}
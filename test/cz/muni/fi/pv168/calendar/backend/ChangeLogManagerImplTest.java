@@ -0,0 +1,206 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.calendar.backend.Change.EntityType;
+import cz.muni.fi.pv168.calendar.backend.Change.Operation;
+import cz.muni.fi.pv168.common.DBUtils;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static cz.muni.fi.pv168.calendar.backend.PersonManagerImplTest.newPerson;
+import static cz.muni.fi.pv168.calendar.backend.EventManagerImplTest.newEvent;
+import static cz.muni.fi.pv168.calendar.backend.AttendanceManagerImplTest.newAttendance;
+
+/**
+ *
+ * @author Jan Smerda
+ */
+public class ChangeLogManagerImplTest {
+
+    private ChangeLogManagerImpl changeLogManager;
+    private PersonManagerImpl personManager;
+    private EventManagerImpl eventManager;
+    private AttendanceManagerImpl attendanceManager;
+    private DataSource ds;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:gravemgr-test;create=true");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds, ChangeLogManager.class.getResource("createTables.sql"));
+        changeLogManager = new ChangeLogManagerImpl();
+        changeLogManager.setDataSource(ds);
+        personManager = new PersonManagerImpl();
+        personManager.setDataSource(ds);
+        eventManager = new EventManagerImpl();
+        eventManager.setDataSource(ds);
+        attendanceManager = new AttendanceManagerImpl();
+        attendanceManager.setDataSource(ds);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, ChangeLogManager.class.getResource("dropTables.sql"));
+    }
+
+    @Test
+    public void recordChanges() {
+        assertEquals(0, changeLogManager.getLatestSequence());
+        assertTrue(changeLogManager.getChangesSince(0, 10).isEmpty());
+
+        Person person = newPerson("Jara Cimrman", "cimr@gmail.com", null);
+        personManager.createPerson(person);
+        Event event = newEvent("Meeting", 0, 1000);
+        eventManager.createEvent(event);
+        Attendance attendance = newAttendance(event, person, event.getStartDate());
+        attendanceManager.createAttendance(attendance);
+        person.setNote("Note");
+        personManager.updatePerson(person);
+        attendanceManager.deleteAttendance(attendance);
+
+        List<Change> changes = changeLogManager.getChangesSince(0, 10);
+        assertEquals(5, changes.size());
+        assertChange(EntityType.PERSON, person.getId(), Operation.CREATE, changes.get(0));
+        assertChange(EntityType.EVENT, event.getId(), Operation.CREATE, changes.get(1));
+        assertChange(EntityType.ATTENDANCE, attendance.getId(), Operation.CREATE, changes.get(2));
+        assertChange(EntityType.PERSON, person.getId(), Operation.UPDATE, changes.get(3));
+        assertChange(EntityType.ATTENDANCE, attendance.getId(), Operation.DELETE, changes.get(4));
+        for (int i = 1; i < changes.size(); i++) {
+            assertTrue(changes.get(i - 1).getSequence() < changes.get(i).getSequence());
+        }
+        assertEquals(changes.get(4).getSequence(), changeLogManager.getLatestSequence());
+
+        // Pulling deltas page by page
+        List<Change> page = changeLogManager.getChangesSince(0, 2);
+        assertEquals(changes.subList(0, 2).toString(), page.toString());
+        page = changeLogManager.getChangesSince(page.get(1).getSequence(), 2);
+        assertEquals(changes.subList(2, 4).toString(), page.toString());
+        assertTrue(changeLogManager.getChangesSince(changes.get(4).getSequence(), 2).isEmpty());
+    }
+
+    @Test
+    public void recordBatchAndCascadeChanges() {
+        Person person = newPerson("Jara Cimrman", "cimr@gmail.com", null);
+        personManager.createPerson(person);
+        Event event1 = newEvent("Meeting", 0, 1000);
+        Event event2 = newEvent("Lunch", 2000, 3000);
+        eventManager.createEvents(Arrays.asList(event1, event2));
+        Attendance attendance1 = newAttendance(event1, person, event1.getStartDate());
+        Attendance attendance2 = newAttendance(event2, person, event2.getStartDate());
+        attendanceManager.createAttendances(Arrays.asList(attendance1, attendance2));
+        long sequence = changeLogManager.getLatestSequence();
+        assertEquals(5, changeLogManager.getChangesSince(0, 10).size());
+
+        eventManager.deleteEvents(Arrays.asList(event1, event2));
+        List<Change> changes = changeLogManager.getChangesSince(sequence, 10);
+        assertEquals(4, changes.size());
+        assertChange(EntityType.ATTENDANCE, attendance1.getId(), Operation.DELETE, changes.get(0));
+        assertChange(EntityType.ATTENDANCE, attendance2.getId(), Operation.DELETE, changes.get(1));
+        assertChange(EntityType.EVENT, event1.getId(), Operation.DELETE, changes.get(2));
+        assertChange(EntityType.EVENT, event2.getId(), Operation.DELETE, changes.get(3));
+    }
+
+    @Test
+    public void failedWriteRecordsNothing() {
+        Person person = newPerson("Jara Cimrman", "cimr@gmail.com", null);
+        personManager.createPerson(person);
+        Event event = newEvent("Meeting", 0, 1000);
+        eventManager.createEvent(event);
+        attendanceManager.createAttendance(newAttendance(event, person, event.getStartDate()));
+        long sequence = changeLogManager.getLatestSequence();
+
+        try {
+            eventManager.deleteEvent(event);
+            fail();
+        } catch (RuntimeException ex) {
+            //OK, event is attended
+        }
+        Event missing = newEvent("Missing", 0, 1000);
+        missing.setId(event.getId() + 1);
+        try {
+            eventManager.deleteEvents(Arrays.asList(event, missing));
+            fail();
+        } catch (RuntimeException ex) {
+            //OK
+        }
+        assertTrue(changeLogManager.getChangesSince(sequence, 10).isEmpty());
+    }
+
+    @Test
+    public void compactChanges() {
+        for (int i = 0; i < 5; i++) {
+            personManager.createPerson(newPerson("Person " + i, "person" + i + "@example.com", null));
+        }
+        List<Change> changes = changeLogManager.getChangesSince(0, 10);
+        assertEquals(0, changeLogManager.getWatermark());
+
+        assertEquals(3, changeLogManager.compactChanges(changes.get(2).getSequence()));
+        assertEquals(changes.get(2).getSequence(), changeLogManager.getWatermark());
+        assertEquals(changes.subList(3, 5).toString(),
+                changeLogManager.getChangesSince(changes.get(2).getSequence(), 10).toString());
+        try {
+            changeLogManager.getChangesSince(changes.get(1).getSequence(), 10);
+            fail();
+        } catch (ChangeLogCompactedException ex) {
+            assertEquals(changes.get(2).getSequence(), ex.getWatermark());
+        }
+
+        // Watermark is never lowered
+        assertEquals(0, changeLogManager.compactChanges(changes.get(0).getSequence()));
+        assertEquals(changes.get(2).getSequence(), changeLogManager.getWatermark());
+
+        // Latest sequence is kept when the whole log is compacted
+        assertEquals(2, changeLogManager.compactChangesBefore(new Date(System.currentTimeMillis() + 60000)));
+        assertEquals(changes.get(4).getSequence(), changeLogManager.getWatermark());
+        assertEquals(changes.get(4).getSequence(), changeLogManager.getLatestSequence());
+        assertTrue(changeLogManager.getChangesSince(changes.get(4).getSequence(), 10).isEmpty());
+        assertEquals(0, changeLogManager.compactChanges(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void changeLogWithWrongAttributes() {
+        try {
+            changeLogManager.getChangesSince(-1, 10);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            changeLogManager.getChangesSince(0, 0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            changeLogManager.compactChanges(-1);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            changeLogManager.compactChangesBefore(null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+    }
+
+    private static void assertChange(EntityType entityType, int entityId, Operation operation, Change change) {
+        assertEquals(entityType, change.getEntityType());
+        assertEquals(entityId, change.getEntityId());
+        assertEquals(operation, change.getOperation());
+        assertNotNull(change.getTime());
+    }
+}
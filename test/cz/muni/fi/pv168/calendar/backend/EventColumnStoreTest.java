@@ -0,0 +1,154 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.IntIntHashMap;
+import java.sql.SQLException;
+import java.util.Date;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static cz.muni.fi.pv168.calendar.backend.EventManagerImplTest.newEvent;
+
+/**
+ *
+ * @author Jiri Stary
+ */
+public class EventColumnStoreTest {
+
+    private EventManagerImpl eventManager;
+    private DataSource ds;
+    private Event meeting1, meeting2, lunch, conference;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:gravemgr-test;create=true");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("createTables.sql"));
+        eventManager = new EventManagerImpl();
+        eventManager.setDataSource(ds);
+        // Created out of order of their starts
+        conference = newEvent("Conference", 1000, 5000);
+        meeting2 = newEvent("Meeting", 3000, 3500);
+        meeting1 = newEvent("Meeting", 100, 200);
+        lunch = newEvent("Lunch", 2000, 2600);
+        eventManager.createEvent(conference);
+        eventManager.createEvent(meeting2);
+        eventManager.createEvent(meeting1);
+        eventManager.createEvent(lunch);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("dropTables.sql"));
+    }
+
+    @Test
+    public void loadAll() {
+        EventColumnStore store = EventColumnStore.load(ds);
+        assertEquals(4, store.size());
+        assertEquals(3, store.getNameCount());
+        Event[] expected = {meeting1, conference, lunch, meeting2};
+        for (int row = 0; row < expected.length; row++) {
+            assertEquals(expected[row].getId().intValue(), store.getId(row));
+            assertEquals(expected[row].getStartDate().getTime(), store.getStart(row));
+            assertEquals(expected[row].getEndDate().getTime(), store.getEnd(row));
+            assertEquals(expected[row].getName(), store.getName(row));
+            assertEquals(store.getName(row), store.decodeName(store.getNameCode(row)));
+
+            Event event = store.toEvent(row);
+            assertEquals(expected[row], event);
+            assertEquals(expected[row].getStartDate(), event.getStartDate());
+        }
+        assertEquals(store.getNameCode(0), store.getNameCode(3));
+        assertFalse(store.getNameCode(0) == store.getNameCode(1));
+    }
+
+    @Test
+    public void rangeScans() {
+        EventColumnStore store = EventColumnStore.load(ds);
+        // Conference started before the range and is still found
+        assertArrayEquals(new int[] {1, 2}, store.findRows(2100, 2500));
+        assertArrayEquals(new int[] {0, 1}, store.findRows(0, 1000));
+        assertArrayEquals(new int[] {1, 2, 3}, store.findRows(2600, 3000));
+        assertArrayEquals(new int[] {}, store.findRows(6000, 7000));
+        assertArrayEquals(new int[] {0, 1, 2, 3}, store.findRows(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(3, store.count(2600, 3000));
+        assertEquals(0, store.count(201, 999));
+
+        for (long from = 0; from < 6000; from += 250) {
+            int expected = eventManager.findEventsByDate(new Date(from), new Date(from + 500)).size();
+            assertEquals(expected, store.count(from, from + 500));
+        }
+    }
+
+    @Test
+    public void aggregations() {
+        EventColumnStore store = EventColumnStore.load(ds);
+        assertEquals(100 + 4000 + 600 + 500, store.totalDuration(0, 10000));
+        // Only parts of the events within the range
+        assertEquals(1000 + 400 + 200, store.totalDuration(2200, 3200));
+
+        IntIntHashMap counts = store.countByName(0, 10000);
+        assertEquals(3, counts.size());
+        assertEquals(2, counts.get(store.getNameCode(0)));
+        assertEquals(1, counts.get(store.getNameCode(1)));
+
+        assertArrayEquals(new int[] {1, 1, 1, 1, 0, 0}, store.countStartsByBucket(0, 5000, 1000));
+        assertArrayEquals(new int[] {2, 1}, store.countStartsByBucket(1000, 3000, 1500));
+    }
+
+    @Test
+    public void loadRange() {
+        EventColumnStore store = EventColumnStore.load(ds, 2100, 2500);
+        assertEquals(2, store.size());
+        assertEquals(conference.getId().intValue(), store.getId(0));
+        assertEquals(lunch.getId().intValue(), store.getId(1));
+        assertEquals(2, store.getNameCount());
+
+        assertEquals(0, EventColumnStore.load(ds, 6000, 7000).size());
+    }
+
+    @Test
+    public void wrongArguments() {
+        EventColumnStore store = EventColumnStore.load(ds);
+        try {
+            EventColumnStore.load(null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            EventColumnStore.load(ds, 10, 5);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            store.count(10, 5);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            store.countStartsByBucket(0, 10, 0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            store.getStart(4);
+            fail();
+        } catch (IndexOutOfBoundsException ex) {
+            //OK
+        }
+    }
+}
@@ -3,7 +3,13 @@ package cz.muni.fi.pv168.calendar.backend;
 import cz.muni.fi.pv168.calendar.backend.EventManagerImpl;
 import cz.muni.fi.pv168.calendar.backend.Event;
 import cz.muni.fi.pv168.calendar.backend.PersonManager;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
@@ -16,10 +22,13 @@ import org.apache.commons.dbcp.BasicDataSource;
 import cz.muni.fi.pv168.common.ValidationException;
 import cz.muni.fi.pv168.common.IllegalEntityException;
 import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.ServiceFailureException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Test class of GraveManagerImpl.
@@ -28,6 +37,10 @@ import java.util.Comparator;
  */
 public class EventManagerImplTest {
     
+    private static final long HOUR = 60 * 60 * 1000L;
+    private static final long DAY = 24 * HOUR;
+    private static final long WEEK = 7 * DAY;
+    
     private EventManagerImpl manager;
     private DataSource ds;
     
@@ -125,6 +138,107 @@ public class EventManagerImplTest {
         manager.createEvent(event);
     }
     
+    /**
+     * Test of createEvents method, of class EventManagerImpl.
+     */
+    @Test
+    public void testCreateEvents() {
+        manager.setBatchSize(2);
+        manager.setCommitInterval(2);
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 7; i++) {
+            events.add(newTestEvent("Event " + i, new Date(i * 10L), new Date(i * 10L + 5), null));
+        }
+        BatchInsertResult<Event> result = manager.createEvents(events);
+        
+        assertTrue(result.isSuccessful());
+        assertEquals(events, result.getInserted());
+        for (Event event : events) {
+            assertNotNull(event.getId());
+            assertEventDeepEquals(event, manager.getEventById(event.getId()));
+        }
+    }
+    
+    @Test
+    public void testCreateEventsWithFailingChunk() {
+        manager.setBatchSize(2);
+        manager.setCommitInterval(1);
+        char[] tooLong = new char[300];
+        Arrays.fill(tooLong, 'x');
+        
+        Event e1 = newTestEvent("Event 1", new Date(10L), new Date(12L), null);
+        Event e2 = newTestEvent("Event 2", new Date(10L), new Date(12L), null);
+        Event e3 = newTestEvent("Event 3", new Date(10L), new Date(12L), null);
+        Event e4 = newTestEvent(new String(tooLong), new Date(10L), new Date(12L), null);
+        Event e5 = newTestEvent("Event 5", new Date(10L), new Date(12L), null);
+        BatchInsertResult<Event> result = manager.createEvents(Arrays.asList(e1, e2, e3, e4, e5));
+        
+        assertFalse(result.isSuccessful());
+        assertEquals(Arrays.asList(e1, e2, e5), result.getInserted());
+        assertEquals(Arrays.asList(e3, e4), result.getFailed());
+        assertEquals(1, result.getErrors().size());
+        assertNull(e3.getId());
+        assertEventDeepEquals(e1, manager.getEventById(e1.getId()));
+        assertEventDeepEquals(e5, manager.getEventById(e5.getId()));
+    }
+    
+    @Test
+    public void testCreateEventsWhenClearBatchFails() {
+        manager.setDataSource(failingClearBatch(ds, DataSource.class));
+        manager.setBatchSize(2);
+        manager.setCommitInterval(1);
+        char[] tooLong = new char[300];
+        Arrays.fill(tooLong, 'x');
+        
+        Event e1 = newTestEvent("Event 1", new Date(10L), new Date(12L), null);
+        Event e2 = newTestEvent("Event 2", new Date(10L), new Date(12L), null);
+        Event e3 = newTestEvent("Event 3", new Date(10L), new Date(12L), null);
+        Event e4 = newTestEvent(new String(tooLong), new Date(10L), new Date(12L), null);
+        Event e5 = newTestEvent("Event 5", new Date(10L), new Date(12L), null);
+        BatchInsertResult<Event> result = manager.createEvents(Arrays.asList(e1, e2, e3, e4, e5));
+        
+        assertEquals(Arrays.asList(e1, e2, e5), result.getInserted());
+        assertEquals(Arrays.asList(e3, e4), result.getFailed());
+        manager.setDataSource(ds);
+        assertEquals(3, manager.findAllEvents().size());
+        assertEventDeepEquals(e5, manager.getEventById(e5.getId()));
+    }
+    
+    /**
+     * Wraps data source so that its prepared statements fail to clear batch.
+     */
+    private static <T> T failingClearBatch(final T target, Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(EventManagerImplTest.class.getClassLoader(),
+                new Class<?>[] {type}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("clearBatch")) {
+                            throw new SQLException("clearBatch failed");
+                        }
+                        Object result;
+                        try {
+                            result = method.invoke(target, args);
+                        } catch (InvocationTargetException ex) {
+                            throw ex.getCause();
+                        }
+                        if (result instanceof PreparedStatement) {
+                            return failingClearBatch((PreparedStatement) result, PreparedStatement.class);
+                        }
+                        if (result instanceof Connection) {
+                            return failingClearBatch((Connection) result, Connection.class);
+                        }
+                        return result;
+                    }
+                }));
+    }
+    
+    @Test (expected = IllegalArgumentException.class)
+    public void testCreateEventsWithWrongAttributes() {
+        Event valid = newTestEvent("My event", new Date(10L), new Date(12L), null);
+        Event invalid = newTestEvent("My event", new Date(12L), new Date(10L), null);
+        manager.createEvents(Arrays.asList(valid, invalid));
+    }
+    
     /**
      * Tests of createEvent method of class EventManagerImpl with tricky 
      * attributes.
@@ -401,6 +515,82 @@ public class EventManagerImplTest {
         manager.deleteEvent(event);
     }
     
+    /**
+     * Tests of cascading deleteEvent and deleteEvents methods of class 
+     * EventManagerImpl.
+     */
+    @Test
+    public void testDeleteEventsWithAttendances() {
+        PersonManagerImpl personManager = new PersonManagerImpl();
+        personManager.setDataSource(ds);
+        AttendanceManagerImpl attendanceManager = new AttendanceManagerImpl();
+        attendanceManager.setDataSource(ds);
+        Person person = PersonManagerImplTest.newPerson("Person", "email", null);
+        personManager.createPerson(person);
+        
+        List<Event> events = new ArrayList<Event>();
+        List<Attendance> attendances = new ArrayList<Attendance>();
+        for (int i = 0; i < 4; i++) {
+            Event event = newTestEvent("Event " + i, new Date(10L * i), new Date(10L * i + 5), null);
+            manager.createEvent(event);
+            events.add(event);
+            Attendance attendance = new Attendance();
+            attendance.setEvent(event);
+            attendance.setPerson(person);
+            attendances.add(attendance);
+        }
+        attendanceManager.createAttendances(attendances);
+        
+        try {
+            manager.deleteEvent(events.get(0));
+            fail();
+        } catch (ServiceFailureException ex) {
+            //OK, attendance references the event
+        }
+        manager.setCascadeDelete(true);
+        manager.deleteEvent(events.get(0));
+        assertNull(manager.getEventById(events.get(0).getId()));
+        assertNull(attendanceManager.getAttendanceById(attendances.get(0).getId()));
+        
+        // Nothing is deleted when some event does not exist
+        try {
+            manager.deleteEvents(events);
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+        assertEquals(3, manager.findAllEvents().size());
+        assertEquals(3, attendanceManager.findAllAttendances().size());
+        
+        manager.deleteEvents(events.subList(1, 3));
+        assertEventCollectionDeepEquals(Arrays.asList(events.get(3)), manager.findAllEvents());
+        assertEquals(Arrays.asList(attendances.get(3)), attendanceManager.findAllAttendances());
+        
+        manager.deleteEvents(Collections.<Event>emptyList());
+    }
+    
+    @Test
+    public void testDeleteEventsWithWrongAttributes() {
+        try {
+            manager.deleteEvents(null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            manager.deleteEvents(Arrays.asList((Event) null));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            manager.deleteEvents(Arrays.asList(newTestEvent("Event", new Date(0L), new Date(1L), null)));
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+    }
+    
     /**
      * Test of getEventById method of class EventManagerImpl.
      */
@@ -421,6 +611,21 @@ public class EventManagerImplTest {
         assertEventDeepEquals(event, result);
     }
     
+    /**
+     * Test of findAllEvents method of class EventManagerImpl.
+     */
+    @Test
+    public void testFindAllEvents() {
+        assertTrue(manager.findAllEvents().isEmpty());
+        
+        Event e1 = newTestEvent("My event", new Date(0L), new Date(14L),"Super awesome event!");
+        Event e2 = newTestEvent("My other event", new Date(1L), new Date(8L), null);
+        manager.createEvent(e1);
+        manager.createEvent(e2);
+        
+        assertEventCollectionDeepEquals(Arrays.asList(e1, e2), manager.findAllEvents());
+    }
+    
     /**
      * Test of getEventById method of class EventManagerImpl.
      */
@@ -454,6 +659,188 @@ public class EventManagerImplTest {
         
     }
     
+    /**
+     * Test of streaming findEventsByDate method of class EventManagerImpl.
+     */
+    @Test
+    public void testFindEventsByDateWithHandler() {
+        manager.setFetchSize(2);
+        Event e1 = newTestEvent("My event", new Date(0L), new Date(14L),"Super awesome event!");
+        Event e2 = newTestEvent("My event", new Date(1L), new Date(8L),"Super awesome event!");
+        Event e3 = newTestEvent("My event", new Date(9L), new Date(10L),"Super awesome event!");
+        Event e4 = newTestEvent("My event", new Date(10L), new Date(11L),"Super awesome event!");
+        manager.createEvents(Arrays.asList(e1, e2, e3, e4));
+        
+        final List<Event> actual = new ArrayList<Event>();
+        manager.findEventsByDate(new Date(10L), new Date(13L), new ResultHandler<Event>() {
+            @Override
+            public boolean handle(Event event) {
+                actual.add(event);
+                return true;
+            }
+        });
+        assertEventCollectionDeepEquals(Arrays.asList(e1, e3, e4), actual);
+        
+        // Handler can stop reading
+        actual.clear();
+        manager.findEventsByDate(new Date(10L), new Date(13L), new ResultHandler<Event>() {
+            @Override
+            public boolean handle(Event event) {
+                actual.add(event);
+                return false;
+            }
+        });
+        assertEquals(1, actual.size());
+    }
+    
+    /**
+     * Test of recurring events in findEventsByDate method of class EventManagerImpl.
+     */
+    @Test
+    public void testFindRecurringEventsByDate() {
+        Event weekly = newTestEvent("Weekly", new Date(0L), new Date(HOUR), "Team meeting");
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(RecurrenceRule.Frequency.WEEKLY);
+        rule.setCount(10);
+        rule.getExceptions().add(new Date(2 * WEEK));
+        weekly.setRecurrence(rule);
+        Event single = newTestEvent("Single", new Date(WEEK), new Date(WEEK + HOUR), null);
+        manager.createEvent(weekly);
+        manager.createEvent(single);
+        
+        assertEventDeepEquals(weekly, manager.getEventById(weekly.getId()));
+        
+        // Third occurrence is an exception, the tenth one is the last one
+        List<Event> actual = manager.findEventsByDate(new Date(WEEK), new Date(3 * WEEK));
+        assertEquals(3, actual.size());
+        assertEquals(new HashSet<Date>(Arrays.asList(new Date(WEEK), new Date(3 * WEEK))), 
+                occurrenceStarts(actual, weekly.getId()));
+        for (Event occurrence : actual) {
+            assertEquals(occurrence.getStartDate().getTime() + HOUR, occurrence.getEndDate().getTime());
+        }
+        assertEquals(Collections.singleton(new Date(9 * WEEK)), 
+                occurrenceStarts(manager.findEventsByDate(new Date(8 * WEEK + HOUR + 1), new Date(100 * WEEK)), weekly.getId()));
+        assertTrue(manager.findEventsByDate(new Date(9 * WEEK + HOUR + 1), new Date(100 * WEEK)).isEmpty());
+        
+        final List<Event> streamed = new ArrayList<Event>();
+        manager.findEventsByDate(new Date(WEEK), new Date(3 * WEEK), new ResultHandler<Event>() {
+            @Override
+            public boolean handle(Event event) {
+                streamed.add(event);
+                return true;
+            }
+        });
+        assertEquals(3, streamed.size());
+        
+        // Series are passed once, without their occurrences in the range
+        streamed.clear();
+        ResultHandler<Event> collector = new ResultHandler<Event>() {
+            @Override
+            public boolean handle(Event event) {
+                streamed.add(event);
+                return true;
+            }
+        };
+        manager.findEventSeriesByDate(new Date(WEEK), new Date(3 * WEEK), collector);
+        assertEquals(2, streamed.size());
+        for (Event event : streamed) {
+            assertEventDeepEquals(event.getId().equals(weekly.getId()) ? weekly : single, event);
+        }
+        // Only the excepted occurrence is in the range
+        streamed.clear();
+        manager.findEventSeriesByDate(new Date(2 * WEEK), new Date(2 * WEEK + HOUR), collector);
+        assertTrue(streamed.isEmpty());
+    }
+    
+    /**
+     * Test of updating and deleting recurring events of class EventManagerImpl.
+     */
+    @Test
+    public void testUpdateRecurringEvent() {
+        Event daily = newTestEvent("Daily", new Date(0L), new Date(HOUR), null);
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(RecurrenceRule.Frequency.DAILY);
+        rule.setInterval(2);
+        rule.getExceptions().add(new Date(2 * DAY));
+        daily.setRecurrence(rule);
+        manager.createEvents(Arrays.asList(daily));
+        assertEventDeepEquals(daily, manager.getEventById(daily.getId()));
+        
+        // Series without end is found in any future range
+        assertEquals(1, manager.findEventsByDate(new Date(1000 * DAY), new Date(1001 * DAY)).size());
+        
+        rule.setUntil(new Date(10 * DAY));
+        rule.getExceptions().clear();
+        rule.getExceptions().add(new Date(4 * DAY));
+        manager.updateEvent(daily);
+        assertEventDeepEquals(daily, manager.getEventById(daily.getId()));
+        assertTrue(manager.findEventsByDate(new Date(1000 * DAY), new Date(1001 * DAY)).isEmpty());
+        assertEquals(new HashSet<Date>(Arrays.asList(new Date(0L), new Date(2 * DAY), new Date(6 * DAY), 
+                new Date(8 * DAY), new Date(10 * DAY))),
+                occurrenceStarts(manager.findEventsByDate(new Date(0L), new Date(100 * DAY)), daily.getId()));
+        
+        daily.setRecurrence(null);
+        manager.updateEvent(daily);
+        assertEventDeepEquals(daily, manager.getEventById(daily.getId()));
+        assertEquals(1, manager.findEventsByDate(new Date(0L), new Date(100 * DAY)).size());
+        
+        daily.setRecurrence(rule);
+        manager.updateEvent(daily);
+        manager.deleteEvent(daily);
+        assertNull(manager.getEventById(daily.getId()));
+    }
+    
+    @Test
+    public void testCreateEventWithWrongRecurrence() {
+        Event event = newTestEvent("Event", new Date(DAY), new Date(DAY + HOUR), null);
+        RecurrenceRule rule = new RecurrenceRule();
+        event.setRecurrence(rule);
+        try {
+            manager.createEvent(event);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        
+        rule.setFrequency(RecurrenceRule.Frequency.MONTHLY);
+        rule.setInterval(0);
+        try {
+            manager.createEvent(event);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        
+        rule.setInterval(1);
+        rule.setCount(3);
+        rule.setUntil(new Date(10 * DAY));
+        try {
+            manager.createEvent(event);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        
+        rule.setCount(null);
+        rule.setUntil(new Date(0L));
+        try {
+            manager.createEvent(event);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+    }
+    
+    private static Set<Date> occurrenceStarts(List<Event> events, Integer seriesId) {
+        Set<Date> result = new HashSet<Date>();
+        for (Event event : events) {
+            if (event.getId().equals(seriesId)) {
+                assertTrue(result.add(event.getStartDate()));
+            }
+        }
+        return result;
+    }
+    
     private static Event newTestEvent(String name, Date startDate, Date endDate, String note) {
         Event event = new Event();
         event.setName(name);
@@ -463,6 +850,14 @@ public class EventManagerImplTest {
         return event;
     }
     
+    public static Event newEvent(String name, long start, long end) {
+        return newEvent(name, start, end, null);
+    }
+    
+    public static Event newEvent(String name, long start, long end, String note) {
+        return newTestEvent(name, new Date(start), new Date(end), note);
+    }
+    
     private int setUpTestEvent() {
         Date startDate = new Date(10L);
         Date endDate = new Date(12L);
@@ -478,6 +873,7 @@ public class EventManagerImplTest {
         assertEquals(expected.getStartDate(), actual.getStartDate());
         assertEquals(expected.getEndDate(), actual.getEndDate());
         assertEquals(expected.getNote(), actual.getNote());
+        assertEquals(expected.getRecurrence(), actual.getRecurrence());
     }
     
      private static Comparator<Event> eventKeyComparator = new Comparator<Event>() {
@@ -0,0 +1,175 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jiri Stary
+ */
+public class EventSearchManagerImplTest {
+
+    private static final long HOUR = 3600000L;
+    private static final long DAY = 24 * HOUR;
+
+    private EventSearchManagerImpl manager;
+    private EventManagerImpl eventManager;
+    private DataSource ds;
+    private Event standup, planning, review;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:gravemgr-test;create=true");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("createTables.sql"));
+        manager = new EventSearchManagerImpl();
+        manager.setDataSource(ds);
+        eventManager = new EventManagerImpl();
+        eventManager.setDataSource(ds);
+
+        standup = newEvent("Daily standup", 10 * DAY, "Short sync of the team, no planning");
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(RecurrenceRule.Frequency.WEEKLY);
+        rule.setCount(3);
+        standup.setRecurrence(rule);
+        planning = newEvent("Sprint planning", 20 * DAY, "Planning of the next sprint. Plán sprintu.");
+        review = newEvent("Code review", 30 * DAY, null);
+        eventManager.createEvent(standup);
+        eventManager.createEvents(Arrays.asList(planning, review));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("dropTables.sql"));
+    }
+
+    @Test
+    public void searchEvents() {
+        assertEquals(Arrays.asList(standup), manager.searchEvents("standup", 10));
+        assertEquals(Arrays.asList(review), manager.searchEvents("REVIEW", 10));
+        // Words of the name count more than words of the note
+        assertEquals(Arrays.asList(planning, standup), manager.searchEvents("planning", 10));
+        assertEquals(Arrays.asList(planning), manager.searchEvents("planning", 1));
+        // All words must be contained
+        assertEquals(Arrays.asList(standup), manager.searchEvents("planning team", 10));
+        assertTrue(manager.searchEvents("planning review", 10).isEmpty());
+        assertTrue(manager.searchEvents("sprin", 10).isEmpty());
+        assertTrue(manager.searchEvents(" ,. ", 10).isEmpty());
+
+        List<Event> found = manager.searchEvents("Standup", 10);
+        assertEquals(standup.getRecurrence(), found.get(0).getRecurrence());
+        assertEquals(standup.getNote(), found.get(0).getNote());
+    }
+
+    @Test
+    public void searchEventsByPrefix() {
+        assertEquals(Arrays.asList(planning, standup), manager.searchEvents("plan*", 10));
+        assertEquals(Arrays.asList(planning), manager.searchEvents("sprint plan*", 10));
+        assertTrue(manager.searchEvents("*", 10).isEmpty());
+        // Accents are ignored
+        assertEquals(Arrays.asList(planning), manager.searchEvents("plan sprintu", 10));
+        assertEquals(Arrays.asList(planning), manager.searchEvents("PLÁN", 10));
+        assertEquals(Arrays.asList(planning), manager.searchEvents("sprint.plan*", 10));
+    }
+
+    @Test
+    public void searchEventsByDate() {
+        // Occurrences of the standup are at 10, 17 and 24 days
+        assertEquals(Arrays.asList(planning, standup),
+                manager.searchEvents("planning", new Date(0), new Date(100 * DAY), 10));
+        assertEquals(Arrays.asList(standup),
+                manager.searchEvents("planning", new Date(24 * DAY), new Date(25 * DAY), 10));
+        assertTrue(manager.searchEvents("planning", new Date(11 * DAY), new Date(16 * DAY), 10).isEmpty());
+        assertEquals(Arrays.asList(planning),
+                manager.searchEvents("planning", new Date(11 * DAY), new Date(21 * DAY), 1));
+    }
+
+    @Test
+    public void indexIsMaintainedByEventManager() {
+        review.setName("Retrospective");
+        review.setNote("What went well");
+        eventManager.updateEvent(review);
+        assertTrue(manager.searchEvents("review", 10).isEmpty());
+        assertEquals(Arrays.asList(review), manager.searchEvents("retro*", 10));
+        assertEquals(Arrays.asList(review), manager.searchEvents("well", 10));
+
+        eventManager.deleteEvent(planning);
+        assertEquals(Arrays.asList(standup), manager.searchEvents("planning", 10));
+        eventManager.deleteEvents(Arrays.asList(standup));
+        assertTrue(manager.searchEvents("planning", 10).isEmpty());
+    }
+
+    @Test
+    public void rebuildIndex() throws SQLException {
+        Connection conn = ds.getConnection();
+        try {
+            conn.createStatement().executeUpdate("DELETE FROM EVENT_TERM");
+        } finally {
+            conn.close();
+        }
+        assertTrue(manager.searchEvents("planning", 10).isEmpty());
+
+        assertEquals(3, manager.rebuildIndex());
+        assertEquals(Arrays.asList(planning, standup), manager.searchEvents("planning", 10));
+        assertEquals(3, manager.rebuildIndex());
+        assertEquals(Arrays.asList(review), manager.searchEvents("code review", 10));
+    }
+
+    @Test
+    public void tokenize() {
+        assertEquals(Arrays.asList("zlutoucky", "kun", "2015", "kun"),
+                EventSearchManagerImpl.tokenize("Žluťoučký-kůň, 2015... KŮŇ!"));
+        assertTrue(EventSearchManagerImpl.tokenize(null).isEmpty());
+        char[] longWord = new char[EventSearchManagerImpl.MAX_TERM_LENGTH + 10];
+        Arrays.fill(longWord, 'a');
+        assertEquals(EventSearchManagerImpl.MAX_TERM_LENGTH,
+                EventSearchManagerImpl.tokenize(new String(longWord)).get(0).length());
+    }
+
+    @Test
+    public void searchWithWrongAttributes() {
+        try {
+            manager.searchEvents(null, 10);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            manager.searchEvents("planning", 0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            manager.searchEvents("planning", null, new Date(0), 10);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+    }
+
+    private static Event newEvent(String name, long start, String note) {
+        Event event = new Event();
+        event.setName(name);
+        event.setStartDate(new Date(start));
+        event.setEndDate(new Date(start + HOUR));
+        event.setNote(note);
+        return event;
+    }
+}
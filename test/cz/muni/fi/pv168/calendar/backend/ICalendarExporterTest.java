@@ -0,0 +1,278 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static cz.muni.fi.pv168.calendar.backend.PersonManagerImplTest.newPerson;
+import static cz.muni.fi.pv168.calendar.backend.EventManagerImplTest.newEvent;
+import static cz.muni.fi.pv168.calendar.backend.AttendanceManagerImplTest.newAttendance;
+
+/**
+ *
+ * @author Jiri Stary
+ */
+public class ICalendarExporterTest {
+
+    private static final long HOUR = 3600000L;
+    private static final long WEEK = 7 * 24 * HOUR;
+
+    private ICalendarExporter exporter;
+    private PersonManagerImpl personManager;
+    private EventManagerImpl eventManager;
+    private AttendanceManagerImpl attendanceManager;
+    private DataSource ds;
+    private Person person1, person2;
+    private Event single, weekly, other;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:gravemgr-test;create=true");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("createTables.sql"));
+        personManager = new PersonManagerImpl();
+        personManager.setDataSource(ds);
+        eventManager = new EventManagerImpl();
+        eventManager.setDataSource(ds);
+        attendanceManager = new AttendanceManagerImpl();
+        attendanceManager.setDataSource(ds);
+        exporter = new ICalendarExporter(eventManager, attendanceManager);
+        exporter.setChunkSize(1);
+
+        person1 = newPerson("First \"Name\"", "first@example.com", null);
+        person2 = newPerson("Second Name", "second@example.com", null);
+        personManager.createPerson(person1);
+        personManager.createPerson(person2);
+        single = newEvent("Lunch", WEEK, WEEK + HOUR, "Soup, salad; dessert\nand coffee");
+        weekly = newEvent("Weekly meeting of the whole department with a very long name, "
+                + "longer than one line of iCalendar ččč", 0, HOUR, null);
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(RecurrenceRule.Frequency.WEEKLY);
+        rule.setCount(5);
+        rule.getExceptions().add(new Date(WEEK));
+        weekly.setRecurrence(rule);
+        other = newEvent("Other", 100 * WEEK, 100 * WEEK + HOUR, null);
+        eventManager.createEvents(Arrays.asList(single, weekly, other));
+        attendanceManager.createAttendances(Arrays.asList(
+                newAttendance(single, person1, new Date(WEEK)),
+                newAttendance(single, person2, null),
+                newAttendance(weekly, person1, null),
+                newAttendance(weekly, person1, null),
+                newAttendance(other, person2, null)));
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("dropTables.sql"));
+    }
+
+    @Test
+    public void exportEvents() throws IOException {
+        StringWriter writer = new StringWriter();
+        assertEquals(2, exporter.exportEvents(new Date(0), new Date(2 * WEEK), writer));
+        String calendar = writer.toString();
+
+        assertTrue(calendar.startsWith("BEGIN:VCALENDAR\r\nVERSION:2.0\r\n"));
+        assertTrue(calendar.endsWith("END:VCALENDAR\r\n"));
+        assertEquals(2, count(calendar, "BEGIN:VEVENT\r\n"));
+        assertEquals(2, count(calendar, "END:VEVENT\r\n"));
+        for (String line : calendar.split("\r\n")) {
+            assertTrue(line, line.getBytes("UTF-8").length <= 75);
+        }
+
+        String unfolded = calendar.replace("\r\n ", "");
+        assertTrue(unfolded.contains("UID:event-" + single.getId() + "@pv168.calendar\r\n"));
+        assertTrue(unfolded.contains("DTSTART:19700108T000000Z\r\nDTEND:19700108T010000Z\r\n"));
+        assertTrue(unfolded.contains("DESCRIPTION:Soup\\, salad\\; dessert\\nand coffee\r\n"));
+        assertTrue(unfolded.contains("SUMMARY:" + weekly.getName().replace(",", "\\,") + "\r\n"));
+        SimpleDateFormat local = new SimpleDateFormat(ICalendarWriter.LOCAL_DATE_TIME_PATTERN);
+        String zone = TimeZone.getDefault().getID();
+        assertEquals(1, count(unfolded, "BEGIN:VTIMEZONE\r\nTZID:" + zone + "\r\n"));
+        assertTrue(unfolded.contains("DTSTART;TZID=" + zone + ":" + local.format(weekly.getStartDate()) + "\r\n"));
+        assertTrue(unfolded.contains("RRULE:FREQ=WEEKLY;COUNT=5\r\nEXDATE;TZID=" + zone + ":" 
+                + local.format(new Date(WEEK)) + "\r\n"));
+        assertTrue(unfolded.contains("ATTENDEE;CN=\"First 'Name'\";X-PLANNED-ARRIVAL=19700108T000000Z"
+                + ":mailto:first@example.com\r\n"));
+        assertTrue(unfolded.contains("ATTENDEE;CN=\"Second Name\":mailto:second@example.com\r\n"));
+        assertFalse(unfolded.contains("SUMMARY:Other"));
+    }
+
+    @Test
+    public void exportAttendances() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(2, exporter.exportAttendances(person1, out));
+        String calendar = new String(out.toByteArray(), "UTF-8").replace("\r\n ", "");
+
+        // Events attended more times are written once, with all attendees
+        assertEquals(2, count(calendar, "BEGIN:VEVENT\r\n"));
+        assertEquals(1, count(calendar, "UID:event-" + weekly.getId() + "@"));
+        assertTrue(calendar.contains("SUMMARY:" + weekly.getName().replace(",", "\\,") + "\r\n"));
+        assertTrue(calendar.contains("ATTENDEE;CN=\"Second Name\":mailto:second@example.com\r\n"));
+        assertFalse(calendar.contains("SUMMARY:Other"));
+
+        exporter.setChunkSize(ICalendarExporter.DEFAULT_CHUNK_SIZE);
+        assertEquals(calendar.replaceAll("DTSTAMP:\\w+", ""),
+                export(person1).replace("\r\n ", "").replaceAll("DTSTAMP:\\w+", ""));
+    }
+
+    @Test
+    public void exportSeriesAcrossDaylightSavingChange() throws IOException {
+        TimeZone defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Prague"));
+        try {
+            // Summer time starts on March 29, 2015
+            Event series = newEvent("Series", date(2015, 3, 20, 10), date(2015, 3, 20, 11), null);
+            RecurrenceRule rule = new RecurrenceRule();
+            rule.setFrequency(RecurrenceRule.Frequency.WEEKLY);
+            rule.setCount(4);
+            rule.getExceptions().add(new Date(date(2015, 4, 3, 10)));
+            series.setRecurrence(rule);
+            eventManager.createEvent(series);
+            // Occurrences after the change stay at 10:00 local time
+            assertEquals(new Date(date(2015, 3, 20, 10) + 3 * WEEK - HOUR), 
+                    Occurrences.expand(series, date(2015, 4, 1, 0), date(2015, 4, 30, 0)).get(0).getStartDate());
+
+            StringWriter writer = new StringWriter();
+            assertEquals(1, exporter.exportEvents(new Date(date(2015, 1, 1, 0)), 
+                    new Date(date(2015, 12, 31, 0)), writer));
+            String calendar = writer.toString().replace("\r\n ", "");
+            assertTrue(calendar.contains("BEGIN:VTIMEZONE\r\nTZID:Europe/Prague\r\n"));
+            assertTrue(calendar.contains("BEGIN:DAYLIGHT\r\nDTSTART:19700329T020000\r\n"
+                    + "TZOFFSETFROM:+0100\r\nTZOFFSETTO:+0200\r\n"
+                    + "RRULE:FREQ=YEARLY;BYMONTH=3;BYDAY=-1SU\r\nEND:DAYLIGHT\r\n"));
+            assertTrue(calendar.contains("BEGIN:STANDARD\r\nDTSTART:19701025T030000\r\n"
+                    + "TZOFFSETFROM:+0200\r\nTZOFFSETTO:+0100\r\n"
+                    + "RRULE:FREQ=YEARLY;BYMONTH=10;BYDAY=-1SU\r\nEND:STANDARD\r\n"));
+            assertTrue(calendar.indexOf("END:VTIMEZONE") < calendar.indexOf("BEGIN:VEVENT"));
+            assertTrue(calendar.contains("DTSTART;TZID=Europe/Prague:20150320T100000\r\n"
+                    + "DTEND;TZID=Europe/Prague:20150320T110000\r\n"));
+            // Exception of a summer occurrence is written in local time
+            assertTrue(calendar.contains("RRULE:FREQ=WEEKLY;COUNT=4\r\n"
+                    + "EXDATE;TZID=Europe/Prague:20150403T100000\r\n"));
+        } finally {
+            TimeZone.setDefault(defaultZone);
+        }
+    }
+
+    @Test
+    public void exportMonthlySeriesAtMonthEnd() throws IOException {
+        Event on31st = newEvent("On 31st", date(2015, 1, 31, 10), date(2015, 1, 31, 11), null);
+        Event on30th = newEvent("On 30th", date(2015, 1, 30, 10), date(2015, 1, 30, 11), null);
+        Event on28th = newEvent("On 28th", date(2015, 1, 28, 10), date(2015, 1, 28, 11), null);
+        for (Event event : Arrays.asList(on31st, on30th, on28th)) {
+            RecurrenceRule rule = new RecurrenceRule();
+            rule.setFrequency(RecurrenceRule.Frequency.MONTHLY);
+            rule.setCount(12);
+            event.setRecurrence(rule);
+            eventManager.createEvent(event);
+        }
+        StringWriter writer = new StringWriter();
+        assertEquals(3, exporter.exportEvents(new Date(date(2015, 1, 1, 0)), 
+                new Date(date(2015, 12, 31, 0)), writer));
+        String calendar = writer.toString().replace("\r\n ", "");
+        // Shorter months get their last day, as in the expansion
+        assertTrue(calendar.contains("RRULE:FREQ=MONTHLY;BYMONTHDAY=-1;COUNT=12\r\n"));
+        assertTrue(calendar.contains("RRULE:FREQ=MONTHLY;BYMONTHDAY=30,-1;BYSETPOS=1;COUNT=12\r\n"));
+        assertTrue(calendar.contains("RRULE:FREQ=MONTHLY;COUNT=12\r\n"));
+    }
+
+    @Test
+    public void exportFailure() throws IOException {
+        Writer failing = new Writer() {
+            private int written;
+
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                written += len;
+                if (written > 100) {
+                    throw new IOException("Disk full");
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try {
+            exporter.exportEvents(new Date(0), new Date(200 * WEEK), failing);
+            fail();
+        } catch (IOException ex) {
+            assertEquals("Disk full", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void exportWithWrongAttributes() throws IOException {
+        try {
+            exporter.exportEvents(null, new Date(0), new StringWriter());
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            exporter.exportEvents(new Date(0), new Date(0), (Writer) null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            exporter.exportAttendances(null, new StringWriter());
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            exporter.setChunkSize(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+    }
+
+    private String export(Person person) throws IOException {
+        StringWriter writer = new StringWriter();
+        exporter.exportAttendances(person, writer);
+        return writer.toString();
+    }
+
+    /**
+     * @return time in the default zone in milliseconds
+     */
+    private static long date(int year, int month, int day, int hour) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month - 1, day, hour, 0);
+        return cal.getTimeInMillis();
+    }
+
+    private static int count(String text, String part) {
+        int result = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1)) {
+            result++;
+        }
+        return result;
+    }
+}
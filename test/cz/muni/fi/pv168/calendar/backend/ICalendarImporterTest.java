@@ -0,0 +1,299 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static cz.muni.fi.pv168.calendar.backend.PersonManagerImplTest.newPerson;
+import static cz.muni.fi.pv168.calendar.backend.EventManagerImplTest.newEvent;
+import static cz.muni.fi.pv168.calendar.backend.AttendanceManagerImplTest.newAttendance;
+
+/**
+ *
+ * @author Jiri Stary
+ */
+public class ICalendarImporterTest {
+
+    private static final long HOUR = 3600000L;
+    private static final long WEEK = 7 * 24 * HOUR;
+
+    private ICalendarImporter importer;
+    private PersonManagerImpl personManager;
+    private EventManagerImpl eventManager;
+    private AttendanceManagerImpl attendanceManager;
+    private DataSource ds;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:gravemgr-test;create=true");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("createTables.sql"));
+        personManager = new PersonManagerImpl();
+        personManager.setDataSource(ds);
+        eventManager = new EventManagerImpl();
+        eventManager.setDataSource(ds);
+        attendanceManager = new AttendanceManagerImpl();
+        attendanceManager.setDataSource(ds);
+        importer = new ICalendarImporter(personManager, eventManager, attendanceManager);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("dropTables.sql"));
+    }
+
+    @Test
+    public void importExportedCalendar() throws IOException {
+        Person person1 = newPerson("First Name", "first@example.com", null);
+        Person person2 = newPerson("Second Name", "second@example.com", null);
+        personManager.createPersons(Arrays.asList(person1, person2));
+        Event single = newEvent("Lunch", WEEK, WEEK + HOUR, "Soup, salad; dessert\nand coffee");
+        Event weekly = newEvent("Weekly meeting of the whole department with a very long name, "
+                + "longer than one line of iCalendar ččč", 0, HOUR, null);
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(RecurrenceRule.Frequency.WEEKLY);
+        rule.setInterval(2);
+        rule.setCount(5);
+        rule.getExceptions().add(new Date(2 * WEEK));
+        weekly.setRecurrence(rule);
+        eventManager.createEvents(Arrays.asList(single, weekly));
+        attendanceManager.createAttendances(Arrays.asList(
+                newAttendance(single, person1, new Date(WEEK)),
+                newAttendance(single, person2, null),
+                newAttendance(weekly, person1, null)));
+        StringWriter writer = new StringWriter();
+        new ICalendarExporter(eventManager, attendanceManager).exportEvents(new Date(0), new Date(2 * WEEK), writer);
+
+        importer.setChunkSize(1);
+        ICalendarImporter.Result result = importer.importCalendar(
+                new ByteArrayInputStream(writer.toString().getBytes("UTF-8")));
+        assertEquals(2, result.getEventCount());
+        assertEquals(0, result.getPersonCount());
+        assertEquals(3, result.getAttendanceCount());
+        assertEquals(0, result.getFailedCount());
+        assertTrue(result.getErrors().isEmpty());
+
+        // Imported events are copies with new ids
+        assertEquals(4, eventManager.findAllEvents().size());
+        assertEquals(2, personManager.findAllPersons().size());
+        for (Event original : Arrays.asList(single, weekly)) {
+            Event copy = findCopy(original);
+            assertEquals(original.getEndDate(), copy.getEndDate());
+            assertEquals(original.getNote(), copy.getNote());
+            assertEquals(original.getRecurrence(), copy.getRecurrence());
+            assertEquals(attendanceManager.findAttendancesForEvent(original).size(),
+                    attendanceManager.findAttendancesForEvent(copy).size());
+        }
+        List<Attendance> attendances = attendanceManager.findAttendancesForEvent(findCopy(single));
+        for (Attendance attendance : attendances) {
+            Date expected = attendance.getPerson().equals(person1) ? new Date(WEEK) : null;
+            assertEquals(expected, attendance.getPlannedArrivalTime());
+        }
+    }
+
+    @Test
+    public void importCalendar() throws IOException {
+        String calendar = "\uFEFFBEGIN:VCALENDAR\r\n"
+                + "VERSION:2.0\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "UID:1@example.com\r\n"
+                + "DTSTART;TZID=Europe/Prague:20150101T100000\r\n"
+                + "DURATION:PT1H30M\r\n"
+                + "SUMMARY:Folded\r\n"
+                + "  summary\r\n"
+                + "DESCRIPTION:First\\nSecond\\, \\;third\r\n"
+                + "RRULE:FREQ=DAILY;UNTIL=20150110T090000Z\r\n"
+                + "EXDATE;TZID=Europe/Prague:20150102T100000,20150103T100000\r\n"
+                + "ATTENDEE;CN=\"Novak; Jan\";ROLE=REQ-PARTICIPANT:MAILTO:novak@example.com\r\n"
+                + "ATTENDEE:mailto:svoboda@example.com\r\n"
+                + "ATTENDEE:mailto:NOVAK@example.com\r\n"
+                + "BEGIN:VALARM\r\n"
+                + "ACTION:DISPLAY\r\n"
+                + "DESCRIPTION:Reminder\r\n"
+                + "END:VALARM\r\n"
+                + "END:VEVENT\r\n"
+                + "BEGIN:VEVENT\r\n"
+                + "DTSTART;VALUE=DATE:20150105\r\n"
+                + "ATTENDEE;CN=Svoboda:mailto:svoboda@example.com\r\n"
+                + "END:VEVENT\r\n"
+                + "END:VCALENDAR\r\n";
+        Person existing = newPerson("Svoboda", "Svoboda@example.com", null);
+        personManager.createPerson(existing);
+
+        ICalendarImporter.Result result = importer.importCalendar(new StringReader(calendar));
+        assertEquals(2, result.getEventCount());
+        assertEquals(1, result.getPersonCount());
+        assertEquals(3, result.getAttendanceCount());
+        assertEquals(0, result.getFailedCount());
+
+        Event folded = findByName("Folded summary");
+        TimeZone prague = TimeZone.getTimeZone("Europe/Prague");
+        assertEquals(date(prague, 2015, 1, 1, 10), folded.getStartDate());
+        assertEquals(new Date(folded.getStartDate().getTime() + 90 * 60000L), folded.getEndDate());
+        assertEquals("First\nSecond, ;third", folded.getNote());
+        RecurrenceRule rule = folded.getRecurrence();
+        assertEquals(RecurrenceRule.Frequency.DAILY, rule.getFrequency());
+        assertEquals(date(TimeZone.getTimeZone("UTC"), 2015, 1, 10, 9), rule.getUntil());
+        assertEquals(2, rule.getExceptions().size());
+        assertTrue(rule.getExceptions().contains(date(prague, 2015, 1, 3, 10)));
+
+        // Attendees are matched by email ignoring case
+        List<Attendance> attendances = attendanceManager.findAttendancesForEvent(folded);
+        assertEquals(2, attendances.size());
+        assertEquals(2, personManager.findAllPersons().size());
+        Person novak = null;
+        for (Attendance attendance : attendances) {
+            if (!attendance.getPerson().equals(existing)) {
+                novak = attendance.getPerson();
+            }
+        }
+        assertEquals("Novak; Jan", novak.getName());
+        assertEquals("novak@example.com", novak.getEmail());
+
+        Event allDay = findByName("");
+        assertEquals(date(TimeZone.getDefault(), 2015, 1, 5, 0), allDay.getStartDate());
+        assertEquals(date(TimeZone.getDefault(), 2015, 1, 6, 0), allDay.getEndDate());
+        assertEquals(existing, attendanceManager.findAttendancesForEvent(allDay).get(0).getPerson());
+    }
+
+    @Test
+    public void importMonthlySeriesAtMonthEnd() throws IOException {
+        String calendar = "BEGIN:VCALENDAR\r\n"
+                + vevent("On 30th", "DTSTART:20150130T100000", "DTEND:20150130T110000",
+                        "RRULE:FREQ=MONTHLY;BYMONTHDAY=30,-1;BYSETPOS=1;COUNT=3")
+                + vevent("Last day", "DTSTART:20150130T100000", "DTEND:20150130T110000",
+                        "RRULE:FREQ=MONTHLY;BYMONTHDAY=-1")
+                + vevent("On 15th", "DTSTART:20150130T100000", "DTEND:20150130T110000",
+                        "RRULE:FREQ=MONTHLY;BYMONTHDAY=15")
+                + "END:VCALENDAR\r\n";
+        ICalendarImporter.Result result = importer.importCalendar(new StringReader(calendar));
+        // Only the form selecting the start day or the last day of shorter 
+        // months matches the expansion
+        assertEquals(1, result.getEventCount());
+        assertEquals(2, result.getFailedCount());
+        Event series = findByName("On 30th");
+        assertEquals(RecurrenceRule.Frequency.MONTHLY, series.getRecurrence().getFrequency());
+        assertEquals(Integer.valueOf(3), series.getRecurrence().getCount());
+        List<Event> occurrences = Occurrences.expand(series, series.getStartDate().getTime(), 
+                date(TimeZone.getDefault(), 2015, 3, 31, 0).getTime());
+        assertEquals(date(TimeZone.getDefault(), 2015, 2, 28, 10), occurrences.get(1).getStartDate());
+        assertEquals(date(TimeZone.getDefault(), 2015, 3, 30, 10), occurrences.get(2).getStartDate());
+    }
+
+    @Test
+    public void importInvalidEvents() throws IOException {
+        String calendar = "BEGIN:VCALENDAR\r\n"
+                + vevent("Valid", "DTSTART:20150101T100000Z", "DTEND:20150101T110000Z")
+                + vevent("No start", "DTEND:20150101T110000Z")
+                + vevent("No end", "DTSTART:20150101T100000Z")
+                + vevent("Wrong end", "DTSTART:20150101T100000Z", "DTEND:20150101T090000Z")
+                + vevent("Wrong date", "DTSTART:2015-01-01", "DTEND:20150101T110000Z")
+                + vevent("Yearly", "DTSTART:20150101T100000Z", "DTEND:20150101T110000Z",
+                        "RRULE:FREQ=YEARLY")
+                + vevent("By day", "DTSTART:20150101T100000Z", "DTEND:20150101T110000Z",
+                        "RRULE:FREQ=WEEKLY;BYDAY=MO,TU")
+                + vevent("Count and until", "DTSTART:20150101T100000Z", "DTEND:20150101T110000Z",
+                        "RRULE:FREQ=DAILY;COUNT=2;UNTIL=20150110T000000Z")
+                + "malformed line\r\n"
+                + vevent("Also valid", "DTSTART:20150101T100000Z", "DTEND:20150101T110000Z",
+                        "RRULE:FREQ=MONTHLY;INTERVAL=3;COUNT=4;WKST=MO")
+                + "END:VCALENDAR\r\n";
+        importer.setChunkSize(2);
+        ICalendarImporter.Result result = importer.importCalendar(new StringReader(calendar));
+        assertEquals(2, result.getEventCount());
+        assertEquals(7, result.getFailedCount());
+        assertEquals(7, result.getErrors().size());
+        assertTrue(result.getErrors().get(0).startsWith("VEVENT at line 8 (No start@example.com)"));
+        assertEquals(2, eventManager.findAllEvents().size());
+        assertEquals(3, findByName("Also valid").getRecurrence().getInterval());
+    }
+
+    @Test
+    public void importEmptyCalendar() throws IOException {
+        ICalendarImporter.Result result = importer.importCalendar(
+                new StringReader("BEGIN:VCALENDAR\r\nEND:VCALENDAR\r\n"));
+        assertEquals(0, result.getEventCount());
+        assertEquals(0, result.getFailedCount());
+        assertTrue(eventManager.findAllEvents().isEmpty());
+    }
+
+    @Test
+    public void importWithWrongAttributes() throws IOException {
+        try {
+            new ICalendarImporter(personManager, null, attendanceManager);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            importer.importCalendar((InputStream) null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            importer.setChunkSize(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+    }
+
+    private Event findCopy(Event original) {
+        for (Event event : eventManager.findAllEvents()) {
+            if (!event.getId().equals(original.getId()) && event.getName().equals(original.getName())
+                    && event.getStartDate().equals(original.getStartDate())) {
+                return event;
+            }
+        }
+        fail("Copy of " + original + " not found");
+        return null;
+    }
+
+    private Event findByName(String name) {
+        for (Event event : eventManager.findAllEvents()) {
+            if (event.getName().equals(name)) {
+                return event;
+            }
+        }
+        fail("Event " + name + " not found");
+        return null;
+    }
+
+    private static String vevent(String name, String... lines) {
+        StringBuilder result = new StringBuilder("BEGIN:VEVENT\r\n")
+                .append("UID:").append(name).append("@example.com\r\n")
+                .append("SUMMARY:").append(name).append("\r\n");
+        for (String line : lines) {
+            result.append(line).append("\r\n");
+        }
+        return result.append("END:VEVENT\r\n").toString();
+    }
+
+    private static Date date(TimeZone zone, int year, int month, int day, int hour) {
+        Calendar calendar = Calendar.getInstance(zone);
+        calendar.clear();
+        calendar.set(year, month - 1, day, hour, 0);
+        return calendar.getTime();
+    }
+}
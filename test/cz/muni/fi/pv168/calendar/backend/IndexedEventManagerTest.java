@@ -0,0 +1,272 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static cz.muni.fi.pv168.calendar.backend.EventManagerImplTest.assertEventCollectionDeepEquals;
+import static cz.muni.fi.pv168.calendar.backend.EventManagerImplTest.newEvent;
+
+/**
+ * Test class of IndexedEventManager.
+ *
+ * @author Jiri Stary
+ */
+public class IndexedEventManagerTest {
+    
+    private PausingEventManager eventManager;
+    private IndexedEventManager manager;
+    private DataSource ds;
+    private final AtomicReference<Throwable> threadError = new AtomicReference<Throwable>();
+    
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:indexedeventmgr-test;create=true");
+        return ds;
+    }
+    
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds,EventManager.class.getResource("createTables.sql"));
+        eventManager = new PausingEventManager();
+        eventManager.setDataSource(ds);
+        manager = new IndexedEventManager(eventManager);
+    }
+    
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds,EventManager.class.getResource("dropTables.sql"));
+    }
+    
+    @Test
+    public void testFindEventsByDateWarmsUpFromDatabase() {
+        Event e1 = newEvent("First", 0L, 14L);
+        Event e2 = newEvent("Second", 1L, 8L);
+        Event e3 = newEvent("Third", 13L, 16L);
+        eventManager.createEvent(e1);
+        eventManager.createEvent(e2);
+        eventManager.createEvent(e3);
+        
+        assertEventCollectionDeepEquals(Arrays.asList(e1, e3), 
+                manager.findEventsByDate(new Date(10L), new Date(13L)));
+    }
+    
+    @Test
+    public void testIndexFollowsWrites() {
+        manager.warmUp();
+        Event e1 = newEvent("First", 0L, 14L);
+        Event e2 = newEvent("Second", 20L, 30L);
+        manager.createEvent(e1);
+        manager.createEvents(Arrays.asList(e2));
+        assertEventCollectionDeepEquals(Arrays.asList(e1), 
+                manager.findEventsByDate(new Date(10L), new Date(13L)));
+        
+        e2.setStartDate(new Date(12L));
+        manager.updateEvent(e2);
+        assertEventCollectionDeepEquals(Arrays.asList(e1, e2), 
+                manager.findEventsByDate(new Date(10L), new Date(13L)));
+        
+        manager.deleteEvent(e1);
+        assertEventCollectionDeepEquals(Arrays.asList(e2), 
+                manager.findEventsByDate(new Date(10L), new Date(13L)));
+        assertEventCollectionDeepEquals(Arrays.asList(e2), manager.findAllEvents());
+        
+        manager.deleteEvents(Arrays.asList(e2));
+        assertTrue(manager.findEventsByDate(new Date(10L), new Date(13L)).isEmpty());
+        assertTrue(manager.findAllEvents().isEmpty());
+    }
+    
+    @Test
+    public void testReturnedEventsDoNotChangeIndex() {
+        Event event = newEvent("First", 0L, 14L);
+        manager.createEvent(event);
+        
+        manager.findEventsByDate(new Date(0L), new Date(20L)).get(0).setEndDate(new Date(100L));
+        assertTrue(manager.findEventsByDate(new Date(50L), new Date(60L)).isEmpty());
+    }
+    
+    @Test
+    public void testRecurringEventsMatchDatabase() {
+        Random random = new Random(7);
+        RecurrenceRule.Frequency[] frequencies = RecurrenceRule.Frequency.values();
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 30; i++) {
+            long start = random.nextInt(100) * 3600000L;
+            Event event = newEvent("Series " + i, start, start + 1 + random.nextInt(7200000));
+            RecurrenceRule rule = new RecurrenceRule();
+            rule.setFrequency(frequencies[i % frequencies.length]);
+            rule.setInterval(1 + random.nextInt(3));
+            if (i % 3 == 0) {
+                rule.setCount(1 + random.nextInt(20));
+            } else if (i % 3 == 1) {
+                rule.setUntil(new Date(start + random.nextInt(1000) * 3600000L));
+            }
+            event.setRecurrence(rule);
+            events.add(event);
+        }
+        eventManager.createEvents(events);
+        manager.warmUp();
+        
+        for (int i = 0; i < 30; i++) {
+            Date from = new Date(random.nextInt(2000) * 3600000L);
+            Date to = new Date(from.getTime() + random.nextInt(500) * 3600000L);
+            assertEventCollectionDeepEquals(eventManager.findEventsByDate(from, to),
+                    manager.findEventsByDate(from, to));
+            assertEventCollectionDeepEquals(findEventSeries(eventManager, from, to),
+                    findEventSeries(manager, from, to));
+        }
+    }
+    
+    @Test
+    public void testFindEventsByDateMatchesDatabase() {
+        Random random = new Random(42);
+        List<Event> events = new ArrayList<Event>();
+        for (int i = 0; i < 300; i++) {
+            long start = random.nextInt(10000);
+            events.add(newEvent("Event " + i, start, start + 1 + random.nextInt(500)));
+        }
+        eventManager.createEvents(events);
+        for (int i = 0; i < 100; i += 3) {
+            manager.deleteEvent(events.get(i));
+        }
+        
+        for (int i = 0; i < 50; i++) {
+            Date from = new Date(random.nextInt(11000) - 500);
+            Date to = new Date(from.getTime() + random.nextInt(1000));
+            assertEventCollectionDeepEquals(eventManager.findEventsByDate(from, to), 
+                    manager.findEventsByDate(from, to));
+        }
+    }
+    
+    @Test
+    public void testWritesDuringFirstWarmUpAreIndexed() throws Exception {
+        Event deleted = newEvent("Deleted", 0L, 14L);
+        eventManager.createEvent(deleted);
+        
+        // Warm-up has read all events and waits
+        eventManager.pauseIn = "findAllEvents";
+        Thread warmUp = start(new Runnable() {
+            @Override
+            public void run() {
+                manager.warmUp();
+            }
+        });
+        eventManager.paused.await();
+        eventManager.pauseIn = null;
+        Event created = newEvent("Created", 1L, 8L);
+        manager.createEvent(created);
+        manager.deleteEvent(deleted);
+        eventManager.resume.countDown();
+        join(warmUp);
+        
+        assertEventCollectionDeepEquals(Arrays.asList(created), 
+                manager.findEventsByDate(new Date(0L), new Date(20L)));
+    }
+    
+    @Test
+    public void testCreateSeenByConcurrentWarmUpIsIndexedOnce() throws Exception {
+        manager.warmUp();
+        
+        // Create has committed the event and waits before indexing it
+        eventManager.pauseIn = "createEvent";
+        final Event created = newEvent("Created", 1L, 8L);
+        Thread create = start(new Runnable() {
+            @Override
+            public void run() {
+                manager.createEvent(created);
+            }
+        });
+        eventManager.paused.await();
+        eventManager.pauseIn = null;
+        manager.warmUp();
+        eventManager.resume.countDown();
+        join(create);
+        
+        assertEventCollectionDeepEquals(Arrays.asList(created), 
+                manager.findEventsByDate(new Date(0L), new Date(20L)));
+        assertEquals(1, manager.findAllEvents().size());
+    }
+    
+    private Thread start(final Runnable runnable) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Throwable ex) {
+                    threadError.set(ex);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+    
+    private void join(Thread thread) throws Exception {
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        if (threadError.get() != null) {
+            throw new AssertionError(threadError.get());
+        }
+    }
+    
+    /**
+     * Manager which stops in the named method after its database work until 
+     * the test lets it go on.
+     */
+    private static class PausingEventManager extends EventManagerImpl {
+        
+        final CountDownLatch paused = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        volatile String pauseIn;
+        
+        @Override
+        public List<Event> findAllEvents() {
+            List<Event> result = super.findAllEvents();
+            pause("findAllEvents");
+            return result;
+        }
+        
+        @Override
+        public void createEvent(Event event) {
+            super.createEvent(event);
+            pause("createEvent");
+        }
+        
+        private void pause(String method) {
+            if (method.equals(pauseIn)) {
+                paused.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+    
+    private static List<Event> findEventSeries(EventManager manager, Date from, Date to) {
+        final List<Event> result = new ArrayList<Event>();
+        manager.findEventSeriesByDate(from, to, new ResultHandler<Event>() {
+            @Override
+            public boolean handle(Event event) {
+                return result.add(event);
+            }
+        });
+        return result;
+    }
+}
@@ -0,0 +1,165 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class of Occurrences.
+ *
+ * @author Jiri Stary
+ */
+public class OccurrencesTest {
+    
+    private static final long HOUR = 60 * 60 * 1000L;
+    
+    @Test
+    public void testMonthlyOccurrencesAreMovedToLastDayOfMonth() {
+        Event event = newSeries(date(2013, Calendar.JANUARY, 31), RecurrenceRule.Frequency.MONTHLY);
+        
+        List<Event> occurrences = Occurrences.expand(event, 
+                date(2013, Calendar.FEBRUARY, 1).getTime(), date(2013, Calendar.APRIL, 30).getTime());
+        assertEquals(3, occurrences.size());
+        assertEquals(date(2013, Calendar.FEBRUARY, 28), occurrences.get(0).getStartDate());
+        assertEquals(date(2013, Calendar.MARCH, 31), occurrences.get(1).getStartDate());
+        assertEquals(date(2013, Calendar.APRIL, 30), occurrences.get(2).getStartDate());
+    }
+    
+    @Test
+    public void testExpansionStartsInRange() {
+        Event event = newSeries(date(1900, Calendar.JANUARY, 1), RecurrenceRule.Frequency.DAILY);
+        
+        // Occurrences before the range are not visited
+        final List<Event> occurrences = new ArrayList<Event>();
+        Occurrences.expand(event, date(2100, Calendar.JANUARY, 1).getTime(), 
+                date(2100, Calendar.JANUARY, 3).getTime(), new ResultHandler<Event>() {
+            @Override
+            public boolean handle(Event occurrence) {
+                occurrences.add(occurrence);
+                return true;
+            }
+        });
+        assertEquals(3, occurrences.size());
+        assertEquals(date(2100, Calendar.JANUARY, 1), occurrences.get(0).getStartDate());
+        
+        // Occurrence which started before the range and ends in it is included
+        occurrences.clear();
+        occurrences.addAll(Occurrences.expand(event, date(2100, Calendar.JANUARY, 1).getTime() + HOUR / 2, 
+                date(2100, Calendar.JANUARY, 1).getTime() + HOUR / 2));
+        assertEquals(1, occurrences.size());
+        assertEquals(date(2100, Calendar.JANUARY, 1), occurrences.get(0).getStartDate());
+    }
+    
+    @Test
+    public void testSeriesEnd() {
+        Event event = newSeries(date(2013, Calendar.JANUARY, 1), RecurrenceRule.Frequency.WEEKLY);
+        assertEquals(Occurrences.UNBOUNDED, Occurrences.seriesEnd(event));
+        
+        event.getRecurrence().setCount(3);
+        assertEquals(date(2013, Calendar.JANUARY, 15).getTime() + HOUR, Occurrences.seriesEnd(event));
+        
+        event.getRecurrence().setCount(null);
+        event.getRecurrence().setUntil(date(2013, Calendar.JANUARY, 14));
+        assertEquals(date(2013, Calendar.JANUARY, 8).getTime() + HOUR, Occurrences.seriesEnd(event));
+        event.getRecurrence().setUntil(date(2013, Calendar.JANUARY, 15));
+        assertEquals(date(2013, Calendar.JANUARY, 15).getTime() + HOUR, Occurrences.seriesEnd(event));
+        
+        event.setRecurrence(null);
+        assertEquals(event.getEndDate().getTime(), Occurrences.seriesEnd(event));
+    }
+    
+    @Test
+    public void testOverlap() {
+        Event monday = newSeries(date(2013, Calendar.APRIL, 1), RecurrenceRule.Frequency.WEEKLY);
+        Event tuesday = newSeries(date(2013, Calendar.APRIL, 2), RecurrenceRule.Frequency.WEEKLY);
+        assertFalse(Occurrences.overlap(monday, tuesday));
+        
+        Event daily = newSeries(date(2013, Calendar.APRIL, 20), RecurrenceRule.Frequency.DAILY);
+        assertTrue(Occurrences.overlap(monday, daily));
+        assertTrue(Occurrences.overlap(daily, tuesday));
+        
+        // Single event touching an occurrence does not overlap it
+        Event single = newSeries(new Date(date(2013, Calendar.APRIL, 8).getTime() + HOUR), null);
+        single.setRecurrence(null);
+        assertFalse(Occurrences.overlap(monday, single));
+        single.setStartDate(new Date(single.getStartDate().getTime() - 1));
+        assertTrue(Occurrences.overlap(single, monday));
+        
+        daily.getRecurrence().getExceptions().add(single.getStartDate());
+        daily.getRecurrence().setInterval(7);
+        daily.setStartDate(single.getStartDate());
+        daily.setEndDate(single.getEndDate());
+        assertFalse(Occurrences.overlap(single, daily));
+    }
+    
+    @Test
+    public void testOverlapAfterMoreThanYear() {
+        Event every7Weeks = newSeries(date(2013, Calendar.APRIL, 1), RecurrenceRule.Frequency.WEEKLY);
+        every7Weeks.getRecurrence().setInterval(7);
+        Event every11Weeks = newSeries(weeksLater(every7Weeks.getStartDate(), 11), RecurrenceRule.Frequency.WEEKLY);
+        every11Weeks.getRecurrence().setInterval(11);
+        // The series first meet in week 77, 66 weeks after the later start
+        assertEquals(77 * 7 * 24 * HOUR, Occurrences.commonPeriod(every7Weeks, every11Weeks));
+        assertTrue(Occurrences.overlap(every7Weeks, every11Weeks));
+        assertTrue(Occurrences.overlap(every11Weeks, every7Weeks));
+        
+        // Next meeting after skipped one is found as well
+        every7Weeks.getRecurrence().getExceptions().add(weeksLater(every7Weeks.getStartDate(), 77));
+        assertTrue(Occurrences.overlap(every7Weeks, every11Weeks));
+        
+        every11Weeks.setStartDate(new Date(every11Weeks.getStartDate().getTime() + 24 * HOUR));
+        every11Weeks.setEndDate(new Date(every11Weeks.getEndDate().getTime() + 24 * HOUR));
+        assertFalse(Occurrences.overlap(every7Weeks, every11Weeks));
+        
+        // Monthly and daily series have no common period of constant length
+        Event monthly = newSeries(date(2013, Calendar.APRIL, 1), RecurrenceRule.Frequency.MONTHLY);
+        assertEquals(Occurrences.MAX_OVERLAP_PERIOD, Occurrences.commonPeriod(monthly, every7Weeks));
+    }
+    
+    @Test
+    public void testOverlapOfMonthlySeriesAtShorterMonthEnd() {
+        // Both series are moved to February 28 in a year which is not leap
+        Event on31st = newSeries(date(2025, Calendar.MARCH, 31), RecurrenceRule.Frequency.MONTHLY);
+        Event on29th = newSeries(date(2025, Calendar.MARCH, 29), RecurrenceRule.Frequency.MONTHLY);
+        assertEquals(1, Occurrences.expand(on31st, date(2026, Calendar.FEBRUARY, 28).getTime(), 
+                date(2026, Calendar.FEBRUARY, 28).getTime() + HOUR).size());
+        assertEquals(1, Occurrences.expand(on29th, date(2026, Calendar.FEBRUARY, 28).getTime(), 
+                date(2026, Calendar.FEBRUARY, 28).getTime() + HOUR).size());
+        assertTrue(Occurrences.overlap(on31st, on29th));
+        assertTrue(Occurrences.overlap(on29th, on31st));
+        
+        Event on1st = newSeries(date(2025, Calendar.APRIL, 1), RecurrenceRule.Frequency.MONTHLY);
+        assertFalse(Occurrences.overlap(on1st, on31st));
+        assertEquals(31 * 24 * HOUR, Occurrences.commonPeriod(on1st, newSeries(date(2025, Calendar.APRIL, 2), 
+                RecurrenceRule.Frequency.MONTHLY)));
+    }
+    
+    private static Event newSeries(Date start, RecurrenceRule.Frequency frequency) {
+        Event event = new Event();
+        event.setId(1);
+        event.setName("Series");
+        event.setStartDate(start);
+        event.setEndDate(new Date(start.getTime() + HOUR));
+        RecurrenceRule rule = new RecurrenceRule();
+        rule.setFrequency(frequency);
+        event.setRecurrence(rule);
+        return event;
+    }
+    
+    private static Date weeksLater(Date date, int weeks) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        cal.add(Calendar.WEEK_OF_YEAR, weeks);
+        return cal.getTime();
+    }
+    
+    private static Date date(int year, int month, int day) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(year, month, day, 10, 0);
+        return cal.getTime();
+    }
+}
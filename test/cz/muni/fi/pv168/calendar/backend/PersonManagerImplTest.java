@@ -3,11 +3,14 @@ package cz.muni.fi.pv168.calendar.backend;
 import cz.muni.fi.pv168.calendar.backend.Person;
 import cz.muni.fi.pv168.calendar.backend.PersonManagerImpl;
 import cz.muni.fi.pv168.calendar.backend.PersonManager;
+import cz.muni.fi.pv168.common.IllegalEntityException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import javax.sql.DataSource;
 import org.apache.commons.dbcp.BasicDataSource;
 import org.junit.After;
@@ -106,6 +109,46 @@ public class PersonManagerImplTest {
         
     }
     
+    @Test
+    public void createPersons() {
+        manager.setBatchSize(2);
+        List<Person> persons = Arrays.asList(
+                newPerson("Jara Cimrman", "cimr@gmail.com", "Poznamka"),
+                newPerson("Jan Novak", "novak@gmail.com", null),
+                newPerson("Petr Svoboda", "svoboda@gmail.com", null));
+        manager.createPersons(persons);
+        
+        for (Person person : persons) {
+            assertNotNull(person.getId());
+            assertPersonDeepEquals(person, manager.getPersonById(person.getId()));
+        }
+        assertEquals(3, manager.findAllPersons().size());
+        manager.createPersons(Collections.<Person>emptyList());
+        assertEquals(3, manager.findAllPersons().size());
+    }
+    
+    @Test
+    public void createPersonsWithWrongAttributes() {
+        try {
+            manager.createPersons(null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        //Invalid person stops the whole batch
+        List<Person> persons = Arrays.asList(
+                newPerson("Jara Cimrman", "cimr@gmail.com", null),
+                newPerson(null, "email", null));
+        try {
+            manager.createPersons(persons);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        assertNull(persons.get(0).getId());
+        assertTrue(manager.findAllPersons().isEmpty());
+    }
+    
     @Test
     public void updatePerson() {
         Person person = newPerson("First Name", "first email", "first note");
@@ -318,6 +361,138 @@ public class PersonManagerImplTest {
     }
     
     
+    @Test
+    public void findPersonsPage() {
+        
+        assertTrue(manager.findPersonsPage(null, 2).isEmpty());
+        
+        Person person1 = newPerson("First Name", "first email", "first note");
+        Person person2 = newPerson("Second Name", "second email", "second note");
+        Person person3 = newPerson("Third Name", "third email", null);
+        manager.createPerson(person1);
+        manager.createPerson(person2);
+        manager.createPerson(person3);
+        
+        List<Person> page = manager.findPersonsPage(null, 2);
+        assertEquals(Arrays.asList(person1, person2), page);
+        assertPersonCollectionDeepEquals(Arrays.asList(person1, person2), page);
+        
+        page = manager.findPersonsPage(page.get(page.size() - 1).getId(), 2);
+        assertEquals(Arrays.asList(person3), page);
+        assertPersonDeepEquals(person3, page.get(0));
+        
+        assertTrue(manager.findPersonsPage(person3.getId(), 2).isEmpty());
+    }
+    
+    @Test (expected = IllegalArgumentException.class)
+    public void findPersonsPageWithWrongPageSize() {
+        manager.findPersonsPage(null, 0);
+    }
+    
+    @Test
+    public void findPersonByEmail() {
+        
+        Person person1 = newPerson("First Name", "first@example.com", "first note");
+        Person person2 = newPerson("Second Name", "second@example.com", null);
+        manager.createPerson(person1);
+        manager.createPerson(person2);
+        
+        assertPersonDeepEquals(person2, manager.findPersonByEmail("second@example.com"));
+        assertNull(manager.findPersonByEmail("third@example.com"));
+        // Emails are compared exactly
+        assertNull(manager.findPersonByEmail("FIRST@example.com"));
+    }
+    
+    @Test (expected = IllegalArgumentException.class)
+    public void findPersonByNullEmail() {
+        manager.findPersonByEmail(null);
+    }
+    
+    @Test
+    public void findPersonsByEmails() {
+        
+        assertTrue(manager.findPersonsByEmails(Collections.<String>emptyList()).isEmpty());
+        
+        // More emails than fit to one query
+        List<Person> persons = new ArrayList<Person>();
+        List<String> emails = new ArrayList<String>();
+        for (int i = 0; i < 1200; i++) {
+            persons.add(newPerson("Name " + i, "person" + i + "@example.com", null));
+            emails.add("person" + i + "@example.com");
+        }
+        manager.createPersons(persons);
+        emails.add("missing@example.com");
+        emails.add("person0@example.com");
+        
+        Map<String, Person> found = manager.findPersonsByEmails(emails);
+        assertEquals(persons.size(), found.size());
+        for (Person person : persons) {
+            assertPersonDeepEquals(person, found.get(person.getEmail()));
+        }
+    }
+    
+    @Test
+    public void findPersonsByEmailsWithWrongAttributes() {
+        
+        try {
+            manager.findPersonsByEmails(null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        
+        try {
+            manager.findPersonsByEmails(Arrays.asList("first@example.com", null));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+    }
+    
+    @Test
+    public void createPersonWithDuplicateEmail() {
+        
+        Person person1 = newPerson("First Name", "same@example.com", null);
+        manager.createPerson(person1);
+        
+        Person person2 = newPerson("Second Name", "same@example.com", null);
+        try {
+            manager.createPerson(person2);
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+        
+        try {
+            manager.createPersons(Arrays.asList(
+                    newPerson("Third Name", "third@example.com", null),
+                    newPerson("Fourth Name", "same@example.com", null)));
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+        // Nothing of the failed batch is stored
+        assertEquals(Arrays.asList(person1), manager.findAllPersons());
+    }
+    
+    @Test
+    public void updatePersonWithDuplicateEmail() {
+        
+        Person person1 = newPerson("First Name", "first@example.com", null);
+        Person person2 = newPerson("Second Name", "second@example.com", null);
+        manager.createPerson(person1);
+        manager.createPerson(person2);
+        
+        person2.setEmail("first@example.com");
+        try {
+            manager.updatePerson(person2);
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+        assertEquals("second@example.com", manager.getPersonById(person2.getId()).getEmail());
+    }
+    
     public static Person newPerson(String name, String email, String note) {
         Person person = new Person();
         person.setName(name);
@@ -348,4 +523,4 @@ public class PersonManagerImplTest {
             return Long.valueOf(o1.getId()).compareTo(Long.valueOf(o2.getId()));
         }
     };
-}
\ No newline at end of file
+}
\ No newline at end of file
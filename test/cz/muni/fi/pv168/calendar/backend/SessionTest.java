@@ -0,0 +1,254 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import cz.muni.fi.pv168.common.IllegalEntityException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static cz.muni.fi.pv168.calendar.backend.PersonManagerImplTest.newPerson;
+import static cz.muni.fi.pv168.calendar.backend.EventManagerImplTest.newEvent;
+import static cz.muni.fi.pv168.calendar.backend.AttendanceManagerImplTest.newAttendance;
+
+/**
+ *
+ * @author Jiri Stary
+ */
+public class SessionTest {
+
+    private PersonManagerImpl personManager;
+    private EventManagerImpl eventManager;
+    private AttendanceManagerImpl attendanceManager;
+    private Session session;
+    private DataSource ds;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:gravemgr-test;create=true");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds, AttendanceManager.class.getResource("createTables.sql"));
+        personManager = new PersonManagerImpl();
+        personManager.setDataSource(ds);
+        eventManager = new EventManagerImpl();
+        eventManager.setDataSource(ds);
+        attendanceManager = new AttendanceManagerImpl();
+        attendanceManager.setDataSource(ds);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        if (session != null) {
+            session.close();
+        }
+        DBUtils.executeSqlScript(ds, AttendanceManager.class.getResource("dropTables.sql"));
+    }
+
+    @Test
+    public void entitiesAreLoadedOnce() {
+        Person person1 = newPerson("First", "first@example.com", null);
+        Person person2 = newPerson("Second", "second@example.com", null);
+        personManager.createPerson(person1);
+        personManager.createPerson(person2);
+        Event event1 = newEvent("First", 100, 200);
+        Event event2 = newEvent("Second", 300, 400);
+        eventManager.createEvent(event1);
+        eventManager.createEvent(event2);
+        attendanceManager.createAttendance(newAttendance(event1, person1, event1.getStartDate()));
+        attendanceManager.createAttendance(newAttendance(event1, person2, event1.getStartDate()));
+        attendanceManager.createAttendance(newAttendance(event2, person1, event2.getStartDate()));
+
+        session = new Session(ds);
+        Event event = session.getEvent(event1.getId());
+        assertEquals(event1, event);
+        assertSame(event, session.getEvent(event1.getId()));
+        assertNull(session.getEvent(event2.getId() + 1000));
+
+        List<Attendance> ofEvent = session.findAttendancesForEvent(event1);
+        assertEquals(2, ofEvent.size());
+        for (Attendance attendance : ofEvent) {
+            assertSame(event, attendance.getEvent());
+        }
+        List<Attendance> ofPerson = session.findAttendancesForPerson(person1);
+        assertEquals(2, ofPerson.size());
+        assertSame(ofPerson.get(0).getPerson(), ofPerson.get(1).getPerson());
+        assertSame(ofPerson.get(0).getPerson(), session.getPerson(person1.getId()));
+
+        List<Attendance> all = session.findAttendancesForEvents(Arrays.asList(event1, event2));
+        assertEquals(3, all.size());
+        for (Attendance attendance : all) {
+            assertSame(attendance, session.getAttendance(attendance.getId()));
+            assertTrue(ofEvent.contains(attendance) || ofPerson.contains(attendance));
+        }
+    }
+
+    @Test
+    public void writesAreFlushedInOrder() {
+        session = new Session(ds);
+        Person person = newPerson("Person", "person@example.com", null);
+        Event event = newEvent("Event", 100, 200);
+        Attendance attendance = newAttendance(event, person, event.getStartDate());
+        // Attendance is registered before the entities it references
+        session.createAttendance(attendance);
+        session.createEvent(event);
+        session.createPerson(person);
+        session.createPerson(person);
+        assertNull(person.getId());
+
+        session.commit();
+        assertNotNull(person.getId());
+        assertNotNull(event.getId());
+        assertNotNull(attendance.getId());
+        assertSame(attendance, session.getAttendance(attendance.getId()));
+        assertSame(event, session.getEvent(event.getId()));
+
+        Attendance stored = attendanceManager.getAttendanceById(attendance.getId());
+        assertEquals(event, stored.getEvent());
+        assertEquals(person, stored.getPerson());
+        assertEquals(1, personManager.findAllPersons().size());
+
+        event.setName("Renamed");
+        session.updateEvent(event);
+        session.deleteAttendance(attendance);
+        assertNull(session.getAttendance(attendance.getId()));
+        session.commit();
+        assertEquals("Renamed", eventManager.getEventById(event.getId()).getName());
+        assertNull(attendanceManager.getAttendanceById(attendance.getId()));
+
+        session.deleteEvent(event);
+        session.deletePerson(person);
+        session.commit();
+        assertNull(eventManager.getEventById(event.getId()));
+        assertNull(personManager.getPersonById(person.getId()));
+    }
+
+    @Test
+    public void newEntityIsForgottenOnDelete() {
+        session = new Session(ds);
+        Event event = newEvent("Event", 100, 200);
+        session.createEvent(event);
+        session.updateEvent(event);
+        session.deleteEvent(event);
+        session.commit();
+        assertNull(event.getId());
+        assertTrue(eventManager.findAllEvents().isEmpty());
+    }
+
+    @Test
+    public void rollbackDiscardsWork() {
+        Event existing = newEvent("Existing", 100, 200);
+        eventManager.createEvent(existing);
+
+        session = new Session(ds);
+        Event event = newEvent("Event", 100, 200);
+        session.createEvent(event);
+        session.flush();
+        assertNotNull(event.getId());
+        Event loaded = session.getEvent(existing.getId());
+        loaded.setName("Renamed");
+        session.updateEvent(loaded);
+
+        session.rollback();
+        assertNull(event.getId());
+        assertNotSame(loaded, session.getEvent(existing.getId()));
+        session.commit();
+        session.close();
+        session = null;
+        assertEquals(Arrays.asList(existing), eventManager.findAllEvents());
+        assertEquals("Existing", eventManager.getEventById(existing.getId()).getName());
+    }
+
+    @Test
+    public void failedFlushRollsBack() {
+        Person stored = newPerson("Stored", "stored@example.com", null);
+        personManager.createPerson(stored);
+
+        session = new Session(ds);
+        Event event = newEvent("Event", 100, 200);
+        Person duplicate = newPerson("Duplicate", "stored@example.com", null);
+        session.createEvent(event);
+        session.createPerson(duplicate);
+        try {
+            session.flush();
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+        assertNull(duplicate.getId());
+        assertNull(event.getId());
+        session.commit();
+        assertTrue(eventManager.findAllEvents().isEmpty());
+    }
+
+    @Test
+    public void managersRunInsideSession() {
+        session = new Session(ds);
+        PersonManagerImpl sessionPersonManager = new PersonManagerImpl();
+        sessionPersonManager.setDataSource(session.getDataSource());
+        Person person = newPerson("Person", "person@example.com", null);
+        sessionPersonManager.createPerson(person);
+        try {
+            sessionPersonManager.createPerson(newPerson("Duplicate", "person@example.com", null));
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+        // The failed call undid only its own changes
+        assertEquals(person, sessionPersonManager.getPersonById(person.getId()));
+        session.rollback();
+        assertNull(sessionPersonManager.getPersonById(person.getId()));
+
+        person.setId(null);
+        sessionPersonManager.createPerson(person);
+        session.commit();
+        session.close();
+        session = null;
+        assertEquals(person, personManager.getPersonById(person.getId()));
+    }
+
+    @Test
+    public void wrongUsage() {
+        Event event = newEvent("Event", 100, 200);
+        eventManager.createEvent(event);
+        session = new Session(ds);
+        try {
+            session.createEvent(event);
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+        session.deleteEvent(event);
+        try {
+            session.updateEvent(event);
+            fail();
+        } catch (IllegalEntityException ex) {
+            //OK
+        }
+        try {
+            session.getEvent(null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        session.close();
+        session.close();
+        try {
+            session.getEvent(event.getId());
+            fail();
+        } catch (IllegalStateException ex) {
+            //OK
+        }
+        session = null;
+        assertEquals(event, eventManager.getEventById(event.getId()));
+    }
+}
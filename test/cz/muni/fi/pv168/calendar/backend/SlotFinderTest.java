@@ -0,0 +1,144 @@
+package cz.muni.fi.pv168.calendar.backend;
+
+import cz.muni.fi.pv168.common.DBUtils;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import static cz.muni.fi.pv168.calendar.backend.PersonManagerImplTest.newPerson;
+
+/**
+ * Test class of SlotFinder.
+ *
+ * @author Jan Smerda
+ */
+public class SlotFinderTest {
+    
+    private static final long HOUR = 60 * 60 * 1000L;
+    
+    private EventManagerImpl eventManager;
+    private AttendanceManagerImpl attendanceManager;
+    private SlotFinder finder;
+    private Person alice, bob;
+    private DataSource ds;
+    
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:slotfinder-test;create=true");
+        return ds;
+    }
+    
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds,EventManager.class.getResource("createTables.sql"));
+        eventManager = new EventManagerImpl();
+        eventManager.setDataSource(ds);
+        PersonManagerImpl personManager = new PersonManagerImpl();
+        personManager.setDataSource(ds);
+        attendanceManager = new AttendanceManagerImpl();
+        attendanceManager.setDataSource(ds);
+        finder = new SlotFinder(attendanceManager);
+        
+        alice = newPerson("Alice", "alice@example.com", null);
+        bob = newPerson("Bob", "bob@example.com", null);
+        personManager.createPerson(alice);
+        personManager.createPerson(bob);
+    }
+    
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds,EventManager.class.getResource("dropTables.sql"));
+    }
+    
+    @Test
+    public void testFindEarliestSlot() {
+        attend(alice, at(1, 9), at(1, 10));
+        attend(bob, at(1, 9), at(1, 11));
+        attend(alice, at(1, 12), at(1, 13));
+        attend(bob, at(1, 14), at(1, 15));
+        List<Person> both = Arrays.asList(alice, bob);
+        
+        assertEquals(new TimeInterval(at(1, 11), at(1, 12)), 
+                finder.findEarliestSlot(both, HOUR, at(1, 9), at(1, 20)));
+        assertEquals(new TimeInterval(at(1, 15), at(1, 17)), 
+                finder.findEarliestSlot(both, 2 * HOUR, at(1, 8), at(1, 20)));
+        assertEquals(new TimeInterval(at(1, 8), at(1, 9)), 
+                finder.findEarliestSlot(Collections.singletonList(alice), HOUR, at(1, 8), at(1, 20)));
+        assertNull(finder.findEarliestSlot(both, 6 * HOUR, at(1, 8), at(1, 20)));
+    }
+    
+    @Test
+    public void testFindFreeSlotsInWorkingHours() {
+        finder.setWorkingHours(9 * 60, 17 * 60);
+        finder.setLimit(3);
+        attend(alice, at(1, 8), at(1, 16));
+        attend(bob, at(2, 9), at(2, 12));
+        
+        List<TimeInterval> slots = finder.findFreeSlots(Arrays.asList(alice, bob), 2 * HOUR, at(1, 0), at(10, 0));
+        assertEquals(Arrays.asList(new TimeInterval(at(2, 12), at(2, 14)), 
+                new TimeInterval(at(3, 9), at(3, 11)), 
+                new TimeInterval(at(4, 9), at(4, 11))), slots);
+        
+        // Slot may not cross end of working hours
+        finder.setLimit(1);
+        assertEquals(Arrays.asList(new TimeInterval(at(2, 9), at(2, 17))), 
+                finder.findFreeSlots(Arrays.asList(alice), 8 * HOUR, at(1, 0), at(10, 0)));
+        assertTrue(finder.findFreeSlots(Arrays.asList(alice), 9 * HOUR, at(1, 0), at(10, 0)).isEmpty());
+        
+        finder.clearWorkingHours();
+        assertEquals(Arrays.asList(new TimeInterval(at(1, 0), at(1, 8))), 
+                finder.findFreeSlots(Arrays.asList(alice), 8 * HOUR, at(1, 0), at(10, 0)));
+    }
+    
+    @Test
+    public void testWrongAttributes() {
+        try {
+            finder.findFreeSlots(Arrays.asList(alice), 0, at(1, 0), at(2, 0));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            finder.setWorkingHours(10 * 60, 9 * 60);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+        try {
+            finder.setLimit(0);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+    }
+    
+    private void attend(Person person, Date start, Date end) {
+        Event event = new Event();
+        event.setName("Busy");
+        event.setStartDate(start);
+        event.setEndDate(end);
+        eventManager.createEvent(event);
+        Attendance attendance = new Attendance();
+        attendance.setEvent(event);
+        attendance.setPerson(person);
+        attendanceManager.createAttendance(attendance);
+    }
+    
+    private static Date at(int day, int hour) {
+        Calendar cal = Calendar.getInstance();
+        cal.clear();
+        cal.set(2013, Calendar.APRIL, day, hour, 0);
+        return cal.getTime();
+    }
+}
@@ -0,0 +1,92 @@
+package cz.muni.fi.pv168.common;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class of IntIntHashMap.
+ *
+ * @author Jiri Stary
+ */
+public class IntIntHashMapTest {
+
+    @Test
+    public void putAndGet() {
+        IntIntHashMap map = new IntIntHashMap();
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.put(1, 10));
+        assertEquals(0, map.put(-5, 20));
+        assertEquals(0, map.put(0, 30));
+        assertEquals(10, map.put(1, 11));
+
+        assertEquals(3, map.size());
+        assertEquals(11, map.get(1));
+        assertEquals(20, map.get(-5));
+        assertEquals(30, map.get(0));
+        assertTrue(map.containsKey(0));
+        assertFalse(map.containsKey(2));
+        assertEquals(0, map.get(2));
+        assertEquals(-1, map.get(2, -1));
+        assertEquals(61, map.sum());
+        assertEquals("{-5=20, 0=30, 1=11}", map.toString());
+
+        int[] keys = map.keys();
+        Arrays.sort(keys);
+        assertArrayEquals(new int[] {-5, 0, 1}, keys);
+    }
+
+    @Test
+    public void add() {
+        IntIntHashMap map = new IntIntHashMap(1);
+        assertEquals(2, map.add(7, 2));
+        assertEquals(5, map.add(7, 3));
+        assertEquals(-1, map.add(8, -1));
+        assertEquals(5, map.get(7));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void growsLikeHashMap() {
+        IntIntHashMap map = new IntIntHashMap();
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            // Sequential keys as ids and random ones
+            int key = i % 2 == 0 ? i : random.nextInt();
+            map.put(key, i);
+            expected.put(key, i);
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+        }
+        assertEquals(expected.size(), map.keys().length);
+    }
+
+    @Test
+    public void equalsAndHashCode() {
+        IntIntHashMap map1 = new IntIntHashMap();
+        IntIntHashMap map2 = new IntIntHashMap(100);
+        map1.put(1, 2);
+        map1.put(3, 4);
+        map2.put(3, 4);
+        map2.put(1, 2);
+        assertEquals(map1, map2);
+        assertEquals(map1.hashCode(), map2.hashCode());
+
+        map2.put(1, 3);
+        assertFalse(map1.equals(map2));
+        map2.put(1, 2);
+        map2.put(5, 0);
+        assertFalse(map1.equals(map2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeExpectedSize() {
+        new IntIntHashMap(-1);
+    }
+}
@@ -0,0 +1,56 @@
+package cz.muni.fi.pv168.common;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class of LruCache.
+ *
+ * @author Jan Smerda
+ */
+public class LruCacheTest {
+    
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(2, 0);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        assertEquals("one", cache.get(1));
+        cache.put(3, "three");
+        
+        assertNull(cache.get(2));
+        assertEquals("one", cache.get(1));
+        assertEquals("three", cache.get(3));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+    
+    @Test
+    public void expiresEntries() throws InterruptedException {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(10, 1);
+        cache.put(1, "one");
+        Thread.sleep(5);
+        assertNull(cache.get(1));
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    public void doesNotPutAfterInvalidation() {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(10, 0);
+        long stamp = cache.getStamp();
+        cache.invalidate(1);
+        assertFalse(cache.putIfNotInvalidated(1, "stale", stamp));
+        assertNull(cache.get(1));
+        
+        stamp = cache.getStamp();
+        assertTrue(cache.putIfNotInvalidated(1, "fresh", stamp));
+        assertEquals("fresh", cache.get(1));
+    }
+    
+    @Test (expected = IllegalArgumentException.class)
+    public void wrongMaxSize() {
+        new LruCache<Integer, String>(0, 0);
+    }
+}
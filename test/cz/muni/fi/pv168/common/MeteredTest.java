@@ -0,0 +1,108 @@
+package cz.muni.fi.pv168.common;
+
+import cz.muni.fi.pv168.calendar.backend.Event;
+import cz.muni.fi.pv168.calendar.backend.EventManager;
+import cz.muni.fi.pv168.calendar.backend.EventManagerImpl;
+import java.sql.SQLException;
+import java.util.Date;
+import javax.sql.DataSource;
+import org.apache.commons.dbcp.BasicDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test class of Metered, InMemoryMetricsRegistry and LatencyHistogram.
+ *
+ * @author Jan Smerda
+ */
+public class MeteredTest {
+
+    private EventManager manager;
+    private InMemoryMetricsRegistry registry;
+    private DataSource ds;
+
+    private static DataSource prepareDataSource() throws SQLException {
+        BasicDataSource ds = new BasicDataSource();
+        //we will use in memory database
+        ds.setUrl("jdbc:derby:memory:metered-test;create=true");
+        return ds;
+    }
+
+    @Before
+    public void setUp() throws SQLException {
+        ds = prepareDataSource();
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("createTables.sql"));
+        registry = new InMemoryMetricsRegistry();
+        EventManagerImpl impl = new EventManagerImpl();
+        impl.setDataSource(Metered.dataSource(ds));
+        manager = Metered.manager(EventManager.class, impl, registry);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        DBUtils.executeSqlScript(ds, EventManager.class.getResource("dropTables.sql"));
+    }
+
+    @Test
+    public void callsAndErrorsAreCounted() {
+        Event event = new Event();
+        event.setName("Meeting");
+        event.setStartDate(new Date(10L));
+        event.setEndDate(new Date(20L));
+        manager.createEvent(event);
+        manager.getEventById(event.getId());
+        manager.getEventById(event.getId());
+
+        try {
+            manager.createEvent(null);
+            fail();
+        } catch (IllegalArgumentException ex) {
+            //OK
+        }
+
+        InMemoryMetricsRegistry.OperationMetrics create = registry.getOperation("EventManager.createEvent");
+        assertEquals(2, create.getCalls());
+        assertEquals(1, create.getErrors());
+        assertEquals(2, create.getLatency().getCount());
+
+        InMemoryMetricsRegistry.OperationMetrics get = registry.getOperation("EventManager.getEventById");
+        assertEquals(2, get.getCalls());
+        assertEquals(0, get.getErrors());
+        assertTrue(get.getConnectionAcquire().getMax() > 0);
+        assertTrue(get.getLatency().getMax() >= get.getExecution().getMax());
+    }
+
+    @Test
+    public void overloadedMethodsAreSeparateOperations() {
+        manager.findEventsByDate(new Date(0L), new Date(100L));
+        assertEquals(1, registry.getOperation("EventManager.findEventsByDate(Date,Date)").getCalls());
+        assertTrue(registry.report().contains("EventManager.findEventsByDate(Date,Date)"));
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000L, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500000L && p50 <= 500000L * 1.125);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990000L && p99 <= 1000000L);
+        assertEquals(1000000L, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void histogramBucketsContainTheirValues() {
+        for (long value : new long[] {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123456789L, Long.MAX_VALUE}) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(LatencyHistogram.upperBoundOf(bucket) >= value);
+            assertTrue(bucket == 0 || LatencyHistogram.upperBoundOf(bucket - 1) < value);
+        }
+    }
+}